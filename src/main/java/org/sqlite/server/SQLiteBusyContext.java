@@ -29,6 +29,7 @@ public class SQLiteBusyContext {
     protected final long startTime;
     protected final long timeoutTime;
     protected boolean onDbWriteLock;  // busy on
+    protected final SQLiteDbWriteRequest dbWriteRequest; // wait for the db writer
     
     public SQLiteBusyContext(long timeout) throws IllegalArgumentException {
         this(false, timeout);
@@ -42,6 +43,18 @@ public class SQLiteBusyContext {
         this(false, timeout, sleepable);
     }
     
+    /**Wait for the request completed by the db writer, and the request's timeout 
+     * is handled by the db writer.
+     * 
+     * @param dbWriteRequest the db write request
+     */
+    public SQLiteBusyContext(SQLiteDbWriteRequest dbWriteRequest) {
+        this.startTime = System.currentTimeMillis();
+        this.timeoutTime = Long.MAX_VALUE;
+        this.sleepable = false;
+        this.dbWriteRequest = dbWriteRequest;
+    }
+    
     public SQLiteBusyContext(boolean onDbWriteLock, long timeout, boolean sleepable) 
             throws IllegalArgumentException {
         if (timeout < 0L) {
@@ -51,6 +64,8 @@ public class SQLiteBusyContext {
         this.startTime = System.currentTimeMillis();
         this.timeoutTime = this.startTime + timeout;
         this.sleepable = sleepable;
+        this.onDbWriteLock = onDbWriteLock;
+        this.dbWriteRequest = null;
     }
     
     public boolean isCanceled() {
@@ -69,6 +84,14 @@ public class SQLiteBusyContext {
         this.onDbWriteLock = onDbWriteLock;
     }
     
+    public SQLiteDbWriteRequest getDbWriteRequest() {
+        return this.dbWriteRequest;
+    }
+    
+    public boolean isOnDbWriter() {
+        return (this.dbWriteRequest != null);
+    }
+    
     public long getStartTime() {
         return startTime;
     }
@@ -87,6 +110,9 @@ public class SQLiteBusyContext {
     }
     
     public boolean isReady() {
+        if (this.dbWriteRequest != null) {
+            return this.dbWriteRequest.isDone();
+        }
         if (this.sleepable) {
             long curMillis = System.currentTimeMillis();
             return (this.timeoutTime <= curMillis);
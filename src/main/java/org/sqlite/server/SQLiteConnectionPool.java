@@ -0,0 +1,140 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.sqlite.server.util.IoUtils;
+
+/**The pool of the pooled SQLite connections of a database. The most recently used
+ * connection is borrowed first, and the connection that has been idle for the idle
+ * timeout is evicted.
+ * 
+ * @author little-pan
+ * @since 2020-01-08
+ * 
+ */
+public class SQLiteConnectionPool implements AutoCloseable {
+    
+    protected final String dbName;
+    protected final int maxSize;
+    protected final long idleTimeout;
+    
+    private final Deque<SQLitePooledConnection> idles;
+    private boolean closed;
+    
+    public SQLiteConnectionPool(String dbName, int maxSize, long idleTimeout) {
+        this.dbName = dbName;
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+        this.idles = new ArrayDeque<>();
+    }
+    
+    public String getDbName() {
+        return this.dbName;
+    }
+    
+    /**Borrow a connection from this pool.
+     * 
+     * @return the pooled connection, or null if no idle connection
+     */
+    public SQLitePooledConnection borrow() {
+        evict();
+        
+        synchronized (this) {
+            if (this.closed) {
+                return null;
+            }
+            return this.idles.pollFirst();
+        }
+    }
+    
+    /**Return the connection into this pool.
+     * 
+     * @param pc the pooled connection
+     * @return true if the connection has been returned, false if this pool full or closed
+     */
+    public boolean release(SQLitePooledConnection pc) {
+        synchronized (this) {
+            if (this.closed || this.idles.size() >= this.maxSize) {
+                return false;
+            }
+            pc.setLastUsedTime(System.currentTimeMillis());
+            this.idles.offerFirst(pc);
+        }
+        
+        evict();
+        return true;
+    }
+    
+    public synchronized int getIdleCount() {
+        return this.idles.size();
+    }
+    
+    /**Close the connections that have been idle for the idle timeout.
+     */
+    public void evict() {
+        final long deadline = System.currentTimeMillis() - this.idleTimeout;
+        List<SQLitePooledConnection> evicts = null;
+        
+        synchronized (this) {
+            for (;;) {
+                SQLitePooledConnection pc = this.idles.peekLast();
+                if (pc == null || pc.getLastUsedTime() > deadline) {
+                    break;
+                }
+                this.idles.pollLast();
+                if (evicts == null) {
+                    evicts = new ArrayList<>();
+                }
+                evicts.add(pc);
+            }
+        }
+        
+        if (evicts != null) {
+            for (SQLitePooledConnection pc: evicts) {
+                IoUtils.close(pc);
+            }
+        }
+    }
+    
+    public boolean isClosed() {
+        return this.closed;
+    }
+    
+    @Override
+    public void close() {
+        List<SQLitePooledConnection> evicts;
+        synchronized (this) {
+            this.closed = true;
+            evicts = new ArrayList<>(this.idles);
+            this.idles.clear();
+        }
+        
+        for (SQLitePooledConnection pc: evicts) {
+            IoUtils.close(pc);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return this.dbName;
+    }
+
+}
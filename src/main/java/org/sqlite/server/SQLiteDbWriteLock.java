@@ -0,0 +1,131 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**The database write lock that hands over the lock to the next waiter in FIFO order
+ * when unlocked, so that only the next waiter should be woken up.
+ * 
+ * @author little-pan
+ * @since 2020-01-05
+ * 
+ */
+public class SQLiteDbWriteLock {
+    
+    protected final String dbName;
+    // The holder is a SQL context or a database writer
+    private Object holder;
+    private final Deque<Object> waiters;
+    
+    public SQLiteDbWriteLock(String dbName) {
+        this.dbName = dbName;
+        this.waiters = new ArrayDeque<>();
+    }
+    
+    public String getDbName() {
+        return this.dbName;
+    }
+    
+    /**Try to hold this lock, and the context is appended into the wait queue if failed.
+     * 
+     * @param context the SQL context
+     * @return true if the context holds this lock, otherwise false
+     */
+    public synchronized boolean tryLock(Object context) {
+        final Object holder = this.holder;
+        if (holder == context) {
+            return true;
+        }
+        
+        if (holder == null && this.waiters.isEmpty()) {
+            this.holder = context;
+            return true;
+        }
+        if (!this.waiters.contains(context)) {
+            this.waiters.offer(context);
+        }
+        
+        return false;
+    }
+    
+    /**Hold this lock, and wait for it until timeout.
+     * 
+     * @param context the SQL context
+     * @param timeout the wait timeout in millis
+     * @return true if the context holds this lock, false if timeout
+     * @throws InterruptedException if interrupted when waiting
+     */
+    public synchronized boolean lock(Object context, long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        
+        for (; !tryLock(context);) {
+            long rem = deadline - System.currentTimeMillis();
+            if (rem <= 0L) {
+                this.waiters.remove(context);
+                return false;
+            }
+            try {
+                wait(rem);
+            } catch (InterruptedException e) {
+                unlock(context);
+                throw e;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**Release this lock and hand it over to the next waiter, or remove the context
+     * from the wait queue if it doesn't hold this lock.
+     * 
+     * @param context the SQL context
+     * @return true if the context releases this lock, otherwise false
+     */
+    public synchronized boolean unlock(Object context) {
+        if (this.holder != context) {
+            this.waiters.remove(context);
+            return false;
+        }
+        
+        this.holder = this.waiters.poll();
+        if (this.holder != null) {
+            // Wake up the waiting database writer
+            notifyAll();
+        }
+        return true;
+    }
+    
+    public synchronized Object getHolder() {
+        return this.holder;
+    }
+    
+    public synchronized boolean canHold(Object context) {
+        final Object holder = this.holder;
+        return (holder == context || (holder == null && this.waiters.isEmpty()));
+    }
+    
+    public synchronized int getWaitCount() {
+        return this.waiters.size();
+    }
+    
+    @Override
+    public String toString() {
+        return this.dbName;
+    }
+
+}
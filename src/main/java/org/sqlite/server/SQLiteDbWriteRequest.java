@@ -0,0 +1,185 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sqlite.sql.SQLStatement;
+
+/** A write request that is executed by the database writer for the processor.
+ * 
+ * @author little-pan
+ * @since 2020-01-06
+ * 
+ */
+public class SQLiteDbWriteRequest {
+    
+    static final int QUEUED = 0, RUNNING = 1, DONE = 2, CANCELED = 3;
+    
+    protected final SQLiteProcessor processor;
+    protected final SQLStatement statement;
+    protected final String sql;
+    protected final Object[] parameters;
+    protected final long deadline;
+    protected final long startNanoTime;
+    
+    private final AtomicInteger state = new AtomicInteger(QUEUED);
+    private volatile int updateCount = -1;
+    // The last_insert_rowid() of the writer connection after this INSERT executed
+    private volatile boolean inserted;
+    private volatile long lastInsertRowid;
+    private volatile SQLException error;
+    // The database writer can't execute it, e.g. session functions or temp tables used
+    private volatile boolean rejected;
+    
+    public SQLiteDbWriteRequest(SQLiteProcessor processor, SQLStatement statement, long timeout)
+            throws SQLException {
+        this.processor = processor;
+        this.statement = statement;
+        this.sql = statement.getExecutableSQL();
+        Object[] params = statement.getParameters();
+        if (statement.isPrepared() && params != null) {
+            this.parameters = params.clone();
+        } else {
+            this.parameters = null;
+        }
+        this.deadline = System.currentTimeMillis() + timeout;
+        this.startNanoTime = System.nanoTime();
+    }
+    
+    public SQLiteProcessor getProcessor() {
+        return this.processor;
+    }
+    
+    public SQLStatement getStatement() {
+        return this.statement;
+    }
+    
+    public String getSQL() {
+        return this.sql;
+    }
+    
+    public Object[] getParameters() {
+        return this.parameters;
+    }
+    
+    public long getStartNanoTime() {
+        return this.startNanoTime;
+    }
+    
+    public long getDeadline() {
+        return this.deadline;
+    }
+    
+    public boolean isTimeout() {
+        return (this.deadline < System.currentTimeMillis());
+    }
+    
+    /**Start executing this request in the database writer.
+     * 
+     * @return true if started, false if this request canceled
+     */
+    public boolean start() {
+        return this.state.compareAndSet(QUEUED, RUNNING);
+    }
+    
+    /**Cancel this request by the processor.
+     * 
+     * @return true if canceled, false if this request has been started
+     */
+    public boolean cancel() {
+        return this.state.compareAndSet(QUEUED, CANCELED);
+    }
+    
+    public boolean isCanceled() {
+        return (this.state.get() == CANCELED);
+    }
+    
+    public boolean isDone() {
+        return (this.state.get() == DONE);
+    }
+    
+    public boolean isRejected() {
+        return this.rejected;
+    }
+    
+    public boolean isInserted() {
+        return this.inserted;
+    }
+    
+    public long getLastInsertRowid() {
+        return this.lastInsertRowid;
+    }
+    
+    public void complete(int updateCount) {
+        this.updateCount = updateCount;
+        done();
+    }
+    
+    /**Complete this INSERT request, and carry the last_insert_rowid() of the database writer
+     * connection back to the processor.
+     * 
+     * @param updateCount the update count
+     * @param lastInsertRowid the last_insert_rowid() after this request executed
+     */
+    public void complete(int updateCount, long lastInsertRowid) {
+        this.lastInsertRowid = lastInsertRowid;
+        this.inserted = true;
+        complete(updateCount);
+    }
+    
+    public void fail(SQLException error) {
+        this.error = error;
+        done();
+    }
+    
+    public void reject() {
+        this.rejected = true;
+        done();
+    }
+    
+    protected void done() {
+        this.state.set(DONE);
+        SQLiteWorker worker = this.processor.getWorker();
+        if (worker != null) {
+            worker.signal(this.processor);
+        }
+    }
+    
+    /**Get the execution result of this request.
+     * 
+     * @return the update count, or -1 if this request rejected by the database writer
+     * @throws SQLException if execution error
+     */
+    public int getResult() throws SQLException {
+        SQLException error = this.error;
+        if (error != null) {
+            throw error;
+        }
+        if (this.rejected) {
+            return -1;
+        }
+        
+        return this.updateCount;
+    }
+    
+    @Override
+    public String toString() {
+        return this.sql;
+    }
+
+}
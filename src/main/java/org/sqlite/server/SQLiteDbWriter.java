@@ -0,0 +1,421 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.Function;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteErrorCode;
+import org.sqlite.server.func.StringResultFunc;
+import org.sqlite.server.func.TimestampFunc;
+import org.sqlite.server.util.IoUtils;
+
+import static org.sqlite.server.util.ConvertUtils.*;
+
+/**The database writer thread that owns the write connection of a database, and executes
+ * the autocommit write requests of processors one by one, so that writers needn't contend
+ * for the database write lock and retry for SQLITE_BUSY.
+ * 
+ * @author little-pan
+ * @since 2020-01-06
+ * 
+ */
+public class SQLiteDbWriter implements Runnable {
+    static final Logger log = LoggerFactory.getLogger(SQLiteDbWriter.class);
+    
+    protected static final long pollTimeout = 100L;
+    protected static final String GROUP_SAVEPOINT = "sqlite_server_group_commit";
+    
+    protected final SQLiteServer server;
+    protected final String dbName;
+    protected final String name;
+    protected final BlockingQueue<SQLiteDbWriteRequest> requests;
+    
+    protected SQLiteConnection connection;
+    protected Thread runner;
+    private volatile boolean stopped;
+    
+    public SQLiteDbWriter(SQLiteServer server, String dbName) {
+        this.server = server;
+        this.dbName = dbName;
+        this.name = server.getName() + " db-writer-" + dbName;
+        this.requests = new LinkedBlockingQueue<>();
+    }
+    
+    public String getDbName() {
+        return this.dbName;
+    }
+    
+    public String getName() {
+        return this.name;
+    }
+    
+    public void start() {
+        if (this.runner != null) {
+            throw new IllegalStateException(this.name + " has been started");
+        }
+        
+        Thread runner = new Thread(this, this.name);
+        runner.setDaemon(true);
+        runner.start();
+        this.runner = runner;
+    }
+    
+    public boolean isStopped() {
+        return this.stopped;
+    }
+    
+    public void stop() {
+        this.stopped = true;
+    }
+    
+    public boolean offer(SQLiteDbWriteRequest request) {
+        if (isStopped()) {
+            return false;
+        }
+        
+        if (!this.requests.offer(request)) {
+            return false;
+        }
+        if (isStopped() && this.requests.remove(request)) {
+            return false;
+        }
+        return true;
+    }
+    
+    @Override
+    public void run() {
+        try {
+            for (; !isStopped();) {
+                SQLiteDbWriteRequest request = this.requests.poll(pollTimeout, TimeUnit.MILLISECONDS);
+                if (request == null) {
+                    continue;
+                }
+                if (!request.start()) {
+                    this.server.trace(log, "{}: request canceled", this.name);
+                    continue;
+                }
+                
+                if (this.server.isGroupCommitEnabled()) {
+                    List<SQLiteDbWriteRequest> group = collect(request);
+                    if (group.size() > 1) {
+                        executeGroup(group);
+                        continue;
+                    }
+                }
+                execute(request);
+            }
+        } catch (InterruptedException e) {
+            log.warn("{} interrupted", this.name);
+        } finally {
+            close();
+        }
+    }
+    
+    protected void execute(SQLiteDbWriteRequest request) throws InterruptedException {
+        final SQLiteServer server = this.server;
+        final long timeout = request.getDeadline() - System.currentTimeMillis();
+        if (timeout < 0L || !server.getDbWriteLock(this.dbName).lock(this, timeout)) {
+            String message = "The database file is locked and busy timeout";
+            request.fail(convertError(SQLiteErrorCode.SQLITE_BUSY, message));
+            return;
+        }
+        try {
+            final PreparedStatement ps;
+            try {
+                ps = prepare(request);
+            } catch (SQLException e) {
+                // Let the processor execute it in it's own connection
+                server.trace(log, "{}: reject request - {}", this.name, e.getMessage());
+                request.reject();
+                return;
+            }
+            
+            try {
+                int n = ps.executeUpdate();
+                if (isInserted(request, n)) {
+                    request.complete(n, lastInsertRowid(getConnection()));
+                } else {
+                    request.complete(n);
+                }
+            } catch (SQLException e) {
+                server.traceError(log, this.name, "Execute request error", e);
+                request.fail(e);
+            } finally {
+                IoUtils.close(ps);
+            }
+        } finally {
+            server.dbWriteUnlock(this.dbName, this);
+        }
+    }
+    
+    /**Collect the requests that arrive within the group commit window.
+     * 
+     * @param first the first started request
+     * @return the started requests of this group
+     * @throws InterruptedException if interrupted when waiting for requests
+     */
+    protected List<SQLiteDbWriteRequest> collect(SQLiteDbWriteRequest first) 
+            throws InterruptedException {
+        final SQLiteServer server = this.server;
+        final int size = server.getGroupCommitSize();
+        final List<SQLiteDbWriteRequest> group = new ArrayList<>();
+        final long deadline = System.nanoTime() + server.getGroupCommitWindow() * 1000L;
+        
+        group.add(first);
+        for (; group.size() < size;) {
+            long rem = deadline - System.nanoTime();
+            SQLiteDbWriteRequest request = this.requests.poll(rem, TimeUnit.NANOSECONDS);
+            if (request == null) {
+                break;
+            }
+            if (request.start()) {
+                group.add(request);
+            }
+        }
+        
+        return group;
+    }
+    
+    /**Execute the requests in one transaction, and each request in a savepoint so that 
+     * only the failed request rolled back. The requests are completed after the transaction
+     * committed.
+     * 
+     * @param group the started requests
+     * @throws InterruptedException if interrupted when waiting for the db write lock
+     */
+    protected void executeGroup(List<SQLiteDbWriteRequest> group) throws InterruptedException {
+        final SQLiteServer server = this.server;
+        long deadline = Long.MAX_VALUE;
+        for (SQLiteDbWriteRequest request: group) {
+            deadline = Math.min(deadline, request.getDeadline());
+        }
+        final long timeout = deadline - System.currentTimeMillis();
+        if (timeout < 0L || !server.getDbWriteLock(this.dbName).lock(this, timeout)) {
+            String message = "The database file is locked and busy timeout";
+            SQLException e = convertError(SQLiteErrorCode.SQLITE_BUSY, message);
+            for (SQLiteDbWriteRequest request: group) {
+                request.fail(e);
+            }
+            return;
+        }
+        
+        final int n = group.size();
+        final List<SQLiteDbWriteRequest> executed = new ArrayList<>(n);
+        final int[] updateCounts = new int[n];
+        final long[] lastInsertRowids = new long[n];
+        try {
+            final SQLiteConnection conn;
+            try {
+                conn = getConnection();
+                execute(conn, "begin immediate");
+            } catch (SQLException e) {
+                server.traceError(log, this.name, "Begin group commit error", e);
+                for (SQLiteDbWriteRequest request: group) {
+                    request.fail(e);
+                }
+                return;
+            }
+            
+            boolean failed = true;
+            try {
+                for (SQLiteDbWriteRequest request: group) {
+                    // Begin the savepoint before preparing, so that nothing leaked if it failed
+                    execute(conn, "savepoint " + GROUP_SAVEPOINT);
+                    final PreparedStatement ps;
+                    try {
+                        ps = prepare(request);
+                    } catch (SQLException e) {
+                        server.trace(log, "{}: reject request - {}", this.name, e.getMessage());
+                        execute(conn, "release " + GROUP_SAVEPOINT);
+                        request.reject();
+                        continue;
+                    }
+                    
+                    try {
+                        final int i = executed.size();
+                        updateCounts[i] = ps.executeUpdate();
+                        if (isInserted(request, updateCounts[i])) {
+                            lastInsertRowids[i] = lastInsertRowid(conn);
+                        }
+                        execute(conn, "release " + GROUP_SAVEPOINT);
+                        executed.add(request);
+                    } catch (SQLException e) {
+                        server.traceError(log, this.name, "Execute request error", e);
+                        execute(conn, "rollback to " + GROUP_SAVEPOINT);
+                        execute(conn, "release " + GROUP_SAVEPOINT);
+                        request.fail(e);
+                    } finally {
+                        IoUtils.close(ps);
+                    }
+                }
+                
+                execute(conn, "commit");
+                failed = false;
+            } catch (SQLException e) {
+                server.traceError(log, this.name, "Group commit error", e);
+                for (SQLiteDbWriteRequest request: group) {
+                    if (!request.isDone()) {
+                        request.fail(e);
+                    }
+                }
+                executed.clear();
+            } finally {
+                if (failed) {
+                    try {
+                        execute(conn, "rollback");
+                    } catch (SQLException e) {
+                        server.traceError(log, this.name, "Rollback group commit error", e);
+                    }
+                }
+            }
+            
+            server.trace(log, "{}: group commit {} of {} requests", this.name, executed.size(), n);
+            for (int i = 0, size = executed.size(); i < size; ++i) {
+                SQLiteDbWriteRequest request = executed.get(i);
+                if (isInserted(request, updateCounts[i])) {
+                    request.complete(updateCounts[i], lastInsertRowids[i]);
+                } else {
+                    request.complete(updateCounts[i]);
+                }
+            }
+        } finally {
+            server.dbWriteUnlock(this.dbName, this);
+        }
+    }
+    
+    protected static void execute(SQLiteConnection conn, String sql) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            stmt.execute(sql);
+        } finally {
+            IoUtils.close(stmt);
+        }
+    }
+    
+    protected static boolean isInserted(SQLiteDbWriteRequest request, int updateCount) {
+        return (updateCount > 0 && "INSERT".equals(request.getStatement().getCommand()));
+    }
+    
+    protected static long lastInsertRowid(SQLiteConnection conn) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("select last_insert_rowid()");
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            IoUtils.close(stmt);
+        }
+    }
+    
+    protected PreparedStatement prepare(SQLiteDbWriteRequest request) throws SQLException {
+        final SQLiteConnection conn = getConnection();
+        final PreparedStatement ps = conn.prepareStatement(request.getSQL());
+        boolean failed = true;
+        try {
+            Object[] params = request.getParameters();
+            int n = ps.getParameterMetaData().getParameterCount();
+            if (params != null) {
+                for (int i = 0; i < n && i < params.length; ++i) {
+                    ps.setObject(i + 1, params[i]);
+                }
+            } else {
+                // Simple statement: parameter-like tokens, e.g. the "::type" cast, are NULL
+                for (int i = 0; i < n; ++i) {
+                    ps.setObject(i + 1, null);
+                }
+            }
+            failed = false;
+            return ps;
+        } finally {
+            if (failed) {
+                IoUtils.close(ps);
+            }
+        }
+    }
+    
+    protected SQLiteConnection getConnection() throws SQLException {
+        SQLiteConnection conn = this.connection;
+        if (conn != null) {
+            return conn;
+        }
+        
+        final SQLiteServer server = this.server;
+        conn = server.newSQLiteConnection(this.dbName);
+        boolean failed = true;
+        try {
+            server.initConnection(conn, server.getBusyTimeout());
+            Function func;
+            // Only server level functions, and session level functions not supported
+            func = server.startTimeFunc;
+            Function.create(conn, "start_time", func);
+            Function.create(conn, "pg_postmaster_start_time", func);
+            func = server.versionFunc;
+            Function.create(conn, "version", func);
+            func = server.serverVersionFunc;
+            Function.create(conn, "server_version", func);
+            func = new StringResultFunc(this.dbName);
+            Function.create(conn, "database", func);
+            Function.create(conn, "current_database", func);
+            TimestampFunc timestampFunc;
+            timestampFunc = server.clockTimestampFunc;
+            Function.create(conn, timestampFunc.getName(), timestampFunc);
+            timestampFunc = server.sysdateFunc;
+            Function.create(conn, timestampFunc.getName(), timestampFunc);
+            
+            this.connection = conn;
+            failed = false;
+            return conn;
+        } finally {
+            if (failed) {
+                IoUtils.close(conn);
+            }
+        }
+    }
+    
+    protected void close() {
+        this.stopped = true;
+        for (;;) {
+            SQLiteDbWriteRequest request = this.requests.poll();
+            if (request == null) {
+                break;
+            }
+            if (request.start()) {
+                request.reject();
+            }
+        }
+        IoUtils.close(this.connection);
+        this.connection = null;
+        this.server.trace(log, "{} closed", this.name);
+    }
+    
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**The background host resolver thread that resolves the host names in the user table, and
+ * refreshes them when the TTL expires. The failed resolution is cached for a shorter TTL, and
+ * the last resolved addresses are kept until the next success.
+ * <p>
+ * The connection admission only reads the immutable IP to host names map, and never waits for
+ * the resolution by default. If "org.sqlite.server.hostResolveWait" millis is set, it waits for
+ * the host names never resolved (cold miss), at most that time in total per admission. Instead
+ * the server boot and the user DDL wait for the new host names resolved, at most
+ * "org.sqlite.server.hostResolveTimeout" millis.
+ * </p>
+ * 
+ * @author little-pan
+ * @since 2020-01-16
+ * 
+ */
+public class SQLiteHostResolver implements Runnable {
+    static final Logger log = LoggerFactory.getLogger(SQLiteHostResolver.class);
+    
+    protected static final long pollTimeout = 1000L;
+    protected static final long ttl = Long.getLong("org.sqlite.server.hostResolveTtl", 1800000L);
+    protected static final long failedTtl = Long.getLong("org.sqlite.server.hostResolveFailedTtl", 180000L);
+    protected static final long coldMissWait = Long.getLong("org.sqlite.server.hostResolveWait", 0L);
+    protected static final long resolveTimeout = Long.getLong("org.sqlite.server.hostResolveTimeout", 3000L);
+    
+    protected final SQLiteServer server;
+    protected final String name;
+    protected final BlockingQueue<String> requests;
+    /** host -> resolution */
+    protected final ConcurrentMap<String, Resolution> resolutions;
+    /** IP -> hosts, replaced as a whole by the resolver thread */
+    private volatile Map<String, Set<String>> ipHosts = Collections.emptyMap();
+    /** The host names to be refreshed */
+    private volatile Set<String> hosts = Collections.emptySet();
+    
+    protected Thread runner;
+    private volatile boolean stopped;
+    
+    public SQLiteHostResolver(SQLiteServer server) {
+        this.server = server;
+        this.name = server.getName() + " host-resolver";
+        this.requests = new LinkedBlockingQueue<>();
+        this.resolutions = new ConcurrentHashMap<>();
+    }
+    
+    public String getName() {
+        return this.name;
+    }
+    
+    public synchronized void start() {
+        if (this.runner != null) {
+            return;
+        }
+        
+        Thread runner = new Thread(this, this.name);
+        runner.setDaemon(true);
+        runner.start();
+        this.runner = runner;
+    }
+    
+    public boolean isStopped() {
+        return this.stopped;
+    }
+    
+    public void stop() {
+        this.stopped = true;
+    }
+    
+    /**Set the host names to be resolved and refreshed, the new host names are resolved at once.
+     * 
+     * @param hosts the host names in the user table
+     */
+    public void setHosts(Collection<String> hosts) {
+        Set<String> names = new HashSet<>();
+        for (String h: hosts) {
+            if (!"%".equals(h)) {
+                names.add(h);
+            }
+        }
+        this.hosts = Collections.unmodifiableSet(names);
+        start();
+        for (String h: names) {
+            getResolution(h);
+        }
+    }
+    
+    /**
+     * Resolve all host names again in the background, the resolved addresses are kept until then.
+     */
+    public void flush() {
+        for (Resolution r: this.resolutions.values()) {
+            r.expiry = 0L;
+            this.requests.offer(r.host);
+        }
+    }
+    
+    /**Wait for the host names never resolved, at most "org.sqlite.server.hostResolveTimeout"
+     * millis in total. It's called by the server boot and the user DDL, not in the admission.
+     * 
+     * @return true if all host names resolved, otherwise false
+     */
+    public boolean awaitResolved() {
+        final long deadline = System.currentTimeMillis() + resolveTimeout;
+        boolean resolved = true;
+        
+        for (Resolution r: this.resolutions.values()) {
+            long timeout = deadline - System.currentTimeMillis();
+            try {
+                if (!r.isDone() && (timeout <= 0L || !r.done.await(timeout, TimeUnit.MILLISECONDS))) {
+                    resolved = false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return resolved;
+    }
+    
+    /**Get the deadline of the cold miss waiting for a connection admission.
+     * 
+     * @return the deadline millis, or 0 if never wait
+     */
+    public long getWaitDeadline() {
+        if (coldMissWait <= 0L) {
+            return 0L;
+        }
+        return (System.currentTimeMillis() + coldMissWait);
+    }
+    
+    /**Check whether the host name is resolved to the IP address.
+     * 
+     * @param ip the IP address of the client
+     * @param host the host name in the user table
+     * @param deadline the deadline of the cold miss waiting, 0 if never wait
+     * @return true if the host name is resolved to the IP
+     */
+    public boolean isResolved(String ip, String host, long deadline) {
+        if (contains(ip, host)) {
+            return true;
+        }
+        if ("%".equals(host)) {
+            return false;
+        }
+        
+        Resolution r = getResolution(host);
+        long timeout = deadline - System.currentTimeMillis();
+        if (deadline == 0L || timeout <= 0L || r.isDone()) {
+            return false;
+        }
+        // Cold miss
+        this.server.trace(log, "Wait for the resolution of the host '{}'", host);
+        try {
+            r.done.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return contains(ip, host);
+    }
+    
+    protected boolean contains(String ip, String host) {
+        Set<String> hosts = this.ipHosts.get(ip);
+        return (hosts != null && hosts.contains(host));
+    }
+    
+    protected Resolution getResolution(String host) {
+        Resolution r = this.resolutions.get(host);
+        if (r == null) {
+            Resolution newResolution = new Resolution(host);
+            r = this.resolutions.putIfAbsent(host, newResolution);
+            if (r == null) {
+                r = newResolution;
+                this.requests.offer(host);
+            }
+        }
+        return r;
+    }
+    
+    @Override
+    public void run() {
+        try {
+            for (; !isStopped();) {
+                String host = this.requests.poll(pollTimeout, TimeUnit.MILLISECONDS);
+                if (host != null) {
+                    Resolution r = this.resolutions.get(host);
+                    if (r != null && r.isExpired(System.currentTimeMillis())) {
+                        resolve(r);
+                    }
+                }
+                refresh();
+            }
+        } catch (InterruptedException e) {
+            log.warn("{} interrupted", this.name);
+        } finally {
+            this.server.trace(log, "{} stopped", this.name);
+        }
+    }
+    
+    protected void refresh() {
+        final Set<String> hosts = this.hosts;
+        boolean changed = false;
+        long curr = System.currentTimeMillis();
+        
+        for (Resolution r: this.resolutions.values()) {
+            if (!hosts.contains(r.host)) {
+                // The host removed from the user table
+                this.resolutions.remove(r.host);
+                r.done.countDown();
+                changed = true;
+            } else if (r.isExpired(curr)) {
+                resolve(r);
+                curr = System.currentTimeMillis();
+            }
+        }
+        if (changed) {
+            rebuild();
+        }
+    }
+    
+    protected void resolve(Resolution r) {
+        try {
+            InetAddress[] addrs = InetAddress.getAllByName(r.host);
+            Set<String> ips = new HashSet<>();
+            for (InetAddress addr: addrs) {
+                ips.add(addr.getHostAddress());
+            }
+            r.ips = ips;
+            r.expiry = System.currentTimeMillis() + ttl;
+            this.server.trace(log, "Resolve the host '{}': {}", r.host, ips);
+        } catch (UnknownHostException e) {
+            log.warn("Can't resolve the host '" + r.host + "'", e);
+            r.expiry = System.currentTimeMillis() + failedTtl;
+        }
+        rebuild();
+        r.done.countDown();
+    }
+    
+    protected void rebuild() {
+        Map<String, Set<String>> ipHosts = new HashMap<>();
+        for (Resolution r: this.resolutions.values()) {
+            for (String ip: r.ips) {
+                Set<String> hosts = ipHosts.get(ip);
+                if (hosts == null) {
+                    hosts = new HashSet<>();
+                    ipHosts.put(ip, hosts);
+                }
+                hosts.add(r.host);
+            }
+        }
+        this.ipHosts = ipHosts;
+    }
+    
+    /** Host resolution. */
+    static class Resolution {
+        final String host;
+        // Count down after the first resolution
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Set<String> ips = Collections.emptySet();
+        volatile long expiry;
+        
+        Resolution(String host) {
+            this.host = host;
+        }
+        
+        boolean isDone() {
+            return (this.done.getCount() == 0L);
+        }
+        
+        boolean isExpired(long curr) {
+            return (this.expiry <= curr);
+        }
+    }
+
+}
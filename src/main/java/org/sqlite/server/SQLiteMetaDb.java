@@ -18,9 +18,6 @@ package org.sqlite.server;
 import static java.lang.String.format;
 
 import java.io.File;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -28,21 +25,17 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sqlite.JDBC;
 import org.sqlite.server.sql.meta.Catalog;
 import org.sqlite.server.sql.meta.Db;
+import org.sqlite.server.sql.meta.MetaSnapshot;
 import org.sqlite.server.sql.meta.User;
 import org.sqlite.server.util.IoUtils;
 import org.sqlite.server.util.SecurityUtils;
@@ -95,6 +88,8 @@ public class SQLiteMetaDb implements AutoCloseable {
             + "create_priv, alter_priv, drop_priv, pragma_priv, vacuum_priv, "
             + "attach_priv) "
             + "values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    protected static final String SELECT_USER =
+            "select host, user, password, protocol, auth_method, sa from user";
     protected static final String SELECT_DB =
             "select host, db, user, "
             + "all_priv, select_priv, insert_priv, update_priv, delete_priv, "
@@ -110,29 +105,24 @@ public class SQLiteMetaDb implements AutoCloseable {
             + "primary key(db))";
     protected static final String INSERT_CATALOG = 
             "insert into catalog(db, dir, size)values(?, ?, ?)";
+    protected static final String SELECT_CATALOG = 
+            "select db, dir, size from catalog";
     
     private volatile boolean open = true;
     protected final SQLiteServer server;
     protected final File file;
     
-    /** IP -> hosts cache */
-    protected final ConcurrentMap<String, Set<String>> hostsCache;
-    /** host -> resolved time */
-    protected final ConcurrentMap<String, Resolution> reslvCache;
-    /** user@host/db -> Db */
-    protected final ConcurrentMap<String, Db> privCache;
-    private final AtomicBoolean privLoading = new AtomicBoolean();
-    private volatile boolean flushPrivs = true;
-    /** db -> catalog */
-    protected final ConcurrentMap<String, Catalog> catalogCache;
+    protected final SQLiteHostResolver hostResolver;
+    /** The shared connection for snapshot loading and statistics, guarded by this metaDb */
+    private SQLiteConnection connection;
+    /** The users, dbs and catalogs snapshot, null if not loaded */
+    private volatile MetaSnapshot snapshot;
+    private long snapshotVersion;
     
     public SQLiteMetaDb(SQLiteServer server, File metaFile) {
         this.server = server;
         this.file = metaFile;
-        this.hostsCache = new ConcurrentHashMap<>();
-        this.reslvCache = new ConcurrentHashMap<>();
-        this.privCache = new ConcurrentHashMap<>();
-        this.catalogCache = new ConcurrentHashMap<>();
+        this.hostResolver = new SQLiteHostResolver(server);
     }
     
     public boolean isInited() {
@@ -184,6 +174,28 @@ public class SQLiteMetaDb implements AutoCloseable {
         }
     }
     
+    /**Get the shared metaDb connection, the caller should hold the lock of this metaDb.
+     * 
+     * @return the shared connection
+     * @throws SQLException if opening the connection failed
+     */
+    protected SQLiteConnection getConnection() throws SQLException {
+        SQLiteConnection conn = this.connection;
+        if (conn == null || conn.isClosed()) {
+            conn = newConnection();
+            this.connection = conn;
+        }
+        return conn;
+    }
+    
+    protected void releaseConnection(boolean failed) {
+        if (failed) {
+            // Maybe in an incomplete transaction
+            IoUtils.close(this.connection);
+            this.connection = null;
+        }
+    }
+    
     private String genSchemaName() {
         return ("meta_"+SecurityUtils.nextHexs(10));
     }
@@ -195,6 +207,11 @@ public class SQLiteMetaDb implements AutoCloseable {
     @Override
     public void close() {
         this.open = true;
+        this.hostResolver.stop();
+        synchronized (this) {
+            IoUtils.close(this.connection);
+            this.connection = null;
+        }
     }
     
     public void initdb(User superuser) throws SQLException {
@@ -309,15 +326,7 @@ public class SQLiteMetaDb implements AutoCloseable {
     }
     
     public Db selectDb(String host, String user, String db) throws SQLException {
-        if (tryLoadPrivs()) {
-            String key = privCacheKey(host, user, db);
-            this.server.trace(log, "privCache key: {}", key);
-            Db d = this.privCache.get(key);
-            this.server.trace(log, "privCache db: {}", d);
-            return d;
-        }
-        
-        return null;
+        return (getSnapshot().getDb(host, user, db));
     }
     
     /**
@@ -327,51 +336,6 @@ public class SQLiteMetaDb implements AutoCloseable {
         return (this.file.getName());
     }
     
-    public boolean hasPrivilege(String host, String user, String db, String command, String dataDir) 
-            throws SQLException {
-        if (!hasPrivilege(host, user, db, command)) {
-            return false;
-        }
-        
-        Catalog catalog = selectCatalog(db);
-        if (catalog == null) {
-            return false;
-        }
-        
-        String dir = catalog.getDir();
-        if (dir == null) {
-            if (dataDir == null) {
-                return true;
-            }
-            return false;
-        }
-        
-        return (dir.equals(dataDir));
-    }
-    
-    public boolean hasPrivilege(String host, String user, String db, String command) 
-            throws SQLException {
-        Db d = selectDb(host, user, db);
-        if (d == null) {
-            return false;
-        }
-        
-        return (d.hasPriv(command));
-    }
-    
-    public boolean hasPrivilege(User user, String command) throws SQLException {
-        if (user.isSa()) {
-            return true;
-        }
-        
-        Db d = selectDb(user);
-        if (d == null) {
-            return false;
-        }
-        
-        return (d.hasPriv(command));
-    }
-    
     protected int selectUserCount(SQLiteConnection conn) throws SQLException {
         int n = 0;
         try (Statement stmt = conn.createStatement()) {
@@ -391,60 +355,19 @@ public class SQLiteMetaDb implements AutoCloseable {
     }
     
     public Catalog selectCatalog(String db) throws SQLException {
-        Catalog catalog = this.catalogCache.get(db);
-        if (catalog != null) {
-            return catalog;
-        }
-        
-        this.server.trace(log, "Load '{}' catalog", db);
-        try (SQLiteConnection conn = newConnection()) {
-            String sql = "select db, dir, size from catalog where db = ?";
-            PreparedStatement ps = conn.prepareStatement(sql);
-            ps.setString(1, db);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                catalog = new Catalog(rs.getString(1), rs.getString(2));
-                catalog.setSize(rs.getLong(3));
-                this.server.trace(log, "Load '{}' catalog OK", db);
-            }
-        }
-        
-        if (catalog != null) {
-            this.catalogCache.put(db, catalog);
-        }
-        return catalog;
+        return (getSnapshot().getCatalog(db));
     }
     
-    public User selectUser(String host, String protocol, String user, String db) 
-            throws SQLException {
-        List<User> users= new ArrayList<>();
+    public long getHostResolveDeadline() {
+        return (this.hostResolver.getWaitDeadline());
+    }
+    
+    public User selectUser(String host, String protocol, String user, String db, 
+            long resolveDeadline) throws SQLException {
+        final MetaSnapshot snapshot = getSnapshot();
+        List<User> users = snapshot.getUsers(protocol, user);
         User sqliteUser = null;
         
-        try (SQLiteConnection conn = newConnection()) {
-            String sql = 
-                    "select host, user, password, protocol, auth_method, sa from user u "
-                    + "where u.protocol = ? and u.user = ?";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                int i = 0;
-                ps.setString(++i, protocol);
-                ps.setString(++i, user);
-                
-                try (ResultSet rs = ps.executeQuery()) {
-                    for (; rs.next(); ) {
-                        User u = new User();
-                        i = 0;
-                        u.setHost(rs.getString(++i));
-                        u.setUser(rs.getString(++i));
-                        u.setPassword(rs.getString(++i));
-                        u.setProtocol(rs.getString(++i));
-                        u.setAuthMethod(rs.getString(++i));
-                        u.setSa(rs.getInt(++i));
-                        users.add(u);
-                    }
-                }
-            }
-        }
-        
         // check hosts
         // Case-1
         for (User u: users) {
@@ -456,30 +379,10 @@ public class SQLiteMetaDb implements AutoCloseable {
         }
         // Case-2
         if (sqliteUser == null) {
-            Set<String> cached = this.hostsCache.get(host);
             List<User> candidates = new ArrayList<>();
             for (User u: users) {
-                String h = u.getHost();
-                for (; ; ) {
-                    if (cached != null) {
-                        boolean contains;
-                        synchronized (cached) {
-                            contains = cached.contains(h);
-                        }
-                        if (contains) {
-                            candidates.add(u);
-                            break;
-                        }
-                    }
-                    
-                    if (resolveHost(h)) {
-                        cached = this.hostsCache.get(host);
-                        if (cached != null) {
-                            continue;
-                        }
-                    }
-                    
-                    break;
+                if (this.hostResolver.isResolved(host, u.getHost(), resolveDeadline)) {
+                    candidates.add(u);
                 }
             }
             if (candidates.size() > 0) {
@@ -507,225 +410,207 @@ public class SQLiteMetaDb implements AutoCloseable {
         if (sqliteUser == null) {
             return null;
         }
+        // The users in the snapshot are shared
+        sqliteUser = new User(sqliteUser);
         sqliteUser.setDb(db);
         if (sqliteUser.isSa()) {
             return sqliteUser;
         }
-        
-        boolean failed = true;
-        SQLiteConnection conn = newConnection();
-        try {
-            try {
-                conn.setAutoCommit(false);
-                Statement stmt = conn.createStatement();
-                if (!tableExists(stmt, "db")) {
-                    sqliteUser = null;
-                } else {
-                    String sql = "select d.host, d.user, d.db from db d "
-                            + "where d.host = ? and d.user = ? and d.db = ?";
-                    PreparedStatement ps = conn.prepareStatement(sql);
-                    int i = 0;
-                    ps.setString(++i, sqliteUser.getHost());
-                    ps.setString(++i, user);
-                    ps.setString(++i, db);
-                    ResultSet rs = ps.executeQuery();
-                    if (!rs.next()) {
-                        sqliteUser = null;
-                    }
-                }
-                
-                conn.commit();
-                failed = false;
-                return sqliteUser;
-            } finally {
-                if (failed) {
-                    conn.rollback();
-                }
-            }
-        } finally {
-            IoUtils.close(conn);
+        if (snapshot.getDb(sqliteUser.getHost(), user, db) == null) {
+            return null;
         }
+        
+        return sqliteUser;
     }
     
-    public int selectHostCount(String host, String protocol) throws SQLException {
-        Set<String> hosts = new HashSet<>();
-        
-        try (SQLiteConnection conn = newConnection()) {
-            String sql = "select u.host from user u where u.protocol = ?";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                int i = 0;
-                ps.setString(++i, protocol);
-                try (ResultSet rs = ps.executeQuery()) {
-                    for (; rs.next(); ) {
-                        i = 0;
-                        String h = rs.getString(++i);
-                        hosts.add(h);
-                    }
-                }
-            }
-        }
+    public int selectHostCount(String host, String protocol, long resolveDeadline) 
+            throws SQLException {
+        Set<String> hosts = getSnapshot().getHosts(protocol);
         
         int n = 0;
         if (hosts.contains(host)) {
             // Case-1 exact matching
             ++n;
         }
-        Set<String> cached = this.hostsCache.get(host);
+        if (hosts.contains("%")) {
+            // Case-2 fuzzy matching
+            ++n;
+        }
         for (String h : hosts) {
-            if ("%".equals(h)) {
-                // Case-2 fuzzy matching
-                ++n;
+            if ("%".equals(h) || h.equals(host)) {
                 continue;
             }
-            
-            for (;;) {
-                if (cached != null) {
-                    boolean contains;
-                    synchronized(cached) {
-                        // Case-3.1 domain matching in resolved
-                        contains = cached.contains(h);
-                    }
-                    if (contains) {
-                        ++n;
-                        break;
-                    }
-                }
-                
-                if (resolveHost(h)) {
-                    cached = this.hostsCache.get(host);
-                    if (cached != null) {
-                        continue;
-                    }
-                }
-                
-                break;
+            // Case-3.1 domain matching in resolved, no waiting if allowed
+            if (this.hostResolver.isResolved(host, h, n > 0? 0L: resolveDeadline)) {
+                ++n;
             }
         }
         
         return n;
     }
     
-    public List<Catalog> statisticsCatalogs(File dataDir) throws SQLException {
-        List<Catalog> catalogs = new ArrayList<>();
-        try (SQLiteConnection conn = newConnection()) {
-            Statement s = conn.createStatement();
-            String sql = "select db, dir from catalog order by db asc";
-            ResultSet rs = s.executeQuery(sql);
-            for (; rs.next(); ) {
-                Catalog c = new Catalog();
-                c.setDb(rs.getString(1));
-                c.setDir(rs.getString(2));
-                catalogs.add(c);
-            }
-        }
-        
-        // Do statistics
-        for (Catalog c : catalogs) {
-            String dir = c.getDir();
-            File dirFile = dataDir;
-            if (dir != null) {
-                dirFile = new File(dir);
-            }
-            File dbFile = new File(dirFile, c.getDb());
-            long size = dbFile.length();
-            File walFile= new File(dirFile, c.getDb()+"-wal");
-            if (walFile.isFile()) {
-                size += walFile.length();
-            }
-            c.setSize(size);
-        }
-        
-        // Store
-        try (SQLiteConnection conn = newConnection()) {
-            String sql = "update catalog set size = ? where db = ?";
-            PreparedStatement ps = conn.prepareStatement(sql);
-            for (Catalog c: catalogs) {
-                ps.setLong(1, c.getSize());
-                ps.setString(2, c.getDb());
-                ps.addBatch();
-            }
-            ps.executeBatch();
+    public synchronized List<Catalog> statisticsCatalogs(File dataDir) throws SQLException {
+        List<Catalog> catalogs = new ArrayList<>();
+        boolean failed = true;
+        try {
+            SQLiteConnection conn = getConnection();
+            try (Statement s = conn.createStatement()) {
+                String sql = "select db, dir from catalog order by db asc";
+                ResultSet rs = s.executeQuery(sql);
+                for (; rs.next(); ) {
+                    Catalog c = new Catalog();
+                    c.setDb(rs.getString(1));
+                    c.setDir(rs.getString(2));
+                    catalogs.add(c);
+                }
+            }
+            
+            // Do statistics
+            for (Catalog c : catalogs) {
+                String dir = c.getDir();
+                File dirFile = dataDir;
+                if (dir != null) {
+                    dirFile = new File(dir);
+                }
+                File dbFile = new File(dirFile, c.getDb());
+                long size = dbFile.length();
+                File walFile= new File(dirFile, c.getDb()+"-wal");
+                if (walFile.isFile()) {
+                    size += walFile.length();
+                }
+                c.setSize(size);
+            }
+            
+            // Store
+            String sql = "update catalog set size = ? where db = ?";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (Catalog c: catalogs) {
+                    ps.setLong(1, c.getSize());
+                    ps.setString(2, c.getDb());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            failed = false;
+        } finally {
+            releaseConnection(failed);
+        }
+        
+        return catalogs;
+    }
+    
+    public void flushHosts() {
+        this.hostResolver.flush();
+    }
+    
+    public void awaitHostsResolved() {
+        if (!this.hostResolver.awaitResolved()) {
+            log.warn("Host names not resolved in time");
         }
-        
-        return catalogs;
     }
     
-    protected boolean resolveHost(String h) {
-        Resolution reslv = this.reslvCache.get(h);
-        if (reslv != null && !reslv.isExpired()) {
-            return false;
+    /**Get the current meta snapshot, load it from the meta database if not loaded.
+     * 
+     * @return the current meta snapshot
+     * @throws SQLException if loading the snapshot failed
+     */
+    public MetaSnapshot getSnapshot() throws SQLException {
+        MetaSnapshot snapshot = this.snapshot;
+        if (snapshot == null) {
+            snapshot = loadSnapshot();
         }
-        // fix - UnknownHostException: '%' shouldn't be resolved
-        if ("%".equals(h)) {
-            return false;
+        return snapshot;
+    }
+    
+    /**
+     * Rebuild the meta snapshot after the meta data changed and committed.
+     */
+    public void reloadSnapshot() {
+        try {
+            loadSnapshot();
+            // The user DDL waits for the new host names resolved, instead of the next logins
+            awaitHostsResolved();
+        } catch (SQLException e) {
+            // Load again on demand
+            this.snapshot = null;
+            this.server.traceError(log, "Reload meta snapshot failed", e);
         }
+    }
+    
+    protected synchronized MetaSnapshot loadSnapshot() throws SQLException {
+        List<User> users = new ArrayList<>();
+        List<Db> dbs = new ArrayList<>();
+        List<Catalog> catalogs = new ArrayList<>();
         
+        boolean failed = true;
         try {
-            for (InetAddress addr: InetAddress.getAllByName(h)) {
-                String ip = addr.getHostAddress();
-                Set<String> newCache = new HashSet<>();
-                Set<String> oldCache = this.hostsCache.putIfAbsent(ip, newCache);
-                if (oldCache != null) {
-                    newCache = oldCache;
-                }
-                synchronized(newCache) {
-                    newCache.add(h);
-                }
+            // Read all tables in one transaction for a consistent snapshot
+            SQLiteConnection conn = getConnection();
+            conn.setAutoCommit(false);
+            Statement stmt = conn.createStatement();
+            if (tableExists(stmt, "user")) {
+                selectUsers(stmt, users);
+            }
+            if (tableExists(stmt, "db")) {
+                selectDbs(stmt, dbs);
             }
-            this.reslvCache.put(h, new Resolution(true));
-            return true;
-        } catch (UnknownHostException e) {
-            log.warn("Can't resolve the host '" + h + "'", e);
-            this.reslvCache.put(h, new Resolution(false));
-            return false;
+            if (tableExists(stmt, "catalog")) {
+                selectCatalogs(stmt, catalogs);
+            }
+            stmt.close();
+            conn.commit();
+            conn.setAutoCommit(true);
+            failed = false;
+        } finally {
+            releaseConnection(failed);
         }
+        
+        MetaSnapshot snapshot = new MetaSnapshot(++this.snapshotVersion, users, dbs, catalogs);
+        this.snapshot = snapshot;
+        this.server.trace(log, "load {}", snapshot);
+        
+        Set<String> hosts = new HashSet<>();
+        for (User u: users) {
+            hosts.add(u.getHost());
+        }
+        this.hostResolver.setHosts(hosts);
+        return snapshot;
     }
     
-    public void flushCatalogs() {
-        this.catalogCache.clear();
-    }
-    
-    public void flushHosts() {
-        this.reslvCache.clear();
-        this.hostsCache.clear();
+    protected void selectUsers(Statement stmt, List<User> users) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(SELECT_USER)) {
+            for (; rs.next(); ) {
+                User u = new User();
+                int i = 0;
+                u.setHost(rs.getString(++i));
+                u.setUser(rs.getString(++i));
+                u.setPassword(rs.getString(++i));
+                u.setProtocol(rs.getString(++i));
+                u.setAuthMethod(rs.getString(++i));
+                u.setSa(rs.getInt(++i));
+                users.add(u);
+            }
+        }
     }
     
-    public void flushPrivileges() {
-        this.flushPrivs = true;
+    protected void selectCatalogs(Statement stmt, List<Catalog> catalogs) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(SELECT_CATALOG)) {
+            for (; rs.next(); ) {
+                Catalog catalog = new Catalog(rs.getString(1), rs.getString(2));
+                catalog.setSize(rs.getLong(3));
+                catalogs.add(catalog);
+            }
+        }
     }
     
-    protected boolean tryLoadPrivs() throws SQLException {
-        if (!this.flushPrivs) {
-            return true;
-        }
-        
-        for (; !this.privLoading.compareAndSet(false, true);) {
-            // Spin lock
-        }
-        Connection conn = null;
-        try {
-            this.server.trace(log, "load privileges");
-            // Double check
-            if (!this.flushPrivs) {
-                return true;
-            }
-            
-            conn = newConnection();
-            Statement stmt = conn.createStatement();
-            if (!tableExists(stmt, "db")) {
-                this.server.trace(log, "`db` table not exists in metaDb");
-                return false;
-            }
-            
-            ResultSet rs = stmt.executeQuery(SELECT_DB);
-            Map<String, Db> privs = new HashMap<>();
+    protected void selectDbs(Statement stmt, List<Db> dbs) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(SELECT_DB)) {
             for (; rs.next(); ) {
                 final Db db = new Db();
-                final String h, u, d, k;
                 int i = 0;
-                db.setHost(h = rs.getString(++i));
-                db.setDb(d = rs.getString(++i));
-                db.setUser(u = rs.getString(++i));
+                db.setHost(rs.getString(++i));
+                db.setDb(rs.getString(++i));
+                db.setUser(rs.getString(++i));
                 db.setAllPriv(rs.getInt(++i));
                 db.setSelectPriv(rs.getInt(++i));
                 db.setInsertPriv(rs.getInt(++i));
@@ -737,25 +622,11 @@ public class SQLiteMetaDb implements AutoCloseable {
                 db.setPragmaPriv(rs.getInt(++i));
                 db.setVacuumPriv(rs.getInt(++i));
                 db.setAttachPriv(rs.getInt(++i));
-                k = privCacheKey(h, u, d);
-                privs.put(k, db);
-                this.server.trace(log, "privCache put(<{}, {}...>)", k, db);
+                dbs.add(db);
             }
-            this.privCache.clear();
-            this.privCache.putAll(privs);
-            this.flushPrivs = false;
-            this.server.trace(log, "load privileges OK");
-            return true;
-        } finally {
-            this.privLoading.set(false);
-            IoUtils.close(conn);
         }
     }
     
-    protected String privCacheKey(String host, String user, String db) {
-        return (format("%s@%s/%s", user, host, db));
-    }
-    
     protected boolean tableExists(Statement stmt, String name) throws SQLException {
         String sql = tableInfoSQL(name);
         try (ResultSet rs = stmt.executeQuery(sql)) {
@@ -768,33 +639,4 @@ public class SQLiteMetaDb implements AutoCloseable {
                 + "where type = 'table' and name = '%s'", name));
     }
     
-    /** Host resolution. */
-    static class Resolution {
-        private boolean success;
-        private long atime;
-        
-        Resolution (boolean success) {
-            this.success = success;
-            this.atime = System.currentTimeMillis();
-        }
-        
-        synchronized Resolution update(boolean success) {
-            this.success = success;
-            this.atime = System.currentTimeMillis();
-            return this;
-        }
-        
-        synchronized boolean isExpired() {
-            long interval = 180000L; // 3min when error
-            if (isSuccess()) {
-                interval *= 10L;     //30min when success
-            }
-            return (System.currentTimeMillis() - this.atime > interval);
-        }
-        
-        synchronized boolean isSuccess() {
-            return this.success;
-        }
-    }
-    
 }
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sqlite.Function;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.server.func.ChangesFunc;
+import org.sqlite.server.func.CurrentUserFunc;
+import org.sqlite.server.func.SleepFunc;
+import org.sqlite.server.func.StringResultFunc;
+import org.sqlite.server.func.TimestampFunc;
+import org.sqlite.server.func.UserFunc;
+import org.sqlite.server.util.IoUtils;
+import org.sqlite.sql.SQLStatementCache;
+
+/**The SQLite connection that has been initialized and registered functions, and the
+ * session functions are rebound when it's borrowed by another processor.
+ * 
+ * @author little-pan
+ * @since 2020-01-08
+ * 
+ */
+public class SQLitePooledConnection implements AutoCloseable {
+    
+    // The temp table that restores last_insert_rowid() of the db writer into this connection
+    protected static final String LAST_ROWID_TABLE = "sqlite_server_last_rowid";
+    
+    protected final String dbName;
+    protected final SQLiteConnection connection;
+    protected final SQLStatementCache statementCache;
+    
+    // Session functions
+    protected final UserFunc userFunc;
+    protected final CurrentUserFunc currentUserFunc;
+    protected final SleepFunc sleepFunc;
+    // Count the writes of the db writer, or null if the db writer disabled
+    protected final ChangesFunc changesFunc;
+    protected final ChangesFunc totalChangesFunc;
+    
+    protected long lastUsedTime;
+    
+    public SQLitePooledConnection(SQLiteServer server, String dbName, SQLiteConnection connection)
+            throws SQLException {
+        this.dbName = dbName;
+        this.connection = connection;
+        
+        Function func;
+        func = server.startTimeFunc;
+        Function.create(connection, "start_time", func);
+        Function.create(connection, "pg_postmaster_start_time", func);
+        func = server.versionFunc;
+        Function.create(connection, "version", func);
+        func = server.serverVersionFunc;
+        Function.create(connection, "server_version", func);
+        
+        this.userFunc = new UserFunc(null, null);
+        Function.create(connection, "user", this.userFunc);
+        this.currentUserFunc = new CurrentUserFunc(null);
+        Function.create(connection, "current_user", this.currentUserFunc);
+        
+        func = new StringResultFunc(dbName);
+        Function.create(connection, "database", func);
+        Function.create(connection, "current_database", func);
+        
+        TimestampFunc timestampFunc;
+        timestampFunc = server.clockTimestampFunc;
+        Function.create(connection, timestampFunc.getName(), timestampFunc);
+        timestampFunc = server.sysdateFunc;
+        Function.create(connection, timestampFunc.getName(), timestampFunc);
+        
+        this.sleepFunc = new SleepFunc(null);
+        Function.create(connection, "sleep", this.sleepFunc);
+        
+        if (server.isDbWriterEnabled()) {
+            // Created before any statement prepared, so that they can't call the builtin ones
+            this.changesFunc = new ChangesFunc(connection, false);
+            Function.create(connection, this.changesFunc.getName(), this.changesFunc);
+            this.totalChangesFunc = new ChangesFunc(connection, true);
+            Function.create(connection, this.totalChangesFunc.getName(), this.totalChangesFunc);
+        } else {
+            this.changesFunc = null;
+            this.totalChangesFunc = null;
+        }
+        
+        if (server.isStmtCacheEnabled()) {
+            int maxSize = server.getStmtCacheSize();
+            long maxMemory = server.getStmtCacheMemory();
+            AtomicLong schemaEpoch = server.getSchemaEpoch(dbName);
+            this.statementCache = new SQLStatementCache(connection, maxSize, maxMemory, schemaEpoch);
+        } else {
+            this.statementCache = null;
+        }
+    }
+    
+    public String getDbName() {
+        return this.dbName;
+    }
+    
+    public SQLiteConnection getConnection() {
+        return this.connection;
+    }
+    
+    /**
+     * @return the statement cache of this connection, or null if the cache disabled
+     */
+    public SQLStatementCache getStatementCache() {
+        return this.statementCache;
+    }
+    
+    public long getLastUsedTime() {
+        return this.lastUsedTime;
+    }
+    
+    public void setLastUsedTime(long lastUsedTime) {
+        this.lastUsedTime = lastUsedTime;
+    }
+    
+    public void bind(SQLiteProcessor processor) {
+        // The IP address, and no reverse DNS lookup in the worker
+        String host = processor.getRemoteAddress().getAddress().getHostAddress();
+        this.userFunc.bind(processor.getUser(), host);
+        this.currentUserFunc.bind(processor.getUser());
+        this.sleepFunc.setProcessor(processor);
+        setChangesProcessor(processor);
+    }
+    
+    public void unbind() {
+        this.userFunc.bind(null, null);
+        this.currentUserFunc.bind(null);
+        this.sleepFunc.setProcessor(null);
+        setChangesProcessor(null);
+    }
+    
+    protected void setChangesProcessor(SQLiteProcessor processor) {
+        if (this.changesFunc != null) {
+            this.changesFunc.setProcessor(processor);
+            this.totalChangesFunc.setProcessor(processor);
+        }
+    }
+    
+    /**
+     * @return the builtin changes() of this connection
+     * @throws SQLException if the connection closed
+     */
+    public int changes() throws SQLException {
+        return this.connection.getDatabase().changes();
+    }
+    
+    /**Set last_insert_rowid() of this connection to the rowid, by replacing the row of
+     * it in a temp table.
+     * 
+     * @param rowid the last insert rowid
+     * @throws SQLException if SQL error
+     */
+    public void setLastInsertRowid(long rowid) throws SQLException {
+        Statement stmt = this.connection.createStatement();
+        try {
+            stmt.execute("create temp table if not exists " + LAST_ROWID_TABLE 
+                    + "(k integer unique)");
+            stmt.executeUpdate("insert or replace into temp." + LAST_ROWID_TABLE 
+                    + "(rowid, k)values(" + rowid + ", 0)");
+        } finally {
+            IoUtils.close(stmt);
+        }
+    }
+    
+    public boolean isClosed() {
+        try {
+            return this.connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+    
+    @Override
+    public void close() {
+        IoUtils.close(this.statementCache);
+        IoUtils.close(this.connection);
+    }
+    
+    @Override
+    public String toString() {
+        return this.dbName;
+    }
+
+}
@@ -25,31 +25,34 @@ import java.nio.channels.SocketChannel;
 import java.sql.SQLException;
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Stack;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sqlite.Function;
 import org.sqlite.SQLiteConnection;
 import org.sqlite.SQLiteErrorCode;
-import org.sqlite.server.func.CurrentUserFunc;
-import org.sqlite.server.func.SleepFunc;
-import org.sqlite.server.func.StringResultFunc;
-import org.sqlite.server.func.TimestampFunc;
-import org.sqlite.server.func.UserFunc;
 import org.sqlite.server.sql.SQLMetric;
 import org.sqlite.server.sql.meta.Catalog;
 import org.sqlite.server.sql.meta.CreateDatabaseStatement;
+import org.sqlite.server.sql.meta.Db;
 import org.sqlite.server.sql.meta.DropDatabaseStatement;
+import org.sqlite.server.sql.meta.MetaSnapshot;
 import org.sqlite.server.sql.meta.User;
+import org.sqlite.server.util.BufferPool;
 import org.sqlite.server.util.IoUtils;
 import org.sqlite.sql.AttachStatement;
+import org.sqlite.sql.DetachStatement;
+import org.sqlite.sql.PragmaStatement;
 import org.sqlite.sql.SQLContext;
 import org.sqlite.sql.SQLStatement;
+import org.sqlite.sql.SQLStatementCache;
 import org.sqlite.sql.Transaction;
 import org.sqlite.sql.TransactionStatement;
 
 import static org.sqlite.server.util.ConvertUtils.*;
+import static org.sqlite.server.util.StringUtils.toLowerEnglish;
 import static java.lang.Integer.*;
 
 /**
@@ -70,6 +73,7 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
     static final int maxWriteTimes  = getInteger("org.sqlite.server.procssor.maxWriteTimes",  1<<10);
     static final int maxWriteQueue  = getInteger("org.sqlite.server.procssor.maxWriteQueue",  1<<10);
     static final int maxWriteBuffer = getInteger("org.sqlite.server.procssor.maxWriteBuffer", 1<<12);
+    static final int maxWriteIovecs = getInteger("org.sqlite.server.procssor.maxWriteIovecs", 1<<6);
     
     protected final InetSocketAddress remoteAddress;
     protected SocketChannel channel;
@@ -77,6 +81,8 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
     protected ByteBuffer readBuffer;
     protected volatile SQLiteQueryTask queryTask;
     protected Deque<ByteBuffer> writeQueue;
+    private ByteBuffer[] writeIovecs;
+    private int writeIovecsSize;
     protected SQLiteProcessorTask writeTask;
     
     protected final SQLiteServer server;
@@ -93,13 +99,45 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
     
     private volatile boolean open = true;
     private volatile boolean stopped;
+    // Execution pool state: interest ops and busy deferred until execution completed
+    private volatile boolean executing;
+    private int deferredOps;
+    private boolean deferredBusy;
+    private boolean deferredProcess;
     
     private SQLiteConnection connection;
     private String metaSchema = null;
+    private boolean metaChanged;
+    protected long hostResolveDeadline;
+    // Session privilege masks, resolved again when the meta snapshot version changed
+    private long privEpoch = -1L;
+    private int privMask;
+    private Map<String, Integer> attachPrivs;
     protected SQLiteLocalDb localDb;
     protected Stack<TransactionStatement> savepointStack;
     
     protected long sqlStartNanoTime;
+    protected long dbWriteLockWaitStart;
+    protected SQLiteDbWriteRequest dbWriteRequest;
+    // The write state of the session changed by the db writer: the last_insert_rowid() not
+    // restored into the connection yet, and changes() and total_changes() of the writes
+    protected boolean dbWriterInserted;
+    protected long dbWriterLastInsertRowid;
+    protected boolean dbWriterChanged;
+    protected long dbWriterChanges;
+    protected long dbWriterTotalChanges;
+    // The changes of the connection by restoring last_insert_rowid(), excluded in total_changes()
+    protected long dbWriterRestoredChanges;
+    // Busy timeout or idle timeout timer, accessed only in the worker
+    protected SQLiteTimer timer;
+    // Checked whether to migrate into the db affinity worker after authentication
+    protected boolean affinityChecked;
+    // Session state such as ATTACH, TEMP objects or PRAGMA: invisible to the db writer, 
+    // and the connection can't be pooled
+    protected boolean sessionStateChanged;
+    protected SQLitePooledConnection pooledConnection;
+    // The connection detached into the pool when idle in transaction pooling mode
+    protected boolean connectionDetached;
     
     protected SQLiteProcessor(SQLiteServer server, SocketChannel channel, int id) 
             throws NetworkException {
@@ -228,16 +266,51 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         }
     }
     
+    /**Detach the metaDb when the meta statement or transaction completes. The super user's
+     * metaDb is kept attached for the next meta statements, and detached lazily when the
+     * connection is released or the db writer is needed.
+     * 
+     * @throws IllegalStateException if detaching the metaDb failed
+     */
+    public void completeMetaDb() throws IllegalStateException {
+        if (this.metaSchema == null || (this.user != null && this.user.isSa())) {
+            return;
+        }
+        detachMetaDb();
+    }
+    
     public SQLiteAuthMethod newAuthMethod(String protocol, String authMethod) {
         return (this.server.newAuthMethod(protocol, authMethod));
     }
     
     public void setConnection(SQLiteConnection connection) throws SQLException {
+        if (connection == null) {
+            throw new NullPointerException("connection");
+        }
+        
+        boolean failed = true;
+        try {
+            SQLiteServer server = this.server;
+            setConnection(new SQLitePooledConnection(server, this.databaseName, connection));
+            failed = false;
+        } finally {
+            if (failed) {
+                IoUtils.close(connection);
+            }
+        }
+    }
+    
+    /**Set the connection that has been initialized, and bind the session functions
+     * of it to this processor.
+     * 
+     * @param pc the pooled connection
+     */
+    public void setConnection(SQLitePooledConnection pc) {
         if (!isOpen()) {
             throw new IllegalStateException("Processor has been closed");
         }
         
-        if (connection == null) {
+        if (pc == null) {
             throw new NullPointerException("connection");
         }
         
@@ -245,35 +318,145 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
             throw new IllegalStateException("connection has been set");
         }
         
-        this.connection = connection;
-        // init
-        String host = getRemoteAddress().getHostName();
-        Function func;
+        pc.bind(this);
+        this.pooledConnection = pc;
+        this.connection = pc.getConnection();
+    }
+    
+    /**Return the connection into the connection pool if it's reusable, otherwise close it.
+     */
+    protected void releaseConnection() {
+        final SQLitePooledConnection pc = this.pooledConnection;
+        if (pc == null) {
+            IoUtils.close(this.connection);
+            this.connection = null;
+            return;
+        }
+        
+        boolean released = false;
+        try {
+            if (this.server.isConnPoolEnabled() && isReusable() && releaseStatements(true)) {
+                pc.unbind();
+                released = this.server.releaseConnection(pc);
+            }
+        } finally {
+            this.pooledConnection = null;
+            this.connection = null;
+            if (released) {
+                trace(log, "release connection into pool");
+            } else {
+                pc.close();
+            }
+        }
+    }
+    
+    protected boolean isReusable() {
+        if (this.sessionStateChanged || this.executing || pooledConnectionClosed()) {
+            return false;
+        }
         
-        func = this.server.startTimeFunc;
-        Function.create(connection, "start_time", func);
-        Function.create(connection, "pg_postmaster_start_time", func);
-        func = this.server.versionFunc;
-        Function.create(connection, "version", func);
-        func = this.server.serverVersionFunc;
-        Function.create(connection, "server_version", func);
+        try {
+            if (!isAutoCommit()) {
+                return false;
+            }
+            detachLocalDb();
+            detachMetaDb();
+            return (this.localDb == null && this.metaSchema == null);
+        } catch (IllegalStateException e) {
+            traceError(log, "Reset connection error", e);
+            return false;
+        }
+    }
+    
+    /**Release the statements that hold the connection before it's detached or returned
+     * into the connection pool.
+     * 
+     * @param all release all statements if true, otherwise only the transient statements
+     * @return true if no statement holds the connection, otherwise false
+     */
+    protected boolean releaseStatements(boolean all) {
+        return true;
+    }
+    
+    /**Detach the connection into the connection pool in transaction pooling mode when this
+     * processor is idle: autocommit, no task, and no session state in the connection.
+     * 
+     * @return true if the connection detached, otherwise false
+     */
+    protected boolean detachConnection() {
+        final SQLitePooledConnection pc = this.pooledConnection;
+        if (pc == null || !this.server.isTransactionPooling() || isStopped() 
+                || this.queryTask != null || this.writeTask != null) {
+            return false;
+        }
+        if (!isReusable() || !releaseStatements(false)) {
+            return false;
+        }
         
-        func = new UserFunc(this.user, host);
-        Function.create(connection, "user", func);
-        func = new CurrentUserFunc(this.user);
-        Function.create(connection, "current_user", func);
+        pc.unbind();
+        this.pooledConnection = null;
+        this.connection = null;
+        this.connectionDetached = true;
+        if (!this.server.releaseConnection(pc)) {
+            pc.close();
+        }
+        trace(log, "detach connection");
         
-        func = new StringResultFunc(this.databaseName);
-        Function.create(connection, "database", func);
-        Function.create(connection, "current_database", func);
+        return true;
+    }
+    
+    /**Attach a connection borrowed from the connection pool, or a new connection if no
+     * idle one, when the connection has been detached in transaction pooling mode.
+     * 
+     * @throws SQLException if open or initialize the connection error
+     */
+    public void attachConnection() throws SQLException {
+        if (!this.connectionDetached) {
+            return;
+        }
         
-        TimestampFunc timestampFunc;
-        timestampFunc = this.server.clockTimestampFunc;
-        Function.create(connection, timestampFunc.getName(), timestampFunc);
-        timestampFunc = this.server.sysdateFunc;
-        Function.create(connection, timestampFunc.getName(), timestampFunc);
+        SQLiteServer server = this.server;
+        String db = this.databaseName;
+        SQLitePooledConnection pc = server.borrowConnection(db);
+        if (pc == null) {
+            SQLiteConnection conn = server.newSQLiteConnection(db);
+            boolean failed = true;
+            try {
+                server.initConnection(conn);
+                pc = new SQLitePooledConnection(server, db, conn);
+                failed = false;
+            } finally {
+                if (failed) {
+                    IoUtils.close(conn);
+                }
+            }
+        }
         
-        Function.create(connection, "sleep", new SleepFunc(this));
+        boolean failed = true;
+        try {
+            setConnection(pc);
+            this.connectionDetached = false;
+            failed = false;
+            trace(log, "attach connection");
+        } finally {
+            if (failed) {
+                pc.close();
+            }
+        }
+    }
+    
+    @Override
+    public boolean isAutoCommit() throws IllegalStateException {
+        if (this.connectionDetached) {
+            // No transaction in the detached state
+            return true;
+        }
+        return super.isAutoCommit();
+    }
+    
+    private boolean pooledConnectionClosed() {
+        SQLitePooledConnection pc = this.pooledConnection;
+        return (pc == null || pc.isClosed());
     }
     
     public SQLiteBusyContext getBusyContext() {
@@ -308,6 +491,10 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         this.slot = slot;
     }
     
+    protected void clearSlot() {
+        this.slot = -1;
+    }
+    
     protected SQLiteProcessorState getState() {
         return this.state;
     }
@@ -372,6 +559,17 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
     public void transactionComplelete() {
         getWorker().dbIdle();
         detachLocalDb();
+        if (this.metaChanged) {
+            this.metaChanged = false;
+            this.server.reloadMetaSnapshot();
+        }
+    }
+    
+    /**
+     * The meta data changed in the current transaction, and the meta snapshot is rebuilt after it completes.
+     */
+    public void metaChanged() {
+        this.metaChanged = true;
     }
     
     @Override
@@ -392,21 +590,30 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         
         switch(s.getCommand()) {
         case "SELECT":
-            metric.selectStmts++;
+            metric.selectStmts.incrementAndGet();
             break;
         case "UPDATE":
-            metric.updateStmts++;
+            metric.updateStmts.incrementAndGet();
             break;
         case "INSERT":
-            metric.insertStmts++;
+            metric.insertStmts.incrementAndGet();
             break;
         case "DELETE":
-            metric.deleteStmts++;
+            metric.deleteStmts.incrementAndGet();
             break;
         default:
             break;
         }
-        metric.totalStmts++;
+        metric.totalStmts.incrementAndGet();
+        
+        if (!this.sessionStateChanged 
+                && (this.server.isDbWriterEnabled() || this.server.isConnPoolEnabled())) {
+            if (s instanceof AttachStatement || s instanceof PragmaStatement 
+                    || usesSessionState(s)) {
+                this.sessionStateChanged = true;
+                trace(log, "session state changed by sql \"{}\"", s);
+            }
+        }
         
         long longTime = this.server.getLongQueryNanoTime();
         if (longTime > 0L) {
@@ -416,19 +623,83 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         }
     }
     
+    /**Check whether the statement creates a temp object. The session keeps it's own
+     * connection, and the later writes of it aren't executed in the db writer.
+     * 
+     * @param s the SQL statement
+     * @return true if the statement uses the session state
+     */
+    protected static boolean usesSessionState(SQLStatement s) {
+        return ("CREATE".equals(s.getCommand()) && s.isTemporary());
+    }
+    
+    protected static boolean callsFunction(String sql, String name) {
+        final int n = sql.length();
+        for (int i = sql.indexOf(name); i != -1; i = sql.indexOf(name, i + 1)) {
+            int j = i + name.length();
+            while (j < n && Character.isWhitespace(sql.charAt(j))) {
+                ++j;
+            }
+            if (j < n && sql.charAt(j) == '(') {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @Override
+    public SQLStatementCache getStatementCache() {
+        SQLitePooledConnection pc = this.pooledConnection;
+        if (pc == null) {
+            return null;
+        }
+        return pc.getStatementCache();
+    }
+    
+    @Override
+    public void statementCacheAccessed(boolean hit) {
+        final SQLMetric metric = this.worker.getSQLMetric();
+        if (hit) {
+            metric.stmtCacheHits.incrementAndGet();
+        } else {
+            metric.stmtCacheMisses.incrementAndGet();
+        }
+    }
+    
     @Override
     protected void postExecute(SQLStatement s) {
         long longTime = this.server.getLongQueryNanoTime();
         final SQLMetric metric = this.worker.getSQLMetric();
         
+        if (this.server.isStmtCacheEnabled() && isSchemaChanged(s)) {
+            // Invalidate the cached statements of this database
+            this.server.getSchemaEpoch(this.databaseName).incrementAndGet();
+            trace(log, "schema changed by sql \"{}\"", s);
+        }
+        
         if (longTime > 0L && this.sqlStartNanoTime > 0L) {
             if (System.nanoTime() - this.sqlStartNanoTime > longTime) {
-                metric.slowStmts++;
+                metric.slowStmts.incrementAndGet();
             }
         }
         this.sqlStartNanoTime = 0L;
     }
     
+    protected boolean isSchemaChanged(SQLStatement s) {
+        if (s instanceof AttachStatement || s instanceof DetachStatement) {
+            return true;
+        }
+        
+        switch (s.getCommand()) {
+        case "CREATE":
+        case "DROP":
+        case "ALTER":
+            return true;
+        default:
+            return false;
+        }
+    }
+    
     @Override
     protected void pushSavepoint(TransactionStatement txSql) {
         this.savepointStack.push(txSql);
@@ -473,7 +744,7 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         
         if (isAutoCommit()) {
             setTransaction(null);
-            detachMetaDb();
+            completeMetaDb();
         }
     }
     
@@ -481,6 +752,9 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
     public void dbWriteLock() throws SQLException {
         SQLiteBusyContext busyContext = getBusyContext();
         if (!this.server.tryDbWriteLock(this)) {
+            if (this.dbWriteLockWaitStart == 0L) {
+                this.dbWriteLockWaitStart = System.nanoTime();
+            }
             if (busyContext == null) {
                 long busyTimeout = this.server.getBusyTimeout();
                 busyContext = new SQLiteBusyContext(true, busyTimeout);
@@ -493,6 +767,179 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         if (busyContext != null) {
             busyContext.setOnDbWriteLock(false);
         }
+        
+        final SQLMetric metric = this.worker.getSQLMetric();
+        final long waitStart = this.dbWriteLockWaitStart;
+        metric.dbWriteLocks.incrementAndGet();
+        if (waitStart != 0L) {
+            final long waitTime = System.nanoTime() - waitStart;
+            this.dbWriteLockWaitStart = 0L;
+            metric.dbWriteLockWaits.incrementAndGet();
+            metric.dbWriteLockWaitTime.addAndGet(waitTime);
+            trace(log, "tx: db write lock wait {}us", waitTime / 1000L);
+        }
+    }
+    
+    @Override
+    public int executeInDbWriter(SQLStatement s) throws SQLException {
+        SQLiteDbWriteRequest request = this.dbWriteRequest;
+        if (request != null) {
+            if (request.getStatement() != s) {
+                throw new IllegalStateException("A db write request pending");
+            }
+            if (!request.isDone()) {
+                throw convertError(SQLiteErrorCode.SQLITE_BUSY);
+            }
+            
+            this.dbWriteRequest = null;
+            if (request.isRejected()) {
+                trace(log, "db writer rejected sql \"{}\"", s);
+                return -1;
+            }
+            preExecute(s);
+            if (this.sqlStartNanoTime > 0L) {
+                this.sqlStartNanoTime = request.getStartNanoTime();
+            }
+            try {
+                int n = request.getResult();
+                if (request.isInserted()) {
+                    this.dbWriterInserted = true;
+                    this.dbWriterLastInsertRowid = request.getLastInsertRowid();
+                }
+                this.dbWriterChanged = true;
+                this.dbWriterChanges = n;
+                this.dbWriterTotalChanges += n;
+                return n;
+            } finally {
+                postExecute(s);
+            }
+        }
+        
+        if (!isDbWriterStatement(s)) {
+            return -1;
+        }
+        SQLiteDbWriter writer = this.server.getDbWriter(getDbName());
+        if (writer == null) {
+            return -1;
+        }
+        request = new SQLiteDbWriteRequest(this, s, this.server.getBusyTimeout());
+        if (!writer.offer(request)) {
+            return -1;
+        }
+        this.dbWriteRequest = request;
+        setBusyContext(new SQLiteBusyContext(request));
+        trace(log, "wait for db writer executing sql \"{}\"", s);
+        throw convertError(SQLiteErrorCode.SQLITE_BUSY);
+    }
+    
+    @Override
+    public void restoreDbWriterState(SQLStatement s) throws SQLException {
+        final String command = s.getCommand();
+        if (this.dbWriterInserted && ("INSERT".equals(command) || "REPLACE".equals(command)
+                || callsFunction(toLowerEnglish(s.getSQL()), "last_insert_rowid"))) {
+            SQLitePooledConnection pc = this.pooledConnection;
+            if (!this.dbWriterChanged) {
+                // Keep changes() of the last local write that the restoring insert overwrites
+                this.dbWriterChanges = pc.changes();
+                this.dbWriterChanged = true;
+            }
+            pc.setLastInsertRowid(this.dbWriterLastInsertRowid);
+            this.dbWriterInserted = false;
+            ++this.dbWriterRestoredChanges;
+            trace(log, "restore last_insert_rowid() {} of db writer", this.dbWriterLastInsertRowid);
+        }
+        
+        switch (command) {
+        case "INSERT":
+        case "REPLACE":
+        case "UPDATE":
+        case "DELETE":
+            // changes() of the connection counts this local write
+            this.dbWriterChanged = false;
+            break;
+        default:
+            break;
+        }
+    }
+    
+    /**Get changes() of this session, that's the update count of the last write executed
+     * in the db writer if it's later than the last local write.
+     * 
+     * @param changes the builtin changes() of the connection
+     * @return changes() of this session
+     */
+    public long getChanges(long changes) {
+        return (this.dbWriterChanged? this.dbWriterChanges: changes);
+    }
+    
+    /**Get total_changes() of this session, that counts the writes executed in the db writer.
+     * 
+     * @param totalChanges the builtin total_changes() of the connection
+     * @return total_changes() of this session
+     */
+    public long getTotalChanges(long totalChanges) {
+        return (totalChanges - this.dbWriterRestoredChanges + this.dbWriterTotalChanges);
+    }
+    
+    protected boolean isDbWriterStatement(SQLStatement s) {
+        if (this.sessionStateChanged || this.queryTask == null 
+                || s.getClass() != SQLStatement.class) {
+            return false;
+        }
+        
+        switch (s.getCommand()) {
+        case "INSERT":
+        case "UPDATE":
+        case "DELETE":
+            break;
+        default:
+            return false;
+        }
+        
+        if (getTransaction() != null || this.localDb != null) {
+            return false;
+        }
+        if (this.metaSchema != null) {
+            // Detach the kept metaDb lazily
+            try {
+                detachMetaDb();
+            } catch (IllegalStateException e) {
+                traceError(log, "Detach metaDb error", e);
+                return false;
+            }
+        }
+        return (this.metaSchema == null);
+    }
+    
+    /**Cancel the request waiting in the db writer.
+     * 
+     * @return false if the request has been executed by the db writer, otherwise true
+     */
+    public boolean cancelDbWriteRequest() {
+        SQLiteDbWriteRequest request = this.dbWriteRequest;
+        if (request == null) {
+            return true;
+        }
+        
+        if (request.cancel()) {
+            this.dbWriteRequest = null;
+            trace(log, "tx: cancel db write request");
+            return true;
+        }
+        return false;
+    }
+    
+    /**Give up waiting for the db write lock when busy timeout or canceled, 
+     * and release the lock if it has been handed over to this processor.
+     */
+    public void cancelDbWriteLock() {
+        SQLiteBusyContext busyContext = getBusyContext();
+        if (busyContext != null && busyContext.isOnDbWriteLock()) {
+            busyContext.setOnDbWriteLock(false);
+            this.dbWriteLockWaitStart = 0L;
+            this.server.dbWriteUnlock(this);
+            trace(log, "tx: cancel db write lock");
+        }
     }
     
     @Override
@@ -516,6 +963,10 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         }
         
         String command = s.getCommand();
+        MetaSnapshot snapshot = this.server.getMetaSnapshot();
+        if (snapshot.getVersion() != this.privEpoch) {
+            resolvePrivileges(snapshot);
+        }
         if (s instanceof AttachStatement) {
             // ATTACH is special!
             final AttachStatement stmt = (AttachStatement)s;
@@ -533,13 +984,32 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
                 traceError(log, message, e);
                 throw convertError(SQLiteErrorCode.SQLITE_ERROR, message);
             }
-            final String host = this.user.getHost(), user = this.user.getUser();
-            return this.server.hasPrivilege(host, user, dbName, command, dataDir);
+            String key = dbName + "@" + dataDir;
+            Integer mask = this.attachPrivs.get(key);
+            if (mask == null) {
+                final String host = this.user.getHost(), user = this.user.getUser();
+                mask = snapshot.getPrivMask(host, user, dbName, dataDir);
+                this.attachPrivs.put(key, mask);
+            }
+            return Db.hasPriv(mask, command);
         } else {
-            return this.server.hasPrivilege(this.user, command);
+            return Db.hasPriv(this.privMask, command);
         }
     }
     
+    protected void resolvePrivileges(MetaSnapshot snapshot) {
+        final String host = this.user.getHost(), user = this.user.getUser();
+        this.privMask = snapshot.getPrivMask(host, user, this.user.getDb());
+        if (this.attachPrivs == null) {
+            this.attachPrivs = new HashMap<>();
+        } else {
+            this.attachPrivs.clear();
+        }
+        this.privEpoch = snapshot.getVersion();
+        trace(log, "privileges resolved: mask 0x{} in meta snapshot#{}", 
+                Integer.toHexString(this.privMask), this.privEpoch);
+    }
+    
     @Override
     protected void checkPermission(SQLStatement s) throws SQLException {
         if (hasPrivilege(s)) {
@@ -563,7 +1033,7 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         SQLiteBusyContext busyContext = getBusyContext();
         if (busyContext != null) {
             busyContext.setCanceled(true);
-            this.worker.wakeup();
+            this.worker.signal(this);
         }
         
         SQLiteConnection conn = getConnection();
@@ -589,9 +1059,13 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         server.trace(log, "Connect: id {}", this.id);
         try {
             InetSocketAddress remoteAddr = this.remoteAddress;
-            if (!server.isAllowed(remoteAddr)) {
-                server.trace(log, "Host '{}' not allowed", remoteAddr.getHostName());
+            // The host resolution waiting bounded in the whole admission
+            this.hostResolveDeadline = server.getHostResolveDeadline();
+            if (!server.isAllowed(remoteAddr, this.hostResolveDeadline)) {
+                server.trace(log, "Host '{}' not allowed", remoteAddr.getAddress().getHostAddress());
                 deny(remoteAddr);
+                stop();
+                enableWrite();
                 return;
             }
             enableRead();
@@ -614,6 +1088,20 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
     
     protected abstract void deny(InetSocketAddress remote) throws IOException;
     
+    protected boolean isAffinityReady() {
+        if (this.user == null || getDbName() == null
+                || (getConnection() == null && !this.connectionDetached)) {
+            // Not authenticated
+            return false;
+        }
+        ByteBuffer rb = this.readBuffer;
+        if (rb != null && rb.position() > 0) {
+            return false;
+        }
+        
+        return (isAutoCommit() && this.queryTask == null && this.writeTask == null);
+    }
+    
     protected void read() {
         try {
             if (isRunning()) {
@@ -635,7 +1123,7 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         final ByteBuffer buf = this.readBuffer;
         if (buf == null) {
             int cap = Math.max(minSize, initReadBuffer);
-            return (this.readBuffer = ByteBuffer.allocate(cap));
+            return (this.readBuffer = allocateBuffer(cap));
         }
         
         final int cap = buf.capacity(), pos = buf.position();
@@ -648,11 +1136,12 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
             this, pos, freeSize, minSize);
         freeSize = Math.max(freeSize << 1, minSize);
         final int newSize = pos + freeSize;
-        ByteBuffer newBuffer = ByteBuffer.allocate(newSize);
+        ByteBuffer newBuffer = allocateBuffer(newSize);
         buf.flip();
         newBuffer.put(buf);
         // fixbug - dead-loop issue for setting newBuffer limit as buf.limit()
-        newBuffer.limit(newSize);
+        newBuffer.limit(newBuffer.capacity());
+        releaseBuffer(buf);
         return (this.readBuffer = newBuffer);
     }
     
@@ -665,17 +1154,15 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         final int cap = buf.capacity();
         int rem = buf.remaining();
         if (rem == 0) {
-            if (cap > maxReadBuffer) {
-                this.readBuffer = null;
-            } else {
-                buf.clear();
-            }
+            // Return it to the pool when no message in flight
+            this.readBuffer = null;
+            releaseBuffer(buf);
             return 0;
         }
         
         buf.compact();
         if (buf.position() <= initReadBuffer && cap > maxReadBuffer) {
-            ByteBuffer newBuffer = ByteBuffer.allocate(initReadBuffer);
+            ByteBuffer newBuffer = allocateBuffer(initReadBuffer);
             buf.flip();
             newBuffer.put(buf);
             this.readBuffer = newBuffer;
@@ -684,6 +1171,89 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         return (this.readBuffer.position());
     }
     
+    /**Borrow a buffer from the buffer pool of the worker.
+     * 
+     * @param minSize the min capacity of the buffer
+     * @return the cleared buffer
+     */
+    protected ByteBuffer allocateBuffer(int minSize) {
+        final SQLiteWorker worker = this.worker;
+        if (worker == null) {
+            return ByteBuffer.allocate(minSize);
+        }
+        return worker.getBufferPool().allocate(minSize);
+    }
+    
+    protected void releaseBuffer(ByteBuffer buf) {
+        final SQLiteWorker worker = this.worker;
+        if (worker != null) {
+            worker.getBufferPool().release(buf);
+        }
+    }
+    
+    protected void discardBuffer(ByteBuffer buf) {
+        final SQLiteWorker worker = this.worker;
+        if (worker != null) {
+            worker.getBufferPool().discard(buf);
+        }
+    }
+    
+    /**Return the buffers to the pool when this processor is idle, i.e. no message in flight.
+     */
+    protected void releaseBuffers() {
+        final ByteBuffer rb = this.readBuffer;
+        if (rb != null && rb.position() == 0) {
+            this.readBuffer = null;
+            releaseBuffer(rb);
+        }
+    }
+    
+    /**Move the pending read bytes into a buffer borrowed from the target pool when migrating
+     * to another worker, for a buffer should be returned to the pool that it's borrowed from.
+     * 
+     * @param target the buffer pool of the target worker
+     */
+    protected void migrateBuffers(BufferPool target) {
+        final ByteBuffer rb = this.readBuffer;
+        if (rb == null) {
+            return;
+        }
+        
+        ByteBuffer newBuffer = target.allocate(rb.capacity());
+        rb.flip();
+        newBuffer.put(rb);
+        this.readBuffer = newBuffer;
+        releaseBuffer(rb);
+    }
+    
+    /**Release or discard all buffers when this processor closed.
+     * 
+     * @param reuse the buffers can be reused, or discarded since they maybe still in use
+     */
+    protected void releaseBuffers(boolean reuse) {
+        final ByteBuffer rb = this.readBuffer;
+        this.readBuffer = null;
+        final Deque<ByteBuffer> queue = this.writeQueue;
+        this.writeQueue = null;
+        
+        if (rb != null) {
+            if (reuse) {
+                releaseBuffer(rb);
+            } else {
+                discardBuffer(rb);
+            }
+        }
+        if (queue != null) {
+            for (ByteBuffer buf: queue) {
+                if (reuse) {
+                    releaseBuffer(buf);
+                } else {
+                    discardBuffer(buf);
+                }
+            }
+        }
+    }
+    
     protected void write() {
         try {
             flush();
@@ -702,21 +1272,31 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         
         disableRead();
         for (;;) {
-            ByteBuffer buf = nextWriteBuffer();
-            if (buf != null) {
+            // Gathering write the queued buffers in one syscall, or defer it for coalescing
+            final boolean deferred = isWriteDeferred();
+            final ByteBuffer[] bufs = deferred? null: gatherWriteBuffers();
+            final int size = deferred? 0: this.writeIovecsSize;
+            if (size > 0) {
                 this.state.startWrite();
-                for (; buf.hasRemaining();) {
-                    int n = ch.write(buf);
-                    if (n == 0) {
-                        break;
+                int offset = 0;
+                for (;;) {
+                    long n = ch.write(bufs, offset, size - offset);
+                    this.state.incrWriteCalls();
+                    for (; offset < size && !bufs[offset].hasRemaining(); ++offset) {
+                        recycleWriteBuffer(bufs[offset]);
+                        bufs[offset] = null;
                     }
-                    if (++i >= maxWriteTimes) {
+                    if (offset == size || n == 0L || ++i >= maxWriteTimes) {
                         break;
                     }
                 }
-                if (buf.hasRemaining()) {
-                    this.writeQueue.offerFirst(buf);
+                if (offset < size) {
+                    for (int j = size - 1; j >= offset; --j) {
+                        this.writeQueue.offerFirst(bufs[j]);
+                        bufs[j] = null;
+                    }
                     this.state.startSleep();
+                    this.worker.schedule(this);
                     return;
                 }
                 continue;
@@ -724,19 +1304,34 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
             
             SQLiteProcessorTask task = this.writeTask;
             if (task != null) {
-                task.run();
+                execute(task);
+                if (isExecuting()) {
+                    return;
+                }
                 continue;
             }
             
             disableWrite();
+            this.state.endResponse();
+            endFlush();
+            releaseBuffers();
             if (isRunning()) {
+                if (!this.affinityChecked && this.server.isDbAffinity() && isAffinityReady()) {
+                    this.affinityChecked = true;
+                    if (this.worker.migrate(this)) {
+                        break;
+                    }
+                }
                 // Go on
                 enableRead();
                 ByteBuffer rb = this.readBuffer;
                 if (rb != null && rb.position() > 0) {
                     read();
+                } else if (this.server.isTransactionPooling()) {
+                    detachConnection();
                 }
                 this.state.startSleep();
+                this.worker.schedule(this);
             } else {
                 this.worker.close(this);
             }
@@ -744,6 +1339,22 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         }
     }
     
+    /**Check whether the queued responses can be written later, e.g. the responses of
+     * the pipelined requests are coalesced until the client asks for them.
+     * 
+     * @return true if the write is deferred, default false
+     */
+    protected boolean isWriteDeferred() {
+        return false;
+    }
+    
+    /**Called when the queued responses have been written or deferred, and the write
+     * turns into idle.
+     */
+    protected void endFlush() {
+        // NOOP
+    }
+    
     protected boolean canFlush() {
         ByteBuffer buf = this.writeQueue.peek();
         if (buf == null) {
@@ -751,8 +1362,8 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         } else if (buf.remaining() >= maxWriteBuffer) {
             // Case-1
             return true;
-        } else if (this.writeQueue.size() >= maxWriteQueue) {
-            // Case-2
+        } else if (this.writeQueue.size() >= Math.min(maxWriteQueue, maxWriteIovecs)) {
+            // Case-2 the buffers enough for one gathering write
             return true;
         }
         
@@ -763,42 +1374,135 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         return this.writeQueue.poll();
     }
     
+    /**Gather the next write buffers in order, at most maxWriteIovecs buffers.
+     * 
+     * @return the iovecs array, and the buffers count in writeIovecsSize
+     */
+    private ByteBuffer[] gatherWriteBuffers() {
+        ByteBuffer[] bufs = this.writeIovecs;
+        if (bufs == null) {
+            bufs = this.writeIovecs = new ByteBuffer[Math.max(1, maxWriteIovecs)];
+        }
+        
+        int n = 0;
+        for (; n < bufs.length; ++n) {
+            ByteBuffer buf = nextWriteBuffer();
+            if (buf == null) {
+                break;
+            }
+            bufs[n] = buf;
+        }
+        this.writeIovecsSize = n;
+        
+        return bufs;
+    }
+    
+    /**Recycle the write buffer that has been written completely.
+     * 
+     * @param buf the written buffer
+     */
+    protected void recycleWriteBuffer(ByteBuffer buf) {
+        releaseBuffer(buf);
+    }
+    
+    /**Queue the write buffer. No merging needed here, for the queued buffers are written
+     * by gathering write in flush().
+     * 
+     * @param writeBuffer the buffer to write
+     */
     protected void offerWriteBuffer(ByteBuffer writeBuffer) {
-        final ByteBuffer last = this.writeQueue.peekLast();
-        final int minSize = writeBuffer.remaining();
-        if (last == null || minSize > maxWriteBuffer) {
-            this.writeQueue.offer(writeBuffer);
-            return;
+        this.writeQueue.offer(writeBuffer);
+    }
+    
+    /**Execute the task in the execution pool if it's enabled, otherwise in current thread.
+     * 
+     * @param task the processor task
+     */
+    protected void execute(SQLiteProcessorTask task) {
+        if (isExecuting() || !this.worker.execute(this, task)) {
+            task.run();
         }
+    }
+    
+    public boolean isExecuting() {
+        return this.executing;
+    }
+    
+    protected synchronized void startExecution() {
+        SelectionKey key = this.channel.keyFor(this.selector);
+        if (key == null) {
+            this.deferredOps = 0;
+        } else {
+            // Suspend IO of this processor until execution completed
+            this.deferredOps = key.interestOps();
+            key.interestOps(0);
+        }
+        this.deferredBusy = false;
+        this.deferredProcess = false;
+        this.executing = true;
+    }
+    
+    /**Complete the execution in the worker thread: restore interest ops of this processor.
+     * 
+     * @return true if the processor should be suspended for busy, otherwise false
+     */
+    protected synchronized boolean completeExecution() {
+        final boolean busy = this.deferredBusy;
+        this.executing = false;
+        this.deferredBusy = false;
         
-        // Merge buffer: optimize write performance!
-        final int lim = last.limit(), cap = last.capacity();
-        int freeSize = cap - lim;
-        if (freeSize >= minSize) {
-            // Case-1 space enough
-            last.position(lim).limit(cap);
-            last.put(writeBuffer);
-            last.flip();
-            return;
+        SocketChannel channel = this.channel;
+        if (channel != null) {
+            SelectionKey key = channel.keyFor(this.selector);
+            if (key != null && key.isValid()) {
+                key.interestOps(this.deferredOps);
+            }
         }
-        // - Try to expand capacity
-        freeSize = Math.max(freeSize + cap, minSize);
-        final int newSize = lim + freeSize;
-        if (newSize <= maxWriteBuffer) {
-            // Case-c space enough after expanding
-            final ByteBuffer newBuffer = ByteBuffer.allocate(newSize);
-            newBuffer.put(last);
-            newBuffer.put(writeBuffer);
-            newBuffer.flip();
-            this.writeQueue.pollLast();
-            this.writeQueue.offer(newBuffer);
-            return;
+        this.deferredOps = 0;
+        
+        return busy;
+    }
+    
+    protected synchronized void deferBusy() {
+        this.deferredBusy = true;
+    }
+    
+    /**Defer processing the received messages until execution completed, for the IO of
+     * this processor is owned by the worker.
+     * 
+     * @return true if deferred, false if not executing in the execution pool
+     */
+    protected synchronized boolean deferProcess() {
+        if (!this.executing) {
+            return false;
+        }
+        this.deferredProcess = true;
+        return true;
+    }
+    
+    protected synchronized boolean pollDeferredProcess() {
+        final boolean deferred = this.deferredProcess;
+        this.deferredProcess = false;
+        return deferred;
+    }
+    
+    protected synchronized boolean deferInterestOps(int ops, boolean enable) {
+        if (!this.executing) {
+            return false;
         }
         
-        this.writeQueue.offer(writeBuffer);
+        if (enable) {
+            this.deferredOps |= ops;
+        } else {
+            this.deferredOps &= ~ops;
+        }
+        return true;
     }
     
     protected void enableRead() throws IOException {
+        if (this.executing && deferInterestOps(SelectionKey.OP_READ, true)) {
+            return;
+        }
         SelectionKey key = this.channel.keyFor(this.selector);
         if (key == null) {
             this.channel.register(this.selector, SelectionKey.OP_READ, this);
@@ -808,6 +1512,9 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
     }
     
     protected void disableRead() throws IOException {
+        if (this.executing && deferInterestOps(SelectionKey.OP_READ, false)) {
+            return;
+        }
         SelectionKey key = this.channel.keyFor(this.selector);
         if (key != null) {
             key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
@@ -815,6 +1522,9 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
     }
     
     protected void enableWrite() throws IOException {
+        if (this.executing && deferInterestOps(SelectionKey.OP_WRITE, true)) {
+            return;
+        }
         SelectionKey key = this.channel.keyFor(this.selector);
         if (key == null) {
             this.channel.register(this.selector, SelectionKey.OP_WRITE, this);
@@ -824,6 +1534,9 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
     }
     
     protected void disableWrite() throws IOException {
+        if (this.executing && deferInterestOps(SelectionKey.OP_WRITE, false)) {
+            return;
+        }
         SelectionKey key = this.channel.keyFor(this.selector);
         if (key != null) {
             key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
@@ -832,6 +1545,32 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
     
     protected abstract void process() throws IOException;
     
+    /**Go on processing the received messages after the async task finished. It's deferred
+     * into the worker if called in the execution pool.
+     * 
+     * @throws IOException if IO error
+     */
+    protected void processAsync() throws IOException {
+        if (isExecuting() && deferProcess()) {
+            return;
+        }
+        process();
+    }
+    
+    /**Process the messages deferred by the task executed in the execution pool.
+     */
+    protected void processDeferred() {
+        try {
+            process();
+        } catch (Exception e) {
+            this.server.traceError(log, "process error", e);
+            this.worker.close(this);
+        } catch (OutOfMemoryError e) {
+            this.worker.close(this);
+            log.error("No memory", e);
+        }
+    }
+    
     protected abstract void tooManyConns() throws IOException;
     
     protected abstract void interalError() throws IOException;
@@ -920,6 +1659,8 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         }
         
         // Do delete
+        this.server.stopDbWriter(db);
+        this.server.closeConnectionPool(db);
         if (!dbFile.delete()) {
             String message = String.format("Can't delete database file of '%s'", dbFile);
             trace(log, "{}: {}", this, message);
@@ -1003,7 +1744,7 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         this.stopped = true;
         this.state.stop();
         shutdownInput();
-        this.worker.wakeup();
+        this.worker.signal(this);
     }
     
     public boolean isStopped() {
@@ -1030,16 +1771,47 @@ public abstract class SQLiteProcessor extends SQLContext implements AutoCloseabl
         this.writeTask = null;
         
         // release buffers
-        this.readBuffer = null;
-        this.writeQueue = null;
+        releaseBuffers(!isExecuting());
+        this.writeIovecs = null;
         this.savepointStack = null;
         
+        SQLiteDbWriteRequest request = this.dbWriteRequest;
+        if (request != null) {
+            request.cancel();
+            this.dbWriteRequest = null;
+        }
+        
         // release connections
         shutdownOutput();
         IoUtils.close(this.channel);
         this.channel = null;
-        IoUtils.close(this.connection);
-        this.connection = null;
+        if (isExecuting()) {
+            // The connection still in use by the execution pool: interrupt the execution, and
+            // release the connection and the db write lock after the execution completed
+            interruptExecution();
+            this.server.trace(log, "Close deferred: id {}", this.id);
+            return;
+        }
+        closeConnection();
+    }
+    
+    protected void interruptExecution() {
+        SQLiteConnection conn = this.connection;
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.getDatabase().interrupt();
+        } catch (SQLException e) {
+            traceError(log, "Interrupt execution error", e);
+        }
+    }
+    
+    /**
+     * Release the connection and the db write lock of this closed processor in the worker.
+     */
+    protected void closeConnection() {
+        releaseConnection();
         this.dbWriteUnlock();
         this.worker.dbIdle();
         this.state.close();
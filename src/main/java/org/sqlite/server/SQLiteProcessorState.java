@@ -40,6 +40,9 @@ public class SQLiteProcessorState implements AutoCloseable {
     protected int state = INIT;
     protected String stateText = "";
     protected String sql;
+    // Network write statistics
+    protected long writeCalls, responses;
+    private long lastWriteCalls;
     
     public SQLiteProcessorState(SQLiteProcessor processor) {
         this.processor = processor;
@@ -144,6 +147,29 @@ public class SQLiteProcessorState implements AutoCloseable {
         return getInfo(false);
     }
     
+    public long getWriteCalls() {
+        return this.writeCalls;
+    }
+    
+    public long getResponses() {
+        return this.responses;
+    }
+    
+    /**Count one write syscall.
+     */
+    public void incrWriteCalls() {
+        ++this.writeCalls;
+    }
+    
+    /**End the response when all write buffers flushed, and count it if written.
+     */
+    public void endResponse() {
+        if (this.writeCalls != this.lastWriteCalls) {
+            this.lastWriteCalls = this.writeCalls;
+            ++this.responses;
+        }
+    }
+    
     public void lock() {
         this.lock.lock();
     }
@@ -255,6 +281,8 @@ public class SQLiteProcessorState implements AutoCloseable {
             copy.state = this.state;
             copy.stateText = this.stateText;
             copy.sql = this.sql;
+            copy.writeCalls = this.writeCalls;
+            copy.responses = this.responses;
         } finally {
             this.lock.unlock();
         }
@@ -74,18 +74,25 @@ public abstract class SQLiteProcessorTask implements Runnable {
         
         this.open = false;
         if (isAsync()) {
-            proc.process();
+            proc.processAsync();
         }
     }
     
     protected void checkBusyState() throws SQLException {
         SQLiteBusyContext ctx = this.proc.getBusyContext();
         if (ctx != null && !ctx.isSleepable() && ctx.isTimeout()) {
+            this.proc.cancelDbWriteLock();
             String message = "The database file is locked and busy timeout";
             throw convertError(SQLiteErrorCode.SQLITE_BUSY, message);
         }
         
         if (ctx != null && ctx.isCanceled()) {
+            if (!this.proc.cancelDbWriteRequest()) {
+                // Executing in the db writer: wait for the result
+                ctx.setCanceled(false);
+                return;
+            }
+            this.proc.cancelDbWriteLock();
             throw convertError(SQLiteErrorCode.SQLITE_INTERRUPT);
         }
     }
@@ -35,8 +35,14 @@ import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,7 +58,9 @@ import org.sqlite.server.func.VersionFunc;
 import org.sqlite.server.pg.PgServer;
 import org.sqlite.server.sql.SQLMetric;
 import org.sqlite.server.sql.meta.Catalog;
+import org.sqlite.server.sql.meta.MetaSnapshot;
 import org.sqlite.server.sql.meta.User;
+import org.sqlite.server.util.BufferPool;
 import org.sqlite.server.util.IoUtils;
 import org.sqlite.sql.SQLContext;
 import org.sqlite.server.util.StringUtils;
@@ -81,6 +89,18 @@ public abstract class SQLiteServer implements AutoCloseable {
     public static final int LONG_QUERY_TIME_DEFAULT = 2000;
     public static final int MAX_CONNS_DEFAULT = 50;
     public static final int MAX_WORKER_COUNT  = 128;
+    public static final int EXEC_POOL_SIZE_DEFAULT = 0;
+    public static final int MAX_EXEC_POOL_SIZE = 1024;
+    public static final int GROUP_COMMIT_WINDOW_DEFAULT = 0;
+    public static final int GROUP_COMMIT_SIZE_DEFAULT = 100;
+    public static final int CONN_POOL_SIZE_DEFAULT = 0;
+    public static final int CONN_POOL_IDLE_TIMEOUT_DEFAULT = 60000;
+    public static final long CONN_POOL_EVICT_INTERVAL = 1000L;
+    public static final int CONN_POOL_SIZE_TX_DEFAULT = 32;
+    public static final String POOL_MODE_SESSION = "session";
+    public static final int STMT_CACHE_SIZE_DEFAULT = 0;
+    public static final long STMT_CACHE_MEMORY_DEFAULT = 1L << 20;
+    public static final String POOL_MODE_TRANSACTION = "transaction";
     public static final int OPEN_TIMEOUT_DEFAULT = 30000;
     public static final long MAX_ALLOWED_PACKET_DEFAULT = 16L << 20;
     public static final int SLEEP_TIMEOUT_DEFAULT = 300000;
@@ -118,7 +138,7 @@ public abstract class SQLiteServer implements AutoCloseable {
     
     protected JournalMode journalMode = JOURNAL_MODE_DEFAULT;
     protected SynchronousMode synchronous = SYNCHRONOUS_DEFAULT;
-    private final ConcurrentMap<String, SQLContext> dbWriteLocks;
+    private final ConcurrentMap<String, SQLiteDbWriteLock> dbWriteLocks;
     protected File dataDir = new File(System.getProperty("user.home"), "sqlite3Data");
     protected boolean trace;
     protected boolean traceError;
@@ -128,7 +148,28 @@ public abstract class SQLiteServer implements AutoCloseable {
     protected ServerSocketChannel serverSocket;
     protected SQLiteWorker[] workers;
     protected int workerCount = Runtime.getRuntime().availableProcessors();
-    protected int workerId;
+    protected SQLiteWorkerPolicy workerPolicy;
+    // Route the connections of a database into the same worker
+    protected boolean dbAffinity;
+    protected int execPoolSize = EXEC_POOL_SIZE_DEFAULT;
+    protected ThreadPoolExecutor execPool;
+    protected boolean dbWriterEnabled;
+    // Group commit window in micros, 0 means group commit disabled
+    protected int groupCommitWindow = GROUP_COMMIT_WINDOW_DEFAULT;
+    protected int groupCommitSize = GROUP_COMMIT_SIZE_DEFAULT;
+    private final ConcurrentMap<String, SQLiteDbWriter> dbWriters;
+    // Max idle connections per database, 0 means connection pool disabled
+    protected int connPoolSize = CONN_POOL_SIZE_DEFAULT;
+    protected int connPoolIdleTimeout = CONN_POOL_IDLE_TIMEOUT_DEFAULT;
+    private final ConcurrentMap<String, SQLiteConnectionPool> connPools;
+    private volatile long connPoolEvictTime;
+    // Transaction pooling: idle sessions hold no connection
+    protected boolean transactionPooling;
+    // Max cached statements per connection, 0 means statement cache disabled
+    protected int stmtCacheSize = STMT_CACHE_SIZE_DEFAULT;
+    protected long stmtCacheMemory = STMT_CACHE_MEMORY_DEFAULT;
+    // Schema epoch of databases: the statement caches are invalidated when it changed
+    private final ConcurrentMap<String, AtomicLong> schemaEpochs;
     
     private String startTime;
     private long startMillis;
@@ -213,6 +254,9 @@ public abstract class SQLiteServer implements AutoCloseable {
     protected SQLiteServer(String protocol) {
         this.protocol = protocol;
         this.dbWriteLocks = new ConcurrentHashMap<>();
+        this.dbWriters = new ConcurrentHashMap<>();
+        this.connPools = new ConcurrentHashMap<>();
+        this.schemaEpochs = new ConcurrentHashMap<>();
     }
     
     protected String[] wrapArgs(String command, String ... args) {
@@ -439,6 +483,65 @@ public abstract class SQLiteServer implements AutoCloseable {
             } else if ("--worker-count".equals(a)) {
                 int n = Math.max(1, Integer.decode(args[++i]));
                 this.workerCount = Math.min(MAX_WORKER_COUNT, n);
+            } else if ("--db-affinity".equals(a)) {
+                this.dbAffinity = true;
+            } else if ("--worker-policy".equals(a)) {
+                this.workerPolicy = SQLiteWorkerPolicy.create(args[++i]);
+            } else if ("--exec-pool-size".equals(a)) {
+                int n = Integer.decode(args[++i]);
+                if (n < 0) {
+                    throw new IllegalArgumentException(a+" " + n);
+                }
+                this.execPoolSize = Math.min(MAX_EXEC_POOL_SIZE, n);
+            } else if ("--conn-pool-size".equals(a)) {
+                int n = Integer.decode(args[++i]);
+                if (n < 0) {
+                    throw new IllegalArgumentException(a+" " + n);
+                }
+                this.connPoolSize = n;
+            } else if ("--conn-pool-idle-timeout".equals(a)) {
+                int n = Integer.decode(args[++i]);
+                if (n < 0) {
+                    throw new IllegalArgumentException(a+" " + n);
+                }
+                this.connPoolIdleTimeout = n;
+            } else if ("--stmt-cache-size".equals(a)) {
+                int n = Integer.decode(args[++i]);
+                if (n < 0) {
+                    throw new IllegalArgumentException(a+" " + n);
+                }
+                this.stmtCacheSize = n;
+            } else if ("--stmt-cache-memory".equals(a)) {
+                long n = Long.decode(args[++i]);
+                if (n < 0L) {
+                    throw new IllegalArgumentException(a+" " + n);
+                }
+                this.stmtCacheMemory = n;
+            } else if ("--pool-mode".equals(a)) {
+                String mode = toLowerEnglish(args[++i]);
+                if (POOL_MODE_TRANSACTION.equals(mode)) {
+                    this.transactionPooling = true;
+                } else if (POOL_MODE_SESSION.equals(mode)) {
+                    this.transactionPooling = false;
+                } else {
+                    throw new IllegalArgumentException(a+" " + mode);
+                }
+            } else if ("--db-writer".equals(a)) {
+                this.dbWriterEnabled = true;
+            } else if ("--group-commit-window".equals(a)) {
+                int n = Integer.decode(args[++i]);
+                if (n < 0) {
+                    throw new IllegalArgumentException(a+" " + n);
+                }
+                this.groupCommitWindow = n;
+                // Group commit executed in db writers
+                this.dbWriterEnabled |= n > 0;
+            } else if ("--group-commit-size".equals(a)) {
+                int n = Integer.decode(args[++i]);
+                if (n < 1) {
+                    throw new IllegalArgumentException(a+" " + n);
+                }
+                this.groupCommitSize = n;
             } else if ("--auth-method".equals(a) || "-A".equals(a)) {
                 this.authMethod = toLowerEnglish(args[++i]);
             } else if ("--max-allowed-packet".equals(a)) {
@@ -452,6 +555,9 @@ public abstract class SQLiteServer implements AutoCloseable {
         if (this.dbName == null) {
             this.dbName = this.username;
         }
+        if (this.transactionPooling && this.connPoolSize == 0) {
+            this.connPoolSize = CONN_POOL_SIZE_TX_DEFAULT;
+        }
         
         trace(log, "command {}", command);
         switch (command) {
@@ -502,6 +608,9 @@ public abstract class SQLiteServer implements AutoCloseable {
             this.selector = Selector.open();
             this.serverSocket.register(this.selector, SelectionKey.OP_ACCEPT);
             
+            // Load meta snapshot and resolve the host names before admission
+            this.metaDb.getSnapshot();
+            this.metaDb.awaitHostsResolved();
             // server workers
             startWorkers();
             
@@ -516,6 +625,8 @@ public abstract class SQLiteServer implements AutoCloseable {
             failed = false;
         } catch (IOException e) {
             throw new NetworkException("Can't create server socket", e);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Access metaDb fatal", e);
         } finally {
             if (failed) {
                 stop();
@@ -524,6 +635,8 @@ public abstract class SQLiteServer implements AutoCloseable {
     }
     
     protected void startWorkers() throws IOException {
+        startExecPool();
+        
         this.workers = new SQLiteWorker[this.workerCount];
         for (int i = 0, n = workers.length; i < n; ++i) {
             SQLiteWorker worker = new SQLiteWorker(this, i);
@@ -532,35 +645,331 @@ public abstract class SQLiteServer implements AutoCloseable {
         }
     }
     
-    protected SQLiteWorker nextWorker() {
-        SQLiteWorker worker = this.workers[this.workerId];
-        if (worker.isOpen() && !worker.isStopped()) {
-            this.workerId = ++this.workerId % this.workers.length;
-            return worker;
+    protected void startExecPool() {
+        final int size = this.execPoolSize;
+        if (size <= 0) {
+            return;
+        }
+        
+        // At most one task of a connection in the pool at the same time
+        final int queueSize = Math.max(1, getMaxConns() * this.workerCount);
+        final String prefix = getName() + " executor-";
+        ThreadFactory factory = new ThreadFactory() {
+            final AtomicInteger nextId = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + this.nextId.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        this.execPool = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS, 
+                new ArrayBlockingQueue<Runnable>(queueSize), factory);
+        log.info("{} execution pool size {}", this, size);
+    }
+    
+    protected void stopExecPool() {
+        ThreadPoolExecutor execPool = this.execPool;
+        if (execPool != null) {
+            execPool.shutdown();
+        }
+    }
+    
+    /**
+     * @return the SQL execution pool, or null if SQL executed in workers
+     */
+    public ThreadPoolExecutor getExecPool() {
+        return this.execPool;
+    }
+    
+    public int getExecPoolSize() {
+        return this.execPoolSize;
+    }
+    
+    public boolean isDbWriterEnabled() {
+        return this.dbWriterEnabled;
+    }
+    
+    public boolean isGroupCommitEnabled() {
+        return (this.groupCommitWindow > 0);
+    }
+    
+    /**
+     * @return the group commit window in micros
+     */
+    public int getGroupCommitWindow() {
+        return this.groupCommitWindow;
+    }
+    
+    public int getGroupCommitSize() {
+        return this.groupCommitSize;
+    }
+    
+    /**Get the db writer of the database, and start it if not exists.
+     * 
+     * @param db the database name
+     * @return the db writer, or null if db writer not enabled or this server stopped
+     */
+    public SQLiteDbWriter getDbWriter(String db) {
+        if (!this.dbWriterEnabled || isStopped()) {
+            return null;
+        }
+        
+        SQLiteDbWriter writer = this.dbWriters.get(db);
+        if (writer != null) {
+            return writer;
+        }
+        synchronized (this.dbWriters) {
+            writer = this.dbWriters.get(db);
+            if (writer == null) {
+                writer = new SQLiteDbWriter(this, db);
+                writer.start();
+                this.dbWriters.put(db, writer);
+            }
+            return writer;
+        }
+    }
+    
+    public void stopDbWriter(String db) {
+        SQLiteDbWriter writer;
+        synchronized (this.dbWriters) {
+            writer = this.dbWriters.remove(db);
+        }
+        if (writer != null) {
+            writer.stop();
+        }
+    }
+    
+    protected void stopDbWriters() {
+        synchronized (this.dbWriters) {
+            for (SQLiteDbWriter writer: this.dbWriters.values()) {
+                writer.stop();
+            }
+            this.dbWriters.clear();
+        }
+    }
+    
+    public boolean isConnPoolEnabled() {
+        return (this.connPoolSize > 0);
+    }
+    
+    public int getConnPoolSize() {
+        return this.connPoolSize;
+    }
+    
+    public int getConnPoolIdleTimeout() {
+        return this.connPoolIdleTimeout;
+    }
+    
+    /**
+     * @return true if the connection is held by a session only in a statement or 
+     * a transaction, otherwise held in the whole session
+     */
+    public boolean isTransactionPooling() {
+        return this.transactionPooling;
+    }
+    
+    public String getPoolMode() {
+        return (this.transactionPooling? POOL_MODE_TRANSACTION: POOL_MODE_SESSION);
+    }
+    
+    public boolean isStmtCacheEnabled() {
+        return (this.stmtCacheSize > 0 && this.stmtCacheMemory > 0L);
+    }
+    
+    public int getStmtCacheSize() {
+        return this.stmtCacheSize;
+    }
+    
+    /**
+     * @return the max estimated memory of the cached statements per connection
+     */
+    public long getStmtCacheMemory() {
+        return this.stmtCacheMemory;
+    }
+    
+    /**Get the schema epoch of the database, it's increased after schema changed.
+     * 
+     * @param db the database name
+     * @return the schema epoch
+     */
+    public AtomicLong getSchemaEpoch(String db) {
+        AtomicLong epoch = this.schemaEpochs.get(db);
+        if (epoch == null) {
+            AtomicLong newEpoch = new AtomicLong();
+            epoch = this.schemaEpochs.putIfAbsent(db, newEpoch);
+            if (epoch == null) {
+                epoch = newEpoch;
+            }
+        }
+        return epoch;
+    }
+    
+    /**Borrow an initialized connection of the database from the connection pool.
+     * 
+     * @param db the database name
+     * @return the pooled connection, or null if no idle connection or pool disabled
+     */
+    public SQLitePooledConnection borrowConnection(String db) {
+        if (!isConnPoolEnabled() || isStopped()) {
+            return null;
         }
         
-        int i = (this.workerId + 1) % this.workers.length;
-        for (; i != this.workerId; ) {
-            worker = this.workers[i];
-            if (worker.isOpen() && !worker.isStopped()) {
-                this.workerId = i;
-                return worker;
+        SQLiteConnectionPool pool = this.connPools.get(db);
+        if (pool == null) {
+            return null;
+        }
+        
+        SQLitePooledConnection pc = pool.borrow();
+        if (pc != null) {
+            trace(log, "borrow connection from pool {}", pool);
+        }
+        return pc;
+    }
+    
+    /**Return the connection into the connection pool of its database.
+     * 
+     * @param pc the pooled connection
+     * @return true if the connection has been returned, false if the pool full or closed
+     */
+    public boolean releaseConnection(SQLitePooledConnection pc) {
+        if (!isConnPoolEnabled() || isStopped()) {
+            return false;
+        }
+        
+        final String db = pc.getDbName();
+        SQLiteConnectionPool pool = this.connPools.get(db);
+        if (pool == null) {
+            synchronized (this.connPools) {
+                pool = this.connPools.get(db);
+                if (pool == null) {
+                    pool = new SQLiteConnectionPool(db, this.connPoolSize, this.connPoolIdleTimeout);
+                    this.connPools.put(db, pool);
+                }
             }
-            i = ++i % this.workers.length;
+        }
+        return pool.release(pc);
+    }
+    
+    /**Evict the idle connections of all connection pools at most once per second. It's
+     * driven by the first worker, so that the idle pools are evicted without release.
+     * 
+     * @param curr the current time in millis
+     * @return the next evict time, or -1 if the connection pool disabled
+     */
+    public long evictConnections(long curr) {
+        if (!isConnPoolEnabled() || isStopped()) {
+            return -1L;
         }
         
-        throw new IllegalStateException("No available worker");
+        final long evictTime = this.connPoolEvictTime;
+        if (curr - evictTime < CONN_POOL_EVICT_INTERVAL) {
+            return (evictTime + CONN_POOL_EVICT_INTERVAL);
+        }
+        this.connPoolEvictTime = curr;
+        for (SQLiteConnectionPool pool: this.connPools.values()) {
+            pool.evict();
+        }
+        
+        return (curr + CONN_POOL_EVICT_INTERVAL);
+    }
+    
+    public void closeConnectionPool(String db) {
+        SQLiteConnectionPool pool;
+        synchronized (this.connPools) {
+            pool = this.connPools.remove(db);
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+    
+    protected void closeConnectionPools() {
+        synchronized (this.connPools) {
+            for (SQLiteConnectionPool pool: this.connPools.values()) {
+                pool.close();
+            }
+            this.connPools.clear();
+        }
+    }
+    
+    protected SQLiteWorker nextWorker() {
+        SQLiteWorker worker = getWorkerPolicy().select(this.workers);
+        if (worker == null) {
+            throw new IllegalStateException("No available worker");
+        }
+        
+        return worker;
+    }
+    
+    public boolean isDbAffinity() {
+        return this.dbAffinity;
+    }
+    
+    /**Get the affinity worker of the database by the hash of the database name.
+     * 
+     * @param db the database name
+     * @return the affinity worker, or null if db affinity disabled or the worker not available
+     */
+    public SQLiteWorker getAffinityWorker(String db) {
+        SQLiteWorker[] workers = this.workers;
+        if (!this.dbAffinity || db == null || workers == null) {
+            return null;
+        }
+        
+        int i = (db.hashCode() & 0x7fffffff) % workers.length;
+        SQLiteWorker worker = workers[i];
+        if (worker == null || !worker.isOpen() || worker.isStopped()) {
+            return null;
+        }
+        return worker;
+    }
+    
+    public SQLiteWorkerPolicy getWorkerPolicy() {
+        SQLiteWorkerPolicy policy = this.workerPolicy;
+        if (policy == null) {
+            policy = SQLiteWorkerPolicy.create(SQLiteWorkerPolicy.ROUND_ROBIN);
+            this.workerPolicy = policy;
+        }
+        return policy;
+    }
+    
+    /**
+     * @return the load information of every worker
+     */
+    public String getWorkerLoads() {
+        SQLiteWorker[] workers = this.workers;
+        if (workers == null) {
+            return null;
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0, n = workers.length; i < n; ++i) {
+            SQLiteWorker worker = workers[i];
+            if (worker == null) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(worker.getLoad());
+        }
+        return sb.toString();
     }
     
     public int getWorkerCount() {
         return this.workerCount;
     }
     
+    /**
+     * Wake up the workers that have busy processors retrying for SQLITE_BUSY.
+     */
     public void dbIdle() {
         SQLiteWorker[] workers = this.workers;
         for (int i = 0, n = workers.length; i < n; ++i) {
             SQLiteWorker worker = workers[i];
-            if (worker == null || !worker.isOpen()) {
+            if (worker == null || !worker.isOpen() || worker.getRetryCount() == 0) {
                 continue;
             }
             worker.dbIdle(false);
@@ -644,6 +1053,9 @@ public abstract class SQLiteServer implements AutoCloseable {
         IoUtils.close(this.selector);
         // stop workers
         stopWorkers();
+        stopExecPool();
+        stopDbWriters();
+        closeConnectionPools();
     }
     
     protected void doStop() {
@@ -652,6 +1064,9 @@ public abstract class SQLiteServer implements AutoCloseable {
         IoUtils.close(this.selector);
         // 2. Stop all workers
         stopWorkers();
+        stopExecPool();
+        stopDbWriters();
+        closeConnectionPools();
         // 3. Close metaDb
         IoUtils.close(this.metaDb);
         
@@ -672,15 +1087,24 @@ public abstract class SQLiteServer implements AutoCloseable {
         }
     }
     
-    public boolean isAllowed(InetSocketAddress remoteAddr) throws SQLException {
+    /**Get the deadline of waiting for the host names never resolved in a connection admission.
+     * 
+     * @return the deadline millis, or 0 if never wait
+     */
+    public long getHostResolveDeadline() {
+        return (this.metaDb.getHostResolveDeadline());
+    }
+    
+    public boolean isAllowed(InetSocketAddress remoteAddr, long resolveDeadline) throws SQLException {
         String host = remoteAddr.getAddress().getHostAddress();
-        int n = this.metaDb.selectHostCount(host, getProtocol());
+        int n = this.metaDb.selectHostCount(host, getProtocol(), resolveDeadline);
         return (n > 0);
     }
     
-    public User selectUser(InetSocketAddress remoteAddr, String user, String db) throws SQLException {
+    public User selectUser(InetSocketAddress remoteAddr, String user, String db, long resolveDeadline) 
+            throws SQLException {
         String host = remoteAddr.getAddress().getHostAddress();
-        return (this.metaDb.selectUser(host, getProtocol(), user, db));
+        return (this.metaDb.selectUser(host, getProtocol(), user, db, resolveDeadline));
     }
     
     @Override
@@ -857,12 +1281,22 @@ public abstract class SQLiteServer implements AutoCloseable {
         for (final SQLiteWorker worker: workers) {
             if (worker != null) {
                 SQLMetric m = worker.getSQLMetric();
-                metric.deleteStmts += m.deleteStmts;
-                metric.insertStmts += m.insertStmts;
-                metric.selectStmts += m.selectStmts;
-                metric.updateStmts += m.updateStmts;
-                metric.totalStmts  += m.totalStmts;
-                metric.slowStmts   += m.slowStmts;
+                metric.deleteStmts.addAndGet(m.deleteStmts.get());
+                metric.insertStmts.addAndGet(m.insertStmts.get());
+                metric.selectStmts.addAndGet(m.selectStmts.get());
+                metric.updateStmts.addAndGet(m.updateStmts.get());
+                metric.totalStmts.addAndGet(m.totalStmts.get());
+                metric.slowStmts.addAndGet(m.slowStmts.get());
+                metric.dbWriteLocks.addAndGet(m.dbWriteLocks.get());
+                metric.dbWriteLockWaits.addAndGet(m.dbWriteLockWaits.get());
+                metric.dbWriteLockWaitTime.addAndGet(m.dbWriteLockWaitTime.get());
+                metric.stmtCacheHits.addAndGet(m.stmtCacheHits.get());
+                metric.stmtCacheMisses.addAndGet(m.stmtCacheMisses.get());
+                BufferPool pool = worker.getBufferPool();
+                metric.bufferPoolSize    += pool.getSize();
+                metric.bufferPoolUsed    += pool.getUsed();
+                metric.bufferAllocations += pool.getAllocations();
+                metric.bufferMisses      += pool.getMisses();
             }
         }
         
@@ -921,25 +1355,16 @@ public abstract class SQLiteServer implements AutoCloseable {
         return this.startNanos;
     }
     
-    public void flushCatalogs() {
-        this.metaDb.flushCatalogs();
-    }
-    
     public void flushHosts() {
         this.metaDb.flushHosts();
     }
     
-    public void flushPrivileges() {
-        this.metaDb.flushPrivileges();
+    public void reloadMetaSnapshot() {
+        this.metaDb.reloadSnapshot();
     }
     
-    public boolean hasPrivilege(User user, String command) throws SQLException {
-        return (this.metaDb.hasPrivilege(user, command));
-    }
-    
-    public boolean hasPrivilege(String host, String user, String db, String command, String dataDir) 
-            throws SQLException {
-        return (this.metaDb.hasPrivilege(host, user, db, command, dataDir));
+    public MetaSnapshot getMetaSnapshot() throws SQLException {
+        return (this.metaDb.getSnapshot());
     }
     
     public void trace(Logger log, String message) {
@@ -971,10 +1396,21 @@ public abstract class SQLiteServer implements AutoCloseable {
     
     public abstract SQLiteAuthMethod newAuthMethod(String protocol, String authMethod);
     
+    protected SQLiteDbWriteLock getDbWriteLock(String db) {
+        SQLiteDbWriteLock lock = this.dbWriteLocks.get(db);
+        if (lock == null) {
+            lock = new SQLiteDbWriteLock(db);
+            SQLiteDbWriteLock oldOne = this.dbWriteLocks.putIfAbsent(db, lock);
+            if (oldOne != null) {
+                lock = oldOne;
+            }
+        }
+        return lock;
+    }
+    
     public boolean tryDbWriteLock(SQLContext context) {
         String db = context.getDbName();
-        SQLContext oldOne = this.dbWriteLocks.putIfAbsent(db, context);
-        return (oldOne == null || oldOne == context);
+        return getDbWriteLock(db).tryLock(context);
     }
     
     public boolean dbWriteUnlock(SQLContext context) {
@@ -982,18 +1418,37 @@ public abstract class SQLiteServer implements AutoCloseable {
         if (db == null) {
             return false;
         }
-        return this.dbWriteLocks.remove(db, context);
+        return dbWriteUnlock(db, context);
+    }
+    
+    protected boolean dbWriteUnlock(String db, Object holder) {
+        SQLiteDbWriteLock lock = this.dbWriteLocks.get(db);
+        if (lock == null || !lock.unlock(holder)) {
+            return false;
+        }
+        
+        // Hand over: wake up only the next holder
+        Object next = lock.getHolder();
+        if (next instanceof SQLiteProcessor) {
+            SQLiteProcessor proc = (SQLiteProcessor)next;
+            SQLiteWorker worker = proc.getWorker();
+            if (worker != null) {
+                worker.signal(proc);
+            }
+        }
+        return true;
     }
     
     public boolean holdsDbWriteLock(SQLContext context) {
         String db = context.getDbName();
-        return (this.dbWriteLocks.get(db) == context);
+        SQLiteDbWriteLock lock = this.dbWriteLocks.get(db);
+        return (lock != null && lock.getHolder() == context);
     }
     
     public boolean canHoldDbWriteLock(SQLContext context) {
         String db = context.getDbName();
-        SQLContext holder = this.dbWriteLocks.get(db);
-        return (holder == null || holder == context);
+        SQLiteDbWriteLock lock = this.dbWriteLocks.get(db);
+        return (lock == null || lock.canHold(context));
     }
     
     @Override
@@ -1077,7 +1532,14 @@ public abstract class SQLiteServer implements AutoCloseable {
         return getName() + " " + getVersion() + " since 2019\n" +
                 "Usage: java "+getClass().getName()+" "+CMD_BOOT+" [OPTIONS]\n"+
                 "  --busy-timeout  <millis>      \tSQL statement busy timeout, default "+BUSY_TIMEOUT_DEFAULT+"ms\n"+
+                "  --conn-pool-idle-timeout <millis>\tIdle timeout of pooled connections, default "+CONN_POOL_IDLE_TIMEOUT_DEFAULT+"ms\n"+
+                "  --conn-pool-size <number>     \tMax idle connections pooled per database, default "+CONN_POOL_SIZE_DEFAULT+" disables it\n"+
                 "  --data-dir|-D   <path>        \tSQLite server data dir, default sqlite3Data in user home\n"+
+                "  --db-affinity                 \tRoute connections of a database into the same worker\n"+
+                "  --db-writer                   \tExecute autocommit writes in a writer thread per database\n"+
+                "  --exec-pool-size <number>     \tSQL execution pool size, default "+EXEC_POOL_SIZE_DEFAULT+" executes SQL in workers\n"+
+                "  --group-commit-size <number>  \tMax statements in one group commit, default "+GROUP_COMMIT_SIZE_DEFAULT+"\n"+
+                "  --group-commit-window <micros>\tGroup commit window of db writers, default "+GROUP_COMMIT_WINDOW_DEFAULT+" disables it\n"+
                 "  --help|-h|-?                  \tShow this message\n" +
                 "  --host|-H       <host>        \tSQLite server listen host or IP, default "+HOST_DEFAULT+"\n"+
                 "  --journal-mode  <mode>        \tSQLite journal mode, default "+JOURNAL_MODE_DEFAULT+"\n"+
@@ -1085,14 +1547,18 @@ public abstract class SQLiteServer implements AutoCloseable {
                 "  --max-allowed-packet <number> \tMax allowed packet size, default " + MAX_ALLOWED_PACKET_DEFAULT+"B\n"+
                 "  --max-conns     <number>      \tMax client connections limit, default "+MAX_CONNS_DEFAULT+"\n"+
                 "  --open-timeout  <millis>      \tOpen SQLite database timeout, default "+OPEN_TIMEOUT_DEFAULT+"ms\n"+
+                "  --pool-mode     <mode>        \tConnection pool mode(session, transaction), default "+POOL_MODE_SESSION+"\n"+
                 "  --port|-P       <number>      \tSQLite server listen port, default "+PORT_DEFAULT+"\n"+
                 "  --protocol      <pg>          \tSQLite server protocol, default pg\n"+
                 "  --trace|-T                    \tTrace SQLite server execution\n" +
                 "  --trace-error                 \tTrace error information of SQLite server execution\n"+
                 "  --sleep-timeout <millis>      \tProcess sleep timeout when idle, default "+SLEEP_TIMEOUT_DEFAULT+"ms\n"+
                 "  --sleep-in-tx-timeout <millis>\tProcess sleep timeout in transaction, default "+SLEEP_IN_TX_TIMEOUT_DEFAULT+"ms\n"+
+                "  --stmt-cache-memory <bytes>   \tMax memory of cached statements per connection, default "+STMT_CACHE_MEMORY_DEFAULT+"B\n"+
+                "  --stmt-cache-size <number>    \tMax cached statements per connection, default "+STMT_CACHE_SIZE_DEFAULT+" disables it\n"+
                 "  --synchronous|-S<sync>        \tSQLite synchronous mode, default "+SYNCHRONOUS_DEFAULT+ "\n"+
-                "  --worker-count  <number>      \tSQLite worker number, default CPU cores and max "+MAX_WORKER_COUNT;
+                "  --worker-count  <number>      \tSQLite worker number, default CPU cores and max "+MAX_WORKER_COUNT+"\n"+
+                "  --worker-policy <policy>      \tWorker policy of connections("+SQLiteWorkerPolicy.POLICIES+"), default "+SQLiteWorkerPolicy.ROUND_ROBIN;
     }
     
     protected static void doHelp(int status, String message) {
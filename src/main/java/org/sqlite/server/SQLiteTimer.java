@@ -0,0 +1,59 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server;
+
+/**The timer of a processor in the worker's timer heap, for the busy timeout or the idle
+ * timeout. A processor holds at most one live timer, and the stale timer is dropped when
+ * it expires.
+ * 
+ * @author little-pan
+ * @since 2020-01-07
+ * 
+ */
+public class SQLiteTimer implements Comparable<SQLiteTimer> {
+    
+    protected final SQLiteProcessor processor;
+    // The first millis that this timer expires
+    protected final long deadline;
+    
+    public SQLiteTimer(SQLiteProcessor processor, long deadline) {
+        this.processor = processor;
+        this.deadline = deadline;
+    }
+    
+    public SQLiteProcessor getProcessor() {
+        return this.processor;
+    }
+    
+    public long getDeadline() {
+        return this.deadline;
+    }
+    
+    public boolean isExpired(long curr) {
+        return (this.deadline <= curr);
+    }
+    
+    @Override
+    public int compareTo(SQLiteTimer o) {
+        return Long.compare(this.deadline, o.deadline);
+    }
+    
+    @Override
+    public String toString() {
+        return this.processor + "@" + this.deadline;
+    }
+
+}
@@ -16,20 +16,31 @@
 package org.sqlite.server;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import static java.lang.System.*;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sqlite.server.sql.SQLMetric;
 import org.sqlite.server.sql.meta.User;
+import org.sqlite.server.util.BufferPool;
 import org.sqlite.server.util.IoUtils;
 import org.sqlite.server.util.SlotAllocator;
 import org.sqlite.server.util.locks.SpinLock;
@@ -44,6 +55,8 @@ public class SQLiteWorker implements Runnable {
     static final Logger log = LoggerFactory.getLogger(SQLiteWorker.class);
     
     protected static final int ioRatio, busyMinWait;
+    protected static final long cpuSampleInterval = 1000000000L;
+    protected static final int bufferPoolSize = Integer.getInteger("org.sqlite.server.worker.bufferPoolSize", 1<<22);
     
     protected final SQLiteServer server;
     
@@ -58,12 +71,38 @@ public class SQLiteWorker implements Runnable {
     protected final String name;
     
     protected final BlockingQueue<SQLiteProcessor> procQueue;
+    // Processors that complete execution in the execution pool
+    protected final ConcurrentLinkedQueue<SQLiteProcessor> execQueue;
     protected final int maxConns;
     protected final SpinLock procsLock = new SpinLock();
     private final SlotAllocator<SQLiteProcessor> processors;
-    private final SlotAllocator<SQLiteProcessor> busyProcs;
+    // Slots reserved for the accepted or migrated processors, guarded by procsLock
+    private int reservedSlots;
+    // Busy processors, and the ones that retry after busyMinWait or when db idle. The 
+    // waiters of the db write lock aren't retried, and they're signaled when handed over.
+    private final Set<SQLiteProcessor> busyProcs;
+    private final Set<SQLiteProcessor> retryProcs;
+    private long lastRetryTime;
+    // Load counters read by the worker policy and "SHOW STATUS"
+    private volatile int busyCount;
+    private volatile int retryCount;
+    private final AtomicInteger execCount = new AtomicInteger();
+    private long cpuSampleTime, cpuSampleValue = -1L;
+    private int recentCpuUsage = -1;
+    // Processors signaled by other threads, e.g. busy canceled or db write lock handed over
+    protected final ConcurrentLinkedQueue<SQLiteProcessor> signalQueue;
+    // Processors migrated from other workers for database affinity
+    protected final ConcurrentLinkedQueue<SQLiteProcessor> migrateQueue;
+    // New processors handed over by the full workers, with the slots reserved in this worker
+    protected final ConcurrentLinkedQueue<SQLiteProcessor> handOverQueue;
+    // Busy timeout and idle timeout timers ordered by deadline
+    protected final PriorityQueue<SQLiteTimer> timers;
+    // The next evict time of the connection pools driven by the first worker, or -1
+    protected long connPoolEvictTime = -1L;
     
     protected final SQLMetric sqlMetric = new SQLMetric();
+    // Direct read and write buffers borrowed by the processors while messages in flight
+    protected final BufferPool bufferPool;
     
     public SQLiteWorker(SQLiteServer server, int id) {
         this.server = server;
@@ -71,8 +110,16 @@ public class SQLiteWorker implements Runnable {
         this.name = server.getName() + " worker-"+this.id;
         this.maxConns = server.getMaxConns();
         this.procQueue = new ArrayBlockingQueue<>(maxConns);
+        this.execQueue = new ConcurrentLinkedQueue<>();
         this.processors = new SlotAllocator<>(this.maxConns);
-        this.busyProcs = new SlotAllocator<>(this.maxConns);
+        this.busyProcs = new HashSet<>();
+        this.retryProcs = new LinkedHashSet<>();
+        this.signalQueue = new ConcurrentLinkedQueue<>();
+        this.migrateQueue = new ConcurrentLinkedQueue<>();
+        this.handOverQueue = new ConcurrentLinkedQueue<>();
+        this.timers = new PriorityQueue<>();
+        this.bufferPool = new BufferPool(Integer.highestOneBit(SQLiteProcessor.initReadBuffer), 
+                Integer.highestOneBit(SQLiteProcessor.maxReadBuffer), bufferPoolSize);
     }
     
     public int getId() {
@@ -128,6 +175,16 @@ public class SQLiteWorker implements Runnable {
         this.open.set(false);
         IoUtils.close(this.selector);
         
+        for (;;) {
+            SQLiteProcessor p = this.execQueue.poll();
+            if (p == null) {
+                break;
+            }
+            p.completeExecution();
+            if (!p.isOpen()) {
+                p.closeConnection();
+            }
+        }
         for (;;) {
             SQLiteProcessor p = this.procQueue.poll();
             if (p == null) {
@@ -135,6 +192,16 @@ public class SQLiteWorker implements Runnable {
             }
             IoUtils.close(p);
         }
+        for (;;) {
+            SQLiteProcessor p = this.migrateQueue.poll();
+            if (p == null) {
+                p = this.handOverQueue.poll();
+                if (p == null) {
+                    break;
+                }
+            }
+            IoUtils.close(p);
+        }
         
         this.procsLock.lock();
         try {
@@ -168,21 +235,19 @@ public class SQLiteWorker implements Runnable {
     public void run() {
         try {
             SlotAllocator<SQLiteProcessor> processors = this.processors;
-            long lastIdleCheck = 0L, idleCheckIntv = -1L;
             
             for (; !isStopped() || processors.size() > 0;) {
                 final long  curr = currentTimeMillis(), timeout;
                 int n;
                 
-                // Idle check
-                if (curr - lastIdleCheck >= idleCheckIntv) {
-                    lastIdleCheck = curr;
-                    processIdle(curr);
-                    idleCheckIntv = idleCheckInterval();
+                // Busy timeout and idle timeout
+                processTimers(curr);
+                if (this.id == 0) {
+                    this.connPoolEvictTime = this.server.evictConnections(curr);
                 }
                 
                 // Do select
-                timeout = minSelectTimeout(curr, idleCheckIntv);
+                timeout = minSelectTimeout(curr);
                 if (timeout < 0L) {
                     n = this.selector.select();
                 } else if (timeout == 0L) {
@@ -219,8 +284,21 @@ public class SQLiteWorker implements Runnable {
         BlockingQueue<SQLiteProcessor> queue = this.procQueue;
         Selector selector = this.selector;
         long deadNano = System.nanoTime() + runNanos;
+        // Q0: execQueue
+        for (;;) {
+            SQLiteProcessor p = this.execQueue.poll();
+            if (p == null) {
+                break;
+            }
+            try {
+                Thread.currentThread().setName(p.getName());
+                executed(p);
+            } finally {
+                Thread.currentThread().setName(this.name);
+            }
+        }
+        
         // Q1: procQueue
-        SlotAllocator<SQLiteProcessor> processors = this.processors;
         for (;;) {
             if (runNanos > 0L && System.nanoTime() > deadNano) {
                 return;
@@ -231,130 +309,376 @@ public class SQLiteWorker implements Runnable {
                 break;
             }
             
-            try {
-                p.setSelector(selector);
-                p.setWorker(this);
-                p.setName(this.name + "-" + p.getName());
-                if (processors.size() >= this.maxConns) {
+            if (reserveSlot()) {
+                accept(p);
+            } else if (!handOver(p)) {
+                try {
+                    p.setSelector(selector);
+                    p.setWorker(this);
+                    p.setName(this.name + "-" + p.getName());
                     p.tooManyConns();
                     p.stop();
                     p.enableWrite();
-                } else {
-                    try {
-                        p.start();
-                    } catch (IllegalStateException e) {
-                        log.warn("Can't start " + p.getName(), e);
-                        IoUtils.close(p);
-                        continue;
-                    }
-                    this.procsLock.lock();
-                    try {
-                        final int slot = processors.allocate(p);
-                        if (slot == -1) {
-                            throw new IllegalStateException("Processor allocator full");
-                        }
-                        p.setSlot(slot);
-                    } finally {
-                        this.procsLock.unlock();
-                    }
+                } catch (IOException e) {
+                    log.debug("Handle processor error", e);
+                    IoUtils.close(p);
                 }
-            } catch (IOException e) {
-                log.debug("Handle processor error", e);
-                IoUtils.close(p);
             }
         }
         
-        // Q2: busyProcessors
-        SlotAllocator<SQLiteProcessor> busyProcs = this.busyProcs;
-        for (int i = 0, n = busyProcs.maxSlot(); i < n; ++i) {
-            if (runNanos > 0L && System.nanoTime() > deadNano) {
-                return;
+        // Q1.0: handOverQueue
+        for (;;) {
+            SQLiteProcessor p = this.handOverQueue.poll();
+            if (p == null) {
+                break;
+            }
+            accept(p);
+        }
+        
+        // Q1.1: migrateQueue
+        for (;;) {
+            SQLiteProcessor p = this.migrateQueue.poll();
+            if (p == null) {
+                break;
+            }
+            attach(p);
+        }
+        
+        // Q2: signalQueue
+        for (;;) {
+            SQLiteProcessor p = this.signalQueue.poll();
+            if (p == null) {
+                break;
             }
             
-            SQLiteProcessor proc = busyProcs.get(i);
-            if (proc == null) {
+            if (this.busyProcs.contains(p)) {
+                if (resume(p)) {
+                    continue;
+                }
+            } else if (p.isStopped()) {
+                if (p.isOpen() && p.getSlot() >= 0 && !p.isExecuting()) {
+                    p.write();
+                }
                 continue;
             }
-            SQLiteBusyContext busyContext = proc.getBusyContext();
-            if (proc.isStopped() && busyContext == null) {
-                if (busyProcs.deallocate(i, proc)) {
-                    continue;
+            schedule(p);
+        }
+        
+        // Q3: retryProcessors
+        Set<SQLiteProcessor> retryProcs = this.retryProcs;
+        if (retryProcs.size() > 0) {
+            final long curr = currentTimeMillis();
+            final boolean dbIdle = this.dbIdle.getAndSet(false);
+            if (!dbIdle && curr - this.lastRetryTime < busyMinWait) {
+                return;
+            }
+            
+            this.lastRetryTime = curr;
+            for (SQLiteProcessor proc: new ArrayList<>(retryProcs)) {
+                if (runNanos > 0L && System.nanoTime() > deadNano) {
+                    return;
+                }
+                resume(proc);
+            }
+        }
+    }
+    
+    /**Resume the busy processor if it's ready.
+     * 
+     * @param proc the busy processor
+     * @return true if the processor resumed or removed from busy processors, otherwise false
+     */
+    protected boolean resume(SQLiteProcessor proc) {
+        SQLiteBusyContext busyContext = proc.getBusyContext();
+        if (busyContext == null) {
+            if (proc.isStopped()) {
+                removeBusy(proc);
+                return true;
+            }
+            throw new IllegalStateException("No busy context in busy processor " + proc);
+        }
+        
+        if (busyContext.isReady() || busyContext.isCanceled()) {
+            if (busyContext.isOnDbWriter() || this.server.canHoldDbWriteLock(proc) 
+                    || busyContext.isTimeout() || busyContext.isCanceled()) {
+                removeBusy(proc);
+                this.server.trace(log, "Busy processor '{}' resumed", proc);
+                try {
+                    Thread.currentThread().setName(proc.getName());
+                    proc.execute(proc.queryTask);
+                } finally {
+                    Thread.currentThread().setName(this.name);
                 }
-                throw new IllegalStateException("Busy processors slot used");
+                return true;
             }
+        }
+        
+        return false;
+    }
+    
+    protected void removeBusy(SQLiteProcessor proc) {
+        this.busyProcs.remove(proc);
+        this.retryProcs.remove(proc);
+        this.busyCount = this.busyProcs.size();
+        this.retryCount = this.retryProcs.size();
+    }
+    
+    protected void processTimers(final long curr) {
+        final PriorityQueue<SQLiteTimer> timers = this.timers;
+        // Timers rescheduled in this round are processed in the next round
+        for (int i = 0, n = timers.size(); i < n; ++i) {
+            SQLiteTimer timer = timers.peek();
+            if (timer == null || !timer.isExpired(curr)) {
+                break;
+            }
+            timers.poll();
             
-            if (busyContext.isReady() || busyContext.isCanceled()) {
-                if (this.server.canHoldDbWriteLock(proc) || busyContext.isTimeout() 
-                                                         || busyContext.isCanceled()) {
-                    if (busyProcs.deallocate(i, proc)) {
-                        this.server.trace(log, "Busy processor '{}' resumed", proc);
-                        try {
-                            Thread.currentThread().setName(proc.getName());
-                            proc.queryTask.run();
-                        } finally {
-                            Thread.currentThread().setName(this.name);
-                        }
-                        continue;
-                    }
-                    throw new IllegalStateException("Busy processors slot used");
+            final SQLiteProcessor p = timer.getProcessor();
+            if (p.timer != timer) {
+                // Stale
+                continue;
+            }
+            p.timer = null;
+            if (!p.isOpen()) {
+                continue;
+            }
+            
+            if (this.busyProcs.contains(p)) {
+                if (!resume(p)) {
+                    schedule(p);
                 }
                 continue;
             }
+            if (!p.isExecuting()) {
+                processIdle(p, curr);
+            }
         }
     }
     
-    protected void processIdle(final long curr) {
-        SlotAllocator<SQLiteProcessor> processors = this.processors;
-        this.procsLock.lock();
+    protected void processIdle(final SQLiteProcessor p, final long curr) {
+        final long deadline = nextTimeout(p);
+        if (deadline < 0L) {
+            return;
+        }
+        if (deadline > curr) {
+            // State changed
+            schedule(p);
+            return;
+        }
+        
+        final String message;
+        switch (p.getState().getState()) {
+        case SQLiteProcessorState.AUTH:
+            message = "Authentication timeout";
+            break;
+        case SQLiteProcessorState.SLEEP:
+            message = "Sleep timeout";
+            break;
+        case SQLiteProcessorState.SLEEP_IN_TX:
+            message = "Sleep in transaction timeout";
+            break;
+        default:
+            message = "timeout";
+            break;
+        }
         try {
-            for (int i = 0, n = processors.maxSlot(); i < n; ++i) {
-                SQLiteProcessor p = processors.get(i);
-                if (p != null) {
-                    final SQLiteProcessorState state = p.getState();
-                    final long timeout, start;
-                    String message = "timeout";
-                    state.lock();
-                    try {
-                        start = state.getStartTime();
-                        switch(state.getState()) {
-                        case SQLiteProcessorState.AUTH:
-                            timeout = this.server.getAuthTimeout();
-                            message = "Authentication timeout";
-                            break;
-                        case SQLiteProcessorState.SLEEP:
-                            timeout = this.server.getSleepTimeout();
-                            message = "Sleep timeout";
-                            break;
-                        case SQLiteProcessorState.SLEEP_IN_TX:
-                            timeout = this.server.getSleepInTxTimeout();
-                            message = "Sleep in transaction timeout";
-                            break;
-                        default:
-                            timeout = -1L;
-                            break;
-                        }
-                    } finally {
-                        state.unlock();
-                    }
-                    
-                    if (timeout > 0L && curr - start > timeout) {
-                        try {
-                            p.sendErrorResponse(message, "53400");
-                        } catch (IOException e) {
-                            // ignore
-                        } finally {
-                            IoUtils.close(p.getConnection());
-                            p.stop();
-                        }
-                    }
-                    
-                    if (p.isStopped()) {
-                        p.write();
-                    }
-                }
+            p.sendErrorResponse(message, "53400");
+        } catch (IOException e) {
+            // ignore
+        } finally {
+            IoUtils.close(p.getConnection());
+            p.stop();
+        }
+        p.write();
+    }
+    
+    /**Schedule the busy timeout or the idle timeout timer of the processor. It's 
+     * executed in the next loop if not called in this worker.
+     * 
+     * @param p the processor
+     */
+    public void schedule(SQLiteProcessor p) {
+        if (this.runner != Thread.currentThread()) {
+            signal(p);
+            return;
+        }
+        if (!p.isOpen() || p.isStopped()) {
+            return;
+        }
+        
+        final long deadline = nextTimeout(p);
+        if (deadline < 0L) {
+            return;
+        }
+        SQLiteTimer timer = p.timer;
+        if (timer == null || deadline < timer.getDeadline()) {
+            // The later one rescheduled when the current timer expires
+            timer = new SQLiteTimer(p, deadline);
+            p.timer = timer;
+            this.timers.offer(timer);
+        }
+    }
+    
+    protected long nextTimeout(SQLiteProcessor p) {
+        if (this.busyProcs.contains(p)) {
+            SQLiteBusyContext busyContext = p.getBusyContext();
+            if (busyContext == null) {
+                return -1L;
+            }
+            long timeoutTime = busyContext.getTimeoutTime();
+            return (timeoutTime == Long.MAX_VALUE? -1L: timeoutTime + 1L);
+        }
+        
+        final SQLiteProcessorState state = p.getState();
+        final long timeout, start;
+        state.lock();
+        try {
+            start = state.getStartTime();
+            switch(state.getState()) {
+            case SQLiteProcessorState.AUTH:
+                timeout = this.server.getAuthTimeout();
+                break;
+            case SQLiteProcessorState.SLEEP:
+                timeout = this.server.getSleepTimeout();
+                break;
+            case SQLiteProcessorState.SLEEP_IN_TX:
+                timeout = this.server.getSleepInTxTimeout();
+                break;
+            default:
+                timeout = -1L;
+                break;
             }
         } finally {
-            this.procsLock.unlock();
+            state.unlock();
+        }
+        
+        return (timeout > 0L? start + timeout + 1L: -1L);
+    }
+    
+    /**Signal the processor to be checked in this worker, e.g. the busy processor canceled, 
+     * the db write lock handed over to it, or it stopped.
+     * 
+     * @param p the processor
+     */
+    public void signal(SQLiteProcessor p) {
+        this.signalQueue.offer(p);
+        if (this.runner != Thread.currentThread()) {
+            wakeup();
+        }
+    }
+    
+    /**Migrate the authenticated processor into the affinity worker of it's database,
+     * so that the processors of the same database share one worker. It's only called 
+     * in this worker when the processor is idle and not in a transaction.
+     * 
+     * @param p the processor
+     * @return true if the processor has been detached from this worker, otherwise false
+     */
+    public boolean migrate(SQLiteProcessor p) {
+        if (this.runner != Thread.currentThread() || p.isStopped() || p.isExecuting()) {
+            return false;
+        }
+        final SQLiteWorker target = this.server.getAffinityWorker(p.getDbName());
+        if (target == null || target == this || !target.reserveSlot()) {
+            return false;
+        }
+        
+        // Detach from this worker
+        SelectionKey key = p.getChannel().keyFor(this.selector);
+        if (key != null) {
+            key.cancel();
+        }
+        final int slot = p.getSlot();
+        if (slot >= 0) {
+            this.procsLock.lock();
+            try {
+                this.processors.deallocate(slot, p);
+            } finally {
+                this.procsLock.unlock();
+            }
+            p.clearSlot();
+        }
+        p.timer = null;
+        // Return the idle buffers to the pool of this worker
+        p.releaseBuffers();
+        p.migrateBuffers(target.getBufferPool());
+        
+        this.server.trace(log, "Migrate processor '{}' to {}", p, target);
+        target.migrateQueue.offer(p);
+        target.wakeup();
+        return true;
+    }
+    
+    /**Start the new processor in the slot reserved.
+     * 
+     * @param p the new processor
+     */
+    protected void accept(SQLiteProcessor p) {
+        try {
+            p.setSelector(this.selector);
+            p.setWorker(this);
+            p.setName(this.name + "-" + p.getName());
+            try {
+                p.start();
+            } catch (IllegalStateException e) {
+                cancelSlot();
+                log.warn("Can't start " + p.getName(), e);
+                IoUtils.close(p);
+                return;
+            }
+            allocateSlot(p);
+        } catch (IOException e) {
+            cancelSlot();
+            log.debug("Handle processor error", e);
+            IoUtils.close(p);
+        }
+    }
+    
+    /**Hand over the new processor to another worker when this worker is full for the
+     * processors migrated by database affinity.
+     * 
+     * @param p the new processor
+     * @return true if handed over, otherwise false
+     */
+    protected boolean handOver(SQLiteProcessor p) {
+        SQLiteWorker[] workers = this.server.workers;
+        if (!this.server.isDbAffinity() || workers == null) {
+            return false;
+        }
+        
+        for (SQLiteWorker worker: workers) {
+            if (worker == null || worker == this || worker.isStopped()) {
+                continue;
+            }
+            if (worker.reserveSlot()) {
+                this.server.trace(log, "Hand over processor '{}' to {}", p, worker);
+                worker.handOverQueue.offer(p);
+                worker.wakeup();
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    protected void attach(SQLiteProcessor p) {
+        if (!p.isOpen()) {
+            cancelSlot();
+            return;
+        }
+        
+        p.setSelector(this.selector);
+        p.setWorker(this);
+        p.setName(this.name + "-proc-" + p.getId());
+        allocateSlot(p);
+        this.server.trace(log, "Processor '{}' attached", p);
+        
+        // Go on: register into this worker's selector and sleep
+        try {
+            Thread.currentThread().setName(p.getName());
+            p.write();
+        } finally {
+            Thread.currentThread().setName(this.name);
         }
     }
     
@@ -412,103 +736,280 @@ public class SQLiteWorker implements Runnable {
         return false;
     }
     
+    /**Execute the processor task in the execution pool, and the processor is resumed
+     * in this worker after execution completed.
+     * 
+     * @param processor the processor that submits the task
+     * @param task the processor task
+     * @return true if the task submitted, false if the execution pool not enabled or full
+     */
+    public boolean execute(final SQLiteProcessor processor, final SQLiteProcessorTask task) {
+        final Executor execPool = this.server.getExecPool();
+        if (execPool == null || this.runner != Thread.currentThread()) {
+            return false;
+        }
+        
+        boolean failed = true;
+        processor.startExecution();
+        this.execCount.incrementAndGet();
+        try {
+            execPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final Thread currThread = Thread.currentThread();
+                    final String name = currThread.getName();
+                    try {
+                        currThread.setName(processor.getName());
+                        task.run();
+                    } finally {
+                        currThread.setName(name);
+                        execCount.decrementAndGet();
+                        execQueue.offer(processor);
+                        wakeup();
+                    }
+                }
+            });
+            failed = false;
+            return true;
+        } catch (RejectedExecutionException e) {
+            this.server.trace(log, "Execution pool full, execute '{}' task in worker", processor);
+            return false;
+        } finally {
+            if (failed) {
+                this.execCount.decrementAndGet();
+                processor.completeExecution();
+            }
+        }
+    }
+    
+    protected void executed(SQLiteProcessor processor) {
+        if (!processor.isOpen()) {
+            // Closed in execution: complete the deferred close
+            processor.completeExecution();
+            processor.closeConnection();
+            return;
+        }
+        
+        final boolean busy = processor.completeExecution();
+        if (busy) {
+            busy(processor);
+            return;
+        }
+        if (processor.pollDeferredProcess()) {
+            // Go on processing the received messages in this worker
+            processor.processDeferred();
+            if (!processor.isOpen() || processor.isExecuting()) {
+                return;
+            }
+        }
+        if (processor.queryTask == null && processor.writeTask == null) {
+            // Flush results and go on processing
+            processor.write();
+        }
+    }
+    
     public boolean busy(SQLiteProcessor process) throws IllegalStateException {
         if (process.isStopped() || !process.isOpen()) {
             return false;
         }
         
+        if (this.runner != Thread.currentThread()) {
+            // Suspended by this worker after execution completed
+            process.deferBusy();
+            return true;
+        }
+        
         this.server.trace(log, "Busy processor '{}' suspended", process);
-        if (this.busyProcs.allocate(process) == -1) {
+        final Set<SQLiteProcessor> busyProcs = this.busyProcs;
+        if (busyProcs.size() >= this.maxConns && !busyProcs.contains(process)) {
             throw new IllegalStateException("Busy processors full");
         }
+        busyProcs.add(process);
+        this.busyCount = busyProcs.size();
         SQLiteBusyContext busyContext = process.getBusyContext();
-        if (!busyContext.isSleepable()) {
+        if (!busyContext.isSleepable() && !busyContext.isOnDbWriter() 
+                && !busyContext.isOnDbWriteLock()) {
+            // SQLITE_BUSY: retry after busyMinWait or when db idle
             this.dbIdle.set(false);
+            this.retryProcs.add(process);
+            this.retryCount = this.retryProcs.size();
         }
         process.state.setStateText("busy");
+        schedule(process);
+        if (busyContext.isOnDbWriter() && busyContext.isReady()) {
+            // The db writer has signaled before suspended, e.g. executing in the execution pool
+            signal(process);
+        } else if (busyContext.isOnDbWriteLock() && this.server.canHoldDbWriteLock(process)) {
+            // The db write lock has been handed over before suspended
+            signal(process);
+        }
         
         return true;
     }
     
     public void dbIdle() {
-        dbIdle(true);
+        // The processors of the same database in this worker if db affinity
+        dbIdle(!this.server.isDbAffinity());
     }
     
     public void dbIdle(boolean global) {
         if (global) {
             this.server.dbIdle();
-        } else if (this.dbIdle.compareAndSet(false, true)) {
+        } else if (this.retryCount > 0 && this.dbIdle.compareAndSet(false, true)) {
             this.selector.wakeup();
             this.server.trace(log, "Hello '{}' db idle", this);
         }
     }
     
-    protected long idleCheckInterval() {
-        long timeout = this.server.getAuthTimeout();
+    protected long minSelectTimeout(final long curr) {
+        long timeout = -1L;
         
-        if (timeout <= 0L) {
-            timeout = this.server.getSleepInTxTimeout();
-        } else {
-            timeout = Math.min(this.server.getSleepInTxTimeout(), timeout);
-        }
-        if (timeout <= 0L) {
-            timeout = this.server.getSleepTimeout();
-        } else {
-            timeout = Math.min(this.server.getSleepTimeout(), timeout);
+        if (!this.execQueue.isEmpty() || !this.signalQueue.isEmpty() 
+                || !this.migrateQueue.isEmpty() || !this.handOverQueue.isEmpty()) {
+            return 0L;
         }
         
-        return (timeout == 0L? -1L: timeout);
-    }
-    
-    protected long minSelectTimeout(final long curr, final long idleCheckIntv) {
-        SlotAllocator<SQLiteProcessor> busyProcs = this.busyProcs;
-        long timeout = -1L;
-        
-        for (int i = 0, n = busyProcs.maxSlot(); i < n; ++i) {
-            SQLiteProcessor proc = busyProcs.get(i);
-            
-            if (proc == null) {
-                continue;
-            }
-            
-            SQLiteBusyContext busyContext = proc.getBusyContext();
-            if (busyContext.isCanceled()) {
-                timeout = 0L;
-                break;
+        if (this.retryProcs.size() > 0) {
+            if (this.dbIdle.get()) {
+                return 0L;
             }
-            
-            if (busyContext.isReady()) {
-                if (busyContext.isSleepable() || this.dbIdle.get()) {
-                    timeout = 0L;
-                    break;
-                }
-                if (!busyContext.isOnDbWriteLock()) {
-                    if (timeout > busyMinWait || timeout < 0L) {
-                        timeout = busyMinWait;
-                    }
-                }
+            timeout = Math.max(0L, this.lastRetryTime + busyMinWait - curr);
+        }
+        
+        SQLiteTimer timer = this.timers.peek();
+        if (timer != null) {
+            long remTime = timer.getDeadline() - curr;
+            if (remTime <= 0L) {
+                return 0L;
             }
-            
-            long remTime = busyContext.getTimeoutTime() - curr;
             if (timeout > remTime || timeout < 0L) {
-                if (remTime <= 0L) {
-                    timeout = 0L;
-                    break;
-                }
                 timeout = remTime;
             }
         }
         
-        if (timeout < 0L) {
-            timeout = idleCheckIntv;
+        if (this.connPoolEvictTime >= 0L) {
+            long remTime = Math.max(1L, this.connPoolEvictTime - curr);
+            if (timeout > remTime || timeout < 0L) {
+                timeout = remTime;
+            }
         }
         
         return timeout;
     }
     
+    /**Reserve a slot for the processor that will be attached into this worker, so that
+     * the slots of the accepted and migrated processors never exceed max connections.
+     * 
+     * @return true if reserved, false if this worker is full
+     */
+    protected boolean reserveSlot() {
+        this.procsLock.lock();
+        try {
+            if (this.processors.size() + this.reservedSlots >= this.maxConns) {
+                return false;
+            }
+            ++this.reservedSlots;
+            return true;
+        } finally {
+            this.procsLock.unlock();
+        }
+    }
+    
+    protected void cancelSlot() {
+        this.procsLock.lock();
+        try {
+            --this.reservedSlots;
+        } finally {
+            this.procsLock.unlock();
+        }
+    }
+    
+    protected void allocateSlot(SQLiteProcessor p) {
+        this.procsLock.lock();
+        try {
+            --this.reservedSlots;
+            final int slot = this.processors.allocate(p);
+            if (slot == -1) {
+                throw new IllegalStateException("Processor allocator full");
+            }
+            p.setSlot(slot);
+        } finally {
+            this.procsLock.unlock();
+        }
+    }
+    
+    /**
+     * @return the number of processors in this worker, including the ones in queue
+     */
+    public int getProcessorCount() {
+        // Imprecise is intentional for performance
+        return (this.processors.size() + this.reservedSlots + this.procQueue.size());
+    }
+    
+    public int getBusyCount() {
+        return this.busyCount;
+    }
+    
+    /**
+     * @return the number of busy processors that retry for SQLITE_BUSY
+     */
+    public int getRetryCount() {
+        return this.retryCount;
+    }
+    
+    /**
+     * @return the number of processors executing in the execution pool
+     */
+    public int getExecCount() {
+        return this.execCount.get();
+    }
+    
+    /**Get the CPU usage of this worker thread in the recent sample interval.
+     * 
+     * @return the CPU usage in per mille, or -1 if thread CPU time not supported
+     */
+    public synchronized int getRecentCpuUsage() {
+        final Thread runner = this.runner;
+        final ThreadMXBean thrMxBean = ManagementFactory.getThreadMXBean();
+        if (runner == null || !thrMxBean.isThreadCpuTimeSupported()) {
+            return -1;
+        }
+        
+        final long curr = System.nanoTime();
+        if (this.cpuSampleValue >= 0L && curr - this.cpuSampleTime < cpuSampleInterval) {
+            return this.recentCpuUsage;
+        }
+        long cpuTime = thrMxBean.getThreadCpuTime(runner.getId());
+        if (cpuTime < 0L) {
+            return -1;
+        }
+        if (this.cpuSampleValue >= 0L) {
+            long usage = (cpuTime - this.cpuSampleValue) * 1000L / (curr - this.cpuSampleTime);
+            this.recentCpuUsage = (int)Math.min(1000L, usage);
+        }
+        this.cpuSampleTime = curr;
+        this.cpuSampleValue = cpuTime;
+        
+        return this.recentCpuUsage;
+    }
+    
+    /**
+     * @return the load information of this worker
+     */
+    public String getLoad() {
+        int cpu = getRecentCpuUsage();
+        String cpuUsage = (cpu < 0? "-": (cpu / 10) + "." + (cpu % 10) + "%");
+        return String.format("worker-%d(conns %d, busy %d, exec %d, cpu %s)", this.id, 
+                getProcessorCount(), getBusyCount(), getExecCount(), cpuUsage);
+    }
+    
     public SQLMetric getSQLMetric() {
         return this.sqlMetric;
     }
+    
+    public BufferPool getBufferPool() {
+        return this.bufferPool;
+    }
 
     SQLiteProcessor getProcessor(int pid) {
         SlotAllocator<SQLiteProcessor> processors = this.processors;
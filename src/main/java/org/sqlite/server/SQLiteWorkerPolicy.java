@@ -0,0 +1,186 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**The policy that places a new connection processor into a worker.
+ * 
+ * @author little-pan
+ * @since 2020-01-07
+ * 
+ */
+public abstract class SQLiteWorkerPolicy {
+    
+    public static final String ROUND_ROBIN = "round-robin";
+    public static final String LEAST_CONNS = "least-conns";
+    public static final String LEAST_CPU   = "least-cpu";
+    
+    public static final String POLICIES = ROUND_ROBIN + ", " + LEAST_CONNS + ", " + LEAST_CPU;
+    
+    protected SQLiteWorkerPolicy() {
+    
+    }
+    
+    /**Create the worker policy by the policy name, or the class name of a custom policy.
+     * 
+     * @param name the policy name or class name
+     * @return the worker policy
+     * @throws IllegalArgumentException if the policy unknown
+     */
+    public static SQLiteWorkerPolicy create(String name) throws IllegalArgumentException {
+        switch (name) {
+        case ROUND_ROBIN:
+            return new RoundRobin();
+        case LEAST_CONNS:
+            return new LeastConns();
+        case LEAST_CPU:
+            return new LeastCpu();
+        default:
+            try {
+                Class<?> clazz = Class.forName(name);
+                return (SQLiteWorkerPolicy)clazz.getDeclaredConstructor().newInstance();
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException
+                    | NoSuchMethodException | InvocationTargetException | ClassCastException e) {
+                throw new IllegalArgumentException("Unknown worker policy: " + name, e);
+            }
+        }
+    }
+    
+    public abstract String getName();
+    
+    /**Select a worker for the new connection processor. It's called only in the server
+     * acceptor thread.
+     * 
+     * @param workers the server workers
+     * @return the selected worker, or null if no available worker
+     */
+    public abstract SQLiteWorker select(SQLiteWorker[] workers);
+    
+    protected boolean isAvailable(SQLiteWorker worker) {
+        return (worker != null && worker.isOpen() && !worker.isStopped());
+    }
+    
+    /**Select the available worker that has the least load, and the first one if tied.
+     * 
+     * @param workers the server workers
+     * @return the worker that has the least load, or null if no available worker
+     */
+    protected SQLiteWorker selectLeast(SQLiteWorker[] workers) {
+        SQLiteWorker least = null;
+        long leastLoad = 0L;
+        
+        for (int i = 0, n = workers.length; i < n; ++i) {
+            SQLiteWorker worker = workers[i];
+            if (!isAvailable(worker)) {
+                continue;
+            }
+            long load = getLoad(worker);
+            if (least == null || load < leastLoad) {
+                least = worker;
+                leastLoad = load;
+            }
+        }
+        
+        return least;
+    }
+    
+    protected long getLoad(SQLiteWorker worker) {
+        return 0L;
+    }
+    
+    @Override
+    public String toString() {
+        return getName();
+    }
+    
+    public static class RoundRobin extends SQLiteWorkerPolicy {
+        
+        protected int workerId;
+        
+        @Override
+        public String getName() {
+            return ROUND_ROBIN;
+        }
+        
+        @Override
+        public SQLiteWorker select(SQLiteWorker[] workers) {
+            final int n = workers.length;
+            
+            for (int i = 0; i < n; ++i) {
+                final int id = this.workerId;
+                this.workerId = (id + 1) % n;
+                SQLiteWorker worker = workers[id % n];
+                if (isAvailable(worker)) {
+                    return worker;
+                }
+            }
+            
+            return null;
+        }
+    
+    }
+    
+    public static class LeastConns extends SQLiteWorkerPolicy {
+        
+        @Override
+        public String getName() {
+            return LEAST_CONNS;
+        }
+        
+        @Override
+        public SQLiteWorker select(SQLiteWorker[] workers) {
+            return selectLeast(workers);
+        }
+        
+        @Override
+        protected long getLoad(SQLiteWorker worker) {
+            // Connections first, then in-flight queries
+            long load = worker.getProcessorCount();
+            load <<= 20;
+            load += worker.getBusyCount() + worker.getExecCount();
+            return load;
+        }
+    
+    }
+    
+    public static class LeastCpu extends SQLiteWorkerPolicy {
+        
+        @Override
+        public String getName() {
+            return LEAST_CPU;
+        }
+        
+        @Override
+        public SQLiteWorker select(SQLiteWorker[] workers) {
+            return selectLeast(workers);
+        }
+        
+        @Override
+        protected long getLoad(SQLiteWorker worker) {
+            // Recent CPU usage in per mille, then connections
+            long load = worker.getRecentCpuUsage();
+            if (load < 0L) {
+                load = 0L;
+            }
+            load <<= 32;
+            load += worker.getProcessorCount();
+            return load;
+        }
+    
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server.func;
+
+import java.sql.SQLException;
+
+import org.sqlite.Function;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteErrorCode;
+import org.sqlite.core.DB;
+import org.sqlite.server.SQLiteProcessor;
+
+/** CHANGES() or TOTAL_CHANGES() function, that counts the autocommit writes executed
+ * in the database writer for the session.
+ * 
+ * @author little-pan
+ * @since 2020-01-17
+ *
+ */
+public class ChangesFunc extends Function {
+    
+    protected final SQLiteConnection connection;
+    protected final boolean total;
+    protected volatile SQLiteProcessor processor;
+    
+    public ChangesFunc(SQLiteConnection connection, boolean total) {
+        this.connection = connection;
+        this.total = total;
+    }
+    
+    public String getName() {
+        return (this.total? "total_changes": "changes");
+    }
+    
+    public void setProcessor(SQLiteProcessor processor) {
+        this.processor = processor;
+    }
+
+    @Override
+    protected void xFunc() throws SQLException {
+        int args = super.args();
+        if (args != 0) {
+            SQLiteErrorCode error = SQLiteErrorCode.SQLITE_ERROR;
+            String message = "Incorrect parameter count in the call to '" + getName() + "'";
+            throw new SQLException(message, "42000", error.code);
+        }
+        
+        DB db = this.connection.getDatabase();
+        SQLiteProcessor processor = this.processor;
+        if (this.total) {
+            long n = db.total_changes();
+            super.result(processor == null? n: processor.getTotalChanges(n));
+        } else {
+            long n = db.changes();
+            super.result(processor == null? n: processor.getChanges(n));
+        }
+    }
+
+}
@@ -26,6 +26,15 @@ import org.sqlite.server.sql.meta.User;
 public class CurrentUserFunc extends StringResultFunc {
     
     public CurrentUserFunc(User user) {
-        super(String.format("%s@%s", user.getUser(), user.getHost()));
+        super(null);
+        bind(user);
+    }
+    
+    public void bind(User user) {
+        if (user == null) {
+            setResult(null);
+        } else {
+            setResult(String.format("%s@%s", user.getUser(), user.getHost()));
+        }
     }
 }
@@ -30,11 +30,15 @@ import org.sqlite.server.SQLiteProcessor;
  */
 public class SleepFunc extends Function {
     
-    protected final SQLiteProcessor processor;
+    protected volatile SQLiteProcessor processor;
     
     public SleepFunc(SQLiteProcessor processor) {
         this.processor = processor;
     }
+    
+    public void setProcessor(SQLiteProcessor processor) {
+        this.processor = processor;
+    }
 
     @Override
     protected void xFunc() throws SQLException {
@@ -50,7 +54,11 @@ public class SleepFunc extends Function {
             throw new SQLException("Incorrect arguments in the call to 'sleep'", "42000", error.code);
         }
         
-        SQLiteBusyContext busyContext = this.processor.getBusyContext();
+        SQLiteProcessor processor = this.processor;
+        SQLiteBusyContext busyContext = null;
+        if (processor != null) {
+            busyContext = processor.getBusyContext();
+        }
         if (second == 0 || (busyContext != null && busyContext.isReady())) {
             super.result(0);
             return;
@@ -27,11 +27,23 @@ import org.sqlite.Function;
  */
 public class StringResultFunc extends Function {
     
-    protected final String result;
+    protected volatile String result;
     
     public StringResultFunc(String result) {
         this.result = result;
     }
+    
+    public String getResult() {
+        return this.result;
+    }
+    
+    /**Rebind the result, e.g. the session function of a pooled connection.
+     * 
+     * @param result the new result
+     */
+    public void setResult(String result) {
+        this.result = result;
+    }
 
     @Override
     protected void xFunc() throws SQLException {
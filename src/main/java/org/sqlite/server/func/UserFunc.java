@@ -26,7 +26,16 @@ import org.sqlite.server.sql.meta.User;
 public class UserFunc extends StringResultFunc {
     
     public UserFunc(User user, String host) {
-        super(String.format("%s@%s", user.getUser(), host));
+        super(null);
+        bind(user, host);
+    }
+    
+    public void bind(User user, String host) {
+        if (user == null) {
+            setResult(null);
+        } else {
+            setResult(String.format("%s@%s", user.getUser(), host));
+        }
     }
 
 }
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server.pg;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**The cursor style pg message decoder that reads the message body directly from the read
+ * buffer of the connection by absolute gets, without copying the message. The strings are
+ * decoded into a reusable char buffer.
+ * 
+ * @author little-pan
+ * @since 2020-01-11
+ * 
+ */
+public class PgMessageDecoder {
+    
+    // The max size of the reusable buffers, larger buffers are allocated and discarded
+    static final int REUSE_MAX = 1 << 13;
+    
+    protected ByteBuffer buffer;
+    private int position, limit;
+    
+    private char[] chars = new char[64];
+    private byte[] bytes = new byte[64];
+    
+    public PgMessageDecoder() {
+    
+    }
+    
+    /**Reset this decoder to read the message body in the buffer.
+     * 
+     * @param buffer the read buffer
+     * @param offset the start index of the message body
+     * @param length the length of the message body
+     */
+    public void reset(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+    
+    /**Detach this decoder from the read buffer after the message processed.
+     */
+    public void clear() {
+        this.buffer = null;
+        this.position = this.limit = 0;
+    }
+    
+    public boolean isReset() {
+        return (this.buffer != null);
+    }
+    
+    public int remaining() {
+        return (this.limit - this.position);
+    }
+    
+    public byte readByte() throws EOFException {
+        checkRemaining(1);
+        return this.buffer.get(this.position++);
+    }
+    
+    public short readShort() throws EOFException {
+        checkRemaining(2);
+        short s = this.buffer.getShort(this.position);
+        this.position += 2;
+        return s;
+    }
+    
+    public int readInt() throws EOFException {
+        checkRemaining(4);
+        int i = this.buffer.getInt(this.position);
+        this.position += 4;
+        return i;
+    }
+    
+    public long readLong() throws EOFException {
+        checkRemaining(8);
+        long l = this.buffer.getLong(this.position);
+        this.position += 8;
+        return l;
+    }
+    
+    public float readFloat() throws EOFException {
+        return Float.intBitsToFloat(readInt());
+    }
+    
+    public double readDouble() throws EOFException {
+        return Double.longBitsToDouble(readLong());
+    }
+    
+    public void readFully(byte[] data) throws EOFException {
+        final int n = data.length;
+        checkRemaining(n);
+        final ByteBuffer buf = this.buffer;
+        for (int i = 0, j = this.position; i < n; ++i, ++j) {
+            data[i] = buf.get(j);
+        }
+        this.position += n;
+    }
+    
+    public byte[] readBytes(int length) throws EOFException {
+        byte[] data = new byte[length];
+        readFully(data);
+        return data;
+    }
+    
+    /**Read the NUL terminated string. The string ends at the message end if no NUL found.
+     * 
+     * @param charset the charset of the string
+     * @return the string
+     */
+    public String readString(Charset charset) {
+        final ByteBuffer buf = this.buffer;
+        final int start = this.position, end = this.limit;
+        int i = start;
+        while (i < end && buf.get(i) != 0) {
+            ++i;
+        }
+        this.position = (i < end? i + 1: end);
+        return decode(start, i - start, charset);
+    }
+    
+    /**Read the string of the specified byte length.
+     * 
+     * @param length the byte length of the string
+     * @param charset the charset of the string
+     * @return the string
+     */
+    public String readString(int length, Charset charset) throws EOFException {
+        checkRemaining(length);
+        final int start = this.position;
+        this.position += length;
+        return decode(start, length, charset);
+    }
+    
+    protected String decode(int start, int length, Charset charset) {
+        if (length == 0) {
+            return "";
+        }
+        
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            String s = decodeUTF8(start, length);
+            if (s != null) {
+                return s;
+            }
+            // Malformed: decode it with the replacement as String does
+        }
+        
+        byte[] data = this.bytes;
+        if (data.length < length) {
+            data = new byte[length];
+            if (length <= REUSE_MAX) {
+                this.bytes = data;
+            }
+        }
+        final ByteBuffer buf = this.buffer;
+        for (int i = 0; i < length; ++i) {
+            data[i] = buf.get(start + i);
+        }
+        return new String(data, 0, length, charset);
+    }
+    
+    /**Decode the well-formed UTF-8 bytes into the reusable char buffer.
+     * 
+     * @return the string, or null if malformed
+     */
+    protected String decodeUTF8(final int start, final int length) {
+        // The chars count never exceeds the bytes count in UTF-8
+        char[] cs = this.chars;
+        if (cs.length < length) {
+            cs = new char[length];
+            if (length <= REUSE_MAX) {
+                this.chars = cs;
+            }
+        }
+        
+        final ByteBuffer buf = this.buffer;
+        final int end = start + length;
+        int n = 0;
+        for (int i = start; i < end;) {
+            final int b = buf.get(i++);
+            if (b >= 0) {
+                cs[n++] = (char)b;
+            } else if ((b & 0xE0) == 0xC0) {
+                if (i >= end) {
+                    return null;
+                }
+                final int b1 = buf.get(i++);
+                final int c = ((b & 0x1F) << 6) | (b1 & 0x3F);
+                if ((b1 & 0xC0) != 0x80 || c < 0x80) {
+                    return null;
+                }
+                cs[n++] = (char)c;
+            } else if ((b & 0xF0) == 0xE0) {
+                if (i + 1 >= end) {
+                    return null;
+                }
+                final int b1 = buf.get(i++), b2 = buf.get(i++);
+                final int c = ((b & 0x0F) << 12) | ((b1 & 0x3F) << 6) | (b2 & 0x3F);
+                if ((b1 & 0xC0) != 0x80 || (b2 & 0xC0) != 0x80 || c < 0x800
+                        || Character.isSurrogate((char)c)) {
+                    return null;
+                }
+                cs[n++] = (char)c;
+            } else if ((b & 0xF8) == 0xF0) {
+                if (i + 2 >= end) {
+                    return null;
+                }
+                final int b1 = buf.get(i++), b2 = buf.get(i++), b3 = buf.get(i++);
+                final int cp = ((b & 0x07) << 18) | ((b1 & 0x3F) << 12)
+                        | ((b2 & 0x3F) << 6) | (b3 & 0x3F);
+                if ((b1 & 0xC0) != 0x80 || (b2 & 0xC0) != 0x80 || (b3 & 0xC0) != 0x80
+                        || cp < 0x10000 || cp > Character.MAX_CODE_POINT) {
+                    return null;
+                }
+                cs[n++] = Character.highSurrogate(cp);
+                cs[n++] = Character.lowSurrogate(cp);
+            } else {
+                return null;
+            }
+        }
+        
+        return new String(cs, 0, n);
+    }
+    
+    protected void checkRemaining(int n) throws EOFException {
+        if (n < 0 || this.limit - this.position < n) {
+            throw new EOFException();
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server.pg;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**The pg message encoder that writes messages directly into a reusable output buffer of
+ * the connection: the message header is reserved when the message starts, and the length
+ * is backpatched when it ends. The complete messages are drained in chunks for writing,
+ * and the written chunk can be recycled. The buffers are allocated lazily by allocate(),
+ * and returned by release() when not used, e.g. to a buffer pool.
+ * 
+ * @author little-pan
+ * @since 2020-01-10
+ * 
+ */
+public class PgMessageEncoder {
+    
+    protected final int initCapacity;
+    
+    protected ByteBuffer buffer;
+    // The recycled buffer for the next chunk
+    protected ByteBuffer spare;
+    // The start position of current message, -1 if no message started
+    private int messageStart = -1;
+    
+    public PgMessageEncoder(int initCapacity) {
+        this.initCapacity = initCapacity;
+    }
+    
+    public void startMessage(int type) {
+        if (this.messageStart != -1) {
+            throw new IllegalStateException("Message started");
+        }
+        
+        ensureCapacity(5);
+        this.messageStart = this.buffer.position();
+        this.buffer.put((byte)type).putInt(0);
+    }
+    
+    public void endMessage() {
+        final int start = this.messageStart;
+        if (start == -1) {
+            throw new IllegalStateException("No message started");
+        }
+        
+        // Message length includes itself but not the type
+        int len = this.buffer.position() - start - 1;
+        this.buffer.putInt(start + 1, len);
+        this.messageStart = -1;
+    }
+    
+    public boolean inMessage() {
+        return (this.messageStart != -1);
+    }
+    
+    /**
+     * @return the size of the encoded bytes that haven't been drained
+     */
+    public int size() {
+        final ByteBuffer buf = this.buffer;
+        return (buf == null? 0: buf.position());
+    }
+    
+    public void writeByte(int b) {
+        ensureCapacity(1);
+        this.buffer.put((byte)b);
+    }
+    
+    public void writeShort(int s) {
+        ensureCapacity(2);
+        this.buffer.putShort((short)s);
+    }
+    
+    public void writeInt(int i) {
+        ensureCapacity(4);
+        this.buffer.putInt(i);
+    }
+    
+    public void writeLong(long l) {
+        ensureCapacity(8);
+        this.buffer.putLong(l);
+    }
+    
+    public void writeFloat(float f) {
+        ensureCapacity(4);
+        this.buffer.putFloat(f);
+    }
+    
+    public void writeDouble(double d) {
+        ensureCapacity(8);
+        this.buffer.putDouble(d);
+    }
+    
+    public void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+    
+    public void write(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        this.buffer.put(data, offset, length);
+    }
+    
+    public void writeString(String s, Charset charset) {
+        writeStringPart(s, charset);
+        writeByte(0);
+    }
+    
+    /**Write the string with the int length prefix.
+     * 
+     * @param s the string
+     * @param charset the charset of the string
+     */
+    public void writeLengthPrefixed(String s, Charset charset) {
+        ensureCapacity(4);
+        final int start = this.buffer.position();
+        this.buffer.putInt(0);
+        writeStringPart(s, charset);
+        this.buffer.putInt(start, this.buffer.position() - start - 4);
+    }
+    
+    public void writeStringPart(String s, Charset charset) {
+        if (!StandardCharsets.UTF_8.equals(charset)) {
+            write(s.getBytes(charset));
+            return;
+        }
+        
+        // Encode UTF-8 in place
+        final int n = s.length();
+        ensureCapacity(n);
+        for (int i = 0; i < n; ++i) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                ensureCapacity(1);
+                this.buffer.put((byte)c);
+            } else if (c < 0x800) {
+                ensureCapacity(2);
+                this.buffer.put((byte)(0xC0 | (c >> 6)))
+                .put((byte)(0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensureCapacity(4);
+                this.buffer.put((byte)(0xF0 | (cp >> 18)))
+                .put((byte)(0x80 | ((cp >> 12) & 0x3F)))
+                .put((byte)(0x80 | ((cp >> 6) & 0x3F)))
+                .put((byte)(0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Malformed as String.getBytes() does
+                ensureCapacity(1);
+                this.buffer.put((byte)'?');
+            } else {
+                ensureCapacity(3);
+                this.buffer.put((byte)(0xE0 | (c >> 12)))
+                .put((byte)(0x80 | ((c >> 6) & 0x3F)))
+                .put((byte)(0x80 | (c & 0x3F)));
+            }
+        }
+    }
+    
+    /**Drain the complete messages for writing.
+     * 
+     * @return the flipped buffer of the encoded messages, or null if no complete message
+     */
+    public ByteBuffer drain() {
+        final ByteBuffer buf = this.buffer;
+        if (buf == null || buf.position() == 0 || inMessage()) {
+            return null;
+        }
+        
+        // The next buffer allocated when writing if no spare
+        this.buffer = this.spare;
+        this.spare = null;
+        
+        buf.flip();
+        return buf;
+    }
+    
+    /**Recycle the buffer that has been written for the next chunk.
+     * 
+     * @param buf the written buffer
+     */
+    public void recycle(ByteBuffer buf) {
+        if (buf == this.buffer || buf == this.spare) {
+            return;
+        }
+        if (this.spare == null && !buf.isReadOnly() && buf.capacity() == this.initCapacity) {
+            buf.clear();
+            this.spare = buf;
+        } else {
+            release(buf);
+        }
+    }
+    
+    /**Release the empty buffers when no message pending, e.g. the connection is idle.
+     * 
+     * @return true if released, otherwise false
+     */
+    public boolean free() {
+        if (inMessage() || size() > 0) {
+            return false;
+        }
+        
+        clear();
+        return true;
+    }
+    
+    /**Discard the pending messages, and release the buffers.
+     */
+    public void clear() {
+        this.messageStart = -1;
+        final ByteBuffer buf = this.buffer, spare = this.spare;
+        this.buffer = this.spare = null;
+        if (buf != null) {
+            release(buf);
+        }
+        if (spare != null) {
+            release(spare);
+        }
+    }
+    
+    protected ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocate(capacity);
+    }
+    
+    protected void release(ByteBuffer buf) {
+        // GC
+    }
+    
+    protected void ensureCapacity(int n) {
+        final ByteBuffer buf = this.buffer;
+        if (buf == null) {
+            this.buffer = allocate(Math.max(this.initCapacity, n));
+            return;
+        }
+        if (buf.remaining() >= n) {
+            return;
+        }
+        
+        final int pos = buf.position();
+        int cap = Math.max(buf.capacity() << 1, pos + n);
+        ByteBuffer newBuffer = allocate(cap);
+        buf.flip();
+        newBuffer.put(buf);
+        this.buffer = newBuffer;
+        release(buf);
+    }
+
+}
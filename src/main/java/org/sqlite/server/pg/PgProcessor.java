@@ -17,16 +17,13 @@ package org.sqlite.server.pg;
 
 import static java.lang.String.format;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
 import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -34,11 +31,11 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Time;
 import java.sql.Timestamp;
-import java.sql.Types;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.TimeZone;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,11 +45,12 @@ import org.sqlite.core.CoreResultSet;
 import org.sqlite.server.NetworkException;
 import org.sqlite.server.SQLiteProcessorTask;
 import org.sqlite.server.SQLiteProcessor;
+import org.sqlite.server.SQLitePooledConnection;
 import org.sqlite.server.SQLiteQueryTask;
 import org.sqlite.server.SQLiteWorker;
+import org.sqlite.server.pg.sql.CopyStatement;
 import org.sqlite.server.sql.meta.MetaStatement;
 import org.sqlite.server.sql.meta.User;
-import org.sqlite.server.util.DateTimeUtils;
 import org.sqlite.server.util.IoUtils;
 import org.sqlite.server.util.SecurityUtils;
 import org.sqlite.sql.ImplicitCommitException;
@@ -74,6 +72,10 @@ public class PgProcessor extends SQLiteProcessor {
     
     static final Logger log = LoggerFactory.getLogger(PgProcessor.class);
     private static final boolean INTEGER_DATE_TYPES = false;
+    // The PG epoch 2000-01-01 in the unix epoch
+    private static final long PG_EPOCH_DAYS = 10_957L;
+    private static final long PG_EPOCH_MILLIS = PG_EPOCH_DAYS * 86_400_000L;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
     
     // auth method
     private static final int AUTH_REQ_OK = 0;
@@ -82,26 +84,46 @@ public class PgProcessor extends SQLiteProcessor {
     
     protected static final String UNNAMED  = "";
     
+    // Message encoder settings: the encode buffer size, and the chunk size for writing
+    static final int encodeBuffer    = Integer.getInteger("org.sqlite.server.pg.encodeBuffer", 1<<13);
+    static final int encodeChunkSize = encodeBuffer >> 1;
+    // The rows copied are executed in a batch of this size in COPY FROM STDIN
+    static final int copyBatchSize   = Integer.getInteger("org.sqlite.server.pg.copyBatchSize", 1<<12);
+    
     private final int secret;
-    private DataInputStream dataBuf;
+    private final PgMessageDecoder decoder;
     private int x, inSize = -1;
     
-    private int messageType;
-    private ByteArrayOutputStream outBuf;
-    private DataOutputStream dataOut;
+    private final PgMessageEncoder encoder;
     private boolean needFlush;
     
     private String clientEncoding = "UTF-8";
+    private Charset encoding;
     private String dateStyle = "ISO, MDY";
     
     private boolean initDone, xQueryFailed;
     private final HashMap<String, Prepared> prepared = new HashMap<>();
     private final HashMap<String, Portal> portals = new HashMap<>();
     private Portal portal;
+    private XBatch xBatch;
+    // The query task suspended in copy-in mode
+    private QueryTask copyTask;
 
     protected PgProcessor(PgServer server, SocketChannel channel, int id) throws NetworkException {
         super(server, channel, id);
         this.secret = (int)SecurityUtils.secureRandomLong();
+        this.encoder = new PgMessageEncoder(encodeBuffer) {
+            @Override
+            protected ByteBuffer allocate(int capacity) {
+                return allocateBuffer(capacity);
+            }
+            
+            @Override
+            protected void release(ByteBuffer buf) {
+                releaseBuffer(buf);
+            }
+        };
+        this.decoder = new PgMessageDecoder();
     }
     
     public PgServer getServer() {
@@ -110,7 +132,7 @@ public class PgProcessor extends SQLiteProcessor {
     
     @Override
     protected void deny(InetSocketAddress remote) throws IOException {
-        String message = format("Host '%s' not allowed", remote.getHostName());
+        String message = format("Host '%s' not allowed", remote.getAddress().getHostAddress());
         SQLException error = convertError(SQLiteErrorCode.SQLITE_PERM, message);
         sendErrorResponse(error);
     }
@@ -129,18 +151,16 @@ public class PgProcessor extends SQLiteProcessor {
         sendErrorResponse(error);
     }
     
-    private void setParameter(PreparedStatement prep,
+    private void setParameter(SQLStatement prep,
             int pgType, int i, int[] formatCodes) throws SQLException, IOException {
         boolean text = (i >= formatCodes.length) || (formatCodes[i] == 0);
         int col = i + 1;
         int paramLen = readInt();
         if (paramLen == -1) {
-            prep.setNull(col, Types.NULL);
+            prep.setParameter(col, null);
         } else if (text) {
             // plain text
-            byte[] data = new byte[paramLen];
-            readFully(data);
-            String str = new String(data, getEncoding());
+            String str = this.decoder.readString(paramLen, getEncoding());
             switch (pgType) {
             case PgServer.PG_TYPE_DATE: {
                 // Strip timezone offset
@@ -162,40 +182,36 @@ public class PgProcessor extends SQLiteProcessor {
                 break;
             }
             }
-            prep.setString(col, str);
+            prep.setParameter(col, str);
         } else {
             // binary
             switch (pgType) {
             case PgServer.PG_TYPE_INT2:
                 checkParamLength(2, paramLen);
-                prep.setShort(col, readShort());
+                prep.setParameter(col, readShort());
                 break;
             case PgServer.PG_TYPE_INT4:
                 checkParamLength(4, paramLen);
-                prep.setInt(col, readInt());
+                prep.setParameter(col, readInt());
                 break;
             case PgServer.PG_TYPE_INT8:
                 checkParamLength(8, paramLen);
-                prep.setLong(col, dataBuf.readLong());
+                prep.setParameter(col, this.decoder.readLong());
                 break;
             case PgServer.PG_TYPE_FLOAT4:
                 checkParamLength(4, paramLen);
-                prep.setFloat(col, dataBuf.readFloat());
+                prep.setParameter(col, this.decoder.readFloat());
                 break;
             case PgServer.PG_TYPE_FLOAT8:
                 checkParamLength(8, paramLen);
-                prep.setDouble(col, dataBuf.readDouble());
+                prep.setParameter(col, this.decoder.readDouble());
                 break;
             case PgServer.PG_TYPE_BYTEA:
-                byte[] d1 = new byte[paramLen];
-                readFully(d1);
-                prep.setBytes(col, d1);
+                prep.setParameter(col, this.decoder.readBytes(paramLen));
                 break;
             default:
                 server.trace(log, "Binary format for type: {} is unsupported", pgType);
-                byte[] d2 = new byte[paramLen];
-                readFully(d2);
-                prep.setString(col, new String(d2, getEncoding()));
+                prep.setParameter(col, this.decoder.readString(paramLen, getEncoding()));
             }
         }
     }
@@ -268,20 +284,25 @@ public class PgProcessor extends SQLiteProcessor {
             }
             
             // process: read OK
-            byte[] data = inBuf.array();
+            // execute the pending batch first if this message isn't the next one of it
+            if (this.xBatch != null && !isBatchMessage(inBuf, 0, 5 + this.inSize)) {
+                processXBatch();
+                if (hasAsyncTask()) {
+                    // Go on this message after the batch executed
+                    break;
+                }
+            }
             // mark read state
             inBuf.flip();
             inBuf.position(5 + inSize);
             if (this.xQueryFailed && 'S' != x) {
                 server.trace(log, "Discard any message for xQuery error detected until Sync");
-                this.dataBuf = null;
                 this.inSize = -1;
                 rem = resetReadBuffer();
                 continue;
             }
-            this.dataBuf = new DataInputStream(new ByteArrayInputStream(data, 5, inSize));
+            this.decoder.reset(inBuf, 5, this.inSize);
             
-            this.needFlush = false;
             switch (x) {
             case 0:
                 server.trace(log, "Init");
@@ -332,6 +353,7 @@ public class PgProcessor extends SQLiteProcessor {
                             case "client_encoding":
                                 // UTF8
                                 this.clientEncoding = value;
+                                this.encoding = null;
                                 break;
                             case "DateStyle":
                                 if (value.indexOf(',') < 0) {
@@ -358,7 +380,8 @@ public class PgProcessor extends SQLiteProcessor {
                     this.databaseName = StringUtils.toLowerEnglish(this.databaseName);
                     User user;
                     try {
-                        user = server.selectUser(getRemoteAddress(), this.userName, this.databaseName);
+                        user = server.selectUser(getRemoteAddress(), this.userName, this.databaseName, 
+                                this.hostResolveDeadline);
                     } catch (SQLException e) {
                         log.error("Can't query user information", e);
                         user = null;
@@ -430,6 +453,7 @@ public class PgProcessor extends SQLiteProcessor {
                     
                     // Prepare SQL
                     if (!sqlStmt.isEmpty()) {
+                        attachConnection();
                         this.state.startQuery(sqlStmt);
                         PreparedStatement prep = sqlStmt.prepare();
                         if (!(sqlStmt instanceof MetaStatement)) {
@@ -469,7 +493,8 @@ public class PgProcessor extends SQLiteProcessor {
                     break;
                 }
                 portal.prep = prep;
-                portals.put(portal.name, portal);
+                closePortal(portals.put(portal.name, portal));
+                closeSuspendedPortals(portal);
                 int formatCodeCount = readShort();
                 int[] formatCodes = new int[formatCodeCount];
                 for (int i = 0; i < formatCodeCount; i++) {
@@ -477,12 +502,15 @@ public class PgProcessor extends SQLiteProcessor {
                 }
                 int paramCount = readShort();
                 try {
-                    PreparedStatement ps = prep.sql.getPreparedStatement();
                     for (int i = 0; i < paramCount; i++) {
-                        setParameter(ps, prep.paramType[i], i, formatCodes);
+                        setParameter(prep.sql, prep.paramType[i], i, formatCodes);
                     }
                 } catch (SQLException e) {
-                    sendErrorResponse(e);
+                    if (this.xBatch != null) {
+                        this.xBatch.error = e;
+                    } else {
+                        sendErrorResponse(e);
+                    }
                     break;
                 }
                 int resultCodeCount = readShort();
@@ -490,20 +518,25 @@ public class PgProcessor extends SQLiteProcessor {
                 for (int i = 0; i < resultCodeCount; i++) {
                     portal.resultColumnFormat[i] = readShort();
                 }
-                sendBindComplete();
+                if (this.xBatch != null) {
+                    // Deferred for the responses of the batch in order
+                    this.xBatch.bound = true;
+                    this.xBatch.responses.append('2');
+                } else {
+                    sendBindComplete();
+                }
                 this.portal = portal;
                 this.xQueryFailed = false;
                 break;
             }
             case 'C': {
                 server.trace(log, "Close");
-                this.needFlush = true;
                 char type = (char) readByte();
                 String name = readString();
                 if (type == 'S') {
                     destroyPrepared(name);
                 } else if (type == 'P') {
-                    portals.remove(name);
+                    closePortal(portals.remove(name));
                 } else {
                     server.trace(log, "expected S or P, got {}", type);
                     sendErrorResponse("expected S or P");
@@ -533,7 +566,7 @@ public class PgProcessor extends SQLiteProcessor {
                                 rsMeta = sql.getPreparedMetaData();
                             }
                             sendParameterDescription(paramMeta, p.paramType);
-                            sendRowDescription(rsMeta);
+                            sendRowDescription(rsMeta, null);
                             this.xQueryFailed = false;
                         } catch (SQLException e) {
                             sendErrorResponse(e);
@@ -543,6 +576,11 @@ public class PgProcessor extends SQLiteProcessor {
                     Portal p = this.portals.get(name);
                     if (p == null) {
                         sendErrorResponse("Portal not found: " + name);
+                    } else if (this.xBatch != null) {
+                        // No data of the batch statement
+                        this.xBatch.described = true;
+                        this.xBatch.responses.append('n');
+                        this.xQueryFailed = false;
                     } else {
                         SQLStatement sqlStmt = p.prep.sql;
                         try {
@@ -550,7 +588,8 @@ public class PgProcessor extends SQLiteProcessor {
                             if (!sqlStmt.isEmpty()) {
                                 meta = sqlStmt.getPreparedMetaData();
                             }
-                            sendRowDescription(meta);
+                            // The rows are sent in the formats described here
+                            p.rowEncoder = sendRowDescription(meta, p.resultColumnFormat);
                             this.xQueryFailed = false;
                         } catch (SQLException e) {
                             sendErrorResponse(e);
@@ -571,7 +610,7 @@ public class PgProcessor extends SQLiteProcessor {
                     sendErrorResponse("Portal not found: " + name);
                     break;
                 }
-                final int maxRows = readShort();
+                final int maxRows = readInt();
                 Prepared prepared = p.prep;
                 final SQLStatement sqlStmt = prepared.sql;
                 // check empty statement
@@ -582,15 +621,83 @@ public class PgProcessor extends SQLiteProcessor {
                     break;
                 }
                 this.state.setStateText("executing");
+                if (this.xBatch != null || startXBatch(p)) {
+                    try {
+                        sqlStmt.addBatch();
+                        this.xBatch.bound = this.xBatch.described = false;
+                        this.xBatch.responses.append('C');
+                        ++this.xBatch.size;
+                        this.xQueryFailed = false;
+                    } catch (SQLException e) {
+                        this.xBatch.error = e;
+                    }
+                    break;
+                }
                 processXQuery(p, maxRows);
                 break;
             }
+            case 'd': {
+                server.trace(log, "CopyData");
+                QueryTask copyTask = this.copyTask;
+                if (copyTask == null) {
+                    // Dropped after the copy failed
+                    break;
+                }
+                byte[] data = this.decoder.readBytes(this.inSize);
+                try {
+                    copyTask.copyStmt.copyIn(data, 0, data.length);
+                    if (copyTask.copyStmt.getBatchSize() >= copyBatchSize) {
+                        startQueryTask(copyTask);
+                    }
+                } catch (SQLException e) {
+                    copyTask.copyError = e;
+                    startQueryTask(copyTask);
+                }
+                break;
+            }
+            case 'c': {
+                server.trace(log, "CopyDone");
+                QueryTask copyTask = this.copyTask;
+                if (copyTask == null) {
+                    break;
+                }
+                try {
+                    copyTask.copyStmt.copyDone();
+                } catch (SQLException e) {
+                    copyTask.copyError = e;
+                }
+                copyTask.copyDone = true;
+                startQueryTask(copyTask);
+                break;
+            }
+            case 'f': {
+                server.trace(log, "CopyFail");
+                QueryTask copyTask = this.copyTask;
+                if (copyTask == null) {
+                    break;
+                }
+                String message = "COPY from stdin failed: " + readString();
+                copyTask.copyError = convertError(SQLiteErrorCode.SQLITE_ERROR, message, "57014");
+                startQueryTask(copyTask);
+                break;
+            }
             case 'S': {
                 server.trace(log, "Sync");
+                if (this.copyTask != null) {
+                    // Ignored in copy-in mode as pg does
+                    break;
+                }
                 SyncProcessTask syncTask = new SyncProcessTask(this);
                 startQueryTask(syncTask);
                 break;
             }
+            case 'H': {
+                server.trace(log, "Flush");
+                // Send the pending responses of the pipelined messages without Sync
+                this.needFlush = true;
+                enableWrite();
+                break;
+            }
             case 'Q': {
                 server.trace(log, "Query");
                 destroyPrepared(UNNAMED);
@@ -611,10 +718,14 @@ public class PgProcessor extends SQLiteProcessor {
             }
             
             // reset and cleanup
-            this.dataBuf = null;
+            this.decoder.clear();
             this.inSize = -1;
             rem = resetReadBuffer();
-        } while(!this.needFlush && rem >= 5 && !hasAsyncTask());
+            if (this.xBatch != null && !hasMessage(rem)) {
+                // No more pipelined message buffered for the batch
+                processXBatch();
+            }
+        } while(rem >= 5 && !hasAsyncTask() && !isStopped());
         
         // Must disable read if a statement running
         if (hasAsyncTask()) {
@@ -623,7 +734,7 @@ public class PgProcessor extends SQLiteProcessor {
     }
     
     protected boolean hasAsyncTask() {
-        return (this.queryTask != null || this.writeTask != null);
+        return (this.queryTask != null || this.writeTask != null || isExecuting());
     }
     
     protected void processXQuery(Portal p, int maxRows) throws IllegalStateException {
@@ -631,6 +742,93 @@ public class PgProcessor extends SQLiteProcessor {
         startQueryTask(queryTask);
     }
     
+    /**Start a batch by the Execute if the next buffered message binds the same prepared.
+     * 
+     * @param p the portal executed
+     * @return true if the batch started, otherwise false
+     */
+    protected boolean startXBatch(Portal p) {
+        final SQLStatement sqlStmt = p.prep.sql;
+        if (!UNNAMED.equals(p.name) || p.isSuspended() || !sqlStmt.isPrepared() 
+                || sqlStmt.getClass() != SQLStatement.class || !sqlStmt.isWritable()) {
+            return false;
+        }
+        switch (sqlStmt.getCommand()) {
+        case "INSERT":
+        case "UPDATE":
+        case "DELETE":
+            break;
+        default:
+            return false;
+        }
+        
+        final ByteBuffer buf = this.readBuffer;
+        this.xBatch = new XBatch(p.prep, p.prep.name.getBytes(getEncoding()));
+        if (buf != null && isBatchMessage(buf, buf.position(), buf.limit())) {
+            server.trace(log, "Start a batch of the prepared '{}'", p.prep.name);
+            return true;
+        }
+        this.xBatch = null;
+        return false;
+    }
+    
+    /**Check whether the message is the next Bind, Describe or Execute of the batch in the
+     * unnamed portal. The message is peeked by the absolute position of the read buffer.
+     * 
+     * @param buf the read buffer
+     * @param off the message offset
+     * @param end the end of the message or the buffered bytes
+     * @return true if the message can be added into the batch, otherwise false
+     */
+    protected boolean isBatchMessage(ByteBuffer buf, int off, int end) {
+        final XBatch batch = this.xBatch;
+        if (batch.error != null || end - off < 6) {
+            return false;
+        }
+        
+        switch (buf.get(off)) {
+        case 'B':
+            if (batch.bound || buf.get(off + 5) != 0) {
+                return false;
+            }
+            break;
+        case 'D':
+            return (batch.bound && !batch.described && end - off >= 7
+                    && buf.get(off + 5) == 'P' && buf.get(off + 6) == 0);
+        case 'E':
+            return (batch.bound && buf.get(off + 5) == 0);
+        default:
+            return false;
+        }
+        // Bind: the prepared name after the unnamed portal
+        final byte[] name = batch.prepName;
+        int i = off + 6;
+        if (i + name.length >= end || buf.get(i + name.length) != 0) {
+            return false;
+        }
+        for (int j = 0; j < name.length; ++j) {
+            if (buf.get(i + j) != name[j]) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    protected boolean hasMessage(int rem) {
+        if (rem < 5) {
+            return false;
+        }
+        return (rem >= this.readBuffer.getInt(1) + 1);
+    }
+    
+    protected void processXBatch() throws IllegalStateException {
+        XBatch batch = this.xBatch;
+        this.xBatch = null;
+        SQLiteQueryTask queryTask = new XBatchTask(this, batch);
+        startQueryTask(queryTask);
+    }
+    
     protected void processQuery(final String query) throws IllegalStateException {
         SQLiteQueryTask queryTask = new QueryTask(this, query);
         startQueryTask(queryTask);
@@ -642,7 +840,7 @@ public class PgProcessor extends SQLiteProcessor {
         }
         
         this.queryTask = queryTask;
-        this.queryTask.run(); 
+        execute(queryTask);
     }
     
     protected void startWriteTask (SQLiteProcessorTask writeTask) throws IllegalStateException {
@@ -659,6 +857,23 @@ public class PgProcessor extends SQLiteProcessor {
         try {
             this.authMethod = null;
             
+            SQLitePooledConnection pc = server.borrowConnection(this.databaseName);
+            if (pc != null) {
+                boolean ok = false;
+                try {
+                    InitQueryTask initTask = new InitQueryTask(this, pc);
+                    this.state.startOpen();
+                    startQueryTask(initTask);
+                    ok = true;
+                } finally {
+                    if (!ok) {
+                        pc.close();
+                    }
+                }
+                failed = false;
+                return;
+            }
+            
             conn = server.newSQLiteConnection(this.databaseName);
             if (isTrace()) {
                 trace(log, "SQLite init: autoCommit {}", conn.getAutoCommit());
@@ -678,6 +893,46 @@ public class PgProcessor extends SQLiteProcessor {
         }
     }
     
+    /**Close and remove the other suspended portals of the same prepared, because all portals of
+     * a prepared share its statement, and the new execution resets their open result sets. The
+     * later Execute of the portal removed fails as "Portal not found".
+     * 
+     * @param portal the portal bound
+     */
+    protected void closeSuspendedPortals(Portal portal) {
+        Iterator<Portal> it = this.portals.values().iterator();
+        while (it.hasNext()) {
+            Portal p = it.next();
+            if (p != portal && p.prep == portal.prep && p.isSuspended()) {
+                it.remove();
+                closePortal(p);
+            }
+        }
+    }
+    
+    protected void closePortal(Portal p) {
+        if (p == null) {
+            return;
+        }
+        if (p.isSuspended()) {
+            this.server.trace(log, "Close the suspended portal '{}'", p.name);
+            IoUtils.close(p.rs);
+            p.rs = null;
+        }
+        
+        // Close the statement of the destroyed prepared after its last suspended portal closed
+        final Prepared prep = p.prep;
+        if (prep.destroyed) {
+            for (Portal po: this.portals.values()) {
+                if (po.prep == prep && po.isSuspended()) {
+                    return;
+                }
+            }
+            IoUtils.close(prep.sql);
+            prep.destroyed = false;
+        }
+    }
+    
     protected SQLParser newSQLParser(String sqls) {
         return new SQLParser(sqls, true);
     }
@@ -687,22 +942,70 @@ public class PgProcessor extends SQLiteProcessor {
         if (p != null) {
             this.server.trace(log, "Destroy");
             this.server.trace(log, "the named '{}' prepared and it's all portal", name);
-            IoUtils.close(p.sql);
-            // Need to close all generated portals by this prepared
+            // Need to close all generated portals by this prepared, except the suspended
+            // that hold the result set of the statement until closed
             Iterator<Entry<String, Portal>> it = this.portals.entrySet().iterator();
             while (it.hasNext()) {
                 Portal po = it.next().getValue();
                 if (po.prep == p) {
-                    it.remove();
+                    if (po.isSuspended()) {
+                        p.destroyed = true;
+                    } else {
+                        it.remove();
+                    }
                 }
             }
+            if (!p.destroyed) {
+                IoUtils.close(p.sql);
+            }
         }
     }
     
-    private static boolean formatAsText(int pgType) {
-        // TODO: add more types to send as binary once compatibility is
-        // confirmed
-        return (pgType != PgServer.PG_TYPE_BYTEA);
+    @Override
+    protected boolean isAffinityReady() {
+        // Not migrated in copy-in mode
+        return (this.copyTask == null && super.isAffinityReady());
+    }
+    
+    @Override
+    protected boolean releaseStatements(boolean all) {
+        if (this.copyTask != null) {
+            if (!all) {
+                return false;
+            }
+            // Rollback the copy interrupted
+            this.copyTask.abortCopy();
+        }
+        if (all) {
+            for (Portal p: this.portals.values()) {
+                closePortal(p);
+            }
+            for (Prepared p: this.prepared.values()) {
+                IoUtils.close(p.sql);
+            }
+            this.prepared.clear();
+            this.portals.clear();
+            this.portal = null;
+            return true;
+        }
+        
+        // Named prepared statements, the bound or suspended portals hold the connection
+        if (this.portal != null) {
+            return false;
+        }
+        for (Portal p: this.portals.values()) {
+            if (p.isSuspended()) {
+                return false;
+            }
+        }
+        for (String name: this.prepared.keySet()) {
+            if (!UNNAMED.equals(name)) {
+                return false;
+            }
+        }
+        destroyPrepared(UNNAMED);
+        
+        return true;
     }
     
     private static int getTypeSize(int pgType, int precision) {
@@ -725,6 +1028,7 @@ public class PgProcessor extends SQLiteProcessor {
         }
         this.authMethod.init(this.user.getUser(), this.user.getPassword());
         this.state.startAuth();
+        this.worker.schedule(this);
         
         PgServer server = getServer();
         server.trace(log, "authMethod {}", this.authMethod);
@@ -799,6 +1103,51 @@ public class PgProcessor extends SQLiteProcessor {
         sendMessage();
     }
     
+    private void sendPortalSuspended() throws IOException {
+        startMessage('s');
+        sendMessage();
+    }
+    
+    private void sendCopyInResponse(CopyStatement copyStmt) throws IOException {
+        final int n = copyStmt.getColumnCount();
+        
+        startMessage('G');
+        // Text format
+        write(0);
+        writeShort(n);
+        for (int i = 0; i < n; ++i) {
+            writeShort(0);
+        }
+        sendMessage();
+    }
+    
+    private CopyEncoder sendCopyOutResponse(CopyStatement copyStmt, ResultSetMetaData meta)
+            throws IOException, SQLException {
+        final CopyEncoder copyEncoder = new CopyEncoder(copyStmt, meta, getEncoding());
+        final int n = meta.getColumnCount();
+        final int format = copyStmt.isBinary()? 1: 0;
+        
+        startMessage('H');
+        write(format);
+        writeShort(n);
+        for (int i = 0; i < n; ++i) {
+            writeShort(format);
+        }
+        sendMessage();
+        
+        // The header leads the rows in the first copy data
+        if (copyStmt.isBinary() || copyStmt.isHeader()) {
+            startMessage('d');
+            copyEncoder.writeHeader(this.encoder, meta);
+        }
+        return copyEncoder;
+    }
+    
+    private void sendCopyDone() throws IOException {
+        startMessage('c');
+        sendMessage();
+    }
+    
     private void sendCommandComplete(SQLStatement sql, int updateCount, boolean resultSet) 
         throws IOException {
         String command = sql.getCommand();
@@ -820,6 +1169,10 @@ public class PgProcessor extends SQLiteProcessor {
             writeStringPart("DELETE ");
             writeString(updateCount + "");
             break;
+        case "COPY":
+            writeStringPart("COPY ");
+            writeString(updateCount + "");
+            break;
         case "CALL":
         case "SELECT":
         case "SHOW":
@@ -920,25 +1273,65 @@ public class PgProcessor extends SQLiteProcessor {
     }
     
     private void sendMessage() throws IOException {
-        this.dataOut.flush();
-        byte[] buff = this.outBuf.toByteArray();
-        int len = buff.length - 1;
-        
-        ByteBuffer buffer = ByteBuffer.wrap(buff)
-        .put(0, (byte)this.messageType)
-        .put(1, (byte)(len >>> 24))
-        .put(2, (byte)(len >>> 16))
-        .put(3, (byte)(len >>> 8))
-        .put(4, (byte)(len));
-        
-        offerWriteBuffer(buffer);
+        final PgMessageEncoder encoder = this.encoder;
+        encoder.endMessage();
+        
+        // Hand over the encoded messages in chunk
+        if (encoder.size() >= encodeChunkSize) {
+            offerWriteBuffer(encoder.drain());
+        }
         if (this.needFlush) {
             enableWrite();
         }
+    }
+    
+    @Override
+    protected ByteBuffer nextWriteBuffer() {
+        ByteBuffer buf = super.nextWriteBuffer();
+        if (buf == null) {
+            buf = this.encoder.drain();
+        }
+        return buf;
+    }
+    
+    @Override
+    protected boolean canFlush() {
+        return (super.canFlush() || this.encoder.size() >= encodeChunkSize);
+    }
+    
+    @Override
+    protected boolean isWriteDeferred() {
+        if (this.needFlush || isStopped() || canFlush()) {
+            return false;
+        }
         
-        // cleanup
-        this.dataOut = null;
-        this.outBuf  = null;
+        // Pipelining: coalesce the responses until Sync or Flush in the buffered messages
+        ByteBuffer rb = this.readBuffer;
+        return (rb != null && rb.position() > 0);
+    }
+    
+    @Override
+    protected void endFlush() {
+        this.needFlush = false;
+    }
+    
+    @Override
+    protected void recycleWriteBuffer(ByteBuffer buf) {
+        this.encoder.recycle(buf);
+    }
+    
+    @Override
+    protected void releaseBuffers() {
+        super.releaseBuffers();
+        this.encoder.free();
+    }
+    
+    @Override
+    protected void releaseBuffers(boolean reuse) {
+        super.releaseBuffers(reuse);
+        if (reuse) {
+            this.encoder.clear();
+        }
     }
     
     private void sendNoData() throws IOException {
@@ -1003,45 +1396,50 @@ public class PgProcessor extends SQLiteProcessor {
         sendMessage();
     }
     
-    private void sendDataRow(ResultSet rs, int[] formatCodes) throws IOException, SQLException {
-        ResultSetMetaData metaData = rs.getMetaData();
-        int columns = metaData.getColumnCount();
+    private RowEncoder newRowEncoder(ResultSetMetaData meta, int[] formatCodes)
+            throws SQLException {
+        boolean textResults = getServer().isTextResults();
+        return new RowEncoder(meta, (textResults? null: formatCodes));
+    }
+    
+    private void sendDataRow(ResultSet rs, RowEncoder rowEncoder) throws IOException, SQLException {
+        final ColumnWriter[] writers = rowEncoder.writers;
+        final int columns = writers.length;
+        final PgMessageEncoder encoder = this.encoder;
+        final Charset charset = getEncoding();
+        
         startMessage('D');
         writeShort(columns);
-        for (int i = 1; i <= columns; i++) {
-            int pgType = PgServer.convertType(metaData.getColumnType(i));
-            boolean text = formatAsText(pgType);
-            if (formatCodes != null) {
-                if (formatCodes.length == 0) {
-                    text = true;
-                } else if (formatCodes.length == 1) {
-                    text = formatCodes[0] == 0;
-                } else if (i - 1 < formatCodes.length) {
-                    text = formatCodes[i - 1] == 0;
-                }
-            }
-            writeDataColumn(rs, i, pgType, text);
+        for (int i = 0; i < columns; i++) {
+            writers[i].write(encoder, rs, i + 1, charset);
         }
         sendMessage();
     }
     
-    private void sendRowDescription(ResultSetMetaData meta) throws IOException, SQLException {
+    /**Send the row description, or NoData if the statement returns no rows.
+     * 
+     * @param meta the result set meta data
+     * @param formatCodes the result column format codes in Bind, or null if not bound
+     * @return the row encoder of the described columns, or null if NoData sent
+     */
+    private RowEncoder sendRowDescription(ResultSetMetaData meta, int[] formatCodes)
+            throws IOException, SQLException {
         CoreResultSet rs = null;
         if (meta instanceof CoreResultSet) {
             rs = (CoreResultSet)meta;
         }
         if (meta == null || (rs != null && (rs.colsMeta==null || rs.colsMeta.length==0))) {
             sendNoData();
+            return null;
         } else {
-            int columns = meta.getColumnCount();
-            int[] types = new int[columns];
+            RowEncoder rowEncoder = newRowEncoder(meta, formatCodes);
+            int[] types = rowEncoder.pgTypes;
+            int columns = types.length;
             int[] precision = new int[columns];
             String[] names = new String[columns];
             for (int i = 0; i < columns; i++) {
                 String name = meta.getColumnName(i + 1);
                 names[i] = name;
-                int type = meta.getColumnType(i + 1);
-                int pgType = PgServer.convertType(type);
                 // the ODBC client needs the column pg_catalog.pg_index
                 // to be of type 'int2vector'
                 // if (name.equalsIgnoreCase("indkey") &&
@@ -1050,7 +1448,6 @@ public class PgProcessor extends SQLiteProcessor {
                 //     type = PgServer.PG_TYPE_INT2VECTOR;
                 // }
                 precision[i] = meta.getColumnDisplaySize(i + 1);
-                types[i] = pgType;
             }
             startMessage('T');
             writeShort(columns);
@@ -1067,106 +1464,15 @@ public class PgProcessor extends SQLiteProcessor {
                 // pg_attribute.atttypmod
                 writeInt(-1);
                 // the format type: text = 0, binary = 1
-                writeShort(formatAsText(types[i]) ? 0 : 1);
+                writeShort(rowEncoder.texts[i] ? 0 : 1);
             }
             sendMessage();
+            return rowEncoder;
         }
     }
     
     private void startMessage(int newMessageType) throws IOException {
-        this.messageType = newMessageType;
-        this.outBuf = new ByteArrayOutputStream();
-        this.dataOut = new DataOutputStream(this.outBuf);
-        // Preserve the message header space
-        this.dataOut.write(0);
-        this.dataOut.writeInt(0);
-    }
-    
-    private void writeDataColumn(ResultSet rs, int column, int pgType, boolean text)
-            throws IOException, SQLException {
-        rs.getObject(column);
-        if (rs.wasNull()) {
-            writeInt(-1);
-            return;
-        }
-        if (text) {
-            // plain text
-            if (pgType == PgServer.PG_TYPE_BOOL) {
-                writeInt(1);
-                this.dataOut.writeByte(rs.getInt(column) == 1 ? 't' : 'f');
-            } else {
-                String value = rs.getString(column);
-                byte[] data = value.getBytes(getEncoding());
-                writeInt(data.length);
-                write(data);
-            }
-        } else {
-            // binary
-            switch (pgType) {
-            case PgServer.PG_TYPE_INT2:
-                writeInt(2);
-                writeShort(rs.getShort(column));
-                break;
-            case PgServer.PG_TYPE_INT4:
-                writeInt(4);
-                writeInt(rs.getInt(column));
-                break;
-            case PgServer.PG_TYPE_INT8:
-                writeInt(8);
-                dataOut.writeLong(rs.getLong(column));
-                break;
-            case PgServer.PG_TYPE_FLOAT4:
-                writeInt(4);
-                dataOut.writeFloat(rs.getFloat(column));
-                break;
-            case PgServer.PG_TYPE_FLOAT8:
-                writeInt(8);
-                dataOut.writeDouble(rs.getDouble(column));
-                break;
-            case PgServer.PG_TYPE_BYTEA: {
-                byte[] data = rs.getBytes(column);
-                writeInt(data.length);
-                write(data);
-                break;
-            }
-            case PgServer.PG_TYPE_DATE: {
-                Date d = rs.getDate(column);
-                writeInt(4);
-                writeInt((int) (toPostgreDays(d.getTime())));
-                break;
-            }
-            case PgServer.PG_TYPE_TIME: {
-                Time t = rs.getTime(column);
-                writeInt(8);
-                long m = t.getTime() * 1000000L;
-                if (INTEGER_DATE_TYPES) {
-                    // long format
-                    m /= 1_000;
-                } else {
-                    // double format
-                    m = Double.doubleToLongBits(m * 0.000_000_001);
-                }
-                dataOut.writeLong(m);
-                break;
-            }
-            case PgServer.PG_TYPE_TIMESTAMP_NO_TMZONE: {
-                Timestamp t = rs.getTimestamp(column);
-                writeInt(8);
-                long m = toPostgreDays(t.getTime()) * 86_400;
-                long nanos = t.getTime() * 1000000L;
-                if (INTEGER_DATE_TYPES) {
-                    // long format
-                    m = m * 1_000_000 + nanos / 1_000;
-                } else {
-                    // double format
-                    m = Double.doubleToLongBits(m + nanos * 0.000_000_001);
-                }
-                dataOut.writeLong(m);
-                break;
-            }
-            default: throw new IllegalStateException("output binary format is undefined");
-            }
-        }
+        this.encoder.startMessage(newMessageType);
     }
     
     private void writeString(String s) throws IOException {
@@ -1175,62 +1481,91 @@ public class PgProcessor extends SQLiteProcessor {
     }
 
     private void writeStringPart(String s) throws IOException {
-        write(s.getBytes(getEncoding()));
+        this.encoder.writeStringPart(s, getEncoding());
     }
     
     private void writeInt(int i) throws IOException {
-        this.dataOut.writeInt(i);
+        this.encoder.writeInt(i);
     }
 
     private void writeShort(int i) throws IOException {
-        this.dataOut.writeShort(i);
+        this.encoder.writeShort(i);
     }
 
     private void write(byte[] data) throws IOException {
-        this.dataOut.write(data);
+        this.encoder.write(data);
     }
 
     private void write(int b) throws IOException {
-        this.dataOut.write(b);
+        this.encoder.writeByte(b);
     }
     
     private String readString() throws IOException {
-        ByteArrayOutputStream buff = new ByteArrayOutputStream();
-        while (true) {
-            int x = this.dataBuf.read();
-            if (x <= 0) {
-                break;
-            }
-            buff.write(x);
-        }
-        return new String(buff.toByteArray(), getEncoding());
+        return this.decoder.readString(getEncoding());
     }
     
     private int readInt() throws IOException {
-        return this.dataBuf.readInt();
+        return this.decoder.readInt();
     }
 
     private short readShort() throws IOException {
-        return this.dataBuf.readShort();
+        return this.decoder.readShort();
     }
 
     private byte readByte() throws IOException {
-        return this.dataBuf.readByte();
-    }
-
-    private void readFully(byte[] buff) throws IOException {
-        this.dataBuf.readFully(buff);
+        return this.decoder.readByte();
     }
     
     private Charset getEncoding() {
-        if ("UNICODE".equals(clientEncoding)) {
-            return StandardCharsets.UTF_8;
+        Charset encoding = this.encoding;
+        if (encoding == null) {
+            if ("UNICODE".equals(clientEncoding)) {
+                encoding = StandardCharsets.UTF_8;
+            } else {
+                encoding = Charset.forName(clientEncoding);
+            }
+            this.encoding = encoding;
         }
-        return Charset.forName(clientEncoding);
+        return encoding;
+    }
+    
+    /**Convert the epoch millis into the local millis, i.e. the epoch millis of the same 
+     * wall clock time in UTC, as the date and time types are without time zone.
+     * 
+     * @param millis the epoch millis
+     * @return the local millis
+     */
+    private static long toLocalMillis(long millis) {
+        return (millis + TimeZone.getDefault().getOffset(millis));
+    }
+    
+    /**
+     * @param d the date
+     * @return the days since the PG epoch
+     */
+    private static int toPostgreDays(Date d) {
+        long localMillis = toLocalMillis(d.getTime());
+        return (int)(Math.floorDiv(localMillis, MILLIS_PER_DAY) - PG_EPOCH_DAYS);
+    }
+    
+    /**
+     * @param t the time
+     * @return the micros of the day
+     */
+    private static long toPostgreMicros(Time t) {
+        long localMillis = toLocalMillis(t.getTime());
+        return (Math.floorMod(localMillis, MILLIS_PER_DAY) * 1_000L);
     }
     
-    private static long toPostgreDays(long dateValue) {
-        return DateTimeUtils.absoluteDayFromDateValue(dateValue) - 10_957;
+    /**
+     * @param t the timestamp
+     * @return the micros since the PG epoch
+     */
+    private static long toPostgreMicros(Timestamp t) {
+        long localMillis = toLocalMillis(t.getTime());
+        // The millis of the nanos have been included in getTime()
+        long micros = (t.getNanos() % 1_000_000) / 1_000;
+        return ((localMillis - PG_EPOCH_MILLIS) * 1_000L + micros);
     }
     
     /**
@@ -1252,6 +1587,11 @@ public class PgProcessor extends SQLiteProcessor {
          * The list of parameter types (if set).
          */
         int[] paramType;
+        
+        /**
+         * Destroyed but the statement not closed for the suspended portals.
+         */
+        boolean destroyed;
     }
     
     /**
@@ -1273,25 +1613,629 @@ public class PgProcessor extends SQLiteProcessor {
          * The prepared object.
          */
         Prepared prep;
+        
+        /**
+         * The row encoder of the columns described (if described).
+         */
+        RowEncoder rowEncoder;
+        
+        /**
+         * The open result set of the portal suspended by the Execute row limit.
+         */
+        ResultSet rs;
+        
+        boolean isSuspended() {
+            return (this.rs != null);
+        }
     }
     
-    static class InitQueryTask extends SQLiteQueryTask {
-        final SQLiteConnection connection;
+    /**
+     * Represents the pipelined Bind/Execute run of a prepared in the unnamed portal,
+     * that's executed in one JDBC batch.
+     */
+    static class XBatch {
         
-        protected InitQueryTask(PgProcessor proc, SQLiteConnection connection) {
-            super(proc);
-            this.connection = connection;
-        }
-
-        @Override
-        protected void execute() throws IOException {
+        /**
+         * The prepared object.
+         */
+        final Prepared prep;
+        
+        /**
+         * The prepared name encoded for matching the next Bind.
+         */
+        final byte[] prepName;
+        
+        /**
+         * The next entry bound or described.
+         */
+        boolean bound, described;
+        
+        /**
+         * The deferred responses in order: BindComplete '2', NoData 'n' and
+         * CommandComplete 'C' of the entries.
+         */
+        final StringBuilder responses = new StringBuilder();
+        
+        /**
+         * The number of the entries added into the batch.
+         */
+        int size;
+        
+        /**
+         * The error of the next entry sent after the responses of the batch.
+         */
+        SQLException error;
+        
+        XBatch(Prepared prep, byte[] prepName) {
+            this.prep = prep;
+            this.prepName = prepName;
+        }
+    }
+    
+    /**
+     * The column encoding plan of a result set, computed once before sending the rows.
+     */
+    static class RowEncoder {
+        
+        /**
+         * The pg types of the result set columns.
+         */
+        final int[] pgTypes;
+        
+        /**
+         * The format of the result set columns: text or binary.
+         */
+        final boolean[] texts;
+        
+        /**
+         * The writers of the result set columns.
+         */
+        final ColumnWriter[] writers;
+        
+        RowEncoder(ResultSetMetaData meta, int[] formatCodes) throws SQLException {
+            int columns = meta.getColumnCount();
+            this.pgTypes = new int[columns];
+            this.texts = new boolean[columns];
+            this.writers = new ColumnWriter[columns];
+            
+            for (int i = 0; i < columns; i++) {
+                int pgType = PgServer.convertType(meta.getColumnType(i + 1));
+                boolean text = isText(pgType, formatCodes, i);
+                this.pgTypes[i] = pgType;
+                this.texts[i] = text;
+                this.writers[i] = ColumnWriter.of(pgType, text);
+            }
+        }
+        
+        /**Resolve the format of the column by the format codes in Bind, and the column 
+         * is sent in binary only if the client requested. The bytea column is sent in
+         * binary if not bound, e.g. in the simple query protocol. The column of the type
+         * without binary writer, e.g. NUMERIC, is always sent in text.
+         * 
+         * @param pgType the pg type of the column
+         * @param formatCodes the result column format codes, or null if not bound
+         * @param i the column index from 0
+         * @return true if the column is sent in text, otherwise false
+         */
+        static boolean isText(int pgType, int[] formatCodes, int i) {
+            final boolean text;
+            if (formatCodes == null) {
+                text = (pgType != PgServer.PG_TYPE_BYTEA);
+            } else if (formatCodes.length == 0) {
+                text = true;
+            } else if (formatCodes.length == 1) {
+                text = (formatCodes[0] == 0);
+            } else if (i < formatCodes.length) {
+                text = (formatCodes[i] == 0);
+            } else {
+                text = (pgType != PgServer.PG_TYPE_BYTEA);
+            }
+            return (text || ColumnWriter.of(pgType, false) == ColumnWriter.UNDEFINED);
+        }
+    }
+    
+    /**
+     * The row encoder of the copy-out data in text, CSV or binary format.
+     */
+    static class CopyEncoder {
+        
+        static final byte[] BINARY_SIGNATURE = {
+            'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte)0xFF, '\r', '\n', 0
+        };
+        
+        final RowEncoder rowEncoder;
+        final boolean binary, csv;
+        final Charset charset;
+        final StringBuilder buffer = new StringBuilder();
+        
+        char delimiter, quote, escape;
+        byte delimiterByte;
+        String nullString;
+        byte[] nullBytes;
+        
+        CopyEncoder(CopyStatement copyStmt, ResultSetMetaData meta, Charset charset) throws SQLException {
+            this.binary = copyStmt.isBinary();
+            this.csv = copyStmt.isCsv();
+            this.charset = charset;
+            // The binary field is the same as the binary column value in DataRow
+            this.rowEncoder = new RowEncoder(meta, new int[] { this.binary? 1: 0 });
+            if (this.binary) {
+                boolean[] texts = this.rowEncoder.texts;
+                for (int i = 0; i < texts.length; ++i) {
+                    if (texts[i]) {
+                        String message = "COPY binary format of column \"" + meta.getColumnName(i + 1)
+                                + "\" not supported";
+                        throw convertError(SQLiteErrorCode.SQLITE_ERROR, message, "0A000");
+                    }
+                }
+                return;
+            }
+            
+            this.delimiter = copyStmt.getDelimiter().charAt(0);
+            this.delimiterByte = copyStmt.getDelimiter().getBytes(charset)[0];
+            this.nullString = copyStmt.getNullString();
+            this.nullBytes = this.nullString.getBytes(charset);
+            if (this.csv) {
+                this.quote = copyStmt.getQuote().charAt(0);
+                this.escape = copyStmt.getEscape().charAt(0);
+            }
+        }
+        
+        void writeHeader(PgMessageEncoder encoder, ResultSetMetaData meta) throws SQLException {
+            if (this.binary) {
+                // The signature, flags field and header extension length
+                encoder.write(BINARY_SIGNATURE);
+                encoder.writeInt(0);
+                encoder.writeInt(0);
+                return;
+            }
+            
+            for (int i = 0, n = meta.getColumnCount(); i < n; ++i) {
+                if (i > 0) {
+                    encoder.writeByte(this.delimiterByte);
+                }
+                writeValue(encoder, meta.getColumnName(i + 1));
+            }
+            encoder.writeByte('\n');
+        }
+        
+        void writeRow(PgMessageEncoder encoder, ResultSet rs) throws SQLException {
+            final ColumnWriter[] writers = this.rowEncoder.writers;
+            final int columns = writers.length;
+            
+            if (this.binary) {
+                encoder.writeShort(columns);
+                for (int i = 0; i < columns; ++i) {
+                    writers[i].write(encoder, rs, i + 1, this.charset);
+                }
+                return;
+            }
+            
+            for (int i = 0; i < columns; ++i) {
+                if (i > 0) {
+                    encoder.writeByte(this.delimiterByte);
+                }
+                String value = getText(rs, i + 1);
+                if (value == null) {
+                    encoder.write(this.nullBytes);
+                } else {
+                    writeValue(encoder, value);
+                }
+            }
+            encoder.writeByte('\n');
+        }
+        
+        void writeTrailer(PgMessageEncoder encoder) {
+            if (this.binary) {
+                encoder.writeShort(-1);
+            }
+        }
+        
+        String getText(ResultSet rs, int column) throws SQLException {
+            switch (this.rowEncoder.pgTypes[column - 1]) {
+            case PgServer.PG_TYPE_BOOL:
+                int b = rs.getInt(column);
+                if (b == 0 && rs.wasNull()) {
+                    return null;
+                }
+                return (b == 1? "t": "f");
+            case PgServer.PG_TYPE_BYTEA:
+                byte[] data = rs.getBytes(column);
+                if (data == null) {
+                    return null;
+                }
+                StringBuilder sb = this.buffer;
+                sb.setLength(0);
+                sb.append("\\x");
+                for (byte d: data) {
+                    sb.append((char)ColumnWriter.HEX_DIGITS[(d >> 4) & 0x0F]);
+                    sb.append((char)ColumnWriter.HEX_DIGITS[d & 0x0F]);
+                }
+                return sb.toString();
+            default:
+                return rs.getString(column);
+            }
+        }
+        
+        void writeValue(PgMessageEncoder encoder, String value) {
+            final StringBuilder sb = this.buffer;
+            final int n = value.length();
+            int i = 0;
+            
+            if (this.csv) {
+                // Quote the value if it contains the special chars or is the same as the null
+                boolean quoted = value.equals(this.nullString) || value.equals("\\.");
+                for (; i < n && !quoted; ++i) {
+                    char c = value.charAt(i);
+                    quoted = c == this.delimiter || c == this.quote || c == '\n' || c == '\r';
+                }
+                if (!quoted) {
+                    encoder.writeStringPart(value, this.charset);
+                    return;
+                }
+                sb.setLength(0);
+                sb.append(this.quote);
+                for (i = 0; i < n; ++i) {
+                    char c = value.charAt(i);
+                    if (c == this.quote || c == this.escape) {
+                        sb.append(this.escape);
+                    }
+                    sb.append(c);
+                }
+                sb.append(this.quote);
+                encoder.writeStringPart(sb.toString(), this.charset);
+                return;
+            }
+            
+            // Text format: backslash escapes
+            for (; i < n; ++i) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == this.delimiter || (c < 0x20 && escapeChar(c) != 0)) {
+                    break;
+                }
+            }
+            if (i == n) {
+                encoder.writeStringPart(value, this.charset);
+                return;
+            }
+            sb.setLength(0);
+            sb.append(value, 0, i);
+            for (; i < n; ++i) {
+                char c = value.charAt(i);
+                char e = c < 0x20? escapeChar(c): 0;
+                if (e != 0) {
+                    sb.append('\\').append(e);
+                } else if (c == '\\' || c == this.delimiter) {
+                    sb.append('\\').append(c);
+                } else {
+                    sb.append(c);
+                }
+            }
+            encoder.writeStringPart(sb.toString(), this.charset);
+        }
+        
+        static char escapeChar(char c) {
+            switch (c) {
+            case '\b':
+                return 'b';
+            case '\f':
+                return 'f';
+            case '\n':
+                return 'n';
+            case '\r':
+                return 'r';
+            case '\t':
+                return 't';
+            case 0x0B:
+                return 'v';
+            default:
+                return 0;
+            }
+        }
+    }
+    
+    /**
+     * The column value writer that fetches the value from the result set exactly once.
+     */
+    static enum ColumnWriter {
+        
+        TEXT {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                String value = rs.getString(column);
+                if (value == null) {
+                    encoder.writeInt(-1);
+                } else {
+                    encoder.writeLengthPrefixed(value, charset);
+                }
+            }
+        },
+        
+        BOOL_TEXT {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                int value = rs.getInt(column);
+                if (value == 0 && rs.wasNull()) {
+                    encoder.writeInt(-1);
+                } else {
+                    encoder.writeInt(1);
+                    encoder.writeByte(value == 1 ? 't' : 'f');
+                }
+            }
+        },
+        
+        BOOL {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                int value = rs.getInt(column);
+                if (value == 0 && rs.wasNull()) {
+                    encoder.writeInt(-1);
+                } else {
+                    encoder.writeInt(1);
+                    encoder.writeByte(value == 1 ? 1 : 0);
+                }
+            }
+        },
+        
+        BYTEA_TEXT {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                byte[] data = rs.getBytes(column);
+                if (data == null) {
+                    encoder.writeInt(-1);
+                    return;
+                }
+                // The hex format: "\x" followed by the hex digits
+                encoder.writeInt(2 + (data.length << 1));
+                encoder.writeByte('\\');
+                encoder.writeByte('x');
+                for (byte b: data) {
+                    encoder.writeByte(HEX_DIGITS[(b >> 4) & 0x0F]);
+                    encoder.writeByte(HEX_DIGITS[b & 0x0F]);
+                }
+            }
+        },
+        
+        INT2 {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                short value = rs.getShort(column);
+                if (value == 0 && rs.wasNull()) {
+                    encoder.writeInt(-1);
+                } else {
+                    encoder.writeInt(2);
+                    encoder.writeShort(value);
+                }
+            }
+        },
+        
+        INT4 {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                int value = rs.getInt(column);
+                if (value == 0 && rs.wasNull()) {
+                    encoder.writeInt(-1);
+                } else {
+                    encoder.writeInt(4);
+                    encoder.writeInt(value);
+                }
+            }
+        },
+        
+        INT8 {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                long value = rs.getLong(column);
+                if (value == 0L && rs.wasNull()) {
+                    encoder.writeInt(-1);
+                } else {
+                    encoder.writeInt(8);
+                    encoder.writeLong(value);
+                }
+            }
+        },
+        
+        FLOAT4 {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                float value = rs.getFloat(column);
+                if (value == 0.0f && rs.wasNull()) {
+                    encoder.writeInt(-1);
+                } else {
+                    encoder.writeInt(4);
+                    encoder.writeFloat(value);
+                }
+            }
+        },
+        
+        FLOAT8 {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                double value = rs.getDouble(column);
+                if (value == 0.0d && rs.wasNull()) {
+                    encoder.writeInt(-1);
+                } else {
+                    encoder.writeInt(8);
+                    encoder.writeDouble(value);
+                }
+            }
+        },
+        
+        BYTEA {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                byte[] data = rs.getBytes(column);
+                if (data == null) {
+                    encoder.writeInt(-1);
+                } else {
+                    encoder.writeInt(data.length);
+                    encoder.write(data);
+                }
+            }
+        },
+        
+        DATE {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                Date d = rs.getDate(column);
+                if (d == null) {
+                    encoder.writeInt(-1);
+                } else {
+                    encoder.writeInt(4);
+                    encoder.writeInt(toPostgreDays(d));
+                }
+            }
+        },
+        
+        TIME {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                Time t = rs.getTime(column);
+                if (t == null) {
+                    encoder.writeInt(-1);
+                    return;
+                }
+                encoder.writeInt(8);
+                long m = toPostgreMicros(t);
+                if (!INTEGER_DATE_TYPES) {
+                    // double format: the seconds of the day
+                    m = Double.doubleToLongBits(m * 0.000_001);
+                }
+                encoder.writeLong(m);
+            }
+        },
+        
+        TIMESTAMP {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                Timestamp t = rs.getTimestamp(column);
+                if (t == null) {
+                    encoder.writeInt(-1);
+                    return;
+                }
+                encoder.writeInt(8);
+                long m = toPostgreMicros(t);
+                if (!INTEGER_DATE_TYPES) {
+                    // double format: the seconds since the PG epoch
+                    m = Double.doubleToLongBits(m * 0.000_001);
+                }
+                encoder.writeLong(m);
+            }
+        },
+        
+        // The marker of the type without binary writer, that is sent in text
+        UNDEFINED {
+            @Override
+            void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                    throws SQLException {
+                if (rs.getObject(column) != null) {
+                    throw new IllegalStateException("output binary format is undefined");
+                }
+                encoder.writeInt(-1);
+            }
+        };
+        
+        static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        
+        abstract void write(PgMessageEncoder encoder, ResultSet rs, int column, Charset charset)
+                throws SQLException;
+        
+        static ColumnWriter of(int pgType, boolean text) {
+            if (text) {
+                switch (pgType) {
+                case PgServer.PG_TYPE_BOOL:
+                    return BOOL_TEXT;
+                case PgServer.PG_TYPE_BYTEA:
+                    return BYTEA_TEXT;
+                default:
+                    return TEXT;
+                }
+            }
+            
+            switch (pgType) {
+            case PgServer.PG_TYPE_VARCHAR:
+            case PgServer.PG_TYPE_TEXT:
+            case PgServer.PG_TYPE_BPCHAR:
+            case PgServer.PG_TYPE_UNKNOWN:
+                // The binary format of the string types is the same as the text format
+                return TEXT;
+            case PgServer.PG_TYPE_BOOL:
+                return BOOL;
+            case PgServer.PG_TYPE_INT2:
+                return INT2;
+            case PgServer.PG_TYPE_INT4:
+                return INT4;
+            case PgServer.PG_TYPE_INT8:
+                return INT8;
+            case PgServer.PG_TYPE_FLOAT4:
+                return FLOAT4;
+            case PgServer.PG_TYPE_FLOAT8:
+                return FLOAT8;
+            case PgServer.PG_TYPE_BYTEA:
+                return BYTEA;
+            case PgServer.PG_TYPE_DATE:
+                return DATE;
+            case PgServer.PG_TYPE_TIME:
+                return TIME;
+            case PgServer.PG_TYPE_TIMESTAMP_NO_TMZONE:
+                return TIMESTAMP;
+            default:
+                return UNDEFINED;
+            }
+        }
+    }
+    
+    static class InitQueryTask extends SQLiteQueryTask {
+        final SQLiteConnection connection;
+        // The initialized connection borrowed from the connection pool
+        final SQLitePooledConnection pooledConnection;
+        
+        protected InitQueryTask(PgProcessor proc, SQLiteConnection connection) {
+            super(proc);
+            this.connection = connection;
+            this.pooledConnection = null;
+        }
+        
+        protected InitQueryTask(PgProcessor proc, SQLitePooledConnection pooledConnection) {
+            super(proc);
+            this.connection = pooledConnection.getConnection();
+            this.pooledConnection = pooledConnection;
+        }
+
+        @Override
+        protected void execute() throws IOException {
             PgProcessor proc = (PgProcessor)this.proc;
             boolean timeout = true;
             try {
                 checkBusyState();
                 timeout = false;
-                proc.server.initConnection(connection);
-                proc.setConnection(this.connection);
+                if (this.pooledConnection == null) {
+                    proc.server.initConnection(connection);
+                    proc.setConnection(this.connection);
+                } else {
+                    boolean failed = true;
+                    try {
+                        proc.setConnection(this.pooledConnection);
+                        failed = false;
+                    } finally {
+                        if (failed) {
+                            this.pooledConnection.close();
+                        }
+                    }
+                }
                 proc.worker.dbIdle();
             } catch (SQLException e) {
                 long currentTime = System.currentTimeMillis();
@@ -1329,15 +2273,23 @@ public class PgProcessor extends SQLiteProcessor {
             PgProcessor proc = (PgProcessor)this.proc;
             boolean timeout = true;
             try {
-                checkBusyState();
-                timeout = false;
-                boolean resultSet = this.sqlStmt.execute(maxRows);
+                final boolean resultSet;
+                if (this.p.isSuspended()) {
+                    // Resume the suspended portal
+                    timeout = false;
+                    resultSet = true;
+                } else {
+                    checkBusyState();
+                    timeout = false;
+                    // The row limit is applied by portal suspension, not truncating the result
+                    resultSet = this.sqlStmt.execute(0);
+                }
                 if (resultSet) {
                     boolean async = this.async;
                     this.async = false;
                     finish();
                     // Hand over task to write task
-                    XQueryWriteTask writeTask = new XQueryWriteTask(proc, this.p, async);
+                    XQueryWriteTask writeTask = new XQueryWriteTask(proc, this.p, this.maxRows, async);
                     proc.startWriteTask(writeTask);
                     return;
                 }
@@ -1368,11 +2320,15 @@ public class PgProcessor extends SQLiteProcessor {
     
     static class XQueryWriteTask extends SQLiteProcessorTask {
         final Portal p;
+        final int maxRows;
+        int rows;
         ResultSet rs;
+        RowEncoder rowEncoder;
         
-        XQueryWriteTask(PgProcessor proc, Portal p, boolean async) {
+        XQueryWriteTask(PgProcessor proc, Portal p, int maxRows, boolean async) {
             super(proc);
             this.p = p;
+            this.maxRows = maxRows;
             this.async = async;
         }
 
@@ -1383,12 +2339,31 @@ public class PgProcessor extends SQLiteProcessor {
             boolean resetTask = true;
             try {
                 if (this.rs == null) {
-                    this.rs = stmt.getResultSet();
+                    if (this.p.isSuspended()) {
+                        this.rs = this.p.rs;
+                        this.p.rs = null;
+                    } else {
+                        this.rs = stmt.getResultSet();
+                    }
+                    this.rowEncoder = this.p.rowEncoder;
+                    if (this.rowEncoder == null) {
+                        ResultSetMetaData meta = this.rs.getMetaData();
+                        this.rowEncoder = proc.newRowEncoder(meta, this.p.resultColumnFormat);
+                    }
                 }
                 // the meta-data is sent in the prior 'Describe'
                 proc.state.setStateText("fetch result set from database");
                 while (this.rs.next()) {
-                    proc.sendDataRow(this.rs, this.p.resultColumnFormat);
+                    proc.sendDataRow(this.rs, this.rowEncoder);
+                    if (++this.rows == this.maxRows) {
+                        // Suspend the portal and keep the result set open for the next Execute
+                        this.p.rs = this.rs;
+                        this.p.rowEncoder = this.rowEncoder;
+                        this.rs = null;
+                        proc.sendPortalSuspended();
+                        proc.xQueryFailed = false;
+                        break;
+                    }
                     if (proc.canFlush()) {
                         this.async = true;
                         proc.enableWrite();
@@ -1397,10 +2372,12 @@ public class PgProcessor extends SQLiteProcessor {
                     }
                 }
 
-                // detach only after resultSet finished
-                int n = stmt.getUpdateCount();
-                proc.sendCommandComplete(stmt, n, true);
-                proc.xQueryFailed = false;
+                if (this.rs != null) {
+                    // detach only after resultSet finished
+                    int n = stmt.getUpdateCount();
+                    proc.sendCommandComplete(stmt, n, true);
+                    proc.xQueryFailed = false;
+                }
             } catch (SQLException e) {
                 if (proc.server.isCanceled(e)) {
                     proc.sendCancelQueryResponse();
@@ -1412,6 +2389,10 @@ public class PgProcessor extends SQLiteProcessor {
                     proc.writeTask = null;
                     IoUtils.close(this.rs);
                     this.rs = null;
+                    this.rowEncoder = null;
+                    if (!this.p.isSuspended()) {
+                        proc.closePortal(this.p);
+                    }
                 }
             }
             
@@ -1420,16 +2401,104 @@ public class PgProcessor extends SQLiteProcessor {
         
     }
     
+    static class XBatchTask extends SQLiteQueryTask {
+        final XBatch batch;
+        final SQLStatement sqlStmt;
+        
+        XBatchTask(PgProcessor proc, XBatch batch) {
+            super(proc);
+            this.batch = batch;
+            this.sqlStmt = batch.prep.sql;
+        }
+        
+        @Override
+        protected void execute() throws IOException {
+            PgProcessor proc = (PgProcessor)this.proc;
+            boolean timeout = true;
+            try {
+                int[] counts = {};
+                if (this.sqlStmt.getBatchSize() > 0) {
+                    checkBusyState();
+                    timeout = false;
+                    counts = this.sqlStmt.executeBatch();
+                }
+                // Send the responses in the order of the pipelined messages
+                sendResponses(counts);
+                if (this.batch.error == null) {
+                    proc.xQueryFailed = false;
+                } else {
+                    proc.sendErrorResponse(this.batch.error);
+                    proc.xQueryFailed = true;
+                }
+            } catch (SQLException e) {
+                // Retry only if the batch not executed
+                if (this.sqlStmt.getBatchSize() > 0 && handleBlocked(timeout, e)) {
+                    return;
+                }
+                
+                // Send the responses of the messages before the failed Execute: it's the
+                // first one if the driver doesn't report, for the batch fails as a whole
+                int[] counts = {};
+                if (e instanceof BatchUpdateException) {
+                    int[] updateCounts = ((BatchUpdateException)e).getUpdateCounts();
+                    if (updateCounts != null && updateCounts.length < this.batch.size) {
+                        counts = updateCounts;
+                    }
+                }
+                sendResponses(counts);
+                if (proc.server.isCanceled(e)) {
+                    proc.sendCancelQueryResponse();
+                } else {
+                    proc.sendErrorResponse(e);
+                }
+                proc.xQueryFailed = true;
+            }
+            
+            finish();
+        }
+        
+        /* Send the deferred responses of the batch in order, until the Execute 
+         * after the executed entries of the update counts.
+         */
+        void sendResponses(int[] counts) throws IOException {
+            PgProcessor proc = (PgProcessor)this.proc;
+            final StringBuilder responses = this.batch.responses;
+            for (int i = 0, j = 0, n = responses.length(); i < n; ++i) {
+                switch (responses.charAt(i)) {
+                case '2':
+                    proc.sendBindComplete();
+                    break;
+                case 'n':
+                    proc.sendNoData();
+                    break;
+                default:
+                    if (j == counts.length) {
+                        return;
+                    }
+                    proc.sendCommandComplete(this.sqlStmt, counts[j++], false);
+                    break;
+                }
+            }
+        }
+    }
+    
     static class QueryTask extends SQLiteQueryTask {
         final SQLParser parser;
         
         // ResultSet remaining state
         SQLStatement curStmt;
         ResultSet rs;
+        RowEncoder rowEncoder;
         // Complete blocked state
         private boolean completeBlocked;
         private boolean hasResultSet;
         private int updateCount;
+        // Copy-in state
+        CopyStatement copyStmt;
+        SQLException copyError;
+        boolean copyDone;
+        // Copy-out state
+        CopyEncoder copyEncoder;
         
         QueryTask(PgProcessor proc, String query) {
             super(proc);
@@ -1444,7 +2513,43 @@ public class PgProcessor extends SQLiteProcessor {
             try {
                 boolean next = true;
                 
-                if (getBusyContext() == null) {
+                if (this.copyStmt != null) {
+                    // Copy-in: execute the batch of the rows copied, and complete when copy done
+                    CopyStatement copyStmt = this.copyStmt;
+                    boolean timeout = true;
+                    try {
+                        if (this.copyError != null) {
+                            throw this.copyError;
+                        }
+                        checkBusyState();
+                        timeout = false;
+                        if (copyStmt.getBatchSize() > 0) {
+                            copyStmt.executeBatch();
+                        }
+                        setBusyContext(null);
+                    } catch (SQLException e) {
+                        // Retry only if the batch not executed
+                        if (copyStmt.getBatchSize() > 0 && handleBlocked(timeout, e)) {
+                            resetTask = false;
+                            return;
+                        }
+                        endCopy();
+                        throw e;
+                    }
+                    if (!this.copyDone) {
+                        resetTask = false;
+                        suspendCopy();
+                        return;
+                    }
+                    endCopy();
+                    SQLStatement stmt = success(copyStmt, copyStmt.getUpdateCount(), false);
+                    if (this.completeBlocked) {
+                        resetTask = false;
+                        return;
+                    }
+                    sqlStmt = stmt;
+                    next = sqlStmt != null;
+                } else if (getBusyContext() == null) {
                     if (this.rs == null) {
                         // check empty query string
                         while (sqlStmt == null) {
@@ -1464,11 +2569,27 @@ public class PgProcessor extends SQLiteProcessor {
                             proc.sendEmptyQueryResponse();
                             next = false;
                         }
+                    } else if (this.copyEncoder != null) {
+                        // Continue copy out remaining rows
+                        proc.state.setStateText("copy data to client");
+                        if (!copyOut((CopyStatement)sqlStmt, this.rs, this.copyEncoder)) {
+                            proc.enableWrite();
+                            resetTask = false;
+                            return;
+                        }
+                        int count = this.curStmt.getUpdateCount();
+                        SQLStatement stmt = success(sqlStmt, count, false);
+                        if (this.completeBlocked) {
+                            resetTask = false;
+                            return;
+                        }
+                        sqlStmt = stmt;
+                        next = sqlStmt != null;
                     } else {
                         // Continue write remaining resultSet
                         proc.state.setStateText("fetch result set from database");
                         while (this.rs.next()) {
-                            proc.sendDataRow(this.rs, null);
+                            proc.sendDataRow(this.rs, this.rowEncoder);
                             if (proc.canFlush()) {
                                 proc.enableWrite();
                                 resetTask = false;
@@ -1505,20 +2626,61 @@ public class PgProcessor extends SQLiteProcessor {
                         proc.writeTask = null;
                         checkBusyState();
                         timeout = false;
+                        proc.attachConnection();
                         proc.state.startQuery(sqlStmt, "executing");
+                        if (sqlStmt instanceof CopyStatement) {
+                            ((CopyStatement)sqlStmt).setCharset(proc.getEncoding());
+                        }
                         boolean result = sqlStmt.execute(0);
                         setBusyContext(null);
-                        if (result) {
+                        if (sqlStmt instanceof CopyStatement && result) {
+                            // Copy-out: encode the rows into the copy data straight from the cursor
+                            CopyStatement copyStmt = (CopyStatement)sqlStmt;
+                            proc.state.setStateText("copy data to client");
+                            ResultSet rs = copyStmt.getResultSet();
+                            CopyEncoder copyEncoder = proc.sendCopyOutResponse(copyStmt, rs.getMetaData());
+                            if (!copyOut(copyStmt, rs, copyEncoder)) {
+                                this.async = true;
+                                this.curStmt = sqlStmt;
+                                this.rs = rs;
+                                this.copyEncoder = copyEncoder;
+                                proc.enableWrite();
+                                resetTask = false;
+                                proc.startWriteTask(this);
+                                return;
+                            }
+                            IoUtils.close(rs);
+                            int count = copyStmt.getUpdateCount();
+                            SQLStatement stmt = success(sqlStmt, count, false);
+                            if (this.completeBlocked) {
+                                resetTask = false;
+                                return;
+                            }
+                            sqlStmt = stmt;
+                            next = sqlStmt != null;
+                        } else if (sqlStmt instanceof CopyStatement) {
+                            // Copy-in: suspend this task for reading the copy data
+                            this.curStmt = this.copyStmt = (CopyStatement)sqlStmt;
+                            this.copyError = null;
+                            this.copyDone = false;
+                            proc.copyTask = this;
+                            proc.needFlush = true;
+                            proc.sendCopyInResponse(this.copyStmt);
+                            resetTask = false;
+                            suspendCopy();
+                            return;
+                        } else if (result) {
                             proc.state.setStateText("fetch result set from database");
                             ResultSet rs = sqlStmt.getResultSet();
                             ResultSetMetaData meta = rs.getMetaData();
-                            proc.sendRowDescription(meta);
+                            RowEncoder rowEncoder = proc.sendRowDescription(meta, null);
                             while (rs.next()) {
-                                proc.sendDataRow(rs, null);
+                                proc.sendDataRow(rs, rowEncoder);
                                 if (proc.canFlush()) {
                                     this.async = true;
                                     this.curStmt = sqlStmt;
                                     this.rs = rs;
+                                    this.rowEncoder = rowEncoder;
                                     proc.enableWrite();
                                     resetTask = false;
                                     proc.startWriteTask(this);
@@ -1583,6 +2745,8 @@ public class PgProcessor extends SQLiteProcessor {
                     proc.writeTask = null;
                     IoUtils.close(this.rs);
                     this.rs = null;
+                    this.rowEncoder = null;
+                    this.copyEncoder = null;
                     IoUtils.close(this.curStmt);
                     this.curStmt = null;
                     IoUtils.close(sqlStmt);
@@ -1598,6 +2762,81 @@ public class PgProcessor extends SQLiteProcessor {
             finish();
         }
         
+        /* Encode the rows into the copy data frames of the encode chunk size, and send the
+         * copy done at the end of the result set. Return false if the write buffer is full
+         * and the remaining rows should be encoded after flush.
+         */
+        boolean copyOut(CopyStatement copyStmt, ResultSet rs, CopyEncoder copyEncoder)
+                throws IOException, SQLException {
+            PgProcessor proc = (PgProcessor)this.proc;
+            PgMessageEncoder encoder = proc.encoder;
+            
+            int rows = 0;
+            try {
+                while (rs.next()) {
+                    if (!encoder.inMessage()) {
+                        proc.startMessage('d');
+                    }
+                    copyEncoder.writeRow(encoder, rs);
+                    ++rows;
+                    if (encoder.size() >= encodeChunkSize) {
+                        proc.sendMessage();
+                        if (proc.canFlush()) {
+                            return false;
+                        }
+                    }
+                }
+            } finally {
+                copyStmt.addRows(rows);
+            }
+            
+            if (copyEncoder.binary) {
+                if (!encoder.inMessage()) {
+                    proc.startMessage('d');
+                }
+                copyEncoder.writeTrailer(encoder);
+            }
+            if (encoder.inMessage()) {
+                proc.sendMessage();
+            }
+            proc.sendCopyDone();
+            return true;
+        }
+        
+        // Wait for the copy data until the batch full, copy done or fail
+        void suspendCopy() throws IOException {
+            PgProcessor proc = (PgProcessor)this.proc;
+            proc.state.setStateText("copy data from client");
+            proc.queryTask = null;
+            if (isAsync()) {
+                this.async = false;
+                proc.processAsync();
+            }
+        }
+        
+        void endCopy() {
+            PgProcessor proc = (PgProcessor)this.proc;
+            proc.copyTask = null;
+            this.copyStmt = null;
+            this.copyError = null;
+            this.copyDone = false;
+        }
+        
+        // Rollback and close the copy when the processor closed in copy-in mode
+        void abortCopy() {
+            CopyStatement copyStmt = this.copyStmt;
+            endCopy();
+            try {
+                copyStmt.complete(false);
+            } catch (IllegalStateException e) {
+                this.proc.traceError(log, "Rollback copy error", e);
+            }
+            this.curStmt = null;
+            IoUtils.close(copyStmt);
+            IoUtils.close(this.parser);
+            this.open = false;
+        }
+        
         // Handle complete(true)
         SQLStatement success(SQLStatement sqlStmt, int updateCount, boolean hasResultSet)
                 throws SQLException, IOException {
@@ -1629,6 +2868,8 @@ public class PgProcessor extends SQLiteProcessor {
             IoUtils.close(sqlStmt);
             this.curStmt = null;
             this.rs = null;
+            this.rowEncoder = null;
+            this.copyEncoder = null;
             this.updateCount = 0;
             this.hasResultSet = false;
             proc.sendCommandComplete(sqlStmt, updateCount, hasResultSet);
@@ -1676,6 +2917,12 @@ public class PgProcessor extends SQLiteProcessor {
                     proc.sendErrorResponse(cause);
                 }
             }
+            // The portals are closed at the end of the implicit transaction as pg does
+            for (Portal p: proc.portals.values()) {
+                if (p.isSuspended() && proc.isAutoCommit()) {
+                    proc.closePortal(p);
+                }
+            }
             
             proc.portal = null;
             proc.xQueryFailed = false;
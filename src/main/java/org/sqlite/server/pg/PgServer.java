@@ -65,6 +65,8 @@ public class PgServer extends SQLiteServer {
     public static final int PG_TYPE_NUMERIC = 1700;
     
     private String key, keyDatabase;
+    // Send the result columns in text format only for legacy clients, e.g. old ODBC drivers
+    private boolean textResults;
     
     public static void main(String args[]) {
         main(new PgServer(), args);
@@ -85,6 +87,8 @@ public class PgServer extends SQLiteServer {
                 if ("--key".equals(a) || "-K".equals(a)) {
                     this.key = args[++i];
                     this.keyDatabase = args[++i];
+                } else if ("--text-results".equals(a)) {
+                    this.textResults = true;
                 }
             }
         }
@@ -109,7 +113,16 @@ public class PgServer extends SQLiteServer {
     @Override
     public String getBootHelp() {
         return super.getBootHelp() + "\n"
-                + "  --key|-K  <key> <keyDatabase> \tThe database specified by the arg key";
+                + "  --key|-K  <key> <keyDatabase> \tThe database specified by the arg key\n"
+                + "  --text-results                \tIgnore the binary result formats requested in Bind";
+    }
+    
+    /**
+     * @return true if the result formats requested by the client are ignored, and the result
+     * columns are sent in the legacy formats: binary for bytea, and text for the others
+     */
+    public boolean isTextResults() {
+        return this.textResults;
     }
 
     @Override
@@ -0,0 +1,682 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server.pg.sql;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteErrorCode;
+import org.sqlite.server.util.IoUtils;
+import org.sqlite.server.util.StringUtils;
+import org.sqlite.sql.SQLContext;
+import org.sqlite.sql.SQLParseException;
+import org.sqlite.sql.SQLParser;
+import org.sqlite.sql.SQLStatement;
+import org.sqlite.sql.Transaction;
+
+import static org.sqlite.server.util.ConvertUtils.*;
+
+/** Support the "COPY [schema_name.]tbl_name [(column [, ...])] FROM STDIN [[WITH] (option [, ...])]"
+ * and "COPY {[schema_name.]tbl_name [(column [, ...])] | (query)} TO STDOUT [[WITH] (option [, ...])]"
+ * statements of PostgreSQL style, the options are FORMAT {text | csv | binary}, DELIMITER 'c',
+ * NULL 'null_string', HEADER [boolean], QUOTE 'c' and ESCAPE 'c', and the old style "[WITH] [BINARY]
+ * [DELIMITER [AS] 'c'] [NULL [AS] 'null_string'] [CSV [HEADER] [QUOTE [AS] 'c'] [ESCAPE [AS] 'c']]"
+ * is also supported. The binary format is only available in COPY TO.
+ * <p>
+ * The rows in the copy data are decoded into the batch of a prepared INSERT, and the batch is
+ * executed every some rows. The db write lock is held and the implicit transaction is kept until
+ * the copy completes, so the whole copy is atomic as pg does.
+ * </p>
+ * <p>
+ * COPY TO executes a prepared SELECT, and the processor encodes the rows of its result set into
+ * the copy data.
+ * </p>
+ * 
+ * @author little-pan
+ * @since 2020-01-15
+ * 
+ */
+public class CopyStatement extends SQLStatement {
+    static Logger log = LoggerFactory.getLogger(CopyStatement.class);
+    
+    public static final String TEXT = "text", CSV = "csv", BINARY = "binary";
+    
+    protected String schemaName;
+    protected String tableName;
+    protected List<String> columns;
+    protected String format = TEXT;
+    protected String delimiter;
+    protected String nullString;
+    protected boolean header;
+    protected String quote;
+    protected String escape;
+    protected boolean copyIn = true;
+    protected String querySQL;
+    
+    protected SQLStatement insertStatement;
+    protected SQLStatement selectStatement;
+    protected int columnCount;
+    protected Charset charset = StandardCharsets.UTF_8;
+    protected int rows;
+    
+    // Copy-in state: the partial row buffered across copy data, the scan position and CSV quoted
+    private byte[] buffer = {};
+    private int size, scanned;
+    private boolean quoted, headerSkipped, ended;
+    private byte delimiterByte, quoteByte, escapeByte;
+    private byte[] nullBytes;
+    private byte[] field = new byte[64];
+    private byte unescaped;
+    
+    public CopyStatement(String sql) {
+        super(sql, "COPY");
+    }
+    
+    @Override
+    public PreparedStatement prepare() throws SQLException, IllegalStateException {
+        throw convertError(SQLiteErrorCode.SQLITE_ERROR, "COPY not supported in extended query", "0A000");
+    }
+    
+    @Override
+    public void preExecute(int maxRows) throws SQLException, IllegalStateException {
+        if (this.insertStatement != null || this.selectStatement != null) {
+            return;
+        }
+        
+        checkOptions();
+        SQLStatement stmt = this.copyIn? new SQLStatement(getInsertSQL(), "INSERT"): getSelectStatement();
+        boolean failed = true;
+        try {
+            // Check the INSERT or SELECT privilege and read-only in prepare
+            stmt.setContext(this.context);
+            stmt.prepare();
+            if (this.copyIn) {
+                this.insertStatement = stmt;
+            } else {
+                this.selectStatement = stmt;
+            }
+            failed = false;
+        } finally {
+            if (failed) {
+                IoUtils.close(stmt);
+            }
+        }
+    }
+    
+    @Override
+    protected boolean doExecute(int maxRows) throws SQLException {
+        SQLContext context = this.context;
+        
+        if (!this.copyIn) {
+            this.rows = 0;
+            return this.selectStatement.execute(0);
+        }
+        
+        // Hold the db write lock and the implicit transaction until the copy completes
+        if (shouldHoldDbWriteLock(true)) {
+            context.dbWriteLock();
+        }
+        if (context.isAutoCommit() && context.getTransaction() == null) {
+            execute("begin immediate");
+            Transaction tx = new Transaction(context, true);
+            context.setTransaction(tx);
+            context.trace(log, "tx: begin an implicit {}", tx);
+        }
+        
+        this.rows = 0;
+        this.size = this.scanned = 0;
+        this.quoted = this.headerSkipped = this.ended = false;
+        return false;
+    }
+    
+    /**Decode the rows in the copy data into the batch, the last partial row is buffered
+     * until the next data or the copy done.
+     * 
+     * @param data the copy data
+     * @param offset the data offset
+     * @param length the data length
+     * @throws SQLException if the data format error
+     */
+    public void copyIn(byte[] data, int offset, int length) throws SQLException {
+        if (this.ended) {
+            return;
+        }
+        
+        int newSize = this.size + length;
+        if (newSize > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(newSize, this.buffer.length << 1));
+        }
+        System.arraycopy(data, offset, this.buffer, this.size, length);
+        this.size = newSize;
+        
+        final byte[] buf = this.buffer;
+        final boolean csv = isCsv();
+        final byte q = this.quoteByte, e = this.escapeByte;
+        int start = 0, i = this.scanned;
+        for (; i < newSize; ++i) {
+            final byte b = buf[i];
+            if (csv && this.quoted) {
+                if (b == e && e != q) {
+                    if (i + 1 == newSize) {
+                        // Wait for the escaped char
+                        break;
+                    }
+                    ++i;
+                } else if (b == q) {
+                    this.quoted = false;
+                }
+                continue;
+            }
+            if (csv && b == q) {
+                this.quoted = true;
+            } else if (!csv && b == '\\') {
+                if (i + 1 == newSize) {
+                    break;
+                }
+                ++i;
+            } else if (b == '\n') {
+                int end = (i > start && buf[i - 1] == '\r')? i - 1: i;
+                if (!decodeRow(start, end)) {
+                    this.ended = true;
+                    this.size = 0;
+                    return;
+                }
+                start = i + 1;
+            }
+        }
+        
+        // Keep the partial row
+        this.size = newSize - start;
+        this.scanned = i - start;
+        System.arraycopy(buf, start, buf, 0, this.size);
+    }
+    
+    /**Decode the last row that isn't terminated by newline, called when the copy done.
+     * 
+     * @throws SQLException if the data format error
+     */
+    public void copyDone() throws SQLException {
+        if (this.ended || this.size == 0) {
+            return;
+        }
+        if (this.quoted) {
+            throw copyError("unterminated CSV quoted field");
+        }
+        
+        int end = this.size;
+        if (this.buffer[end - 1] == '\r') {
+            --end;
+        }
+        this.ended = true;
+        decodeRow(0, end);
+        this.size = 0;
+    }
+    
+    @Override
+    public int getBatchSize() {
+        SQLStatement insert = this.insertStatement;
+        return (insert == null? 0: insert.getBatchSize());
+    }
+    
+    @Override
+    public int[] executeBatch() throws SQLException, IllegalStateException {
+        int[] counts = this.insertStatement.executeBatch();
+        for (int count: counts) {
+            this.rows += Math.max(count, 0);
+        }
+        return counts;
+    }
+    
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        return this.selectStatement.getResultSet();
+    }
+    
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return this.rows;
+    }
+    
+    /**Count the rows encoded into the copy-out data.
+     * 
+     * @param rows the encoded rows
+     */
+    public void addRows(int rows) {
+        this.rows += rows;
+    }
+    
+    @Override
+    public boolean isWritable() {
+        return this.copyIn;
+    }
+    
+    protected boolean decodeRow(int start, int end) throws SQLException {
+        final byte[] buf = this.buffer;
+        
+        // End-of-data marker
+        if (end - start == 2 && buf[start] == '\\' && buf[start + 1] == '.') {
+            return false;
+        }
+        if (this.header && !this.headerSkipped) {
+            this.headerSkipped = true;
+            return true;
+        }
+        
+        final SQLStatement insert = this.insertStatement;
+        final boolean csv = isCsv();
+        final byte d = this.delimiterByte;
+        int column = 0;
+        for (int i = start;;) {
+            if (column == this.columnCount) {
+                throw copyError("extra data after last expected column");
+            }
+            int n = 0, fieldStart = i;
+            boolean quotedField = false;
+            if (csv) {
+                final byte q = this.quoteByte, e = this.escapeByte;
+                boolean inQuotes = false;
+                for (; i < end; ++i) {
+                    byte b = buf[i];
+                    if (inQuotes) {
+                        if (b == e && i + 1 < end && (buf[i + 1] == q || buf[i + 1] == e)) {
+                            b = buf[++i];
+                        } else if (b == q) {
+                            inQuotes = false;
+                            continue;
+                        }
+                    } else if (b == q) {
+                        inQuotes = quotedField = true;
+                        continue;
+                    } else if (b == d) {
+                        break;
+                    }
+                    n = appendField(n, b);
+                }
+            } else {
+                for (; i < end; ++i) {
+                    byte b = buf[i];
+                    if (b == d) {
+                        break;
+                    }
+                    if (b == '\\' && i + 1 < end) {
+                        i = unescape(buf, i + 1, end);
+                        n = appendField(n, this.unescaped);
+                        continue;
+                    }
+                    n = appendField(n, b);
+                }
+            }
+            
+            String value = null;
+            if (quotedField || !isNullField(buf, fieldStart, i)) {
+                value = new String(this.field, 0, n, this.charset);
+            }
+            insert.setParameter(++column, value);
+            if (i == end) {
+                break;
+            }
+            ++i;
+        }
+        if (column < this.columnCount) {
+            throw copyError("missing data for column " + (column + 1));
+        }
+        insert.addBatch();
+        
+        return true;
+    }
+    
+    // Unescape the text format sequence after the backslash, return the index of its last byte
+    private int unescape(byte[] buf, int i, int end) {
+        byte b = buf[i];
+        int v = 0, j;
+        switch (b) {
+        case 'b':
+            b = '\b';
+            break;
+        case 'f':
+            b = '\f';
+            break;
+        case 'n':
+            b = '\n';
+            break;
+        case 'r':
+            b = '\r';
+            break;
+        case 't':
+            b = '\t';
+            break;
+        case 'v':
+            b = 0x0b;
+            break;
+        case 'x':
+            for (j = i + 1; j < end && j < i + 3 && Character.digit(buf[j], 16) != -1; ++j) {
+                v = (v << 4) + Character.digit(buf[j], 16);
+            }
+            if (j > i + 1) {
+                this.unescaped = (byte)v;
+                return (j - 1);
+            }
+            break;
+        default:
+            if (b >= '0' && b <= '7') {
+                for (j = i; j < end && j < i + 3 && buf[j] >= '0' && buf[j] <= '7'; ++j) {
+                    v = (v << 3) + (buf[j] - '0');
+                }
+                this.unescaped = (byte)v;
+                return (j - 1);
+            }
+            break;
+        }
+        this.unescaped = b;
+        
+        return i;
+    }
+    
+    private int appendField(int n, byte b) {
+        if (n == this.field.length) {
+            this.field = Arrays.copyOf(this.field, n << 1);
+        }
+        this.field[n++] = b;
+        return n;
+    }
+    
+    private boolean isNullField(byte[] buf, int start, int end) {
+        final byte[] nullBytes = this.nullBytes;
+        if (end - start != nullBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < nullBytes.length; ++i) {
+            if (buf[start + i] != nullBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    protected void checkOptions() throws SQLException {
+        final boolean csv = isCsv();
+        if (isBinary()) {
+            if (this.copyIn) {
+                throw copyOptionError("COPY FROM STDIN binary format not supported");
+            }
+            if (this.delimiter != null || this.nullString != null || this.header
+                    || this.quote != null || this.escape != null) {
+                throw copyOptionError("COPY options not available in binary mode");
+            }
+            return;
+        }
+        if (!csv && !TEXT.equals(this.format)) {
+            throw copyOptionError("COPY format \"" + this.format + "\" not recognized");
+        }
+        if (!csv && (this.quote != null || this.escape != null)) {
+            throw copyOptionError("COPY quote and escape available only in CSV mode");
+        }
+        
+        String delimiter = this.delimiter;
+        if (delimiter == null) {
+            delimiter = csv? ",": "\t";
+        }
+        this.delimiter = delimiter;
+        this.delimiterByte = toOptionByte("delimiter", delimiter);
+        if (this.delimiterByte == '\r' || this.delimiterByte == '\n'
+                || (!csv && this.delimiterByte == '\\')) {
+            throw copyOptionError("COPY delimiter cannot be newline, carriage return or backslash");
+        }
+        String nullString = this.nullString;
+        if (nullString == null) {
+            nullString = csv? "": "\\N";
+        }
+        this.nullString = nullString;
+        this.nullBytes = nullString.getBytes(this.charset);
+        if (csv) {
+            if (this.quote == null) {
+                this.quote = "\"";
+            }
+            if (this.escape == null) {
+                this.escape = this.quote;
+            }
+            this.quoteByte = toOptionByte("quote", this.quote);
+            this.escapeByte = toOptionByte("escape", this.escape);
+            if (this.quoteByte == this.delimiterByte) {
+                throw copyOptionError("COPY delimiter and quote must be different");
+            }
+        }
+    }
+    
+    protected String getInsertSQL() throws SQLException {
+        String table = quoteIdentifier(this.tableName);
+        if (this.schemaName != null) {
+            table = quoteIdentifier(this.schemaName) + "." + table;
+        }
+        
+        List<String> columns = this.columns;
+        if (columns == null) {
+            // All columns of the table
+            String sql = "pragma " + (this.schemaName == null? "": quoteIdentifier(this.schemaName) + ".")
+                    + "table_info(" + quoteIdentifier(this.tableName) + ")";
+            columns = new ArrayList<>();
+            Connection conn = this.context.getConnection();
+            try (Statement s = conn.createStatement(); ResultSet rs = s.executeQuery(sql)) {
+                while (rs.next()) {
+                    columns.add(rs.getString(2));
+                }
+            }
+            if (columns.size() == 0) {
+                throw convertError(SQLiteErrorCode.SQLITE_ERROR, "no such table: " + this.tableName);
+            }
+        }
+        
+        StringBuilder sb = new StringBuilder("insert into ").append(table).append('(');
+        for (int i = 0, n = columns.size(); i < n; ++i) {
+            sb.append(i == 0? "": ", ").append(quoteIdentifier(columns.get(i)));
+        }
+        sb.append(")values(");
+        for (int i = 0, n = columns.size(); i < n; ++i) {
+            sb.append(i == 0? "?": ", ?");
+        }
+        this.columnCount = columns.size();
+        
+        return sb.append(')').toString();
+    }
+    
+    protected SQLStatement getSelectStatement() throws SQLException {
+        if (this.querySQL == null) {
+            String table = quoteIdentifier(this.tableName);
+            if (this.schemaName != null) {
+                table = quoteIdentifier(this.schemaName) + "." + table;
+            }
+            StringBuilder sb = new StringBuilder("select ");
+            List<String> columns = this.columns;
+            if (columns == null) {
+                sb.append('*');
+            } else {
+                for (int i = 0, n = columns.size(); i < n; ++i) {
+                    sb.append(i == 0? "": ", ").append(quoteIdentifier(columns.get(i)));
+                }
+            }
+            sb.append(" from ").append(table);
+            return new SQLStatement(sb.toString(), "SELECT", true);
+        }
+        
+        try (SQLParser parser = new SQLParser(this.querySQL, true)) {
+            if (parser.hasNext()) {
+                SQLStatement stmt = parser.next();
+                if (stmt.isQuery() && !parser.hasNext()) {
+                    return stmt;
+                }
+            }
+        } catch (SQLParseException e) {
+            throw convertError(SQLiteErrorCode.SQLITE_ERROR, e.getMessage());
+        }
+        
+        throw copyOptionError("COPY query must be a single SELECT");
+    }
+    
+    protected SQLException copyError(String message) {
+        // bad_copy_file_format
+        return convertError(SQLiteErrorCode.SQLITE_ERROR, message, "22P04");
+    }
+    
+    protected SQLException copyOptionError(String message) {
+        // feature_not_supported
+        return convertError(SQLiteErrorCode.SQLITE_ERROR, message, "0A000");
+    }
+    
+    private byte toOptionByte(String option, String value) throws SQLException {
+        byte[] bytes = value.getBytes(this.charset);
+        if (bytes.length != 1) {
+            throw copyOptionError("COPY " + option + " must be a single one-byte character");
+        }
+        return bytes[0];
+    }
+    
+    protected static String quoteIdentifier(String identifier) {
+        return ('"' + identifier.replace("\"", "\"\"") + '"');
+    }
+    
+    public boolean isCsv() {
+        return CSV.equals(this.format);
+    }
+    
+    public boolean isBinary() {
+        return BINARY.equals(this.format);
+    }
+    
+    @Override
+    public void close() {
+        IoUtils.close(this.insertStatement);
+        IoUtils.close(this.selectStatement);
+        this.insertStatement = null;
+        this.selectStatement = null;
+        this.buffer = new byte[0];
+        super.close();
+    }
+    
+    public boolean isCopyIn() {
+        return copyIn;
+    }
+    
+    public void setCopyIn(boolean copyIn) {
+        this.copyIn = copyIn;
+        setQuery(!copyIn);
+    }
+    
+    public String getQuerySQL() {
+        return querySQL;
+    }
+    
+    public void setQuerySQL(String querySQL) {
+        this.querySQL = querySQL;
+    }
+    
+    public String getSchemaName() {
+        return schemaName;
+    }
+    
+    public void setSchemaName(String schemaName) {
+        this.schemaName = schemaName;
+    }
+    
+    public String getTableName() {
+        return tableName;
+    }
+    
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+    
+    public List<String> getColumns() {
+        return columns;
+    }
+    
+    public void addColumn(String column) {
+        if (this.columns == null) {
+            this.columns = new ArrayList<>();
+        }
+        this.columns.add(column);
+    }
+    
+    public int getColumnCount() {
+        return columnCount;
+    }
+    
+    public String getFormat() {
+        return format;
+    }
+    
+    public void setFormat(String format) {
+        this.format = StringUtils.toLowerEnglish(format);
+    }
+    
+    public String getDelimiter() {
+        return delimiter;
+    }
+    
+    public void setDelimiter(String delimiter) {
+        this.delimiter = delimiter;
+    }
+    
+    public String getNullString() {
+        return nullString;
+    }
+    
+    public void setNullString(String nullString) {
+        this.nullString = nullString;
+    }
+    
+    public boolean isHeader() {
+        return header;
+    }
+    
+    public void setHeader(boolean header) {
+        this.header = header;
+    }
+    
+    public String getQuote() {
+        return quote;
+    }
+    
+    public void setQuote(String quote) {
+        this.quote = quote;
+    }
+    
+    public String getEscape() {
+        return escape;
+    }
+    
+    public void setEscape(String escape) {
+        this.escape = escape;
+    }
+    
+    public Charset getCharset() {
+        return charset;
+    }
+    
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+}
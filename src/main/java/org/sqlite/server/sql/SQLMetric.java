@@ -15,6 +15,8 @@
  */
 package org.sqlite.server.sql;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /** SQL statement metric.
  * 
  * @author little-pan
@@ -23,14 +25,29 @@ package org.sqlite.server.sql;
  */
 public class SQLMetric {
     
-    // Imprecise is intentional for performance
-    public volatile long selectStmts;
-    public volatile long updateStmts;
-    public volatile long insertStmts;
-    public volatile long deleteStmts;
-    public volatile long totalStmts;
+    // Updated by the processors executing in the execution pool concurrently
+    public final AtomicLong selectStmts = new AtomicLong();
+    public final AtomicLong updateStmts = new AtomicLong();
+    public final AtomicLong insertStmts = new AtomicLong();
+    public final AtomicLong deleteStmts = new AtomicLong();
+    public final AtomicLong totalStmts = new AtomicLong();
+    
+    public final AtomicLong slowStmts = new AtomicLong();
+    
+    // DB write lock: acquisitions, acquisitions after waiting, and total wait nanos
+    public final AtomicLong dbWriteLocks = new AtomicLong();
+    public final AtomicLong dbWriteLockWaits = new AtomicLong();
+    public final AtomicLong dbWriteLockWaitTime = new AtomicLong();
+    
+    // Statement cache: hits and misses
+    public final AtomicLong stmtCacheHits = new AtomicLong();
+    public final AtomicLong stmtCacheMisses = new AtomicLong();
     
-    public volatile long slowStmts;
+    // Buffer pool: slab bytes, borrowed bytes, allocations and misses, set when aggregated
+    public volatile long bufferPoolSize;
+    public volatile long bufferPoolUsed;
+    public volatile long bufferAllocations;
+    public volatile long bufferMisses;
     
     public SQLMetric() {
         
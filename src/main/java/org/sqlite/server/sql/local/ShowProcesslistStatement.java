@@ -23,7 +23,8 @@ import org.sqlite.server.SQLiteProcessor;
 import org.sqlite.server.SQLiteProcessorState;
 import org.sqlite.server.SQLiteServer;
 
-/** "SHOW [FULL] PROCESSLIST" statement.
+/** "SHOW [FULL] PROCESSLIST" statement. The full processlist also shows the network write
+ * statistics of the connection: responses, write syscalls and write syscalls per response.
  * 
  * @author little-pan
  * @since 2019-10-19
@@ -41,10 +42,19 @@ public class ShowProcesslistStatement extends LocalStatement {
 
     @Override
     protected String getSQL(String localSchema) throws SQLException {
+        if (isFull()) {
+            final String f = 
+                    "select Id, User, Host, db, Command, Time, State, Info, Responses, Write_Calls, "
+                    + "round(case Responses when 0 then 0 else 1.0 * Write_Calls / Responses end, 2) "
+                    + "Write_Calls_Per_Response "
+                    + "from '%s'.%s order by Id";
+            return format(f, localSchema, TBL_NAME);
+        }
+        
         final String f = 
                 "select Id, User, Host, db, Command, Time, State, Info "
-                + "from '%s'.%s order by Id%s";
-        return format(f, localSchema, TBL_NAME, (isFull()? "": " limit 100"));
+                + "from '%s'.%s order by Id limit 100";
+        return format(f, localSchema, TBL_NAME);
     }
     
     @Override
@@ -62,7 +72,9 @@ public class ShowProcesslistStatement extends LocalStatement {
                 + "`Command` varchar(64),"
                 + "`Time` integer not null,"
                 + "`State` varchar(80),"
-                + "`Info` text)";
+                + "`Info` text,"
+                + "`Responses` bigint not null,"
+                + "`Write_Calls` bigint not null)";
         sql = format(f, localSchema, TBL_NAME);
         execute(sql);
     }
@@ -82,8 +94,8 @@ public class ShowProcesslistStatement extends LocalStatement {
         SQLiteServer server = processor.getServer();
         List<SQLiteProcessorState> states = server.getProcessorStates(processor);
         // INSERT new data for query
-        f = "insert into '%s'.%s(`id`, `user`, `host`, `db`, `command`, `time`, `state`, `info`)"
-                + "values(?, ?, ?, ?, ?, ?, ?, ?)";
+        f = "insert into '%s'.%s(`id`, `user`, `host`, `db`, `command`, `time`, `state`, `info`, "
+                + "`responses`, `write_calls`)values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
         sql = format(f, localSchema, TBL_NAME);
         try (PreparedStatement ps = processor.getConnection().prepareStatement(sql)) {
             for (SQLiteProcessorState state: states) {
@@ -96,6 +108,8 @@ public class ShowProcesslistStatement extends LocalStatement {
                 ps.setInt(++i, state.getTime());
                 ps.setString(++i, state.getStateText());
                 ps.setString(++i, state.getInfo(isFull()));
+                ps.setLong(++i, state.getResponses());
+                ps.setLong(++i, state.getWriteCalls());
                 ps.addBatch();
             }
             ps.executeBatch();
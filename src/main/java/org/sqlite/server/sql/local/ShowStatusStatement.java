@@ -50,6 +50,10 @@ public class ShowStatusStatement extends LocalStatement {
     protected String getSQL(String localSchema) throws SQLException {
         final String f = 
                 "select Select_Stmts, Update_Stmts, Insert_Stmts, Delete_Stmts, Total_Stmts, Slow_Stmts, "
+                + "Db_Write_Locks, Db_Write_Lock_Waits, Db_Write_Lock_Wait_Time, "
+                + "Stmt_Cache_Hits, Stmt_Cache_Misses, "
+                + "Buffer_Pool_Size, Buffer_Pool_Used, Buffer_Allocations, Buffer_Misses, "
+                + "Worker_Policy, Worker_Loads, "
                 + "Mem_Committed, Mem_Max, Mem_Used, "
                 + "OS_Arch, OS_Name, OS_Version, "
                 + "RT_Name, RT_Start_Time, RT_Uptime, RT_Vendor, RT_Version, "
@@ -73,6 +77,17 @@ public class ShowStatusStatement extends LocalStatement {
                 + "`Delete_Stmts` bigint,"
                 + "`Total_Stmts` bigint,"
                 + "`Slow_Stmts` bigint,"
+                + "`Db_Write_Locks` bigint,"
+                + "`Db_Write_Lock_Waits` bigint,"
+                + "`Db_Write_Lock_Wait_Time` bigint,"
+                + "`Stmt_Cache_Hits` bigint,"
+                + "`Stmt_Cache_Misses` bigint,"
+                + "`Buffer_Pool_Size` bigint,"
+                + "`Buffer_Pool_Used` bigint,"
+                + "`Buffer_Allocations` bigint,"
+                + "`Buffer_Misses` bigint,"
+                + "`Worker_Policy` varchar(64),"
+                + "`Worker_Loads` text,"
                 + "`Mem_Committed` bigint,"
                 + "`Mem_Max` bigint,"
                 + "`Mem_Used` bigint,"
@@ -109,11 +124,16 @@ public class ShowStatusStatement extends LocalStatement {
         // INSERT new data for query
         f = "insert into '%s'.%s(`Select_Stmts`, `Update_Stmts`, `Insert_Stmts`, `Delete_Stmts`, "
                 + "`Total_Stmts`, `Slow_Stmts`,"
+                + "`Db_Write_Locks`, `Db_Write_Lock_Waits`, `Db_Write_Lock_Wait_Time`,"
+                + "`Stmt_Cache_Hits`, `Stmt_Cache_Misses`,"
+                + "`Buffer_Pool_Size`, `Buffer_Pool_Used`, `Buffer_Allocations`, `Buffer_Misses`,"
+                + "`Worker_Policy`, `Worker_Loads`,"
                 + "`Mem_Committed`, `Mem_Max`, `Mem_Used`, `OS_Arch`, `OS_Name`, `OS_Version`, "
                 + "`RT_Name`, `RT_Start_Time`, `RT_Uptime`, `RT_Vendor`, `RT_Version`, "
                 + "`Thread_Count`, `Thread_Daemon_Count`, `Thread_Peak_Count`, `Thread_Started_Count`, "
                 + "`Sys_Load_Average`)"
-                + "values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+                + "values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, "
+                + "?, ?, ?, ?)";
         sql = format(f, localSchema, TBL_NAME);
         try (PreparedStatement ps = processor.getConnection().prepareStatement(sql)) {
             MemoryMXBean memMxBean = ManagementFactory.getMemoryMXBean();
@@ -128,12 +148,27 @@ public class ShowStatusStatement extends LocalStatement {
             
             // SQL metric
             SQLMetric sqlMetric = server.getSQLMetric();
-            ps.setLong(++i, sqlMetric.selectStmts);
-            ps.setLong(++i, sqlMetric.updateStmts);
-            ps.setLong(++i, sqlMetric.insertStmts);
-            ps.setLong(++i, sqlMetric.deleteStmts);
-            ps.setLong(++i, sqlMetric.totalStmts);
-            ps.setLong(++i, sqlMetric.slowStmts);
+            ps.setLong(++i, sqlMetric.selectStmts.get());
+            ps.setLong(++i, sqlMetric.updateStmts.get());
+            ps.setLong(++i, sqlMetric.insertStmts.get());
+            ps.setLong(++i, sqlMetric.deleteStmts.get());
+            ps.setLong(++i, sqlMetric.totalStmts.get());
+            ps.setLong(++i, sqlMetric.slowStmts.get());
+            // DB write lock wait time in millis
+            ps.setLong(++i, sqlMetric.dbWriteLocks.get());
+            ps.setLong(++i, sqlMetric.dbWriteLockWaits.get());
+            ps.setLong(++i, sqlMetric.dbWriteLockWaitTime.get() / 1000000L);
+            // Statement cache
+            ps.setLong(++i, sqlMetric.stmtCacheHits.get());
+            ps.setLong(++i, sqlMetric.stmtCacheMisses.get());
+            // Buffer pool
+            ps.setLong(++i, sqlMetric.bufferPoolSize);
+            ps.setLong(++i, sqlMetric.bufferPoolUsed);
+            ps.setLong(++i, sqlMetric.bufferAllocations);
+            ps.setLong(++i, sqlMetric.bufferMisses);
+            // Worker load
+            ps.setString(++i, server.getWorkerPolicy().getName());
+            ps.setString(++i, server.getWorkerLoads());
             
             // Memory committed
             if (heapMemUsage.getCommitted() > 0) {
@@ -23,7 +23,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sqlite.SQLiteErrorCode;
 import org.sqlite.server.SQLiteProcessor;
-import org.sqlite.sql.ImplicitCommitException;
 import org.sqlite.sql.SQLParseException;
 import org.sqlite.sql.SQLParser;
 import org.sqlite.sql.SQLStatement;
@@ -75,16 +74,6 @@ public class CreateDatabaseStatement extends MetaStatement {
         this.catalog.setDir(dir);
     }
     
-    @Override
-    public void complete(boolean success) throws ImplicitCommitException, IllegalStateException {
-        super.complete(success);
-        
-        if (success) {
-            SQLiteProcessor proc = getContext();
-            proc.getServer().flushCatalogs();
-        }
-    }
-    
     @Override
     public boolean executionException(SQLException e) {
         if (!isQuite()) {
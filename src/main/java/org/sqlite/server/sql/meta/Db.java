@@ -27,6 +27,22 @@ import org.sqlite.server.util.StringUtils;
  */
 public class Db {
     
+    // privilege bits
+    public static final int PRIV_SELECT = 0x001;
+    public static final int PRIV_INSERT = 0x002;
+    public static final int PRIV_UPDATE = 0x004;
+    public static final int PRIV_DELETE = 0x008;
+    public static final int PRIV_CREATE = 0x010;
+    public static final int PRIV_ALTER  = 0x020;
+    public static final int PRIV_DROP   = 0x040;
+    public static final int PRIV_PRAGMA = 0x080;
+    public static final int PRIV_VACUUM = 0x100;
+    public static final int PRIV_ATTACH = 0x200;
+    public static final int PRIV_DETACH = 0x400;
+    public static final int PRIV_ALL    = 0x7FF;
+    // Only set by all_priv that grants all commands
+    public static final int PRIV_ALL_FLAG = 0x800;
+    
     private String host;
     private String user;
     private String db;
@@ -241,10 +257,48 @@ public class Db {
     }
     
     public boolean hasPriv(String command) {
+        return (hasPriv(getPrivMask(), command));
+    }
+    
+    /**Test the privilege of the SQL command in the privilege mask.
+     * 
+     * @param privMask the privilege mask from {@link #getPrivMask()}
+     * @param command the SQL command
+     * @return true if the command granted, all commands granted by all privileges
+     */
+    public static boolean hasPriv(int privMask, String command) {
+        return ((privMask & (PRIV_ALL_FLAG | privOf(command))) != 0);
+    }
+    
+    /**Get the privilege mask of the user on this DB.
+     * 
+     * @return the privilege bits, DETACH always granted
+     */
+    public int getPrivMask() {
         if (1 == getAllPriv()) {
-            return true;
+            return (PRIV_ALL_FLAG | PRIV_ALL);
         }
         
+        int mask = PRIV_DETACH;
+        mask |= (1 == getSelectPriv()? PRIV_SELECT: 0);
+        mask |= (1 == getInsertPriv()? PRIV_INSERT: 0);
+        mask |= (1 == getUpdatePriv()? PRIV_UPDATE: 0);
+        mask |= (1 == getDeletePriv()? PRIV_DELETE: 0);
+        mask |= (1 == getCreatePriv()? PRIV_CREATE: 0);
+        mask |= (1 == getAlterPriv()? PRIV_ALTER: 0);
+        mask |= (1 == getDropPriv()? PRIV_DROP: 0);
+        mask |= (1 == getPragmaPriv()? PRIV_PRAGMA: 0);
+        mask |= (1 == getVacuumPriv()? PRIV_VACUUM: 0);
+        mask |= (1 == getAttachPriv()? PRIV_ATTACH: 0);
+        return mask;
+    }
+    
+    /**Get the privilege bit of the SQL command.
+     * 
+     * @param command the SQL command
+     * @return the privilege bit, or 0 if the command not granted by DB privileges
+     */
+    public static int privOf(String command) {
         switch(command) {
         case "SELECT":
         case "SHOW COLUMNS":
@@ -252,30 +306,30 @@ public class Db {
         case "SHOW CREATE TABLE":
         case "SHOW INDEXES":
         case "SHOW TABLES":
-            return (1 == getSelectPriv());
+            return PRIV_SELECT;
         case "INSERT":
         case "REPLACE":
-            return (1 == getInsertPriv());
+            return PRIV_INSERT;
         case "UPDATE":
-            return (1 == getUpdatePriv());
+            return PRIV_UPDATE;
         case "DELETE":
-            return (1 == getDeletePriv());
+            return PRIV_DELETE;
         case "CREATE":
-            return (1 == getCreatePriv());
+            return PRIV_CREATE;
         case "ALTER":
-            return (1 == getAlterPriv());
+            return PRIV_ALTER;
         case "DROP":
-            return (1 == getDropPriv());
+            return PRIV_DROP;
         case "PRAGMA":
-            return (1 == getPragmaPriv());
+            return PRIV_PRAGMA;
         case "VACUUM":
-            return (1 == getVacuumPriv());
+            return PRIV_VACUUM;
         case "ATTACH":
-            return (1 == getAttachPriv());
+            return PRIV_ATTACH;
         case "DETACH":
-            return true;
+            return PRIV_DETACH;
         default:
-            return false;
+            return 0;
         }
     }
     
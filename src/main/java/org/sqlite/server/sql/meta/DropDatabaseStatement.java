@@ -19,7 +19,6 @@ import java.sql.SQLException;
 
 import org.sqlite.SQLiteErrorCode;
 import org.sqlite.server.SQLiteProcessor;
-import org.sqlite.sql.ImplicitCommitException;
 import org.sqlite.sql.SQLParseException;
 import org.sqlite.sql.SQLParser;
 import org.sqlite.sql.SQLStatement;
@@ -74,16 +73,6 @@ public class DropDatabaseStatement extends MetaStatement {
         }
     }
     
-    @Override
-    public void complete(boolean success) throws ImplicitCommitException, IllegalStateException {
-        super.complete(success);
-        
-        if (success) {
-            SQLiteProcessor proc = getContext();
-            proc.getServer().flushCatalogs();
-        }
-    }
-    
     @Override
     public String getMetaSQL(String metaSchema) throws SQLParseException {
         if (this.db == null || this.db.length() == 0) {
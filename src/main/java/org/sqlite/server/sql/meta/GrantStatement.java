@@ -18,8 +18,6 @@ package org.sqlite.server.sql.meta;
 import java.util.HashSet;
 import java.util.Set;
 
-import org.sqlite.server.SQLiteProcessor;
-import org.sqlite.sql.ImplicitCommitException;
 import org.sqlite.sql.SQLParseException;
 import org.sqlite.sql.SQLParser;
 import org.sqlite.sql.SQLStatement;
@@ -128,16 +126,6 @@ public class GrantStatement extends MetaStatement {
         return (this.privileges.contains(command)? 1: 0);
     }
     
-    @Override
-    public void complete(boolean success) throws ImplicitCommitException, IllegalStateException {
-        super.complete(success);
-        
-        if (success) {
-            SQLiteProcessor proc = getContext();
-            proc.getServer().flushPrivileges();
-        }
-    }
-    
     public static String[] getPrivileges() {
         return PRIVS;
     }
@@ -0,0 +1,182 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server.sql.meta;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**The immutable snapshot of the user, db and catalog tables in the meta database, that the
+ * connection admission and privilege checks are based on. A new snapshot of the next version
+ * is built when the meta data changed, the users, dbs and catalogs in it shouldn't be modified.
+ * 
+ * @author little-pan
+ * @since 2020-01-16
+ * 
+ */
+public class MetaSnapshot {
+    
+    protected final long version;
+    protected final List<User> users;
+    protected final List<Db> dbs;
+    protected final List<Catalog> catalogs;
+    
+    /** protocol:user -> users of all hosts */
+    protected final Map<String, List<User>> userMap;
+    /** protocol -> hosts */
+    protected final Map<String, Set<String>> hostMap;
+    /** user@host/db -> db */
+    protected final Map<String, Db> dbMap;
+    /** db -> catalog */
+    protected final Map<String, Catalog> catalogMap;
+    
+    public MetaSnapshot(long version, List<User> users, List<Db> dbs, List<Catalog> catalogs) {
+        this.version = version;
+        this.users = Collections.unmodifiableList(new ArrayList<>(users));
+        this.dbs = Collections.unmodifiableList(new ArrayList<>(dbs));
+        this.catalogs = Collections.unmodifiableList(new ArrayList<>(catalogs));
+        
+        Map<String, List<User>> userMap = new HashMap<>();
+        Map<String, Set<String>> hostMap = new HashMap<>();
+        for (User u: users) {
+            String key = userKey(u.getProtocol(), u.getUser());
+            List<User> list = userMap.get(key);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                userMap.put(key, list);
+            }
+            list.add(u);
+            Set<String> hosts = hostMap.get(u.getProtocol());
+            if (hosts == null) {
+                hosts = new HashSet<>();
+                hostMap.put(u.getProtocol(), hosts);
+            }
+            hosts.add(u.getHost());
+        }
+        for (Map.Entry<String, List<User>> e: userMap.entrySet()) {
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        for (Map.Entry<String, Set<String>> e: hostMap.entrySet()) {
+            e.setValue(Collections.unmodifiableSet(e.getValue()));
+        }
+        Map<String, Db> dbMap = new HashMap<>();
+        for (Db d: dbs) {
+            dbMap.put(dbKey(d.getHost(), d.getUser(), d.getDb()), d);
+        }
+        Map<String, Catalog> catalogMap = new HashMap<>();
+        for (Catalog c: catalogs) {
+            catalogMap.put(c.getDb(), c);
+        }
+        this.userMap = userMap;
+        this.hostMap = hostMap;
+        this.dbMap = dbMap;
+        this.catalogMap = catalogMap;
+    }
+    
+    public long getVersion() {
+        return this.version;
+    }
+    
+    public List<User> getUsers() {
+        return this.users;
+    }
+    
+    public List<User> getUsers(String protocol, String user) {
+        List<User> users = this.userMap.get(userKey(protocol, user));
+        if (users == null) {
+            return Collections.emptyList();
+        }
+        return users;
+    }
+    
+    public Set<String> getHosts(String protocol) {
+        Set<String> hosts = this.hostMap.get(protocol);
+        if (hosts == null) {
+            return Collections.emptySet();
+        }
+        return hosts;
+    }
+    
+    public List<Db> getDbs() {
+        return this.dbs;
+    }
+    
+    public Db getDb(String host, String user, String db) {
+        return this.dbMap.get(dbKey(host, user, db));
+    }
+    
+    /**Get the privilege mask of the user on the database.
+     * 
+     * @param host the user host
+     * @param user the user name
+     * @param db the database name
+     * @return the privilege bits, 0 if no privilege
+     */
+    public int getPrivMask(String host, String user, String db) {
+        Db d = getDb(host, user, db);
+        if (d == null) {
+            return 0;
+        }
+        return d.getPrivMask();
+    }
+    
+    /**Get the privilege mask of the user on the database located in the data directory.
+     * 
+     * @param host the user host
+     * @param user the user name
+     * @param db the database name
+     * @param dataDir the data directory of the database, null if the default
+     * @return the privilege bits, 0 if no privilege or the database located in other directory
+     */
+    public int getPrivMask(String host, String user, String db, String dataDir) {
+        Catalog catalog = getCatalog(db);
+        if (catalog == null) {
+            return 0;
+        }
+        String dir = catalog.getDir();
+        if (dir == null? dataDir != null: !dir.equals(dataDir)) {
+            return 0;
+        }
+        return getPrivMask(host, user, db);
+    }
+    
+    public List<Catalog> getCatalogs() {
+        return this.catalogs;
+    }
+    
+    public Catalog getCatalog(String db) {
+        return this.catalogMap.get(db);
+    }
+    
+    protected static String userKey(String protocol, String user) {
+        return (protocol + ":" + user);
+    }
+    
+    protected static String dbKey(String host, String user, String db) {
+        return (user + "@" + host + "/" + db);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("MetaSnapshot#%d{users: %d, dbs: %d, catalogs: %d}", this.version,
+                this.users.size(), this.dbs.size(), this.catalogs.size());
+    }
+
+}
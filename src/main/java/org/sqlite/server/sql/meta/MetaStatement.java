@@ -65,13 +65,23 @@ public abstract class MetaStatement extends SQLStatement {
         return (proc.getUser());
     }
     
+    @Override
+    protected void postExecute(boolean resultSet) throws SQLException {
+        super.postExecute(resultSet);
+        
+        if (!isQuery()) {
+            // Rebuild the meta snapshot when the transaction completes
+            getContext().metaChanged();
+        }
+    }
+    
     @Override
     public void complete(boolean success) throws IllegalStateException {
         super.complete(success);
         
         SQLiteProcessor context = this.getContext();
         if (context.isAutoCommit()) {
-            context.detachMetaDb();
+            context.completeMetaDb();
         }
     }
     
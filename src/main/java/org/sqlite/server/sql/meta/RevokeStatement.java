@@ -18,9 +18,7 @@ package org.sqlite.server.sql.meta;
 import java.util.HashSet;
 import java.util.Set;
 
-import org.sqlite.server.SQLiteProcessor;
 import org.sqlite.server.sql.meta.GrantStatement.Grantee;
-import org.sqlite.sql.ImplicitCommitException;
 import org.sqlite.sql.SQLParseException;
 import org.sqlite.sql.SQLParser;
 import org.sqlite.sql.SQLStatement;
@@ -152,16 +150,6 @@ public class RevokeStatement extends MetaStatement {
         this.revokeAll = revokeAll;
     }
     
-    @Override
-    public void complete(boolean success) throws ImplicitCommitException, IllegalStateException {
-        super.complete(success);
-        
-        if (success) {
-            SQLiteProcessor proc = getContext();
-            proc.getServer().flushPrivileges();
-        }
-    }
-    
     public static String[] getPrivileges() {
         return GrantStatement.getPrivileges();
     }
@@ -45,6 +45,16 @@ public class User {
         this.sa = sa;
     }
     
+    public User(User user) {
+        this.user = user.user;
+        this.password = user.password;
+        this.host = user.host;
+        this.db = user.db;
+        this.protocol = user.protocol;
+        this.authMethod = user.authMethod;
+        this.sa = user.sa;
+    }
+    
     public String getUser() {
         return user;
     }
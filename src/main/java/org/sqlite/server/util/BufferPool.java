@@ -0,0 +1,212 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.sqlite.server.util.locks.SpinLock;
+
+/** The slab pool of direct buffers in power-of-two size classes. A slab is allocated
+ * in the direct memory and sliced into the buffers of one size class, up to the max pool
+ * size. The request larger than the max size class, or after the pool is full, is a miss
+ * and served by a heap buffer that isn't pooled. The pool only takes back the buffers
+ * sliced by itself, and ignores the ones of another pool.
+ * 
+ * @author little-pan
+ * @since 2020-01-12
+ * 
+ */
+public class BufferPool {
+    
+    protected final int minBufferSize;
+    protected final int maxBufferSize;
+    protected final long maxPoolSize;
+    protected final ArrayDeque<ByteBuffer>[] freeLists;
+    // The buffers sliced by this pool and not discarded, by identity
+    protected final Set<ByteBuffer> owned;
+    
+    private final SpinLock lock = new SpinLock();
+    // Metric: the slab bytes allocated, the pooled bytes borrowed, allocations and misses
+    private volatile long size, used, allocations, misses;
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(int minBufferSize, int maxBufferSize, long maxPoolSize) {
+        if (Integer.bitCount(minBufferSize) != 1 || Integer.bitCount(maxBufferSize) != 1
+                || minBufferSize > maxBufferSize) {
+            throw new IllegalArgumentException("Buffer size not power of two, or min > max");
+        }
+        this.minBufferSize = minBufferSize;
+        this.maxBufferSize = maxBufferSize;
+        this.maxPoolSize = maxPoolSize;
+        
+        int n = sizeClass(maxBufferSize) + 1;
+        this.freeLists = new ArrayDeque[n];
+        for (int i = 0; i < n; ++i) {
+            this.freeLists[i] = new ArrayDeque<>();
+        }
+        this.owned = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+    }
+    
+    /**Borrow a cleared buffer.
+     * 
+     * @param minSize the min capacity of the buffer
+     * @return the pooled direct buffer, or a heap buffer if missed
+     */
+    public ByteBuffer allocate(final int minSize) {
+        if (minSize > this.maxBufferSize) {
+            return miss(minSize);
+        }
+        
+        final int i = sizeClass(minSize);
+        final int bufferSize = this.minBufferSize << i;
+        this.lock.lock();
+        try {
+            ++this.allocations;
+            final ArrayDeque<ByteBuffer> freeList = this.freeLists[i];
+            ByteBuffer buf = freeList.poll();
+            if (buf == null) {
+                if (this.size + this.maxBufferSize > this.maxPoolSize) {
+                    ++this.misses;
+                    return ByteBuffer.allocate(bufferSize);
+                }
+                // Slice a new slab
+                ByteBuffer slab = ByteBuffer.allocateDirect(this.maxBufferSize);
+                this.size += this.maxBufferSize;
+                for (int pos = 0; pos < this.maxBufferSize; pos += bufferSize) {
+                    slab.limit(pos + bufferSize).position(pos);
+                    ByteBuffer slice = slab.slice();
+                    this.owned.add(slice);
+                    freeList.offer(slice);
+                }
+                buf = freeList.poll();
+            }
+            this.used += bufferSize;
+            buf.clear();
+            return buf;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**Return the buffer borrowed from this pool. The buffer that isn't pooled by this
+     * pool is ignored.
+     * 
+     * @param buf the buffer
+     */
+    public void release(ByteBuffer buf) {
+        if (!isPooled(buf)) {
+            return;
+        }
+        
+        final int cap = buf.capacity();
+        this.lock.lock();
+        try {
+            if (!this.owned.contains(buf)) {
+                return;
+            }
+            this.used -= cap;
+            // LIFO: reuse the recently released buffer that's hot in cache
+            this.freeLists[sizeClass(cap)].push(buf);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**Discard the borrowed buffer that can't be reused, e.g. it's maybe still in use
+     * by another thread. It's slab memory is still held and counted in the pool size.
+     * 
+     * @param buf the buffer
+     */
+    public void discard(ByteBuffer buf) {
+        if (!isPooled(buf)) {
+            return;
+        }
+        
+        final int cap = buf.capacity();
+        this.lock.lock();
+        try {
+            // Never taken back, even if released later
+            if (this.owned.remove(buf)) {
+                this.used -= cap;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**Check whether the buffer maybe a pooled one by it's size class, and the owner
+     * is checked when it's taken back.
+     * 
+     * @param buf the buffer
+     * @return true if it's a direct buffer in the pooled size classes, otherwise false
+     */
+    public boolean isPooled(ByteBuffer buf) {
+        if (buf == null || !buf.isDirect() || buf.isReadOnly()) {
+            return false;
+        }
+        
+        final int cap = buf.capacity();
+        return (Integer.bitCount(cap) == 1 && cap >= this.minBufferSize
+                && cap <= this.maxBufferSize);
+    }
+    
+    /**
+     * @return the slab bytes allocated
+     */
+    public long getSize() {
+        return this.size;
+    }
+    
+    /**
+     * @return the pooled bytes borrowed
+     */
+    public long getUsed() {
+        return this.used;
+    }
+    
+    public long getAllocations() {
+        return this.allocations;
+    }
+    
+    public long getMisses() {
+        return this.misses;
+    }
+    
+    protected int sizeClass(int size) {
+        if (size <= this.minBufferSize) {
+            return 0;
+        }
+        int n = Integer.numberOfTrailingZeros(this.minBufferSize);
+        return (32 - Integer.numberOfLeadingZeros(size - 1) - n);
+    }
+    
+    protected ByteBuffer miss(int size) {
+        this.lock.lock();
+        try {
+            ++this.allocations;
+            ++this.misses;
+        } finally {
+            this.lock.unlock();
+        }
+        
+        return ByteBuffer.allocate(size);
+    }
+
+}
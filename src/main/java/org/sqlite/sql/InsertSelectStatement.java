@@ -33,6 +33,12 @@ public class InsertSelectStatement extends SQLStatement {
         super(sql, "INSERT");
     }
     
+    @Override
+    public boolean isCacheable() {
+        // The select statement is bound to this statement
+        return false;
+    }
+    
     @Override
     public PreparedStatement prepare() throws SQLException, IllegalStateException {
         PreparedStatement ps = super.prepare();
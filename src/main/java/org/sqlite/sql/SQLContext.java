@@ -95,6 +95,41 @@ public abstract class SQLContext {
     
     public abstract void transactionComplelete();
     
+    /**Execute the writable statement in the database writer if it's supported.
+     * 
+     * @param s the SQL statement
+     * @return the update count if executed in the database writer, or -1 if not supported
+     * @throws SQLException if the statement is waiting for the database writer, or execution error
+     */
+    public int executeInDbWriter(SQLStatement s) throws SQLException {
+        return -1;
+    }
+    
+    /**Restore the session state changed by the database writer, e.g. last_insert_rowid(),
+     * into the connection before the statement executed in the connection.
+     * 
+     * @param s the SQL statement
+     * @throws SQLException if restoring error
+     */
+    public void restoreDbWriterState(SQLStatement s) throws SQLException {
+        
+    }
+    
+    /**
+     * @return the statement cache of the connection, or null if the cache disabled
+     */
+    public SQLStatementCache getStatementCache() {
+        return null;
+    }
+    
+    /**Count an access of the statement cache.
+     * 
+     * @param hit the cached statement found or not
+     */
+    public void statementCacheAccessed(boolean hit) {
+        
+    }
+    
     public abstract void dbWriteLock() throws SQLException;
     
     public abstract boolean holdsDbWriteLock();
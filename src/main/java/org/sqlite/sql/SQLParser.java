@@ -24,6 +24,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
+import org.sqlite.server.pg.sql.CopyStatement;
 import org.sqlite.server.pg.sql.InsertReturningStatement;
 import org.sqlite.server.sql.SelectSleepStatement;
 import org.sqlite.server.sql.ShowColumnsStatement;
@@ -198,7 +199,15 @@ public class SQLParser implements Iterator<SQLStatement>, Iterable<SQLStatement>
             case 'C':
                 c = nextChar();
                 if ('o' == c || 'O' == c) {
-                    return parseCommit();
+                    c = nextChar();
+                    if ('m' == c || 'M' == c) {
+                        backChar();
+                        return parseCommit();
+                    }
+                    if ('p' == c || 'P' == c) {
+                        return parseCopy();
+                    }
+                    throw syntaxError();
                 }
                 if ('r' == c || 'R' == c) {
                     return parseCreate();
@@ -527,8 +536,202 @@ public class SQLParser implements Iterator<SQLStatement>, Iterable<SQLStatement>
         return new TransactionStatement(this.sql, "COMMIT");
     }
 
+    protected CopyStatement parseCopy() {
+        nextString("y");
+        boolean ignorable = skipIgnorableIf() != -1;
+        
+        CopyStatement stmt = new CopyStatement(this.sql);
+        if (nextCharIf('(') != -1) {
+            // Parse: (query) TO STDOUT
+            stmt.setQuerySQL(nextParenthesized());
+            skipIgnorableIf();
+            nextString("to");
+            skipIgnorable();
+            nextString("stdout");
+            stmt.setCopyIn(false);
+        } else {
+            if (!ignorable) {
+                throw syntaxError();
+            }
+            String schemaName = null, tableName;
+            tableName = nextString();
+            skipIgnorableIf();
+            if (nextCharIf('.') != -1) {
+                skipIgnorableIf();
+                schemaName = tableName;
+                tableName = nextString();
+                skipIgnorableIf();
+            }
+            stmt.setSchemaName(schemaName);
+            stmt.setTableName(tableName);
+            if (nextCharIf('(') != -1) {
+                for (;;) {
+                    skipIgnorableIf();
+                    stmt.addColumn(nextString());
+                    skipIgnorableIf();
+                    if (nextCharIf(',') == -1) {
+                        break;
+                    }
+                }
+                nextChar(')');
+                skipIgnorableIf();
+            }
+            if (nextStringIf("from") != -1) {
+                skipIgnorable();
+                nextString("stdin");
+            } else {
+                nextString("to");
+                skipIgnorable();
+                nextString("stdout");
+                stmt.setCopyIn(false);
+            }
+        }
+        if (nextEnd()) {
+            return stmt;
+        }
+        
+        if (nextStringIf("with") != -1) {
+            skipIgnorableIf();
+        }
+        if (nextCharIf('(') != -1) {
+            // Parse: (option [, ...])
+            for (;;) {
+                skipIgnorableIf();
+                parseCopyOption(stmt, true);
+                skipIgnorableIf();
+                if (nextCharIf(',') == -1) {
+                    break;
+                }
+            }
+            nextChar(')');
+        } else {
+            // Parse the old style options
+            while (!nextEnd()) {
+                parseCopyOption(stmt, false);
+            }
+            return stmt;
+        }
+        if (nextEnd()) {
+            return stmt;
+        }
+        
+        throw syntaxError();
+    }
+    
+    protected void parseCopyOption(CopyStatement stmt, boolean parenthesized) {
+        if (parenthesized && nextStringIf("format") != -1) {
+            skipIgnorable();
+            stmt.setFormat(nextString());
+        } else if (!parenthesized && nextStringIf("csv") != -1) {
+            stmt.setFormat(CopyStatement.CSV);
+        } else if (!parenthesized && nextStringIf("binary") != -1) {
+            stmt.setFormat(CopyStatement.BINARY);
+        } else if (nextStringIf("delimiter") != -1) {
+            stmt.setDelimiter(nextCopyOptionString(parenthesized));
+        } else if (nextStringIf("null") != -1) {
+            stmt.setNullString(nextCopyOptionString(parenthesized));
+        } else if (nextStringIf("quote") != -1) {
+            stmt.setQuote(nextCopyOptionString(parenthesized));
+        } else if (nextStringIf("escape") != -1) {
+            stmt.setEscape(nextCopyOptionString(parenthesized));
+        } else if (nextStringIf("header") != -1) {
+            boolean header = true;
+            if (parenthesized && skipIgnorableIf() != -1 && nextCharIf(',', true, false, 0) == -1
+                    && nextCharIf(')', true, false, 0) == -1) {
+                String value = StringUtils.toLowerEnglish(nextExpr());
+                switch (value) {
+                case "true":
+                case "on":
+                case "1":
+                    break;
+                case "false":
+                case "off":
+                case "0":
+                    header = false;
+                    break;
+                default:
+                    throw syntaxError();
+                }
+            }
+            stmt.setHeader(header);
+        } else {
+            throw syntaxError();
+        }
+    }
+    
+    /**Read the text until the matching close parenthesis, the quoted parentheses ignored.
+     * 
+     * @return the text in the parentheses
+     */
+    protected String nextParenthesized() {
+        String s = this.sql;
+        int len = s.length(), deep = 1;
+        char q = 0;
+        for (int i = this.ei; i < len; ++i) {
+            char c = s.charAt(i);
+            if (q != 0) {
+                if (q == c) {
+                    q = 0;
+                }
+            } else if ('\'' == c || '"' == c) {
+                q = c;
+            } else if ('(' == c) {
+                ++deep;
+            } else if (')' == c && --deep == 0) {
+                String text = s.substring(this.ei, i);
+                this.ei = i + 1;
+                return text;
+            }
+        }
+        
+        throw syntaxError();
+    }
+    
+    protected String nextCopyOptionString(boolean parenthesized) {
+        skipIgnorable();
+        if (!parenthesized && nextStringIf("as") != -1) {
+            skipIgnorable();
+        }
+        
+        // The escape string constant, e.g. E'\t'
+        if (nextStringIf("e'") == -1) {
+            return nextString(true);
+        }
+        backChar();
+        String s = nextString(true);
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0, n = s.length(); i < n; ++i) {
+            char c = s.charAt(i);
+            if ('\\' == c && i + 1 < n) {
+                c = s.charAt(++i);
+                switch (c) {
+                case 'b':
+                    c = '\b';
+                    break;
+                case 'f':
+                    c = '\f';
+                    break;
+                case 'n':
+                    c = '\n';
+                    break;
+                case 'r':
+                    c = '\r';
+                    break;
+                case 't':
+                    c = '\t';
+                    break;
+                default:
+                    break;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+    
     protected SQLStatement parseCreate() {
         nextString("eate");
+        boolean temporary = false;
         if (skipIgnorableIf() != -1) {
             if (nextStringIf("user") != -1) {
                 skipIgnorable();
@@ -538,8 +741,51 @@ public class SQLParser implements Iterator<SQLStatement>, Iterable<SQLStatement>
                 skipIgnorable();
                 return parseCreateDatabase();
             }
+            // CREATE TEMP|TEMPORARY TABLE|VIEW|TRIGGER, or the object in temp schema
+            if (nextStringIf("temporary") != -1 || nextStringIf("temp") != -1) {
+                temporary = (skipIgnorableIf() != -1);
+            } else {
+                temporary = nextTempSchemaIf();
+            }
+        }
+        
+        SQLStatement stmt = new SQLStatement(this.sql, "CREATE");
+        stmt.setTemporary(temporary);
+        return stmt;
+    }
+    
+    /**Check whether the object is created in the temp schema, e.g. 
+     * "create table temp.t(...)" or "create index if not exists temp.i on t(...)".
+     * 
+     * @return true if the schema of the created object is temp, otherwise false
+     */
+    protected boolean nextTempSchemaIf() {
+        if (nextStringIf("unique") != -1 || nextStringIf("virtual") != -1) {
+            if (skipIgnorableIf() == -1) {
+                return false;
+            }
+        }
+        if (nextStringIf("table") == -1 && nextStringIf("view") == -1 
+                && nextStringIf("index") == -1 && nextStringIf("trigger") == -1) {
+            return false;
+        }
+        if (skipIgnorableIf() == -1) {
+            return false;
+        }
+        if (nextStringIf("if") != -1) {
+            if (skipIgnorableIf() == -1 || nextStringIf("not") == -1 
+                    || skipIgnorableIf() == -1 || nextStringIf("exists") == -1
+                    || skipIgnorableIf() == -1) {
+                return false;
+            }
         }
-        return new SQLStatement(this.sql, "CREATE");
+        
+        if (nextStringIf("\"temp\"") == -1 && nextStringIf("`temp`") == -1 
+                && nextStringIf("[temp]") == -1 && nextStringIf("temp") == -1) {
+            return false;
+        }
+        skipIgnorableIf();
+        return (nextCharIf('.') != -1);
     }
     
     protected SQLStatement parseCreateDatabase() {
@@ -42,11 +42,23 @@ public class SQLStatement implements AutoCloseable {
     protected SQLContext context;
     protected Statement jdbcStatement;
     protected boolean prepared;
+    // Bound parameters for re-binding in other connection
+    protected Object[] parameters;
+    protected int dbWriterUpdateCount = -1;
+    // The parameter sets added into the batch of the prepared statement
+    protected int batchSize;
+    // The cache that the JDBC statement borrowed from, and the cache key
+    protected SQLStatementCache stmtCache;
+    protected String stmtCacheSQL;
+    protected long stmtCacheEpoch;
+    protected ResultSet resultSet;
     private boolean open = true;
     
     protected boolean query;
     protected boolean comment;
     protected boolean empty;
+    // The CREATE statement that creates a TEMP object
+    protected boolean temporary;
     
     public SQLStatement(String sql) {
         this(sql, "");
@@ -88,6 +100,36 @@ public class SQLStatement implements AutoCloseable {
         return false;
     }
     
+    public boolean isTemporary() {
+        return this.temporary;
+    }
+    
+    public void setTemporary(boolean temporary) {
+        this.temporary = temporary;
+    }
+    
+    /**Check whether the compiled statement of this can be cached in the statement cache of
+     * the connection. Only the plain DML statement is cacheable.
+     * 
+     * @return true if cacheable, otherwise false
+     */
+    public boolean isCacheable() {
+        if (this.empty || this.comment) {
+            return false;
+        }
+        
+        switch (this.command) {
+        case "SELECT":
+        case "INSERT":
+        case "UPDATE":
+        case "DELETE":
+        case "REPLACE":
+            return true;
+        default:
+            return false;
+        }
+    }
+    
     public boolean isComment() {
         return this.comment;
     }
@@ -130,18 +172,72 @@ public class SQLStatement implements AutoCloseable {
         checkPermission();
         checkReadOnly();
         
-        Connection conn = this.context.getConnection();
         String sql = getExecutableSQL();
-        PreparedStatement ps = conn.prepareStatement(sql);
+        PreparedStatement ps = prepareStatement(sql);
         this.jdbcStatement = ps;
         this.prepared = true;
         return ps;
     }
     
+    /**Prepare the SQL, the cached statement is reused if this statement cacheable and the
+     * statement cache of the connection enabled.
+     * 
+     * @param sql the executable SQL
+     * @return the prepared statement
+     * @throws SQLException if prepare the SQL error
+     */
+    protected PreparedStatement prepareStatement(String sql) throws SQLException {
+        SQLContext context = this.context;
+        SQLStatementCache cache = null;
+        if (isCacheable()) {
+            cache = context.getStatementCache();
+        }
+        if (cache == null || !cache.isCacheable(sql)) {
+            Connection conn = context.getConnection();
+            return conn.prepareStatement(sql);
+        }
+        
+        long epoch = cache.getSchemaEpoch();
+        PreparedStatement ps = cache.borrow(sql);
+        context.statementCacheAccessed(ps != null);
+        if (ps == null) {
+            ps = cache.getConnection().prepareStatement(sql);
+        }
+        this.stmtCache = cache;
+        this.stmtCacheSQL = sql;
+        this.stmtCacheEpoch = epoch;
+        
+        return ps;
+    }
+    
     protected void checkReadOnly() throws SQLException {
         this.context.checkReadOnly(this);
     }
     
+    /**Set the parameter of the prepared statement, and the value is recorded.
+     * 
+     * @param index the parameter index, start from 1
+     * @param value the parameter value
+     * @throws SQLException if set the parameter failed
+     */
+    public void setParameter(int index, Object value) throws SQLException {
+        getPreparedStatement().setObject(index, value);
+        
+        Object[] params = this.parameters;
+        if (params == null || params.length < index) {
+            Object[] newParams = new Object[Math.max(index, 8)];
+            if (params != null) {
+                System.arraycopy(params, 0, newParams, 0, params.length);
+            }
+            this.parameters = params = newParams;
+        }
+        params[index - 1] = value;
+    }
+    
+    public Object[] getParameters() {
+        return this.parameters;
+    }
+    
     protected Statement getJdbcStatement() {
         return this.jdbcStatement;
     }
@@ -159,10 +255,15 @@ public class SQLStatement implements AutoCloseable {
     }
     
     public ResultSet getResultSet() throws SQLException {
-        return this.getJdbcStatement().getResultSet();
+        ResultSet rs = this.getJdbcStatement().getResultSet();
+        this.resultSet = rs;
+        return rs;
     }
     
     public int getUpdateCount() throws SQLException {
+        if (this.dbWriterUpdateCount != -1) {
+            return this.dbWriterUpdateCount;
+        }
         switch (this.command) {
         case "INSERT":
         case "UPDATE":
@@ -189,8 +290,28 @@ public class SQLStatement implements AutoCloseable {
             if (this.jdbcStatement == null) {
                 checkPermission();
                 checkReadOnly();
-                Connection conn = this.context.getConnection();
-                this.jdbcStatement = conn.createStatement();
+                SQLStatementCache cache = this.context.getStatementCache();
+                String sql = getExecutableSQL();
+                if (isCacheable() && cache != null && cache.isCacheable(sql)) {
+                    // Parameterless simple query: reuse the compiled statement
+                    PreparedStatement ps = prepareStatement(sql);
+                    if (ps.getParameterMetaData().getParameterCount() == 0) {
+                        this.jdbcStatement = ps;
+                    } else {
+                        // Parameter-like tokens, e.g. the "::type" cast, are bound to NULL
+                        // only in a simple statement
+                        IoUtils.close(ps);
+                        this.stmtCache = null;
+                        this.stmtCacheSQL = null;
+                    }
+                }
+                if (this.jdbcStatement == null) {
+                    Connection conn = this.context.getConnection();
+                    this.jdbcStatement = conn.createStatement();
+                }
+            }
+            if (this.stmtCache != null) {
+                getPreparedStatement().setMaxRows(maxRows);
             }
         }
     }
@@ -215,6 +336,14 @@ public class SQLStatement implements AutoCloseable {
         context.trace(log, "tx: autoCommit {} ->", autoCommit);
         
         final boolean writable = isWritable();
+        this.dbWriterUpdateCount = -1;
+        if (writable && autoCommit) {
+            this.dbWriterUpdateCount = context.executeInDbWriter(this);
+            if (this.dbWriterUpdateCount != -1) {
+                context.trace(log, "executed sql \"{}\" in db writer", this);
+                return false;
+            }
+        }
         if (shouldHoldDbWriteLock(writable)) {
             context.dbWriteLock();
         }
@@ -222,6 +351,7 @@ public class SQLStatement implements AutoCloseable {
         context.trace(log, "execute sql \"{}\"", this);
         context.preExecute(this);
         try {
+            context.restoreDbWriterState(this);
             if (this.prepared) {
                 // Execute batch prepared statement in an implicit transaction for ACID
                 if (shouldBeginImplicitTx(autoCommit, writable)) {
@@ -232,6 +362,9 @@ public class SQLStatement implements AutoCloseable {
                 }
                 PreparedStatement ps = getPreparedStatement();
                 resultSet = ps.execute();
+            } else if (this.stmtCache != null) {
+                PreparedStatement ps = getPreparedStatement();
+                resultSet = ps.execute();
             } else {
                 String sql = getExecutableSQL();
                 resultSet = this.jdbcStatement.execute(sql);
@@ -248,6 +381,77 @@ public class SQLStatement implements AutoCloseable {
         return resultSet;
     }
     
+    /**Add the bound parameters into the batch of this prepared statement.
+     * 
+     * @throws SQLException if add batch failed
+     */
+    public void addBatch() throws SQLException {
+        getPreparedStatement().addBatch();
+        ++this.batchSize;
+    }
+    
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+    
+    /**Execute the batch of this prepared statement in an implicit transaction if auto-commit,
+     * and the batch is cleared after executed. Not executed in the db writer, since the batch
+     * has been in the prepared statement of this connection.
+     * 
+     * @return the update counts of the batch
+     * @throws SQLException if the batch isn't executed, the batch is kept when the error is
+     * thrown before the execution, e.g. busy
+     * @throws IllegalStateException if this statement closed
+     */
+    public int[] executeBatch() throws SQLException, IllegalStateException {
+        if (!this.open) {
+            throw new IllegalStateException(this.command + " statement closed");
+        }
+        if (!this.prepared || this.batchSize == 0) {
+            throw new IllegalStateException("No batch in " + this.command + " statement");
+        }
+        
+        SQLContext context = this.context;
+        final boolean autoCommit = context.isAutoCommit();
+        context.trace(log, "tx: autoCommit {} ->", autoCommit);
+        final boolean writable = isWritable();
+        this.dbWriterUpdateCount = -1;
+        if (shouldHoldDbWriteLock(writable)) {
+            context.dbWriteLock();
+        }
+        
+        int[] counts;
+        context.trace(log, "execute batch({}) sql \"{}\"", this.batchSize, this);
+        context.preExecute(this);
+        try {
+            context.restoreDbWriterState(this);
+            if (shouldBeginImplicitTx(autoCommit, writable)) {
+                execute("begin immediate");
+                Transaction tx = new Transaction(context, true);
+                context.setTransaction(tx);
+                context.trace(log, "tx: begin an implicit {}", tx);
+            }
+            // The batch is cleared by the driver even if failed
+            this.batchSize = 0;
+            counts = getPreparedStatement().executeBatch();
+        } finally {
+            context.postExecute(this);
+        }
+        postExecute(false);
+        
+        // Rebind the last parameters cleared with the batch for the next execution
+        Object[] params = this.parameters;
+        if (params != null) {
+            PreparedStatement ps = getPreparedStatement();
+            int n = ps.getParameterMetaData().getParameterCount();
+            for (int i = 0; i < n; ++i) {
+                ps.setObject(i + 1, params[i]);
+            }
+        }
+        
+        return counts;
+    }
+    
     protected boolean shouldHoldDbWriteLock(boolean writable) {
         return (writable && !this.context.holdsDbWriteLock());
     }
@@ -257,7 +461,7 @@ public class SQLStatement implements AutoCloseable {
                 && writable && this.context.getTransaction() == null);
     }
     
-    protected boolean isWritable() {
+    public boolean isWritable() {
         return (!isQuery() && !inReadOnlyTx());
     }
     
@@ -345,8 +549,20 @@ public class SQLStatement implements AutoCloseable {
 
     @Override
     public void close() {
-        IoUtils.close(this.jdbcStatement);
+        SQLStatementCache cache = this.stmtCache;
+        if (cache != null && this.jdbcStatement != null) {
+            // Reset the statement by closing its result set
+            IoUtils.close(this.resultSet);
+            cache.release(this.stmtCacheSQL, getPreparedStatement(), this.stmtCacheEpoch);
+        } else {
+            IoUtils.close(this.jdbcStatement);
+        }
+        this.stmtCache = null;
+        this.stmtCacheSQL = null;
+        this.resultSet = null;
         this.jdbcStatement = null;
+        this.parameters = null;
+        this.batchSize = 0;
         this.context = null;
         this.open = false;
     }
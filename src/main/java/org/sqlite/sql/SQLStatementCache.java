@@ -0,0 +1,196 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sqlite.core.CoreResultSet;
+import org.sqlite.core.CoreStatement;
+import org.sqlite.server.util.IoUtils;
+
+/**The LRU cache of the compiled statements of a connection, keyed by the executable SQL.
+ * A cached statement is removed from this cache when borrowed, and put back when released,
+ * so that it's never shared by two open SQL statements. The whole cache is invalidated when
+ * the schema epoch of the database changed.
+ * 
+ * @author little-pan
+ * @since 2020-01-09
+ * 
+ */
+public class SQLStatementCache implements AutoCloseable {
+    
+    // Estimated memory of a compiled statement besides the SQL text
+    public static final int STMT_MEMORY_OVERHEAD = 1024;
+    
+    protected final Connection connection;
+    protected final int maxSize;
+    protected final long maxMemory;
+    protected final AtomicLong schemaEpoch;
+    
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private long memory;
+    private long epoch;
+    private boolean open = true;
+    
+    public SQLStatementCache(Connection connection, int maxSize, long maxMemory,
+            AtomicLong schemaEpoch) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.maxMemory = maxMemory;
+        this.schemaEpoch = schemaEpoch;
+        this.epoch = schemaEpoch.get();
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+    
+    public Connection getConnection() {
+        return this.connection;
+    }
+    
+    public boolean isCacheable(String sql) {
+        return (estimateMemory(sql) <= this.maxMemory);
+    }
+    
+    /**Borrow the cached statement of the SQL.
+     * 
+     * @param sql the executable SQL
+     * @return the cached statement, or null if not cached
+     */
+    public PreparedStatement borrow(String sql) {
+        PreparedStatement ps;
+        synchronized (this) {
+            if (!this.open) {
+                return null;
+            }
+            
+            final long epoch = this.schemaEpoch.get();
+            if (epoch != this.epoch) {
+                clear();
+                this.epoch = epoch;
+                return null;
+            }
+            
+            ps = this.statements.remove(sql);
+            if (ps == null) {
+                return null;
+            }
+            this.memory -= estimateMemory(sql);
+        }
+        
+        if (!resetMetaData(ps)) {
+            IoUtils.close(ps);
+            return null;
+        }
+        return ps;
+    }
+    
+    /**Restore the column names of the prepared meta data, that are cleared when the result set
+     * of the statement closed on release, as the driver sets them when the SQL prepared.
+     * 
+     * @param ps the statement borrowed
+     * @return true if reset, false if the statement can't be reused
+     */
+    protected static boolean resetMetaData(PreparedStatement ps) {
+        if (!(ps instanceof CoreStatement)) {
+            return true;
+        }
+        
+        CoreStatement stmt = (CoreStatement)ps;
+        try {
+            CoreResultSet rs = (CoreResultSet)ps.getMetaData();
+            if (rs.colsMeta == null) {
+                rs.colsMeta = stmt.getDatbase().column_names(stmt.pointer);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    /**Put the statement back into this cache, or close it if it can't be cached. The result
+     * set of the statement should be closed before releasing. The batch and the parameters
+     * bound are cleared, so that large values aren't kept alive by the cached statement,
+     * and the statement is closed if they can't be cleared.
+     * 
+     * @param sql the executable SQL
+     * @param ps the statement borrowed or prepared
+     * @param epoch the schema epoch when the statement prepared
+     */
+    public void release(String sql, PreparedStatement ps, long epoch) {
+        boolean failed = true;
+        try {
+            ps.clearBatch();
+            ps.clearParameters();
+            synchronized (this) {
+                if (this.open && epoch == this.schemaEpoch.get() && isCacheable(sql)
+                        && !this.statements.containsKey(sql)) {
+                    this.statements.put(sql, ps);
+                    this.memory += estimateMemory(sql);
+                    evict();
+                    failed = false;
+                }
+            }
+        } catch (SQLException e) {
+            // Close it
+        } finally {
+            if (failed) {
+                IoUtils.close(ps);
+            }
+        }
+    }
+    
+    public long getSchemaEpoch() {
+        return this.schemaEpoch.get();
+    }
+    
+    public synchronized int size() {
+        return this.statements.size();
+    }
+    
+    protected void evict() {
+        Iterator<Entry<String, PreparedStatement>> it = this.statements.entrySet().iterator();
+        while (it.hasNext() && (this.statements.size() > this.maxSize || this.memory > this.maxMemory)) {
+            Entry<String, PreparedStatement> e = it.next();
+            it.remove();
+            this.memory -= estimateMemory(e.getKey());
+            IoUtils.close(e.getValue());
+        }
+    }
+    
+    public synchronized void clear() {
+        for (PreparedStatement ps: this.statements.values()) {
+            IoUtils.close(ps);
+        }
+        this.statements.clear();
+        this.memory = 0L;
+    }
+    
+    protected static long estimateMemory(String sql) {
+        return (sql.length() << 1) + STMT_MEMORY_OVERHEAD;
+    }
+    
+    @Override
+    public synchronized void close() {
+        this.open = false;
+        clear();
+    }
+
+}
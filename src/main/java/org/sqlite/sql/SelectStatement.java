@@ -46,7 +46,7 @@ public class SelectStatement extends SQLStatement {
     }
     
     @Override
-    protected boolean isWritable() {
+    public boolean isWritable() {
         return (isForUpdate() && !inReadOnlyTx());
     }
     
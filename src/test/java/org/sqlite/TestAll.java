@@ -20,15 +20,23 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.Test;
+import org.sqlite.server.GroupCommitTest;
 import org.sqlite.server.ProcessIdleTest;
+import org.sqlite.server.ProcessTimerTest;
 import org.sqlite.server.SQLiteServerTest;
 import org.sqlite.server.jdbc.ConnectionTest;
 import org.sqlite.server.jdbc.PreparedStatementTest;
 import org.sqlite.server.jdbc.StatementTest;
 import org.sqlite.server.jdbc.TransactionTest;
 import org.sqlite.server.orm.HibernateTest;
+import org.sqlite.server.pg.PgCopyTest;
+import org.sqlite.server.pg.PgMessageDecoderTest;
+import org.sqlite.server.pg.PgMessageEncoderTest;
+import org.sqlite.server.pg.PgPipelineTest;
+import org.sqlite.server.sql.meta.DbTest;
 import org.sqlite.sql.SQLParserTest;
 import org.sqlite.sql.SQLReaderTest;
+import org.sqlite.util.BufferPoolTest;
 import org.sqlite.util.DateTimeUtilsTest;
 import org.sqlite.util.locks.SpinLockTest;
 
@@ -75,11 +83,19 @@ public class TestAll extends TestBase {
     }
     
     protected TestAll addAll() {
+        add(new BufferPoolTest()).
         add(new ConnectionTest()).
         add(new DateTimeUtilsTest()).
+        add(new DbTest()).
+        add(new GroupCommitTest()).
         add(new HibernateTest()).
+        add(new PgCopyTest()).
+        add(new PgMessageDecoderTest()).
+        add(new PgMessageEncoderTest()).
+        add(new PgPipelineTest()).
         add(new PreparedStatementTest()).
         add(new ProcessIdleTest()).
+        add(new ProcessTimerTest()).
         add(new SpinLockTest()).
         add(new StatementTest()).
         add(new SQLReaderTest()).
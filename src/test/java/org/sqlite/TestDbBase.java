@@ -45,51 +45,31 @@ public abstract class TestDbBase extends TestBase {
     protected static final String [] environments = {
         "SQLite WAL pg extended query environment", //"SQLite DELETE pg extended query environment",
         "SQLite WAL pg simple query environment", //"SQLite DELETE pg simple query environment",
+        "SQLite WAL pg extended query pooled environment",
+        "SQLite WAL pg simple query exec pool environment",
+        "SQLite WAL pg simple query group commit environment",
     };
     
-    protected static final String [] urls = {
-        "jdbc:postgresql://localhost:"+getPortDefault()+"/"+getDbDefault()+
-            "?preferQueryMode=extended&socketFactory=org.sqlite.server.jdbc.pg.PgSocketFactory"
-            ,//"&loggerLevel=TRACE&loggerFile=./logs/pgjdbc.log",
-        //"jdbc:postgresql://localhost:"+getPortDefault()+"/"+getDbDefault()+
-        //    "?preferQueryMode=extended&socketFactory=org.sqlite.server.jdbc.pg.PgSocketFactory"
-        //    ,//"&loggerLevel=TRACE&loggerFile=./logs/pgjdbc.log",
-        "jdbc:postgresql://localhost:"+getPortDefault()+"/"+getDbDefault()+
-            "?preferQueryMode=simple&socketFactory=org.sqlite.server.jdbc.pg.PgSocketFactory"
-            ,//"&loggerLevel=TRACE&loggerFile=./logs/pgjdbc.log",
-        //"jdbc:postgresql://localhost:"+getPortDefault()+"/"+getDbDefault()+
-        //    "?preferQueryMode=simple&socketFactory=org.sqlite.server.jdbc.pg.PgSocketFactory"
-        //    ,//"&loggerLevel=TRACE&loggerFile=./logs/pgjdbc.log",
-    };
-    
-    protected static final String [][] initArgsList = new String[][] {
-        {"-D", dataDir, "-p", password, "--journal-mode", "wal"},
-        //{"-D", dataDir, "-p", password, "--journal-mode", "delete", 
-        //    "-S", "normal"
-        //},
-        {"-D", dataDir, "-p", password, "--journal-mode", "wal"},
-        //{"-D", dataDir, "-p", password, "--journal-mode", "delete", 
-        //    "-S", "normal"
-        //},
-    };
-    
-    protected static final String [][] bootArgsList = new String[][] {
-        {"-D", dataDir, //"--trace-error", "-T",
-            "--worker-count", "4", "--max-conns", "50",
-            "--journal-mode", "wal", "--max-allowed-packet", "0", 
+    // The query mode, the max allowed packet, then the extra boot flags of each environment,
+    // and the orthogonal options are tested in the same environment
+    protected static final String [][] envArgsList = new String[][] {
+        {"extended", "0"},
+        {"simple", "0x1000000"},
+        // The pooled connection, the statement cache and the db writer without group commit
+        {"extended", "0", 
+            "--db-writer", "--conn-pool-size", "8", "--stmt-cache-size", "64", "--pool-mode", "transaction",
         },
-        //{"-D", dataDir, //"--trace-error", "-T", 
-        //    "--worker-count", "4", "--max-conns", "50",
-        //    "--journal-mode", "delete", "-S", "normal", 
-        //},
-        {"-D", dataDir, //"--trace-error", "-T",
-            "--worker-count", "4", "--max-conns", "50",
-            "--journal-mode", "wal", "--max-allowed-packet", "0x1000000", 
+        // SQL executed in the execution pool, connections placed by the least-conns worker
+        // policy then routed into the db affinity worker, and borrowed from the connection pool
+        {"simple", "0", 
+            "--exec-pool-size", "8", "--worker-policy", "least-conns", "--db-affinity", 
+            "--conn-pool-size", "8",
+        },
+        // Autocommit writes group committed in db writers, and connections returned to the 
+        // pool after each transaction
+        {"simple", "0", 
+            "--group-commit-window", "1000", "--conn-pool-size", "8", "--pool-mode", "transaction",
         },
-        //{"-D", dataDir, //"--trace-error", "-T", 
-        //    "--worker-count", "4", "--max-conns", "50",
-        //    "--journal-mode", "delete", "-S", "normal", "--max-allowed-packet", "0x10000",
-        //},
     };
     
     protected DbTestEnv currentEnv;
@@ -101,7 +81,7 @@ public abstract class TestDbBase extends TestBase {
     
     protected void init() {
         this.envIndex = 0;
-        this.envMax   = initArgsList.length;
+        this.envMax   = envArgsList.length;
     }
     
     public Iterator<TestEnv> iterator() {
@@ -159,7 +139,30 @@ public abstract class TestDbBase extends TestBase {
     }
     
     protected String getUrl() {
-        return (urls[this.currentEnv.envIndex]);
+        return (this.currentEnv.url);
+    }
+    
+    protected static String getEnvUrl(String queryMode) {
+        return ("jdbc:postgresql://localhost:"+getPortDefault()+"/"+getDbDefault()+
+            "?preferQueryMode="+queryMode+"&socketFactory=org.sqlite.server.jdbc.pg.PgSocketFactory");
+            //+"&loggerLevel=TRACE&loggerFile=./logs/pgjdbc.log"
+    }
+    
+    protected static String[] getInitArgs() {
+        return new String[] {"-D", dataDir, "-p", password, "--journal-mode", "wal"};
+        //return new String[] {"-D", dataDir, "-p", password, "--journal-mode", "delete", 
+        //    "-S", "normal"};
+    }
+    
+    protected static String[] getBootArgs(String[] envArgs) {
+        String[] base = {"-D", dataDir, //"--trace-error", "-T",
+            "--worker-count", "4", "--max-conns", "50",
+            "--journal-mode", "wal", "--max-allowed-packet", envArgs[1], 
+        };
+        int n = envArgs.length - 2;
+        String[] bootArgs = Arrays.copyOf(base, base.length + n);
+        System.arraycopy(envArgs, 2, bootArgs, base.length, n);
+        return bootArgs;
     }
     
     protected static String getUserDefault() {
@@ -274,26 +277,28 @@ public abstract class TestDbBase extends TestBase {
         
         protected final boolean simpleQuery;
         protected final int envIndex;
+        protected final String url;
         
         protected DbTestEnv(int envIndex) {
-            int i = envIndex;
+            String[] envArgs = envArgsList[envIndex];
             this.envIndex = envIndex;
             this.name = environments[envIndex];
             
             deleteDataDir(new File(dataDir));
             
-            String[] initArgs = initArgsList[i];
+            String[] initArgs = getInitArgs();
             info("Test environment.%d: initArgs = %s", this.envIndex, Arrays.toString(initArgs));
             SQLiteServer svr = SQLiteServer.create(initArgs);
             svr.initdb(initArgs);
             IoUtils.close(svr);
             
-            String[] bootArgs = bootArgsList[i];
+            String[] bootArgs = getBootArgs(envArgs);
             info("Test environment.%d: bootArgs = %s", this.envIndex, Arrays.toString(bootArgs));
             this.server = SQLiteServer.create(bootArgs);
             this.server.bootAsync(bootArgs);
             
-            String url = urls[i];
+            String url = getEnvUrl(envArgs[0]);
+            this.url = url;
             this.dataSource = new DataSource();
             int maxActive = this.server.getMaxConns() * getWorkerCount();
             maxActive -= getWorkerCount();
@@ -305,7 +310,7 @@ public abstract class TestDbBase extends TestBase {
             this.dataSource.setUsername(getUserDefault());
             this.dataSource.setPassword(password);
             
-            this.simpleQuery = url.contains("preferQueryMode=simple");
+            this.simpleQuery = "simple".equals(envArgs[0]);
         }
         
         public long getMaxAllowedPacket() {
@@ -340,6 +345,10 @@ public abstract class TestDbBase extends TestBase {
             return this.server.getSleepInTxTimeout();
         }
         
+        public boolean isGroupCommitEnabled() {
+            return this.server.isGroupCommitEnabled();
+        }
+        
     }
     
     protected static class DbTestEnvIterator implements Iterator<TestEnv> {
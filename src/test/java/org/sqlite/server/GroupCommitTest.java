@@ -0,0 +1,221 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.sqlite.TestDbBase;
+
+/** Group commit test: concurrent autocommit inserts that are queued in the db writer while
+ * an explicit transaction holds the db write lock, so that they're executed in one group
+ * after the transaction committed. The same cases run in the other environments, where
+ * each failed insert only fails itself.
+ * 
+ * @author little-pan
+ * @since 2020-01-16
+ * 
+ */
+public class GroupCommitTest extends TestDbBase {
+    
+    public static void main(String[] args) throws SQLException {
+        new GroupCommitTest().test();
+    }
+    
+    @Override
+    protected void doTest() throws SQLException {
+        initTables();
+        // A duplicate key only rolls back to the savepoint of the failed request
+        groupTest(100, 10, "insert into gc_item(id, pid)values(101, 1)", "UNIQUE", false);
+        groupTest(200, 20, "insert into gc_item(id, pid)values(201, 1)", "UNIQUE", false);
+        // A deferred foreign key violation fails the commit of the whole group
+        groupTest(300, 10, "insert into gc_item(id, pid)values(306, 0)", "FOREIGN KEY", true);
+        groupTest(400, 20, "insert into gc_item(id, pid)values(411, 0)", "FOREIGN KEY", true);
+        dropTables();
+    }
+    
+    private void initTables() throws SQLException {
+        try (Connection conn = getConnection()) {
+            Statement s = conn.createStatement();
+            s.executeUpdate("drop table if exists gc_item");
+            s.executeUpdate("drop table if exists gc_parent");
+            s.executeUpdate("create table gc_parent(id integer primary key)");
+            s.executeUpdate("create table gc_item(id integer primary key, "
+                    + "pid integer not null references gc_parent(id) deferrable initially deferred)");
+            assertTrue(1 == s.executeUpdate("insert into gc_parent(id)values(1)"));
+        }
+    }
+    
+    private void dropTables() throws SQLException {
+        try (Connection conn = getConnection()) {
+            Statement s = conn.createStatement();
+            s.executeUpdate("drop table gc_item");
+            s.executeUpdate("drop table gc_parent");
+        }
+    }
+    
+    /**Queue the leader insert, then the followers including the bad one, behind a
+     * transaction that holds the db write lock. In the group commit environment the
+     * leader is executed alone, and the followers in one group.
+     * 
+     * @param base the base item id of this case
+     * @param n the number of the inserts including the leader
+     * @param badSQL the bad insert, that is the one in the middle of the followers
+     * @param badError the expected error message fragment of the bad insert
+     * @param commitFailed the bad insert fails the commit, not the statement
+     * @throws SQLException if SQL error
+     */
+    private void groupTest(int base, int n, String badSQL, String badError,
+            boolean commitFailed) throws SQLException {
+        final String format = "insert into gc_item(id, pid)values(%d, 1)";
+        final int bad = n / 2;
+        Inserter[] inserters = new Inserter[n];
+        for (int i = 0; i < n; ++i) {
+            int id = base + 1 + i;
+            String sql = (i == bad? badSQL: String.format(format, id));
+            inserters[i] = new Inserter(this, id, sql);
+        }
+        
+        try (Connection holder = getConnection()) {
+            holder.setAutoCommit(false);
+            Statement s = holder.createStatement();
+            assertTrue(1 == s.executeUpdate("insert into gc_parent(id)values(" + base + ")"));
+            
+            inserters[0].start();
+            sleep(200L);
+            for (int i = 1; i < n; ++i) {
+                inserters[i].start();
+            }
+            // Wait for all inserts queued
+            sleep(500L);
+            for (int i = 0; i < n; ++i) {
+                assertTrue(inserters[i].isAlive());
+            }
+            holder.commit();
+        }
+        
+        try {
+            for (int i = 0; i < n; ++i) {
+                inserters[i].join();
+            }
+        } catch (InterruptedException e) {
+            fail("Interrupted");
+        }
+        
+        final boolean groupFailed = commitFailed && this.currentEnv.isGroupCommitEnabled();
+        int committed = 0;
+        for (int i = 0; i < n; ++i) {
+            Inserter inserter = inserters[i];
+            assertTrue(inserter.isOk());
+            
+            SQLException error = inserter.getError();
+            if (i == bad) {
+                assertTrue(error != null);
+                assertTrue(error.getMessage(), error.getMessage().contains(badError));
+            } else if (i > 0 && groupFailed) {
+                // The commit of the group failed
+                assertTrue(error != null);
+                assertTrue(error.getMessage(), error.getMessage().contains(badError));
+            } else {
+                assertTrue(error == null);
+                assertTrue(1 == inserter.getUpdateCount());
+                // Replied after committed
+                assertTrue(inserter.isCommitted());
+                ++committed;
+            }
+        }
+        
+        try (Connection conn = getConnection()) {
+            Statement s = conn.createStatement();
+            String sql = String.format("select count(*) from gc_item where id > %d and id <= %d",
+                    base, base + n);
+            ResultSet rs = s.executeQuery(sql);
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) == committed);
+            rs.close();
+            
+            rs = s.executeQuery("select count(*) from gc_item where pid = 0");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) == 0);
+            rs.close();
+        }
+    }
+    
+    static class Inserter extends Thread {
+        
+        protected final GroupCommitTest test;
+        protected final int id;
+        protected final String sql;
+        
+        protected volatile int updateCount = -1;
+        protected volatile SQLException error;
+        protected volatile boolean committed;
+        protected volatile boolean ok;
+        
+        Inserter(GroupCommitTest test, int id, String sql) {
+            this.test = test;
+            this.id = id;
+            this.sql = sql;
+            super.setDaemon(true);
+            super.setName("inserter-" + id);
+        }
+        
+        public int getUpdateCount() {
+            return this.updateCount;
+        }
+        
+        public SQLException getError() {
+            return this.error;
+        }
+        
+        public boolean isCommitted() {
+            return this.committed;
+        }
+        
+        public boolean isOk() {
+            return this.ok;
+        }
+        
+        @Override
+        public void run() {
+            try (Connection c = test.getConnection(true);
+                    Connection checker = test.getConnection(true)) {
+                c.setAutoCommit(true);
+                Statement s = c.createStatement();
+                try {
+                    this.updateCount = s.executeUpdate(this.sql);
+                } catch (SQLException e) {
+                    this.error = e;
+                    this.ok = true;
+                    return;
+                }
+                
+                // Check the insert by another connection
+                s = checker.createStatement();
+                ResultSet rs = s.executeQuery("select count(*) from gc_item where id = " + this.id);
+                this.committed = rs.next() && rs.getInt(1) == 1;
+                rs.close();
+                this.ok = true;
+            } catch (SQLException e) {
+                e.printStackTrace(System.err);
+            }
+        }
+    
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.sqlite.TestDbBase;
+import org.sqlite.server.util.IoUtils;
+
+/** Worker timers stress test: many idle connections and busy connections. Run it by
+ * "ProcessTimerTest [idleConns [busyConns]]", e.g. "ProcessTimerTest 5000 500"
+ * in the server that max-conns is large enough.
+ * 
+ * @author little-pan
+ * @since 2020-01-07
+ * 
+ */
+public class ProcessTimerTest extends TestDbBase {
+    
+    protected final int idleConns, busyConns, iterations;
+    
+    public ProcessTimerTest() {
+        this(100, 20, 10);
+    }
+    
+    public ProcessTimerTest(int idleConns, int busyConns, int iterations) {
+        this.idleConns = idleConns;
+        this.busyConns = busyConns;
+        this.iterations = iterations;
+    }
+    
+    public static void main(String[] args) throws SQLException {
+        int idleConns = 5000, busyConns = 500;
+        if (args.length > 0) {
+            idleConns = Integer.decode(args[0]);
+        }
+        if (args.length > 1) {
+            busyConns = Integer.decode(args[1]);
+        }
+        new ProcessTimerTest(idleConns, busyConns, 10).test();
+    }
+    
+    @Override
+    protected void doTest() throws SQLException {
+        int maxConns = getMaxConns() * getWorkCount() - getWorkCount();
+        int busyConns = Math.min(this.busyConns, maxConns / 2);
+        int idleConns = Math.min(this.idleConns, maxConns - busyConns);
+        busyIdleTest(idleConns, busyConns, this.iterations);
+    }
+    
+    private void busyIdleTest(int idleConns, final int busyConns, final int iterations)
+            throws SQLException {
+        List<Connection> idles = new ArrayList<>(idleConns);
+        try {
+            for (int i = 0; i < idleConns; ++i) {
+                Connection conn = getConnection();
+                idles.add(conn);
+                connectionTest(conn, "select 1", "1");
+            }
+            
+            try (Connection conn = getConnection()) {
+                initTableAccounts(conn);
+                Statement stmt = conn.createStatement();
+                int n = stmt.executeUpdate("insert into accounts(id, name, balance)values(1, 'Tom', 0)");
+                assertTrue(n == 1);
+            }
+            
+            final AtomicReference<Throwable> cause = new AtomicReference<>();
+            Thread[] busies = new Thread[busyConns];
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < busyConns; ++i) {
+                Thread t = new Thread("busy-" + i) {
+                    @Override
+                    public void run() {
+                        try (Connection conn = getConnection()) {
+                            conn.setAutoCommit(false);
+                            Statement stmt = conn.createStatement();
+                            for (int j = 0; j < iterations; ++j) {
+                                String sql = "update accounts set balance = balance + 1 where id = 1";
+                                int n = stmt.executeUpdate(sql);
+                                assertTrue(n == 1);
+                                conn.commit();
+                            }
+                        } catch (Throwable e) {
+                            cause.compareAndSet(null, e);
+                        }
+                    }
+                };
+                t.start();
+                busies[i] = t;
+            }
+            for (Thread t: busies) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    fail("Interrupted");
+                }
+            }
+            long time = System.currentTimeMillis() - start;
+            info("ProcessTimerTest: idle conns %d, busy conns %d, iterations %d, time %dms",
+                    idleConns, busyConns, iterations, time);
+            
+            Throwable e = cause.get();
+            if (e instanceof SQLException) {
+                throw (SQLException)e;
+            }
+            if (e != null) {
+                throw new AssertionError(e);
+            }
+            
+            try (Connection conn = getConnection()) {
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("select balance from accounts where id = 1");
+                assertTrue(rs.next());
+                assertTrue(rs.getInt(1) == busyConns * iterations);
+                rs.close();
+            }
+            
+            // Idle connections alive
+            for (Connection conn: idles) {
+                connectionTest(conn, "select 1", "1");
+            }
+        } finally {
+            for (Connection conn: idles) {
+                IoUtils.close(conn);
+            }
+        }
+    }
+
+}
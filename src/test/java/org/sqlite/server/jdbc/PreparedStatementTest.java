@@ -19,8 +19,11 @@ import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Date;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
 import java.sql.Types;
 
 import org.sqlite.TestDbBase;
@@ -41,6 +44,191 @@ public class PreparedStatementTest extends TestDbBase {
     protected void doTest() throws SQLException {
         batchTest(false);
         batchTest(true);
+        bulkBatchTest(1000);
+        resultFormatTest();
+        fetchSizeTest(1000, 10);
+        fetchSizeTest(1005, 10);
+        fetchSizeTest(5, 10);
+    }
+    
+    private void bulkBatchTest(int rows) throws SQLException {
+        try (Connection conn = getConnection()) {
+            Statement s = conn.createStatement();
+            s.executeUpdate("drop table if exists test_bulk");
+            s.executeUpdate("create table test_bulk(id integer primary key, name varchar(20))");
+            
+            // The pipelined Bind/Execute executed in batch by the server
+            PreparedStatement ps = conn.prepareStatement("insert into test_bulk(id, name)values(?, ?)");
+            for (int i = 1; i <= rows; ++i) {
+                ps.setInt(1, i);
+                ps.setString(2, "name-" + i);
+                ps.addBatch();
+            }
+            int[] counts = ps.executeBatch();
+            assertTrue(counts.length == rows);
+            for (int count: counts) {
+                assertTrue(count == 1);
+            }
+            ResultSet rs = s.executeQuery("select count(*), sum(id) from test_bulk");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) == rows);
+            assertTrue(rs.getLong(2) == (long)rows * (rows + 1) / 2);
+            rs.close();
+            
+            // Duplicated key at the batch end
+            for (int i = 1; i <= rows; ++i) {
+                ps.setInt(1, i == rows? 1: rows + i);
+                ps.setString(2, "name-" + i);
+                ps.addBatch();
+            }
+            try {
+                ps.executeBatch();
+                fail("Duplicated primary key 1");
+            } catch (SQLException e) {
+                // The entries until the failed Sync rolled back in extended query, the driver
+                // syncs every some entries
+                boolean simple = this.currentEnv.isSimpleQuery();
+                rs = s.executeQuery("select count(*) from test_bulk");
+                assertTrue(rs.next());
+                int n = rs.getInt(1);
+                assertTrue(simple? n == rows * 2 - 1: n >= rows && n < rows * 2 - 1);
+                rs.close();
+            }
+            ps.close();
+            
+            s.executeUpdate("drop table test_bulk");
+            s.close();
+        }
+    }
+    
+    private void fetchSizeTest(int rows, int fetchSize) throws SQLException {
+        try (Connection conn = getConnection()) {
+            Statement s = conn.createStatement();
+            s.executeUpdate("drop table if exists test_fetch");
+            s.executeUpdate("create table test_fetch(id integer primary key, name varchar(20))");
+            s.close();
+            PreparedStatement ps = conn.prepareStatement("insert into test_fetch(id, name)values(?, ?)");
+            for (int i = 1; i <= rows; ++i) {
+                ps.setInt(1, i);
+                ps.setString(2, "name-" + i);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            ps.close();
+            
+            // The driver streams the result by the portal suspended in a transaction
+            conn.setAutoCommit(false);
+            String sql = "select id, name from test_fetch where id > ? order by id";
+            PreparedStatement ps1 = conn.prepareStatement(sql);
+            PreparedStatement ps2 = conn.prepareStatement(sql);
+            ps1.setFetchSize(fetchSize);
+            ps2.setFetchSize(fetchSize);
+            ps1.setInt(1, 0);
+            ps2.setInt(1, rows / 2);
+            ResultSet rs1 = ps1.executeQuery();
+            ResultSet rs2 = ps2.executeQuery();
+            int i = 0;
+            while (rs1.next()) {
+                ++i;
+                assertTrue(rs1.getInt(1) == i);
+                assertTrue(("name-" + i).equals(rs1.getString(2)));
+                // Interleave with another open portal
+                if (i > rows / 2) {
+                    assertTrue(rs2.next());
+                    assertTrue(rs2.getInt(1) == i);
+                }
+            }
+            assertTrue(i == rows);
+            assertTrue(!rs2.next());
+            rs1.close();
+            rs2.close();
+            
+            // Max rows applied with the fetch size by Execute row limit in extended query
+            if (!getUrl().contains("preferQueryMode=simple")) {
+                ps1.setMaxRows(fetchSize * 2 + 5);
+                ps1.setInt(1, 0);
+                rs1 = ps1.executeQuery();
+                for (i = 0; rs1.next(); ++i) {
+                    assertTrue(rs1.getInt(1) == i + 1);
+                }
+                assertTrue(i == Math.min(rows, fetchSize * 2 + 5));
+                rs1.close();
+            }
+            ps1.close();
+            ps2.close();
+            conn.commit();
+            conn.setAutoCommit(true);
+            
+            s = conn.createStatement();
+            s.executeUpdate("drop table test_fetch");
+            s.close();
+        }
+    }
+    
+    private void resultFormatTest() throws SQLException {
+        try (Connection conn = getConnection()) {
+            Statement s = conn.createStatement();
+            s.executeUpdate("drop table if exists test_types");
+            s.executeUpdate("create table test_types(id integer primary key, "
+                    + "i2 smallint, i8 bigint, f8 double, b boolean, name varchar(20), "
+                    + "d date, t time, ts timestamp, n decimal(12, 2))");
+            // The date and time values in the default date string format of SQLite JDBC
+            s.executeUpdate("insert into test_types(id, i2, i8, f8, b, name, d, t, ts, n)"
+                    + "values(1, 2, 3000000000, 1.5, 1, 'Tom', '2020-01-16 00:00:00.000', "
+                    + "'1970-01-01 12:34:56.000', '2020-01-16 12:34:56.789', 1234.5)");
+            s.executeUpdate("insert into test_types(id, i2, i8, f8, b, name, d, t, ts, n)"
+                    + "values(2, 0, 0, 0, 0, null, '1969-12-31 00:00:00.000', "
+                    + "'1970-01-01 00:00:00.000', '1999-12-31 23:59:59.999', 0)");
+            s.executeUpdate("insert into test_types(id)values(3)");
+            s.close();
+            
+            // The driver switches to binary results after some executions
+            String sql = "select id, i2, i8, f8, b, name, d, t, ts, n from test_types where id = ?";
+            PreparedStatement ps = conn.prepareStatement(sql);
+            for (int i = 0; i < 10; ++i) {
+                ps.setInt(1, 1);
+                ResultSet rs = ps.executeQuery();
+                assertTrue(rs.next());
+                assertTrue(rs.getInt(1) == 1);
+                assertTrue(rs.getShort(2) == 2);
+                assertTrue(rs.getLong(3) == 3000000000L);
+                assertTrue(rs.getDouble(4) == 1.5);
+                assertTrue(rs.getBoolean(5));
+                assertTrue("Tom".equals(rs.getString(6)));
+                assertTrue(Date.valueOf("2020-01-16").equals(rs.getDate(7)));
+                assertTrue(Time.valueOf("12:34:56").equals(rs.getTime(8)));
+                assertTrue(Timestamp.valueOf("2020-01-16 12:34:56.789").equals(rs.getTimestamp(9)));
+                assertTrue(new BigDecimal("1234.5").compareTo(rs.getBigDecimal(10)) == 0);
+                assertTrue(!rs.next());
+                rs.close();
+                
+                ps.setInt(1, 2);
+                rs = ps.executeQuery();
+                assertTrue(rs.next());
+                assertTrue(rs.getInt(1) == 2);
+                assertTrue(rs.getShort(2) == 0 && !rs.wasNull());
+                assertTrue(rs.getLong(3) == 0L && !rs.wasNull());
+                assertTrue(rs.getDouble(4) == 0.0 && !rs.wasNull());
+                assertTrue(!rs.getBoolean(5) && !rs.wasNull());
+                assertTrue(rs.getString(6) == null);
+                // Before the unix epoch, and before the PG epoch
+                assertTrue(Date.valueOf("1969-12-31").equals(rs.getDate(7)));
+                assertTrue(Time.valueOf("00:00:00").equals(rs.getTime(8)));
+                assertTrue(Timestamp.valueOf("1999-12-31 23:59:59.999").equals(rs.getTimestamp(9)));
+                assertTrue(BigDecimal.ZERO.compareTo(rs.getBigDecimal(10)) == 0);
+                rs.close();
+                
+                ps.setInt(1, 3);
+                rs = ps.executeQuery();
+                assertTrue(rs.next());
+                assertTrue(rs.getInt(1) == 3);
+                for (int j = 2; j <= 10; ++j) {
+                    assertTrue(rs.getObject(j) == null);
+                }
+                rs.close();
+            }
+            ps.close();
+        }
     }
     
     private void batchTest(boolean tx) throws SQLException {
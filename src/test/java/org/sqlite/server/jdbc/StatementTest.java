@@ -50,6 +50,7 @@ public class StatementTest extends TestDbBase {
         dropUserTest();
         
         insertTest();
+        insertAutoCommitTest();
         
         insertReturningTest(false, true);
         insertReturningTest(true, true);
@@ -71,9 +72,107 @@ public class StatementTest extends TestDbBase {
         
         nestedBlockCommentTest();
         pragmaTest();
+        processlistTest();
         simpleScalarQueryTest();
+        stmtCacheTest();
         
         selectForUpdateTest();
+        showMetaTest(10);
+    }
+    
+    private void showMetaTest(int iterations) throws SQLException {
+        try (Connection conn = getConnection()) {
+            Statement s = conn.createStatement();
+            ResultSet rs;
+            
+            s.executeUpdate("drop table if exists test_meta");
+            s.executeUpdate("create table test_meta(id integer primary key, name varchar(20))");
+            for (int i = 0; i < iterations; ++i) {
+                // The metaDb kept attached between meta statements of the super user
+                rs = s.executeQuery("show users");
+                assertTrue(rs.next());
+                rs.close();
+                rs = s.executeQuery("show databases");
+                assertTrue(rs.next());
+                rs.close();
+                rs = s.executeQuery("show grants for current_user");
+                assertTrue(rs.next());
+                rs.close();
+                // Detached lazily for the db writer
+                int n = s.executeUpdate("insert into test_meta(name)values('name-" + i + "')");
+                assertTrue(n == 1);
+            }
+            rs = s.executeQuery("select count(*) from test_meta");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) == iterations);
+            rs.close();
+            
+            s.executeUpdate("drop table test_meta");
+            s.close();
+        }
+    }
+    
+    private void stmtCacheTest() throws SQLException {
+        try (Connection conn = getConnection(true)) {
+            Statement stmt = conn.createStatement();
+            stmt.executeUpdate("create table if not exists stmt_cache_test(id integer primary key, a int)");
+            stmt.executeUpdate("delete from stmt_cache_test");
+            stmt.executeUpdate("insert into stmt_cache_test(id, a)values(1, 10)");
+            
+            final String sql = "select * from stmt_cache_test";
+            for (int i = 0; i < 10; ++i) {
+                ResultSet rs = stmt.executeQuery(sql);
+                assertTrue(rs.getMetaData().getColumnCount() == 2);
+                assertTrue(rs.next());
+                assertTrue(rs.getInt(2) == 10);
+                rs.close();
+            }
+            
+            // Cached statements invalidated after schema changed
+            stmt.executeUpdate("alter table stmt_cache_test add column b int default 20");
+            for (int i = 0; i < 10; ++i) {
+                ResultSet rs = stmt.executeQuery(sql);
+                assertTrue(rs.getMetaData().getColumnCount() == 3);
+                assertTrue(rs.next());
+                assertTrue(rs.getInt(3) == 20);
+                rs.close();
+            }
+            
+            stmt.executeUpdate("drop table stmt_cache_test");
+            stmt.close();
+        }
+    }
+    
+    private void processlistTest() throws SQLException {
+        try (Connection conn = getConnection(true)) {
+            Statement stmt = conn.createStatement();
+            for (int i = 0; i < 10; ++i) {
+                ResultSet rs = stmt.executeQuery("select 1");
+                assertTrue(rs.next());
+                rs.close();
+            }
+            
+            ResultSet rs = stmt.executeQuery("show full processlist");
+            assertTrue(rs.getMetaData().getColumnCount() == 11);
+            boolean found = false;
+            while (rs.next()) {
+                long responses = rs.getLong("Responses");
+                long writeCalls = rs.getLong("Write_Calls");
+                assertTrue(writeCalls >= responses);
+                if (responses >= 10L) {
+                    // Small responses are written in one syscall
+                    assertTrue(rs.getDouble("Write_Calls_Per_Response") >= 1.0);
+                    found = true;
+                }
+            }
+            rs.close();
+            assertTrue(found);
+            
+            rs = stmt.executeQuery("show processlist");
+            assertTrue(rs.getMetaData().getColumnCount() == 8);
+            rs.close();
+            stmt.close();
+        }
     }
     
     private void simpleScalarQueryTest() throws SQLException {
@@ -679,6 +778,42 @@ public class StatementTest extends TestDbBase {
         }
     }
     
+    private void insertAutoCommitTest() throws SQLException {
+        try (Connection conn = getConnection(true)) {
+            initTableAccounts(conn);
+            Statement s = conn.createStatement();
+            ResultSet rs;
+            int n;
+            
+            // The autocommit writes may be executed in the db writer
+            conn.setAutoCommit(true);
+            n = s.executeUpdate("insert into accounts(name, balance)values('Kite', 20000)");
+            assertTrue(1 == n);
+            rs = s.executeQuery("select last_insert_rowid(), changes()");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) == 1);
+            assertTrue(rs.getInt(2) == 1);
+            rs.close();
+            
+            n = s.executeUpdate("insert into accounts(name, balance)values('Tom', 25000), ('John son', 22000)");
+            assertTrue(2 == n);
+            rs = s.executeQuery("select last_insert_rowid(), changes()");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) == 3);
+            assertTrue(rs.getInt(2) == 2);
+            rs.close();
+            
+            n = s.executeUpdate("update accounts set balance = balance + 1000");
+            assertTrue(3 == n);
+            rs = s.executeQuery("select changes ( )");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) == 3);
+            rs.close();
+            
+            s.executeUpdate("delete from accounts");
+        }
+    }
+    
     private void insertReturningTest(boolean tx, boolean commit) throws SQLException {
         try (Connection conn = getConnection(true)) {
             initTableAccounts(conn);
@@ -58,6 +58,9 @@ public class TransactionTest extends TestDbBase {
         
         wwTxTest(100, 10);
         wwTxTest(100, 100);
+        
+        fifoWriteLockTest(10);
+        fifoWriteLockTest(20);
     }
     
     private void nestedConnTxTest() throws SQLException {
@@ -371,6 +374,58 @@ public class TransactionTest extends TestDbBase {
         }
     }
     
+    /**The writers blocked behind an explicit transaction hold the db write lock in their
+     * arrival order, and each one is handed over the lock when the previous one committed.
+     * 
+     * @param cons the number of the blocked writers
+     * @throws SQLException if SQL error
+     */
+    private void fifoWriteLockTest(int cons) throws SQLException {
+        try (Connection conn = getConnection(true)) {
+            Statement s = conn.createStatement();
+            ResultSet rs = s.executeQuery("select count(*) from accounts");
+            assertTrue (rs.next());
+            assertTrue (rs.getInt(1) == 0);
+            
+            Transaction[] txList = new Transaction[cons];
+            for (int j = 0; j < cons; ++j) {
+                txList[j] = new OrderedWriter(this, j);
+            }
+            conn.setAutoCommit(false);
+            int n = s.executeUpdate("insert into accounts(name, balance)values('Ken', -1)");
+            assertTrue(n == 1);
+            for (int j = 0; j < cons; ++j) {
+                txList[j].start();
+                // Wait for it blocked on the db write lock
+                sleep(100L);
+                assertTrue(txList[j].isAlive());
+            }
+            conn.commit();
+            conn.setAutoCommit(true);
+            
+            try {
+                for (int j = 0; j < cons; ++j) {
+                    Transaction tx = txList[j];
+                    tx.join(10000L);
+                    assertTrue(!tx.isAlive());
+                    assertTrue(tx.isOk());
+                }
+            } catch (InterruptedException e) {
+                fail("Interrupted");
+            }
+            
+            // The row id is allocated in the order of holding the db write lock
+            rs = s.executeQuery("select balance from accounts where name = 'Johnson' order by id");
+            for (int j = 0; j < cons; ++j) {
+                assertTrue(rs.next());
+                assertTrue(rs.getInt(1) == j);
+            }
+            assertTrue(!rs.next());
+            rs.close();
+            s.execute("delete from accounts");
+        }
+    }
+    
     static abstract class Transaction extends Thread {
         
         protected final TransactionTest test;
@@ -418,6 +473,33 @@ public class TransactionTest extends TestDbBase {
         
     }
     
+    static class OrderedWriter extends Transaction {
+        
+        protected final int index;
+        
+        OrderedWriter(TransactionTest test, int index) {
+            super(test);
+            this.index = index;
+            super.setDaemon(true);
+            super.setName("o-tx-" + index);
+        }
+        
+        @Override
+        public void run() {
+            try (Connection c = test.getConnection(true)){
+                c.setAutoCommit(false);
+                Statement s = c.createStatement();
+                String sql = "insert into accounts(name, balance)values('Johnson', " + this.index + ")";
+                int n = s.executeUpdate(sql);
+                assertTrue(n == 1);
+                c.commit();
+                this.ok = true;
+            } catch (SQLException e) {
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+    
     static class Writer extends Transaction {
         
         Writer(TransactionTest test) {
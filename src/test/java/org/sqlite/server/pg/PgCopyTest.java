@@ -0,0 +1,341 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server.pg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.sqlite.TestDbBase;
+
+/**Pg COPY test.
+ * 
+ * @author little-pan
+ * @since 2020-01-15
+ * 
+ */
+public class PgCopyTest extends TestDbBase {
+    
+    public static void main(String[] args) throws SQLException {
+        new PgCopyTest().test();
+    }
+    
+    @Override
+    protected void doTest() throws SQLException {
+        try {
+            copyInTest(1 << 16);
+            copyInTest(7);
+            copyInBulkTest(10000);
+            copyInFailTest();
+            copyOutTest();
+            copyOutBulkTest(10000);
+            copyOutBinaryTest();
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+    }
+    
+    private void copyInTest(int bufferSize) throws SQLException, IOException {
+        try (Connection conn = getConnection()) {
+            initTableCopy(conn);
+            CopyManager cm = conn.unwrap(PGConnection.class).getCopyAPI();
+            
+            // Text format: tab delimiter, "\N" null and backslash escapes
+            String data = "1\tTom\t\\N\n2\tBen\\tX\\\\\tnote\r\n";
+            long n = cm.copyIn("copy test_copy from stdin", new StringReader(data), bufferSize);
+            assertTrue(n == 2);
+            assertRow(conn, 1, "Tom", null);
+            assertRow(conn, 2, "Ben\tX\\", "note");
+            
+            // Column list, the last row without newline and the end-of-data marker
+            data = "3|Kite\n4|\\N";
+            n = cm.copyIn("copy test_copy(id, name) from stdin delimiter '|'",
+                    new StringReader(data), bufferSize);
+            assertTrue(n == 2);
+            assertRow(conn, 3, "Kite", null);
+            assertRow(conn, 4, null, null);
+            data = "5\tJames\n\\.\n6\tTom\n";
+            n = cm.copyIn("copy test_copy(id, name) from stdin", new StringReader(data), bufferSize);
+            assertTrue(n == 1);
+            assertRow(conn, 5, "James", null);
+            
+            // CSV format: header, quoted field, empty null string and newline in quotes
+            data = "id,name,note\n6,\"A, \"\"B\"\"\",\n7,C,\"\"\n8,\"x\ny\",\"\\\"\n";
+            n = cm.copyIn("copy test_copy from stdin with (format csv, header true)",
+                    new StringReader(data), bufferSize);
+            assertTrue(n == 3);
+            assertRow(conn, 6, "A, \"B\"", null);
+            assertRow(conn, 7, "C", "");
+            assertRow(conn, 8, "x\ny", "\\");
+            data = "9;#a;b#;NULL\n";
+            n = cm.copyIn("copy main.test_copy from stdin with csv delimiter ';' quote '#' null as 'NULL'",
+                    new StringReader(data), bufferSize);
+            assertTrue(n == 1);
+            assertRow(conn, 9, "a;b", null);
+            
+            Statement s = conn.createStatement();
+            s.executeUpdate("drop table test_copy");
+            s.close();
+        }
+    }
+    
+    private void copyInBulkTest(int rows) throws SQLException, IOException {
+        try (Connection conn = getConnection()) {
+            initTableCopy(conn);
+            CopyManager cm = conn.unwrap(PGConnection.class).getCopyAPI();
+            
+            // More rows than one batch
+            long n = cm.copyIn("copy test_copy from stdin", new StringReader(bulkData(rows)));
+            assertTrue(n == rows);
+            Statement s = conn.createStatement();
+            ResultSet rs = s.executeQuery("select count(*), sum(id) from test_copy");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) == rows);
+            assertTrue(rs.getLong(2) == (long)rows * (rows + 1) / 2);
+            rs.close();
+            
+            // Copy in a transaction
+            conn.setAutoCommit(false);
+            n = cm.copyIn("copy test_copy(id) from stdin", new StringReader((rows + 1) + "\n"));
+            assertTrue(n == 1);
+            conn.rollback();
+            conn.setAutoCommit(true);
+            rs = s.executeQuery("select count(*) from test_copy");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) == rows);
+            rs.close();
+            
+            s.executeUpdate("drop table test_copy");
+            s.close();
+        }
+    }
+    
+    private void copyInFailTest() throws SQLException, IOException {
+        try (Connection conn = getConnection()) {
+            initTableCopy(conn);
+            CopyManager cm = conn.unwrap(PGConnection.class).getCopyAPI();
+            
+            String[] sqls = {
+                    "copy test_copy from stdin",
+                    "copy test_copy from stdin",
+                    "copy test_copy from stdin",
+                    "copy test_copy(id, name) from stdin",
+                    "copy test_copy(id, name, x) from stdin",
+                    "copy test_copy_x from stdin",
+                    "copy test_copy from stdin with (format binary)",
+                    };
+            String[] datas = {
+                    // Duplicated key after a batch
+                    bulkData(5000) + "1\tTom\t\\N\n",
+                    // Missing column
+                    "1\tTom\t\\N\n2\tBen\n",
+                    // Extra column
+                    "1\tTom\t\\N\t\\N\n",
+                    "1\tTom\t\\N\n",
+                    "1\tTom\tx\n",
+                    "1\tTom\t\\N\n",
+                    "1\tTom\t\\N\n",
+                    };
+            for (int i = 0; i < sqls.length; ++i) {
+                try {
+                    cm.copyIn(sqls[i], new StringReader(datas[i]));
+                    fail("Copy should be failed: " + sqls[i]);
+                } catch (SQLException e) {
+                    // The whole copy rolled back
+                    Statement s = conn.createStatement();
+                    ResultSet rs = s.executeQuery("select count(*) from test_copy");
+                    assertTrue(rs.next());
+                    assertTrue(rs.getInt(1) == 0);
+                    rs.close();
+                    s.close();
+                }
+            }
+            
+            Statement s = conn.createStatement();
+            s.executeUpdate("drop table test_copy");
+            s.close();
+        }
+    }
+    
+    private void copyOutTest() throws SQLException, IOException {
+        try (Connection conn = getConnection()) {
+            initTableCopy(conn);
+            CopyManager cm = conn.unwrap(PGConnection.class).getCopyAPI();
+            String data = "1\tTom\t\\N\n2\tBen\\tX\\\\\tnote\n3\t\\N\tline1\\nline2\n";
+            cm.copyIn("copy test_copy from stdin", new StringReader(data));
+            
+            // Text format: the same as the data copied in
+            StringWriter out = new StringWriter();
+            long n = cm.copyOut("copy test_copy to stdout", out);
+            assertTrue(n == 3);
+            assertTrue(data.equals(out.toString()));
+            out = new StringWriter();
+            n = cm.copyOut("copy main.test_copy(id, name) to stdout with delimiter '|' null 'NULL'", out);
+            assertTrue(n == 3);
+            assertTrue("1|Tom\n2|Ben\\tX\\\\\n3|NULL\n".equals(out.toString()));
+            
+            // CSV format: header, quoted field and empty null string
+            Statement s = conn.createStatement();
+            s.executeUpdate("insert into test_copy(id, name, note)values(4, 'A, \"B\"', '')");
+            s.close();
+            out = new StringWriter();
+            n = cm.copyOut("copy (select id, name, note from test_copy where id > 2 order by id) "
+                    + "to stdout with (format csv, header true)", out);
+            assertTrue(n == 2);
+            assertTrue("id,name,note\n3,,\"line1\nline2\"\n4,\"A, \"\"B\"\"\",\"\"\n".equals(out.toString()));
+            
+            // Round trip in CSV format
+            String csv = out.toString();
+            s = conn.createStatement();
+            s.executeUpdate("delete from test_copy");
+            s.close();
+            n = cm.copyIn("copy test_copy from stdin csv header", new StringReader(csv));
+            assertTrue(n == 2);
+            assertRow(conn, 3, null, "line1\nline2");
+            assertRow(conn, 4, "A, \"B\"", "");
+            
+            // Empty result and the query error
+            out = new StringWriter();
+            n = cm.copyOut("copy (select * from test_copy where id < 0) to stdout", out);
+            assertTrue(n == 0);
+            assertTrue(out.toString().length() == 0);
+            String[] sqls = {
+                    "copy (select * from test_copy_x) to stdout",
+                    "copy (delete from test_copy) to stdout",
+                    "copy test_copy to stdout with (format binary, header)",
+                    };
+            for (String sql: sqls) {
+                try {
+                    cm.copyOut(sql, new StringWriter());
+                    fail("Copy should be failed: " + sql);
+                } catch (SQLException e) {
+                    // OK
+                }
+            }
+            
+            s = conn.createStatement();
+            ResultSet rs = s.executeQuery("select count(*) from test_copy");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) == 2);
+            rs.close();
+            s.executeUpdate("drop table test_copy");
+            s.close();
+        }
+    }
+    
+    private void copyOutBulkTest(int rows) throws SQLException, IOException {
+        try (Connection conn = getConnection()) {
+            initTableCopy(conn);
+            CopyManager cm = conn.unwrap(PGConnection.class).getCopyAPI();
+            String data = bulkData(rows);
+            cm.copyIn("copy test_copy from stdin", new StringReader(data));
+            
+            // More rows than the write buffer
+            StringWriter out = new StringWriter();
+            long n = cm.copyOut("copy test_copy to stdout", out);
+            assertTrue(n == rows);
+            assertTrue(data.equals(out.toString()));
+            
+            // The connection is still available
+            Statement s = conn.createStatement();
+            ResultSet rs = s.executeQuery("select count(*) from test_copy");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) == rows);
+            rs.close();
+            s.executeUpdate("drop table test_copy");
+            s.close();
+        }
+    }
+    
+    private void copyOutBinaryTest() throws SQLException, IOException {
+        try (Connection conn = getConnection()) {
+            initTableCopy(conn);
+            CopyManager cm = conn.unwrap(PGConnection.class).getCopyAPI();
+            cm.copyIn("copy test_copy from stdin", new StringReader("1\tTom\t\\N\n2\tBen\tnote\n"));
+            
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long n = cm.copyOut("copy test_copy(id, name, note) to stdout (format binary)", out);
+            assertTrue(n == 2);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+            byte[] signature = new byte[11];
+            in.readFully(signature);
+            assertTrue(Arrays.equals("PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1), signature));
+            assertTrue(in.readInt() == 0);
+            assertTrue(in.readInt() == 0);
+            String[][] values = {{"Tom", null}, {"Ben", "note"}};
+            for (int i = 0; i < values.length; ++i) {
+                assertTrue(in.readShort() == 3);
+                assertTrue(in.readInt() == 4);
+                assertTrue(in.readInt() == i + 1);
+                for (String value: values[i]) {
+                    int len = in.readInt();
+                    if (value == null) {
+                        assertTrue(len == -1);
+                    } else {
+                        byte[] bytes = new byte[len];
+                        in.readFully(bytes);
+                        assertTrue(value.equals(new String(bytes, StandardCharsets.UTF_8)));
+                    }
+                }
+            }
+            assertTrue(in.readShort() == -1);
+            assertTrue(in.available() == 0);
+            
+            Statement s = conn.createStatement();
+            s.executeUpdate("drop table test_copy");
+            s.close();
+        }
+    }
+    
+    private static String bulkData(int rows) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= rows; ++i) {
+            sb.append(i).append('\t').append("name-").append(i).append("\t\\N\n");
+        }
+        return sb.toString();
+    }
+    
+    private static void initTableCopy(Connection conn) throws SQLException {
+        Statement s = conn.createStatement();
+        s.executeUpdate("drop table if exists test_copy");
+        s.executeUpdate("create table test_copy(id integer primary key, name varchar(20), note text)");
+        s.close();
+    }
+    
+    private static void assertRow(Connection conn, int id, String name, String note)
+            throws SQLException {
+        Statement s = conn.createStatement();
+        ResultSet rs = s.executeQuery("select name, note from test_copy where id = " + id);
+        assertTrue(rs.next());
+        String a = rs.getString(1), b = rs.getString(2);
+        assertTrue(name == null? a == null: name.equals(a));
+        assertTrue(note == null? b == null: note.equals(b));
+        rs.close();
+        s.close();
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server.pg;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.sqlite.TestBase;
+
+/**Pg message decoder test.
+ * 
+ * @author little-pan
+ * @since 2020-01-11
+ * 
+ */
+public class PgMessageDecoderTest extends TestBase {
+    
+    static final Charset UTF8 = StandardCharsets.UTF_8;
+    
+    public static void main(String[] args) throws SQLException {
+        new PgMessageDecoderTest().test();
+    }
+    
+    @Override
+    protected void doTest() throws SQLException {
+        try {
+            decodeTest(false);
+            decodeTest(true);
+            stringTest();
+        } catch (EOFException e) {
+            throw new AssertionError(e);
+        }
+    }
+    
+    private void decodeTest(boolean direct) throws EOFException {
+        String[] texts = PgMessageEncoderTest.TEXTS;
+        PgMessageEncoder encoder = new PgMessageEncoder(16);
+        encoder.startMessage('B');
+        encoder.writeByte(1);
+        encoder.writeShort(-2);
+        encoder.writeInt(3);
+        encoder.writeLong(Long.MAX_VALUE);
+        encoder.writeFloat(1.5f);
+        encoder.writeDouble(-2.5);
+        for (String text: texts) {
+            encoder.writeString(text, UTF8);
+            encoder.writeLengthPrefixed(text, UTF8);
+        }
+        encoder.write(new byte[]{1, 2, 3});
+        encoder.endMessage();
+        ByteBuffer encoded = encoder.drain();
+        
+        // Put the message after some garbage as in the read buffer
+        int offset = 7;
+        ByteBuffer buf = direct? ByteBuffer.allocateDirect(1024): ByteBuffer.allocate(1024);
+        buf.position(offset);
+        buf.put(encoded);
+        buf.put((byte)'X');
+        
+        PgMessageDecoder decoder = new PgMessageDecoder();
+        int length = encoded.limit() - 5;
+        decoder.reset(buf, offset + 5, length);
+        assertTrue(decoder.isReset());
+        assertTrue(decoder.remaining() == length);
+        assertTrue(decoder.readByte() == 1);
+        assertTrue(decoder.readShort() == -2);
+        assertTrue(decoder.readInt() == 3);
+        assertTrue(decoder.readLong() == Long.MAX_VALUE);
+        assertTrue(decoder.readFloat() == 1.5f);
+        assertTrue(decoder.readDouble() == -2.5);
+        for (String text: texts) {
+            String expected = new String(text.getBytes(UTF8), UTF8);
+            assertTrue(expected.equals(decoder.readString(UTF8)));
+            int n = decoder.readInt();
+            assertTrue(expected.equals(decoder.readString(n, UTF8)));
+        }
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3}, decoder.readBytes(3)));
+        assertTrue(decoder.remaining() == 0);
+        try {
+            decoder.readByte();
+            fail("Read beyond the message");
+        } catch (EOFException e) {
+            // OK
+        }
+        // No NUL: the string ends at the message end
+        assertTrue("".equals(decoder.readString(UTF8)));
+        
+        decoder.clear();
+        assertTrue(!decoder.isReset());
+    }
+    
+    private void stringTest() throws EOFException {
+        PgMessageDecoder decoder = new PgMessageDecoder();
+        // Malformed UTF-8 and other charsets are decoded as String does
+        byte[][] samples = {
+            {(byte)0xC3}, {(byte)0xC0, (byte)0x80}, {(byte)0xED, (byte)0xA0, (byte)0x80},
+            {(byte)0xF4, (byte)0x90, (byte)0x80, (byte)0x80}, {(byte)0xFF, 'a'},
+            {'a', (byte)0xE4, (byte)0xB8, (byte)0xAD, (byte)0xF0, (byte)0x9F, (byte)0x98, (byte)0x80}
+        };
+        Charset[] charsets = {UTF8, StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16BE};
+        for (Charset charset: charsets) {
+            for (byte[] sample: samples) {
+                decoder.reset(ByteBuffer.wrap(sample), 0, sample.length);
+                String s = decoder.readString(sample.length, charset);
+                assertTrue(new String(sample, charset).equals(s));
+            }
+        }
+        
+        // Larger than the reusable buffers
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() <= PgMessageDecoder.REUSE_MAX) {
+            sb.append("\u4e2d\u6587 text ");
+        }
+        String text = sb.toString();
+        byte[] data = text.getBytes(UTF8);
+        decoder.reset(ByteBuffer.wrap(data), 0, data.length);
+        assertTrue(text.equals(decoder.readString(data.length, UTF8)));
+    }
+
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server.pg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.sqlite.TestBase;
+
+/**Pg message encoder test. Run the DataRow encoding benchmark by
+ * "PgMessageEncoderTest bench [rows]", e.g. "PgMessageEncoderTest bench 10000000".
+ * 
+ * @author little-pan
+ * @since 2020-01-10
+ * 
+ */
+public class PgMessageEncoderTest extends TestBase {
+    
+    static final Charset UTF8 = StandardCharsets.UTF_8;
+    static final String[] TEXTS = {
+        "", "a", "Tom", "SQLite server", "\u00e9t\u00e9", "\u4e2d\u6587", "\ud83d\ude00 emoji",
+        "bad \ud800 surrogate"
+    };
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "bench".equals(args[0])) {
+            int rows = 1000000;
+            if (args.length > 1) {
+                rows = Integer.decode(args[1]);
+            }
+            benchmark(rows);
+            return;
+        }
+        new PgMessageEncoderTest().test();
+    }
+    
+    @Override
+    protected void doTest() throws SQLException {
+        try {
+            encodeTest(16, 1);
+            encodeTest(16, 100);
+            encodeTest(1 << 12, 1000);
+            charsetTest();
+            drainTest();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+    
+    private void encodeTest(int initCapacity, int rows) throws IOException {
+        PgMessageEncoder encoder = new PgMessageEncoder(initCapacity);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < rows; ++i) {
+            encodeRow(encoder, i, UTF8);
+            expected.write(encodeRowOld(i, UTF8));
+        }
+        
+        ByteBuffer buf = encoder.drain();
+        assertTrue(buf != null);
+        assertTrue(encoder.size() == 0);
+        assertTrue(encoder.drain() == null);
+        byte[] actual = new byte[buf.remaining()];
+        buf.get(actual);
+        assertTrue(Arrays.equals(expected.toByteArray(), actual));
+    }
+    
+    private void charsetTest() throws IOException {
+        Charset[] charsets = {UTF8, StandardCharsets.UTF_16, StandardCharsets.ISO_8859_1};
+        for (Charset charset: charsets) {
+            PgMessageEncoder encoder = new PgMessageEncoder(8);
+            encodeRow(encoder, 1, charset);
+            ByteBuffer buf = encoder.drain();
+            byte[] actual = new byte[buf.remaining()];
+            buf.get(actual);
+            assertTrue(Arrays.equals(encodeRowOld(1, charset), actual));
+        }
+    }
+    
+    private void drainTest() {
+        PgMessageEncoder encoder = new PgMessageEncoder(64);
+        // No drain in message
+        encoder.startMessage('D');
+        encoder.writeInt(1);
+        assertTrue(encoder.inMessage());
+        assertTrue(encoder.drain() == null);
+        encoder.endMessage();
+        assertTrue(!encoder.inMessage());
+        
+        ByteBuffer buf = encoder.drain();
+        assertTrue(buf.remaining() == 9);
+        assertTrue(buf.get(0) == 'D');
+        assertTrue(buf.getInt(1) == 8);
+        assertTrue(buf.getInt(5) == 1);
+        
+        // Recycle the written buffer
+        buf.position(buf.limit());
+        encoder.recycle(buf);
+        encoder.startMessage('Z');
+        encoder.writeByte('I');
+        encoder.endMessage();
+        ByteBuffer next = encoder.drain();
+        assertTrue(next != buf);
+        assertTrue(next.remaining() == 6);
+        ByteBuffer third = encoder.drain();
+        assertTrue(third == null);
+        encoder.writeByte('N');
+        assertTrue(encoder.drain() == buf);
+        
+        try {
+            encoder.endMessage();
+            fail("No message started");
+        } catch (IllegalStateException e) {
+            // OK
+        }
+    }
+    
+    static void encodeRow(PgMessageEncoder encoder, int i, Charset charset) {
+        String text = TEXTS[i % TEXTS.length];
+        encoder.startMessage('D');
+        encoder.writeShort(6);
+        encoder.writeInt(4);
+        encoder.writeInt(i);
+        encoder.writeInt(8);
+        encoder.writeLong(i * 31L);
+        encoder.writeInt(8);
+        encoder.writeDouble(i / 3.0);
+        encoder.writeLengthPrefixed(text, charset);
+        encoder.writeLengthPrefixed("row-" + i, charset);
+        encoder.writeInt(-1);
+        encoder.endMessage();
+        
+        encoder.startMessage('C');
+        encoder.writeString("SELECT " + i, charset);
+        encoder.endMessage();
+    }
+    
+    static byte[] encodeRowOld(int i, Charset charset) throws IOException {
+        String text = TEXTS[i % TEXTS.length];
+        ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        
+        ByteArrayOutputStream outBuf = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(outBuf);
+        dataOut.write(0);
+        dataOut.writeInt(0);
+        dataOut.writeShort(6);
+        dataOut.writeInt(4);
+        dataOut.writeInt(i);
+        dataOut.writeInt(8);
+        dataOut.writeLong(i * 31L);
+        dataOut.writeInt(8);
+        dataOut.writeDouble(i / 3.0);
+        byte[] data = text.getBytes(charset);
+        dataOut.writeInt(data.length);
+        dataOut.write(data);
+        data = ("row-" + i).getBytes(charset);
+        dataOut.writeInt(data.length);
+        dataOut.write(data);
+        dataOut.writeInt(-1);
+        rows.write(toMessage('D', outBuf, dataOut));
+        
+        outBuf = new ByteArrayOutputStream();
+        dataOut = new DataOutputStream(outBuf);
+        dataOut.write(0);
+        dataOut.writeInt(0);
+        dataOut.write(("SELECT " + i).getBytes(charset));
+        dataOut.write(0);
+        rows.write(toMessage('C', outBuf, dataOut));
+        
+        return rows.toByteArray();
+    }
+    
+    static byte[] toMessage(int type, ByteArrayOutputStream outBuf, DataOutputStream dataOut)
+            throws IOException {
+        dataOut.flush();
+        byte[] buff = outBuf.toByteArray();
+        int len = buff.length - 1;
+        ByteBuffer.wrap(buff).put(0, (byte)type).putInt(1, len);
+        return buff;
+    }
+    
+    static void benchmark(int rows) throws IOException {
+        // Warm up
+        benchmark(rows / 10, true, false);
+        benchmark(rows / 10, false, false);
+        
+        benchmark(rows, true, true);
+        benchmark(rows, false, true);
+    }
+    
+    static void benchmark(int rows, boolean old, boolean report) throws IOException {
+        PgMessageEncoder encoder = new PgMessageEncoder(PgProcessor.encodeBuffer);
+        long bytes = 0L;
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        
+        for (int i = 0; i < rows; ++i) {
+            if (old) {
+                // Row buffer, copy and wrap as PgProcessor did
+                byte[] row = encodeRowOld(i, UTF8);
+                ByteBuffer buf = ByteBuffer.wrap(row);
+                bytes += buf.remaining();
+            } else {
+                encodeRow(encoder, i, UTF8);
+                if (encoder.size() >= PgProcessor.encodeChunkSize) {
+                    ByteBuffer buf = encoder.drain();
+                    bytes += buf.remaining();
+                    buf.position(buf.limit());
+                    encoder.recycle(buf);
+                }
+            }
+        }
+        
+        long time = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        if (report) {
+            println("%s encoder: rows %d, bytes %d, time %dms, rows/sec %d, allocated bytes/row %s",
+                    (old? "Old": "New"), rows, bytes, time / 1000000L,
+                    (long)(rows / (time / 1000000000.0)),
+                    (allocated < 0L? "unsupported": "" + allocated / rows));
+        }
+    }
+    
+    static long allocatedBytes() {
+        ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+        if (mxBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)mxBean;
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1L;
+    }
+
+}
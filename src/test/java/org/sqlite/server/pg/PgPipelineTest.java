@@ -0,0 +1,436 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server.pg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.postgresql.util.MD5Digest;
+import org.sqlite.TestDbBase;
+import org.sqlite.server.util.IoUtils;
+
+/**Pg extended query pipelining test in the frontend/backend protocol.
+ * 
+ * @author little-pan
+ * @since 2020-01-14
+ * 
+ */
+public class PgPipelineTest extends TestDbBase {
+    
+    public static void main(String[] args) throws SQLException {
+        new PgPipelineTest().test();
+    }
+    
+    @Override
+    protected void doTest() throws SQLException {
+        try {
+            flushTest();
+            pipelineTest(1);
+            pipelineTest(10);
+            pipelineTest(100);
+            batchTest(1);
+            batchTest(10);
+            batchTest(1000);
+            portalTest();
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+    }
+    
+    private void flushTest() throws IOException {
+        Socket socket = connect();
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            
+            // The responses are sent by Flush without Sync
+            writeParse(out, "select 1");
+            writeBind(out);
+            writeExecute(out);
+            writeMessage(out, 'H', new byte[0]);
+            send(socket, buf);
+            assertTrue(readMessage(in) == '1');
+            assertTrue(readMessage(in) == '2');
+            assertTrue(readMessage(in) == 'D');
+            assertTrue(readMessage(in) == 'C');
+            
+            writeMessage(out, 'S', new byte[0]);
+            send(socket, buf);
+            assertTrue(readMessage(in) == 'Z');
+            
+            terminate(socket, buf);
+        } finally {
+            IoUtils.close(socket);
+        }
+    }
+    
+    private void pipelineTest(int n) throws IOException {
+        Socket socket = connect();
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            
+            // All messages sent in one write, then one Sync
+            for (int i = 0; i < n; ++i) {
+                writeParse(out, "select " + i);
+                writeBind(out);
+                writeExecute(out);
+                writeClose(out);
+            }
+            writeMessage(out, 'S', new byte[0]);
+            send(socket, buf);
+            for (int i = 0; i < n; ++i) {
+                assertTrue(readMessage(in) == '1');
+                assertTrue(readMessage(in) == '2');
+                assertTrue(readMessage(in) == 'D');
+                assertTrue(readMessage(in) == 'C');
+                assertTrue(readMessage(in) == '3');
+            }
+            assertTrue(readMessage(in) == 'Z');
+            
+            // Pipelined Syncs
+            for (int i = 0; i < n; ++i) {
+                writeParse(out, "select " + i);
+                writeBind(out);
+                writeExecute(out);
+                writeMessage(out, 'S', new byte[0]);
+            }
+            send(socket, buf);
+            for (int i = 0; i < n; ++i) {
+                assertTrue(readMessage(in) == '1');
+                assertTrue(readMessage(in) == '2');
+                assertTrue(readMessage(in) == 'D');
+                assertTrue(readMessage(in) == 'C');
+                assertTrue(readMessage(in) == 'Z');
+            }
+            
+            terminate(socket, buf);
+        } finally {
+            IoUtils.close(socket);
+        }
+    }
+    
+    private void batchTest(int n) throws IOException, SQLException {
+        try (Connection conn = getConnection()) {
+            Statement s = conn.createStatement();
+            s.executeUpdate("drop table if exists test_batch");
+            s.executeUpdate("create table test_batch(id integer primary key, name varchar(20))");
+            s.close();
+        }
+        
+        Socket socket = connect();
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            
+            // The repeated Bind/Execute of the same prepared executed in a batch
+            writeParse(out, "insert into test_batch(id, name)values($1, 'name')");
+            for (int i = 0; i < n; ++i) {
+                writeBind(out, i);
+                writeExecute(out);
+            }
+            writeMessage(out, 'S', new byte[0]);
+            send(socket, buf);
+            assertTrue(readMessage(in) == '1');
+            for (int i = 0; i < n; ++i) {
+                assertTrue(readMessage(in) == '2');
+                assertTrue(readMessage(in) == 'C');
+            }
+            assertTrue(readMessage(in) == 'Z');
+            
+            // Duplicated key in the batch: the implicit transaction rolled back
+            writeParse(out, "insert into test_batch(id, name)values($1, 'name')");
+            for (int i = 0; i < n; ++i) {
+                writeBind(out, i == n - 1? 0: n + i);
+                writeExecute(out);
+            }
+            writeMessage(out, 'S', new byte[0]);
+            send(socket, buf);
+            assertTrue(readMessage(in) == '1');
+            // The responses of the messages before the failed Execute kept in order
+            char last = 0;
+            try {
+                for (;;) {
+                    char type = readMessage(in);
+                    assertTrue(type == (last == '2'? 'C': '2'));
+                    last = type;
+                }
+            } catch (IOException e) {
+                // Error response expected
+            }
+            assertTrue(last == '2');
+            assertTrue(readMessage(in) == 'Z');
+            
+            terminate(socket, buf);
+        } finally {
+            IoUtils.close(socket);
+        }
+        
+        try (Connection conn = getConnection()) {
+            Statement s = conn.createStatement();
+            ResultSet rs = s.executeQuery("select count(*), sum(id) from test_batch");
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) == n);
+            assertTrue(rs.getLong(2) == (long)n * (n - 1) / 2);
+            rs.close();
+            s.executeUpdate("drop table test_batch");
+            s.close();
+        }
+    }
+    
+    private void portalTest() throws IOException, SQLException {
+        try (Connection conn = getConnection()) {
+            Statement s = conn.createStatement();
+            s.executeUpdate("drop table if exists test_portal");
+            s.executeUpdate("create table test_portal(id integer primary key)");
+            s.executeUpdate("insert into test_portal(id)values(1), (2), (3)");
+            s.close();
+        }
+        
+        Socket socket = connect();
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            
+            // Interleave two portals of one prepared: the suspended one closed by the next Bind
+            writeParse(out, "s1", "select id from test_portal where id > $1 order by id");
+            writeBind(out, "p1", "s1", 0);
+            writeExecute(out, "p1", 1);
+            writeBind(out, "p2", "s1", 1);
+            writeExecute(out, "p2", 1);
+            writeExecute(out, "p2", 0);
+            writeExecute(out, "p1", 0);
+            writeMessage(out, 'S', new byte[0]);
+            send(socket, buf);
+            assertTrue(readMessage(in) == '1');
+            assertTrue(readMessage(in) == '2');
+            assertTrue("1".equals(readDataRow(in)));
+            assertTrue(readMessage(in) == 's');
+            assertTrue(readMessage(in) == '2');
+            assertTrue("2".equals(readDataRow(in)));
+            assertTrue(readMessage(in) == 's');
+            assertTrue("3".equals(readDataRow(in)));
+            assertTrue(readMessage(in) == 'C');
+            try {
+                readMessage(in);
+                fail("The portal p1 closed");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("Portal not found"));
+            }
+            assertTrue(readMessage(in) == 'Z');
+            
+            terminate(socket, buf);
+        } finally {
+            IoUtils.close(socket);
+        }
+        
+        try (Connection conn = getConnection()) {
+            Statement s = conn.createStatement();
+            s.executeUpdate("drop table test_portal");
+            s.close();
+        }
+    }
+    
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", getPortDefault());
+        boolean failed = true;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(10000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            
+            // StartupMessage
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream bout = new DataOutputStream(body);
+            bout.writeInt(196608);
+            writeString(bout, "user");
+            writeString(bout, user);
+            writeString(bout, "database");
+            writeString(bout, getDbDefault());
+            bout.writeByte(0);
+            out.writeInt(body.size() + 4);
+            body.writeTo(out);
+            send(socket, buf);
+            
+            // MD5 authentication
+            assertTrue(in.readByte() == 'R');
+            byte[] auth = new byte[in.readInt() - 4];
+            in.readFully(auth);
+            assertTrue(auth.length == 8 && auth[3] == 5);
+            byte[] salt = {auth[4], auth[5], auth[6], auth[7]};
+            byte[] digest = MD5Digest.encode(user.getBytes(StandardCharsets.UTF_8),
+                    password.getBytes(StandardCharsets.UTF_8), salt);
+            ByteArrayOutputStream pass = new ByteArrayOutputStream();
+            pass.write(digest);
+            pass.write(0);
+            writeMessage(out, 'p', pass.toByteArray());
+            send(socket, buf);
+            while (readMessage(in) != 'Z');
+            
+            failed = false;
+            return socket;
+        } finally {
+            if (failed) {
+                IoUtils.close(socket);
+            }
+        }
+    }
+    
+    private void terminate(Socket socket, ByteArrayOutputStream buf) throws IOException {
+        writeMessage(new DataOutputStream(buf), 'X', new byte[0]);
+        send(socket, buf);
+    }
+    
+    private static void send(Socket socket, ByteArrayOutputStream buf) throws IOException {
+        socket.getOutputStream().write(buf.toByteArray());
+        socket.getOutputStream().flush();
+        buf.reset();
+    }
+    
+    private static void writeParse(DataOutputStream out, String sql) throws IOException {
+        writeParse(out, "", sql);
+    }
+    
+    private static void writeParse(DataOutputStream out, String name, String sql)
+            throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bout = new DataOutputStream(body);
+        writeString(bout, name);
+        writeString(bout, sql);
+        bout.writeShort(0);
+        writeMessage(out, 'P', body.toByteArray());
+    }
+    
+    private static void writeBind(DataOutputStream out) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bout = new DataOutputStream(body);
+        writeString(bout, "");
+        writeString(bout, "");
+        bout.writeShort(0);
+        bout.writeShort(0);
+        bout.writeShort(0);
+        writeMessage(out, 'B', body.toByteArray());
+    }
+    
+    private static void writeBind(DataOutputStream out, int param) throws IOException {
+        writeBind(out, "", "", param);
+    }
+    
+    private static void writeBind(DataOutputStream out, String portal, String prepared, int param)
+            throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bout = new DataOutputStream(body);
+        byte[] value = Integer.toString(param).getBytes(StandardCharsets.UTF_8);
+        writeString(bout, portal);
+        writeString(bout, prepared);
+        bout.writeShort(0);
+        bout.writeShort(1);
+        bout.writeInt(value.length);
+        bout.write(value);
+        bout.writeShort(0);
+        writeMessage(out, 'B', body.toByteArray());
+    }
+    
+    private static void writeExecute(DataOutputStream out) throws IOException {
+        writeExecute(out, "", 0);
+    }
+    
+    private static void writeExecute(DataOutputStream out, String portal, int maxRows)
+            throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bout = new DataOutputStream(body);
+        writeString(bout, portal);
+        bout.writeInt(maxRows);
+        writeMessage(out, 'E', body.toByteArray());
+    }
+    
+    private static void writeClose(DataOutputStream out) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bout = new DataOutputStream(body);
+        bout.writeByte('P');
+        writeString(bout, "");
+        writeMessage(out, 'C', body.toByteArray());
+    }
+    
+    private static void writeMessage(DataOutputStream out, char type, byte[] body)
+            throws IOException {
+        out.writeByte(type);
+        out.writeInt(body.length + 4);
+        out.write(body);
+    }
+    
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+        out.writeByte(0);
+    }
+    
+    /**Read the next message, skip the notice and parameter status.
+     * 
+     * @return the message type
+     */
+    private static char readMessage(DataInputStream in) throws IOException {
+        return readMessage(in, null);
+    }
+    
+    /**Read the first column of the next data row.
+     * 
+     * @return the column value in text
+     */
+    private static String readDataRow(DataInputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        assertTrue(readMessage(in, body) == 'D');
+        DataInputStream row = new DataInputStream(new ByteArrayInputStream(body.toByteArray()));
+        assertTrue(row.readShort() >= 1);
+        byte[] value = new byte[row.readInt()];
+        row.readFully(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+    
+    private static char readMessage(DataInputStream in, ByteArrayOutputStream out)
+            throws IOException {
+        for (;;) {
+            char type = (char)in.readByte();
+            byte[] body = new byte[in.readInt() - 4];
+            in.readFully(body);
+            if (type == 'E') {
+                throw new IOException("Error response: " +
+                        new String(body, StandardCharsets.UTF_8));
+            }
+            if (type != 'N' && type != 'S' && type != 'K') {
+                if (out != null) {
+                    out.write(body);
+                }
+                return type;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.server.sql.meta;
+
+import java.sql.SQLException;
+
+import org.sqlite.TestBase;
+
+/** DB privilege mask test cases
+ * 
+ * @author little-pan
+ * @since 2020-01-17
+ * 
+ */
+public class DbTest extends TestBase {
+    
+    public static void main(String args[]) throws SQLException {
+        new DbTest().test();
+    }
+    
+    @Override
+    protected void doTest() throws SQLException {
+        allPrivTest();
+        privMaskTest();
+    }
+    
+    private void allPrivTest() {
+        Db db = new Db("test", "localhost", "test");
+        db.setAllPriv(1);
+        int mask = db.getPrivMask();
+        assertTrue(Db.hasPriv(mask, "SELECT"));
+        assertTrue(Db.hasPriv(mask, "DETACH"));
+        // All commands granted by all_priv
+        assertTrue(Db.hasPriv(mask, "REINDEX"));
+        assertTrue(db.hasPriv("REINDEX"));
+    }
+    
+    private void privMaskTest() {
+        Db db = new Db("test", "localhost", "test");
+        int mask = db.getPrivMask();
+        assertTrue(mask == Db.PRIV_DETACH);
+        assertTrue(!Db.hasPriv(mask, "SELECT"));
+        assertTrue(Db.hasPriv(mask, "DETACH"));
+        
+        db.setSelectPriv(1);
+        db.setInsertPriv(1);
+        mask = db.getPrivMask();
+        assertTrue(Db.hasPriv(mask, "SELECT") && Db.hasPriv(mask, "SHOW TABLES"));
+        assertTrue(Db.hasPriv(mask, "INSERT") && Db.hasPriv(mask, "REPLACE"));
+        assertTrue(!Db.hasPriv(mask, "UPDATE"));
+        
+        // Every single privilege granted but not all_priv
+        db.setUpdatePriv(1);
+        db.setDeletePriv(1);
+        db.setCreatePriv(1);
+        db.setAlterPriv(1);
+        db.setDropPriv(1);
+        db.setPragmaPriv(1);
+        db.setVacuumPriv(1);
+        db.setAttachPriv(1);
+        mask = db.getPrivMask();
+        assertTrue(mask == Db.PRIV_ALL);
+        assertTrue(Db.hasPriv(mask, "VACUUM"));
+        assertTrue(!Db.hasPriv(mask, "REINDEX"));
+        assertTrue(!db.hasPriv("REINDEX"));
+    }
+
+}
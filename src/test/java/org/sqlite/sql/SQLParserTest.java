@@ -19,6 +19,7 @@ import java.sql.SQLException;
 import java.util.NoSuchElementException;
 
 import org.sqlite.TestBase;
+import org.sqlite.server.pg.sql.CopyStatement;
 import org.sqlite.server.pg.sql.InsertReturningStatement;
 import org.sqlite.server.sql.ShowColumnsStatement;
 import org.sqlite.server.sql.ShowCreateIndexStatement;
@@ -165,6 +166,19 @@ public class SQLParserTest extends TestBase {
         commentTest("/*select 1;/*select 2;*/select 3;*/--c", 1);
         commentTest("/*select 1;/*select 2;*/select 3;*/ --c", 1);
         
+        createTest("create table test(id int)", 1, false);
+        createTest("create table templates(id int)", 1, false);
+        createTest("create table temp_test(id int);create view tempv as select 1", 2, false);
+        createTest("create temp table test(id int)", 1, true);
+        createTest("CREATE TEMPORARY TABLE test(id int)", 1, true);
+        createTest("create/*t*/temp/*t*/view v as select 1", 1, true);
+        createTest("create table temp.test(id int)", 1, true);
+        createTest("create table \"temp\" . test(id int)", 1, true);
+        createTest("create table if not exists temp.test(id int)", 1, true);
+        createTest("create unique index temp.i on test(id)", 1, true);
+        createTest("create index i on temp_test(id)", 1, false);
+        createTest("create table tempdb.test(id int)", 1, false);
+        
         createDatabaseTest("create database testdb", 1, false, "testdb", null);
         createDatabaseTest(" create database Testdb", 1, false, "testdb", null);
         createDatabaseTest("create DATABASE Testdb ", 1, false, "testdb", null);
@@ -615,6 +629,36 @@ public class SQLParserTest extends TestBase {
         insertReturningTest(" /*returning*/insert into t(a)-- returning\n/***/ select 1 --returning\n returning/****/--\n* /***/ ",
                 1, true, null, "t", "* /***/ ");
         
+        copyTest("copy test from stdin", 1, null, "test", null, "text", null, null, false);
+        copyTest("copy test from stdin;", 1, null, "test", null, "text", null, null, false);
+        copyTest("COPY a.test(id, name) FROM STDIN ;", 1, "a", "test", "[id, name]", "text", null, null, false);
+        copyTest("copy 'a' . \"test\" ( id ,name ) from stdin;copy test from stdin", 2,
+                "a", "test", "[id, name]", "text", null, null, false);
+        copyTest("copy test from stdin delimiter '|' null as ''", 1,
+                null, "test", null, "text", "|", "", false);
+        copyTest("copy test from stdin with delimiter as E'\\t' null 'NULL';", 1,
+                null, "test", null, "text", "\t", "NULL", false);
+        copyTest("copy test from stdin with csv header", 1, null, "test", null, "csv", null, null, true);
+        copyTest("copy test from stdin with csv header delimiter ';'", 1,
+                null, "test", null, "csv", ";", null, true);
+        copyTest("copy test from stdin with (format csv)", 1, null, "test", null, "csv", null, null, false);
+        copyTest("copy test from stdin (format csv, header, delimiter ';');", 1,
+                null, "test", null, "csv", ";", null, true);
+        copyTest("copy test from stdin with ( FORMAT text , HEADER false , NULL '-' ) ;", 1,
+                null, "test", null, "text", null, "-", false);
+        copyTest("copy test(id) from stdin with (format csv, header true)--", 1,
+                null, "test", "[id]", "csv", null, null, true);
+        copyOutTest("copy test to stdout", 1, null, "test", null, "text", false);
+        copyOutTest("copy a.test(id, name) to stdout with csv header;", 1,
+                null, "test", "[id, name]", "csv", true);
+        copyOutTest("copy test to stdout binary", 1, null, "test", null, "binary", false);
+        copyOutTest("copy test to stdout (format binary);copy test from stdin", 2,
+                null, "test", null, "binary", false);
+        copyOutTest("copy (select * from test) to stdout", 1,
+                "select * from test", null, null, "text", false);
+        copyOutTest("COPY(select ')', \"(\" from test where (id > 1)) TO STDOUT (format csv);", 1,
+                "select ')', \"(\" from test where (id > 1)", null, null, "csv", false);
+        
         truncateTableTest("truncate test;", 1, null, "test");
         truncateTableTest("truncate test ;", 1, null, "test");
         truncateTableTest("truncate a.test;", 1, "a", "test");
@@ -1191,6 +1235,22 @@ public class SQLParserTest extends TestBase {
         overTest(parser, i, stmts);
     }
     
+    private void createTest(String sqls, int stmts, boolean temporary) {
+        SQLParser parser = new SQLParser(sqls);
+        int i = 0;
+        for (SQLStatement stmt: parser) {
+            info("Test CREATE %s", stmt);
+            assertTrue("CREATE".equals(stmt.getCommand()));
+            assertTrue(stmt.isTemporary() == temporary);
+            assertTrue(!stmt.isQuery());
+            assertTrue(!stmt.isEmpty());
+            assertTrue(!stmt.isComment());
+            ++i;
+            parser.remove();
+        }
+        overTest(parser, i, stmts);
+    }
+    
     private void createDatabaseTest(String sqls, int stmts, boolean quiet, String dbname, String location) {
         SQLParser parser = new SQLParser(sqls);
         int i = 0;
@@ -1712,6 +1772,70 @@ public class SQLParserTest extends TestBase {
         overTest(parser, i, stmts);
     }
     
+    private void copyTest(String sqls, int stmts, String schemaName, String tableName, String columns,
+            String format, String delimiter, String nullString, boolean header) {
+        SQLParser parser = new SQLParser(sqls);
+        int i = 0;
+        for (SQLStatement stmt: parser) {
+            info("Test COPY %s", stmt);
+            assertTrue("COPY".equals(stmt.getCommand()));
+            assertTrue(!stmt.isQuery());
+            assertTrue(!stmt.isEmpty());
+            assertTrue(!stmt.isTransaction());
+            assertTrue(!stmt.isComment());
+            
+            CopyStatement s = (CopyStatement)stmt;
+            if (i == 0) {
+                assertTrue(schemaName == s.getSchemaName() 
+                        || schemaName.equals(s.getSchemaName()));
+                assertTrue(tableName.equals(s.getTableName()));
+                if (columns == null) {
+                    assertTrue(s.getColumns() == null);
+                } else {
+                    assertTrue(columns.equals(s.getColumns().toString()));
+                }
+                assertTrue(format.equals(s.getFormat()));
+                assertTrue(delimiter == s.getDelimiter() || delimiter.equals(s.getDelimiter()));
+                assertTrue(nullString == s.getNullString() || nullString.equals(s.getNullString()));
+                assertTrue(header == s.isHeader());
+            }
+            ++i;
+            parser.remove();
+        }
+        overTest(parser, i, stmts);
+    }
+    
+    private void copyOutTest(String sqls, int stmts, String querySQL, String tableName, String columns,
+            String format, boolean header) {
+        SQLParser parser = new SQLParser(sqls);
+        int i = 0;
+        for (SQLStatement stmt: parser) {
+            info("Test COPY %s", stmt);
+            assertTrue("COPY".equals(stmt.getCommand()));
+            assertTrue(!stmt.isEmpty());
+            assertTrue(!stmt.isTransaction());
+            assertTrue(!stmt.isComment());
+            
+            CopyStatement s = (CopyStatement)stmt;
+            if (i == 0) {
+                assertTrue(stmt.isQuery());
+                assertTrue(!s.isCopyIn());
+                assertTrue(querySQL == s.getQuerySQL() || querySQL.equals(s.getQuerySQL()));
+                assertTrue(tableName == s.getTableName() || tableName.equals(s.getTableName()));
+                if (columns == null) {
+                    assertTrue(s.getColumns() == null);
+                } else {
+                    assertTrue(columns.equals(s.getColumns().toString()));
+                }
+                assertTrue(format.equals(s.getFormat()));
+                assertTrue(header == s.isHeader());
+            }
+            ++i;
+            parser.remove();
+        }
+        overTest(parser, i, stmts);
+    }
+    
     private void truncateTableTest(String sqls, int stmts, String schemaName, String tableName) {
         SQLParser parser = new SQLParser(sqls);
         int i = 0;
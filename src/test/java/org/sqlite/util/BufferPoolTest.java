@@ -0,0 +1,139 @@
+/**
+ * Copyright 2019 little-pan. A SQLite server based on the C/S architecture.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sqlite.util;
+
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+
+import org.sqlite.TestBase;
+import org.sqlite.server.util.BufferPool;
+
+/**Buffer pool test.
+ * 
+ * @author little-pan
+ * @since 2020-01-12
+ * 
+ */
+public class BufferPoolTest extends TestBase {
+    
+    public static void main(String[] args) throws SQLException {
+        new BufferPoolTest().test();
+    }
+    
+    @Override
+    protected void doTest() throws SQLException {
+        allocateTest();
+        missTest();
+        discardTest();
+    }
+    
+    private void allocateTest() {
+        BufferPool pool = new BufferPool(1 << 12, 1 << 16, 1 << 20);
+        int[] sizes = {0, 1, 4096, 4097, 8192, 10000, 1 << 15, 1 << 16};
+        int[] caps  = {4096, 4096, 4096, 8192, 8192, 16384, 1 << 15, 1 << 16};
+        for (int i = 0; i < sizes.length; ++i) {
+            ByteBuffer buf = pool.allocate(sizes[i]);
+            assertTrue(buf.isDirect());
+            assertTrue(buf.capacity() == caps[i]);
+            assertTrue(buf.position() == 0 && buf.limit() == caps[i]);
+            assertTrue(pool.getUsed() == caps[i]);
+            buf.put((byte)1);
+            pool.release(buf);
+            assertTrue(pool.getUsed() == 0);
+            
+            // Reuse the released buffer
+            ByteBuffer next = pool.allocate(sizes[i]);
+            assertTrue(next == buf);
+            assertTrue(next.position() == 0);
+            pool.release(next);
+        }
+        assertTrue(pool.getMisses() == 0);
+        assertTrue(pool.getAllocations() == sizes.length * 2);
+        // One slab per size class
+        assertTrue(pool.getSize() == 5 << 16);
+        
+        // The slices of one slab don't overlap
+        ByteBuffer a = pool.allocate(4096), b = pool.allocate(4096);
+        assertTrue(a != b);
+        a.put(0, (byte)1);
+        b.put(0, (byte)2);
+        assertTrue(a.get(0) == 1 && b.get(0) == 2);
+        pool.release(a);
+        pool.release(b);
+        assertTrue(pool.getUsed() == 0);
+        
+        // Not pooled buffers ignored
+        pool.release(ByteBuffer.allocate(4096));
+        pool.release(ByteBuffer.allocateDirect(100));
+        pool.release(ByteBuffer.allocateDirect(4096));
+        assertTrue(pool.getUsed() == 0);
+        
+        // The buffers of another pool ignored
+        BufferPool other = new BufferPool(1 << 12, 1 << 16, 1 << 20);
+        ByteBuffer foreign = other.allocate(4096);
+        a = pool.allocate(4096);
+        pool.release(foreign);
+        assertTrue(pool.getUsed() == 4096);
+        assertTrue(other.getUsed() == 4096);
+        assertTrue(pool.allocate(4096) != foreign);
+        other.release(foreign);
+        assertTrue(other.getUsed() == 0);
+    }
+    
+    private void missTest() {
+        BufferPool pool = new BufferPool(1 << 12, 1 << 16, 1 << 16);
+        // Larger than the max size class
+        ByteBuffer buf = pool.allocate((1 << 16) + 1);
+        assertTrue(!buf.isDirect());
+        assertTrue(pool.getMisses() == 1);
+        
+        // The pool full
+        ByteBuffer[] bufs = new ByteBuffer[2];
+        for (int i = 0; i < bufs.length; ++i) {
+            bufs[i] = pool.allocate(1 << 15);
+            assertTrue(bufs[i].isDirect());
+        }
+        assertTrue(pool.getSize() == 1 << 16);
+        buf = pool.allocate(1 << 12);
+        assertTrue(!buf.isDirect() && buf.capacity() == 1 << 12);
+        assertTrue(pool.getMisses() == 2);
+        assertTrue(pool.getUsed() == 1 << 16);
+        
+        for (ByteBuffer b: bufs) {
+            pool.release(b);
+        }
+        assertTrue(pool.getUsed() == 0);
+        assertTrue(pool.allocate(1 << 15).isDirect());
+    }
+    
+    private void discardTest() {
+        BufferPool pool = new BufferPool(1 << 12, 1 << 16, 1 << 16);
+        ByteBuffer buf = pool.allocate(1 << 16);
+        pool.discard(buf);
+        assertTrue(pool.getUsed() == 0);
+        // The slab memory still held
+        assertTrue(pool.getSize() == 1 << 16);
+        
+        // Never taken back
+        pool.release(buf);
+        assertTrue(pool.getUsed() == 0);
+        ByteBuffer next = pool.allocate(1 << 16);
+        assertTrue(next != buf && !next.isDirect());
+        assertTrue(pool.getMisses() == 1);
+        assertTrue(pool.getSize() == 1 << 16);
+    }
+
+}